@@ -6,6 +6,8 @@ import com.clouway.oauth2.ResourceOwnerIdentityFinder;
 import com.clouway.oauth2.authorization.ClientAuthorizer;
 import com.clouway.oauth2.client.ClientFinder;
 import com.clouway.oauth2.client.JwtKeyStore;
+import com.clouway.oauth2.client.NegativeLookupCache;
+import com.clouway.oauth2.jws.PublicKeyCache;
 import com.clouway.oauth2.common.Duration;
 import com.clouway.oauth2.exampleapp.security.SecurityModule;
 import com.clouway.oauth2.keystore.IdentityKeyPair;
@@ -40,15 +42,19 @@ public class OAuthAuthorizationServerModule extends AbstractModule {
     private final IdentityFinder identityFinder;
     private final ResourceOwnerIdentityFinder resourceOwnerIdentityFinder;
     private final JwtKeyStore jwtKeyStore;
+    private final NegativeLookupCache negativeLookupCache;
+    private final PublicKeyCache publicKeyCache;
 
     @Inject
-    public OAuth2ServletBinding(ClientAuthorizer clientAuthorizer, ClientFinder clientFinder, Tokens tokens, IdentityFinder identityFinder, ResourceOwnerIdentityFinder resourceOwnerIdentityFinder, JwtKeyStore jwtKeyStore) {
+    public OAuth2ServletBinding(ClientAuthorizer clientAuthorizer, ClientFinder clientFinder, Tokens tokens, IdentityFinder identityFinder, ResourceOwnerIdentityFinder resourceOwnerIdentityFinder, JwtKeyStore jwtKeyStore, NegativeLookupCache negativeLookupCache, PublicKeyCache publicKeyCache) {
       this.clientAuthorizer = clientAuthorizer;
       this.clientFinder = clientFinder;
       this.tokens = tokens;
       this.identityFinder = identityFinder;
       this.resourceOwnerIdentityFinder = resourceOwnerIdentityFinder;
       this.jwtKeyStore = jwtKeyStore;
+      this.negativeLookupCache = negativeLookupCache;
+      this.publicKeyCache = publicKeyCache;
     }
 
     @Override
@@ -61,6 +67,8 @@ public class OAuthAuthorizationServerModule extends AbstractModule {
               .identityFinder(identityFinder)
               .resourceOwnerIdentityFinder(resourceOwnerIdentityFinder)
               .jwtKeyStore(jwtKeyStore)
+              .negativeLookupCache(negativeLookupCache)
+              .publicKeyCache(publicKeyCache)
               .keyStore(new KeyStore() {
                 @Override
                 public List<IdentityKeyPair> getKeys() {
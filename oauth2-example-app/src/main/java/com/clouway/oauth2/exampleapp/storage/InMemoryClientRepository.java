@@ -4,8 +4,10 @@ import com.clouway.oauth2.client.Client;
 import com.clouway.oauth2.client.ClientFinder;
 import com.clouway.oauth2.client.ClientRegistrationRequest;
 import com.clouway.oauth2.client.JwtKeyStore;
+import com.clouway.oauth2.client.NegativeLookupCache;
 import com.clouway.oauth2.exampleapp.ClientRegistry;
 import com.clouway.oauth2.jws.Pem;
+import com.clouway.oauth2.jws.PublicKeyCache;
 import com.clouway.oauth2.jws.Pem.Block;
 import com.clouway.oauth2.jwt.Jwt.ClaimSet;
 import com.clouway.oauth2.jwt.Jwt.Header;
@@ -27,15 +29,20 @@ class InMemoryClientRepository implements ClientRegistry, ClientFinder, JwtKeySt
   private final Map<String, Pem.Block> serviceAccountKeys = Maps.newHashMap();
   private final Pem pem = new Pem();
   private final TokenGenerator tokenGenerator;
+  private final NegativeLookupCache negativeLookupCache;
+  private final PublicKeyCache publicKeyCache;
 
   @Inject
-  public InMemoryClientRepository(TokenGenerator tokenGenerator) {
+  public InMemoryClientRepository(TokenGenerator tokenGenerator, NegativeLookupCache negativeLookupCache, PublicKeyCache publicKeyCache) {
     this.tokenGenerator = tokenGenerator;
+    this.negativeLookupCache = negativeLookupCache;
+    this.publicKeyCache = publicKeyCache;
   }
 
   @Override
   public Client register(Client client) {
     clients.put(client.id, client);
+    negativeLookupCache.invalidate(client.id);
     return client;
   }
 
@@ -45,6 +52,7 @@ class InMemoryClientRepository implements ClientRegistry, ClientFinder, JwtKeySt
     Client client =
             new Client(randomId, request.secret, request.description, request.redirectURLs, false);
     clients.put(client.id, client);
+    negativeLookupCache.invalidate(client.id);
     return client;
   }
 
@@ -61,6 +69,9 @@ class InMemoryClientRepository implements ClientRegistry, ClientFinder, JwtKeySt
   public void registerServiceAccount(String clientEmail, String privateKeyAsPem) {
     try {
       serviceAccountKeys.put(clientEmail, pem.parse(new ByteArrayInputStream(privateKeyAsPem.getBytes())));
+      negativeLookupCache.invalidate(clientEmail);
+      // the replaced key of the service account is no longer accepted
+      publicKeyCache.invalidateIssuer(clientEmail);
     } catch (IOException e) {
       e.printStackTrace();
     }
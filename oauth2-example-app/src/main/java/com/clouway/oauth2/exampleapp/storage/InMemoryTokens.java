@@ -12,38 +12,32 @@ import com.google.common.base.Optional;
 import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 
-import java.util.Collections;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @author Ivan Stefanov <ivan.stefanov@clouway.com>
  */
 class InMemoryTokens implements Tokens {
-  private final Map<String, BearerToken> tokens = Maps.newHashMap();
-  private final Map<String, String> refreshTokenToAccessToken = Maps.newHashMap();
+  private final ConcurrentMap<String, BearerToken> tokens = Maps.newConcurrentMap();
+  private final ConcurrentMap<String, String> refreshTokenToAccessToken = Maps.newConcurrentMap();
   private final TokenGenerator tokenGenerator;
+  private final Duration timeToLive;
 
   @Inject
   public InMemoryTokens(TokenGenerator tokenGenerator, Duration timeToLive) {
     this.tokenGenerator = tokenGenerator;
+    this.timeToLive = timeToLive;
   }
 
   @Override
   public Optional<BearerToken> findTokenAvailableAt(String tokenValue, DateTime instant) {
-    if (tokens.containsKey(tokenValue)) {
-      BearerToken token = tokens.get(tokenValue);
-
-      if (!token.expiresAt(instant)) {
-        //update token expirationDate time
-        //remove the current token
-        tokens.remove(tokenValue);
-        // new instance
-        BearerToken updatedToken = new BearerToken(token.value, token.grantType, token.identityId, token.clientId, token.email, Collections.<String>emptySet(), instant, Maps.<String, String>newHashMap());
-        //add the new token
-        tokens.put(tokenValue, updatedToken);
-
-        return Optional.of(token);
-      }
+    BearerToken token = tokens.get(tokenValue);
+
+    // expiration is not changed by lookups, as it's extended in batches by SlidingTokens
+    if (token != null && !token.expiresAt(instant)) {
+      return Optional.of(token);
     }
 
     return Optional.absent();
@@ -51,22 +45,24 @@ class InMemoryTokens implements Tokens {
 
   @Override
   public TokenResponse refreshToken(String refreshToken, DateTime instant) {
-    if (refreshTokenToAccessToken.containsKey(refreshToken)) {
-      String accessToken = refreshTokenToAccessToken.get(refreshToken);
-      BearerToken oldToken = tokens.get(accessToken);
-      tokens.remove(accessToken);
-
-      String newTokenValue = tokenGenerator.generate();
-      BearerToken updatedToken = new BearerToken(newTokenValue, oldToken.grantType, oldToken.identityId, oldToken.clientId, oldToken.email, Collections.<String>emptySet(), instant, oldToken.params);
-
-      tokens.put(newTokenValue, updatedToken);
-      refreshTokenToAccessToken.put(refreshToken, newTokenValue);
+    String accessToken = refreshToken == null ? null : refreshTokenToAccessToken.get(refreshToken);
+    BearerToken oldToken = accessToken == null ? null : tokens.get(accessToken);
+    if (oldToken == null) {
+      return new TokenResponse(false, null, "");
+    }
 
-      return new TokenResponse(true, updatedToken, refreshToken);
+    String newTokenValue = tokenGenerator.generate();
+    BearerToken updatedToken = new BearerToken(newTokenValue, oldToken.grantType, oldToken.identityId, oldToken.clientId, oldToken.email, oldToken.scopes, instant.plusSeconds(timeToLive.seconds), oldToken.params);
+    tokens.put(newTokenValue, updatedToken);
 
+    // only one of the concurrent refreshes of the same token is replacing its access token
+    if (!refreshTokenToAccessToken.replace(refreshToken, accessToken, newTokenValue)) {
+      tokens.remove(newTokenValue);
+      return new TokenResponse(false, null, "");
     }
+    tokens.remove(accessToken);
 
-    return new TokenResponse(false, null, "");
+    return new TokenResponse(true, updatedToken, refreshToken);
   }
 
   @Override
@@ -74,8 +70,9 @@ class InMemoryTokens implements Tokens {
     String token = tokenGenerator.generate();
     String refreshTokenValue = tokenGenerator.generate();
 
-    BearerToken bearerToken = new BearerToken(token, GrantType.JWT, tokenRequest.identity.id(), tokenRequest.client.id, tokenRequest.identity.email(), tokenRequest.scopes, tokenRequest.when, tokenRequest.params);
+    BearerToken bearerToken = new BearerToken(token, GrantType.JWT, tokenRequest.identity.id(), tokenRequest.client.id, tokenRequest.identity.email(), tokenRequest.scopes, tokenRequest.when.plusSeconds(timeToLive.seconds), tokenRequest.params);
     tokens.put(token, bearerToken);
+    refreshTokenToAccessToken.put(refreshTokenValue, token);
 
     return new TokenResponse(true, bearerToken, refreshTokenValue);
   }
@@ -84,4 +81,44 @@ class InMemoryTokens implements Tokens {
   public void revokeToken(String token) {
     tokens.remove(token);
   }
-}
\ No newline at end of file
+
+  @Override
+  public int revokeAllForIdentity(String identityId) {
+    return revokeAll(identityId, true);
+  }
+
+  @Override
+  public int revokeAllForClient(String clientId) {
+    return revokeAll(clientId, false);
+  }
+
+  @Override
+  public void extendExpirations(Map<String, DateTime> expirations) {
+    for (Map.Entry<String, DateTime> each : expirations.entrySet()) {
+      BearerToken token = tokens.get(each.getKey());
+      if (token != null && each.getValue().timestamp() > token.expirationTimestamp()) {
+        tokens.replace(token.value, token, new BearerToken(token.value, token.grantType, token.identityId, token.clientId, token.email, token.scopes, each.getValue(), token.params));
+      }
+    }
+  }
+
+  /**
+   * Revokes the grants of the provided identity or client by scanning all of them, which is enough for an example.
+   */
+  private int revokeAll(String id, boolean identity) {
+    int revoked = 0;
+    for (Iterator<Map.Entry<String, String>> it = refreshTokenToAccessToken.entrySet().iterator(); it.hasNext(); ) {
+      Map.Entry<String, String> each = it.next();
+      BearerToken token = tokens.get(each.getValue());
+      if (token == null) {
+        continue;
+      }
+      if (id.equals(identity ? token.identityId : token.clientId)) {
+        it.remove();
+        tokens.remove(token.value);
+        revoked++;
+      }
+    }
+    return revoked;
+  }
+}
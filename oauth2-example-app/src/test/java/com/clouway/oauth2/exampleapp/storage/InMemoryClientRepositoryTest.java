@@ -3,15 +3,20 @@ package com.clouway.oauth2.exampleapp.storage;
 import com.clouway.oauth2.client.Client;
 import com.clouway.oauth2.client.ClientFinder;
 import com.clouway.oauth2.client.ClientRegistrationRequest;
+import com.clouway.oauth2.client.NegativeLookupCache;
 import com.clouway.oauth2.exampleapp.ClientRegistry;
+import com.clouway.oauth2.jws.PublicKeyCache;
+import com.clouway.oauth2.token.UrlSafeTokenGenerator;
 import com.google.common.base.Optional;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * @author Ivan Stefanov <ivan.stefanov@clouway.com>
  */
 public class InMemoryClientRepositoryTest implements ClientFinder, ClientRegistry {
 
-  private InMemoryClientRepository repository = new InMemoryClientRepository();
+  private InMemoryClientRepository repository = new InMemoryClientRepository(new UrlSafeTokenGenerator(), NegativeLookupCache.disabled(), new PublicKeyCache(10, 5, TimeUnit.MINUTES));
 
   @Override
   public Client register(Client client) {
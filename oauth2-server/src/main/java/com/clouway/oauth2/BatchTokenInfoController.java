@@ -0,0 +1,85 @@
+package com.clouway.oauth2;
+
+import com.clouway.friendlyserve.Request;
+import com.clouway.friendlyserve.Response;
+import com.clouway.friendlyserve.RsJson;
+import com.clouway.oauth2.client.Client;
+import com.clouway.oauth2.client.ClientCredentials;
+import com.clouway.oauth2.client.ClientFinder;
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.token.BearerToken;
+import com.clouway.oauth2.token.Tokens;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BatchTokenInfoController is returning the info of many access tokens, which are looked up with a single call of
+ * {@link Tokens#findTokensAvailableAt}, so gateways which are validating many tokens are not making a request for
+ * each of them.
+ * <p/>
+ * Tokens are passed in the access_tokens param separated by commas or spaces. The info of each token is returned in
+ * the order of the tokens, with active set to false for the tokens which are not available. ID tokens are not
+ * returned, as each of them is requiring a lookup of the identity.
+ * <p/>
+ * Only authenticated clients are allowed to make batch requests, as they could be used to probe many tokens at once.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+class BatchTokenInfoController implements ClientRequest {
+  static final int MAX_TOKENS = 100;
+
+  private final ClientFinder clientFinder;
+  private final Tokens tokens;
+
+  BatchTokenInfoController(ClientFinder clientFinder, Tokens tokens) {
+    this.clientFinder = clientFinder;
+    this.tokens = tokens;
+  }
+
+  @Override
+  public Response handleAsOf(Request request, ClientCredentials credentials, DateTime instantTime) {
+    Optional<Client> possibleClient = clientFinder.findClient(credentials.clientId());
+    if (!possibleClient.isPresent()) {
+      return OAuthError.unauthorizedClient("A client with id:" + credentials.clientId() + " was either not found or is not authorized.");
+    }
+
+    if (!possibleClient.get().credentialsMatch(credentials)) {
+      return OAuthError.unauthorizedClient("Client credentials mismatch.");
+    }
+
+    List<String> accessTokens = Splitter.on(CharMatcher.anyOf(", ")).omitEmptyStrings().splitToList(request.param("access_tokens"));
+    if (accessTokens.isEmpty()) {
+      return OAuthError.invalidRequest("No access tokens");
+    }
+    if (accessTokens.size() > MAX_TOKENS) {
+      return OAuthError.invalidRequest("At most " + MAX_TOKENS + " access tokens are allowed");
+    }
+
+    Map<String, BearerToken> found = tokens.findTokensAvailableAt(new LinkedHashSet<String>(accessTokens), instantTime);
+
+    JsonArray infos = new JsonArray();
+    for (String each : accessTokens) {
+      BearerToken token = found.get(each);
+      JsonObject info;
+      if (token == null) {
+        info = new JsonObject();
+        info.addProperty("active", false);
+      } else {
+        info = TokenInfoController.tokenInfo(token, instantTime);
+        info.addProperty("active", true);
+      }
+      infos.add(info);
+    }
+
+    JsonObject o = new JsonObject();
+    o.add("tokens", infos);
+    return new RsJson(o);
+  }
+}
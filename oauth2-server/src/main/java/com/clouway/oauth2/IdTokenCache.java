@@ -0,0 +1,191 @@
+package com.clouway.oauth2;
+
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.common.Duration;
+import com.clouway.oauth2.token.BearerToken;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * IdTokenCache is keeping the id_tokens that were signed on the tokenInfo endpoint, so repeated introspection of the
+ * same access token is not signing a new id_token on each call.
+ * <p/>
+ * Entries are keyed by the SHA-256 digest of the access token and are valid until the access token expires, but no
+ * longer than the configured max age, so changes of the identity are reflected in the id_token after that time. The
+ * id_token of a revoked token is removed by {@link #invalidate(String)}. Revoked tokens are never answered from the
+ * cache as the token is looked up before the cache.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public final class IdTokenCache {
+
+  public static Builder newIdTokenCache() {
+    return new Builder();
+  }
+
+  /**
+   * Creates a cache which is not keeping any id_tokens.
+   */
+  public static IdTokenCache disabled() {
+    return new Builder().maxEntries(0).build();
+  }
+
+  public static final class Builder {
+    private long maxEntries = 10000;
+    private Duration maxAge = Duration.minutes(10);
+
+    private Builder() {
+    }
+
+    /**
+     * Sets the max number of id_tokens that are kept. Default is 10 000.
+     */
+    public Builder maxEntries(long maxEntries) {
+      this.maxEntries = maxEntries;
+      return this;
+    }
+
+    /**
+     * Sets how long an id_token is returned before it's signed again with the current identity. Default is 10
+     * minutes.
+     */
+    public Builder maxAge(Duration maxAge) {
+      this.maxAge = maxAge;
+      return this;
+    }
+
+    public IdTokenCache build() {
+      return new IdTokenCache(this);
+    }
+  }
+
+  private static final class Entry {
+    private final String host;
+    private final String idToken;
+    private final long createdAt;
+    private final long expiresAt;
+
+    Entry(String host, String idToken, long createdAt, long expiresAt) {
+      this.host = host;
+      this.idToken = idToken;
+      this.createdAt = createdAt;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  private final boolean enabled;
+  private final long maxAgeMillis;
+  private final Cache<HashCode, Entry> cache;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  private IdTokenCache(Builder builder) {
+    this.enabled = builder.maxEntries > 0;
+    this.maxAgeMillis = builder.maxAge.asMills();
+    this.cache = CacheBuilder.newBuilder()
+            .maximumSize(builder.maxEntries)
+            .expireAfterWrite(maxAgeMillis, TimeUnit.MILLISECONDS)
+            .build();
+  }
+
+  /**
+   * Gets the id_token that was signed for the provided access token.
+   *
+   * @param token   the access token
+   * @param host    the host of the request which is the issuer of the id_token
+   * @param instant the time of the request
+   * @return the id_token or absent value if it's not cached, was issued for another host or is no longer valid
+   */
+  public Optional<String> get(BearerToken token, String host, DateTime instant) {
+    if (!enabled) {
+      return Optional.absent();
+    }
+
+    HashCode key = keyOf(token.value);
+    Entry entry = cache.getIfPresent(key);
+
+    if (entry != null) {
+      long now = instant.timestamp();
+      if (now < entry.expiresAt && now - entry.createdAt < maxAgeMillis && entry.host.equals(host)) {
+        hits.incrementAndGet();
+        return Optional.of(entry.idToken);
+      }
+      cache.asMap().remove(key, entry);
+    }
+
+    misses.incrementAndGet();
+    return Optional.absent();
+  }
+
+  /**
+   * Keeps the id_token that was signed for the provided access token until the access token expires.
+   *
+   * @param token   the access token
+   * @param host    the host of the request which is the issuer of the id_token
+   * @param idToken the signed id_token
+   * @param instant the time at which id_token was signed
+   */
+  public void put(BearerToken token, String host, String idToken, DateTime instant) {
+    if (!enabled || host == null) {
+      return;
+    }
+    cache.put(keyOf(token.value), new Entry(host, idToken, instant.timestamp(), token.expirationTimestamp()));
+  }
+
+  /**
+   * Removes the id_token of the provided access token, e.g. when the token is revoked.
+   *
+   * @param accessToken the value of the access token
+   */
+  public void invalidate(String accessToken) {
+    if (enabled) {
+      cache.invalidate(keyOf(accessToken));
+    }
+  }
+
+  public Stats stats() {
+    return new Stats(hits.get(), misses.get(), cache.size());
+  }
+
+  private HashCode keyOf(String accessToken) {
+    return Hashing.sha256().hashString(accessToken, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Stats is a snapshot of the usage of the cache.
+   */
+  public static final class Stats {
+    /**
+     * Number of requests that got the cached id_token.
+     */
+    public final long hits;
+    /**
+     * Number of requests for which id_token was not cached.
+     */
+    public final long misses;
+    /**
+     * Number of the cached id_tokens.
+     */
+    public final long size;
+
+    Stats(long hits, long misses, long size) {
+      this.hits = hits;
+      this.misses = misses;
+      this.size = size;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this).add("hits", hits).add("misses", misses).add("size", size).toString();
+    }
+  }
+}
@@ -7,6 +7,7 @@ import com.clouway.oauth2.common.DateTime;
 import com.clouway.oauth2.token.BearerToken;
 import com.clouway.oauth2.token.GrantType;
 import com.clouway.oauth2.token.IdTokenFactory;
+import com.clouway.oauth2.token.IdTokenPolicy;
 import com.clouway.oauth2.token.TokenResponse;
 import com.clouway.oauth2.token.Tokens;
 import com.clouway.oauth2.token.Identity;
@@ -26,10 +27,12 @@ import static com.clouway.oauth2.token.TokenRequest.newTokenRequest;
 class IssueNewTokenActivity implements AuthorizedIdentityActivity {
   private final Tokens tokens;
   private final IdTokenFactory idTokenFactory;
+  private final IdTokenPolicy idTokenPolicy;
 
-  IssueNewTokenActivity(Tokens tokens, IdTokenFactory idTokenFactory) {
+  IssueNewTokenActivity(Tokens tokens, IdTokenFactory idTokenFactory, IdTokenPolicy idTokenPolicy) {
     this.tokens = tokens;
     this.idTokenFactory = idTokenFactory;
+    this.idTokenPolicy = idTokenPolicy;
   }
 
   @Override
@@ -49,6 +52,11 @@ class IssueNewTokenActivity implements AuthorizedIdentityActivity {
     }
 
     BearerToken accessToken = response.accessToken;
+
+    if (!idTokenPolicy.isIdTokenRequired(client.id, scopes)) {
+      return new BearerTokenResponse(accessToken.value, accessToken.ttlSeconds(instant), accessToken.scopes, response.refreshToken);
+    }
+
     Optional<String> possibleIdToken = idTokenFactory.create(
             request.header("Host"),
             client.id,
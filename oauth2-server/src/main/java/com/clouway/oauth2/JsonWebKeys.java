@@ -0,0 +1,111 @@
+package com.clouway.oauth2;
+
+import com.clouway.oauth2.jws.JwsAlgorithm;
+import com.clouway.oauth2.keystore.IdentityKeyPair;
+import com.google.common.base.Optional;
+import com.google.common.io.BaseEncoding;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.math.BigInteger;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * JsonWebKeys is encoding the public keys as JSON Web Key Set.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ * @see <a href="https://tools.ietf.org/html/rfc7517">JSON Web Key (JWK)</a>
+ * @see <a href="https://tools.ietf.org/html/rfc8037#section-2">Octet Key Pair</a>
+ */
+final class JsonWebKeys {
+  private static final BaseEncoding BASE64_URL = BaseEncoding.base64Url().omitPadding();
+
+  // Ed25519 public keys are the last 32 bytes of their X.509 encoding
+  private static final int ED25519_KEY_LENGTH = 32;
+
+  private JsonWebKeys() {
+  }
+
+  /**
+   * Encodes the provided keys as a key set. Keys of unsupported types are not part of the set.
+   *
+   * @param keys the keys to be encoded
+   * @return the key set
+   */
+  static JsonObject keySetOf(List<IdentityKeyPair> keys) {
+    JsonArray jwks = new JsonArray();
+    for (IdentityKeyPair each : keys) {
+      Optional<JsonObject> possibleJwk = jwkOf(each);
+      if (possibleJwk.isPresent()) {
+        jwks.add(possibleJwk.get());
+      }
+    }
+
+    JsonObject o = new JsonObject();
+    o.add("keys", jwks);
+    return o;
+  }
+
+  private static Optional<JsonObject> jwkOf(IdentityKeyPair key) {
+    PublicKey publicKey = key.publicKey;
+    JwsAlgorithm algorithm = key.algorithm;
+
+    JsonObject o = new JsonObject();
+    switch (algorithm) {
+      case RS256:
+        if (!(publicKey instanceof RSAPublicKey)) {
+          return Optional.absent();
+        }
+        RSAPublicKey rsaKey = (RSAPublicKey) publicKey;
+        o.addProperty("kty", "RSA");
+        o.addProperty("n", BASE64_URL.encode(unsigned(rsaKey.getModulus(), 0)));
+        o.addProperty("e", BASE64_URL.encode(unsigned(rsaKey.getPublicExponent(), 0)));
+        break;
+      case ES256:
+      case ES384:
+        if (!(publicKey instanceof ECPublicKey)) {
+          return Optional.absent();
+        }
+        ECPublicKey ecKey = (ECPublicKey) publicKey;
+        int coordinateLength = (ecKey.getParams().getCurve().getField().getFieldSize() + 7) / 8;
+        o.addProperty("kty", "EC");
+        o.addProperty("crv", algorithm == JwsAlgorithm.ES256 ? "P-256" : "P-384");
+        o.addProperty("x", BASE64_URL.encode(unsigned(ecKey.getW().getAffineX(), coordinateLength)));
+        o.addProperty("y", BASE64_URL.encode(unsigned(ecKey.getW().getAffineY(), coordinateLength)));
+        break;
+      case EdDSA:
+        byte[] encoded = publicKey.getEncoded();
+        if (encoded == null || encoded.length < ED25519_KEY_LENGTH) {
+          return Optional.absent();
+        }
+        o.addProperty("kty", "OKP");
+        o.addProperty("crv", "Ed25519");
+        o.addProperty("x", BASE64_URL.encode(Arrays.copyOfRange(encoded, encoded.length - ED25519_KEY_LENGTH, encoded.length)));
+        break;
+      default:
+        return Optional.absent();
+    }
+
+    o.addProperty("kid", key.keyId);
+    o.addProperty("use", "sig");
+    o.addProperty("alg", algorithm.name());
+    return Optional.of(o);
+  }
+
+  /**
+   * Gets the big-endian bytes of the value without the sign byte, left padded with zeros to the provided length.
+   */
+  private static byte[] unsigned(BigInteger value, int length) {
+    byte[] bytes = value.toByteArray();
+    int offset = bytes.length > 1 && bytes[0] == 0 ? 1 : 0;
+    int valueLength = bytes.length - offset;
+
+    byte[] result = new byte[Math.max(length, valueLength)];
+    System.arraycopy(bytes, offset, result, result.length - valueLength, valueLength);
+    return result;
+  }
+}
@@ -5,14 +5,17 @@ import com.clouway.friendlyserve.Response;
 import com.clouway.oauth2.common.DateTime;
 import com.clouway.oauth2.client.Client;
 import com.clouway.oauth2.client.JwtKeyStore;
-import com.clouway.oauth2.jws.Pem;
 import com.clouway.oauth2.jws.Signature;
 import com.clouway.oauth2.jws.SignatureFactory;
+import com.clouway.oauth2.jwt.AssertionValidator;
+import com.clouway.oauth2.jwt.AssertionValidator.Rejection;
+import com.clouway.oauth2.jwt.CompactJwt;
 import com.clouway.oauth2.jwt.Jwt.ClaimSet;
 import com.clouway.oauth2.jwt.Jwt.Header;
 import com.clouway.oauth2.token.BearerToken;
 import com.clouway.oauth2.token.GrantType;
 import com.clouway.oauth2.token.IdTokenFactory;
+import com.clouway.oauth2.token.IdTokenPolicy;
 import com.clouway.oauth2.token.TokenResponse;
 import com.clouway.oauth2.token.Tokens;
 import com.clouway.oauth2.token.FindIdentityRequest;
@@ -21,13 +24,10 @@ import com.clouway.oauth2.token.IdentityFinder;
 import com.clouway.oauth2.util.Params;
 import com.google.common.base.Optional;
 import com.google.common.base.Splitter;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
-import com.google.common.io.BaseEncoding;
-import com.google.gson.Gson;
 
+import java.security.PublicKey;
 import java.util.Collections;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -37,20 +37,26 @@ import static com.clouway.oauth2.token.TokenRequest.newTokenRequest;
  * @author Miroslav Genov (miroslav.genov@clouway.com)
  */
 public class JwtController implements InstantaneousRequest {
-  private final Gson gson = new Gson();
-
   private final SignatureFactory signatureFactory;
   private final Tokens tokens;
   private final JwtKeyStore keyStore;
   private final IdentityFinder identityFinder;
   private final IdTokenFactory idTokenFactory;
+  private final AssertionValidator assertionValidator;
+  private final JwtReplayCache replayCache;
+  private final JwtIssueCache issueCache;
+  private final IdTokenPolicy idTokenPolicy;
 
-  public JwtController(SignatureFactory signatureFactory, Tokens tokens, JwtKeyStore keyStore, IdentityFinder identityFinder, IdTokenFactory idTokenFactory) {
+  public JwtController(SignatureFactory signatureFactory, Tokens tokens, JwtKeyStore keyStore, IdentityFinder identityFinder, IdTokenFactory idTokenFactory, AssertionValidator assertionValidator, JwtReplayCache replayCache, JwtIssueCache issueCache, IdTokenPolicy idTokenPolicy) {
     this.signatureFactory = signatureFactory;
     this.tokens = tokens;
     this.keyStore = keyStore;
     this.identityFinder = identityFinder;
     this.idTokenFactory = idTokenFactory;
+    this.assertionValidator = assertionValidator;
+    this.replayCache = replayCache;
+    this.issueCache = issueCache;
+    this.idTokenPolicy = idTokenPolicy;
   }
 
   @Override
@@ -58,44 +64,76 @@ public class JwtController implements InstantaneousRequest {
     String assertion = request.param("assertion");
     String scope = request.param("scope") == null ? "" : request.param("scope");
 
-    List<String> parts = Lists.newArrayList(Splitter.on(".").split(assertion));
+    // Assertions that could never be accepted are rejected before any key lookup or signature verification
+    AssertionValidator.Result result = assertionValidator.validate(assertion, instant);
+    if (!result.isAccepted()) {
+      return rejected(result.rejection());
+    }
+
+    CompactJwt jwt = result.jwt();
+
+    Set<String> scopes = Sets.newTreeSet(Splitter.on(" ").omitEmptyStrings().split(scope));
+    Map<String, String> params = new Params().parse(request, "assertion", "scope");
+
+    // Identical requests within the window are getting the token that was issued for the first of them
+    JwtIssueCache.Ticket ticket = issueCache.acquire(jwt, request.header("Host"), scopes, params);
+    Optional<JwtIssueCache.Issued> possibleIssued = Optional.absent();
+    if (!ticket.isLeader()) {
+      possibleIssued = ticket.await();
+    }
 
-    // Error should be returned if any of the header parts is missing
-    if (parts.size() != 3) {
-      return OAuthError.invalidRequest("bad request was provided");
+    // The same assertion was already verified and exchanged, so key lookup and signature verification are skipped.
+    // It's checked after waiting for the leader, so followers are not getting a token when replays are rejected.
+    if (replayCache.isEnabled()) {
+      JwtReplayCache.Lookup lookup = replayCache.lookup(jwt, instant);
+      if (lookup.isRepeated()) {
+        ticket.release();
+        return repeated(lookup.entry(), scopes, instant);
+      }
     }
 
-    String headerContent = parts.get(0);
-    String headerValue = new String(BaseEncoding.base64Url().decode(headerContent));
-    String content = new String(BaseEncoding.base64Url().decode(parts.get(1)));
+    if (possibleIssued.isPresent() && !possibleIssued.get().response.accessToken.expiresAt(instant)) {
+      JwtIssueCache.Issued issued = possibleIssued.get();
+      return bearerTokenResponse(issued.response, issued.idToken, instant);
+    }
 
-    byte[] signatureValue = BaseEncoding.base64Url().decode(parts.get(2));
+    try {
+      return exchange(request, instant, jwt, scopes, params, ticket);
+    } finally {
+      ticket.release();
+    }
+  }
 
-    Header header = gson.fromJson(headerValue, Header.class);
-    ClaimSet claimSet = gson.fromJson(content, ClaimSet.class);
+  private Response exchange(Request request, DateTime instant, CompactJwt jwt, Set<String> scopes, Map<String, String> params, JwtIssueCache.Ticket ticket) {
+    Header header = jwt.header;
+    ClaimSet claimSet = jwt.claimSet;
 
-    Optional<Pem.Block> possibleResponse = keyStore.findKey(header, claimSet);
+    Optional<PublicKey> possibleResponse = keyStore.findPublicKey(header, claimSet);
 
     if (!possibleResponse.isPresent()) {
       return OAuthError.invalidGrant("unknown claims");
     }
 
-    Pem.Block serviceAccountKey = possibleResponse.get();
+    PublicKey serviceAccountKey = possibleResponse.get();
 
-    Optional<Signature> optSignature = signatureFactory.createSignature(signatureValue, header);
+    Optional<Signature> optSignature = signatureFactory.createSignature(jwt.signature(), header);
 
     // Unknown signture was provided, so we are returning request as invalid.
     if (!optSignature.isPresent()) {
       return OAuthError.invalidRequest("Unknown signature was provided.");
     }
 
-    byte[] headerAndContentAsBytes = String.format("%s.%s", parts.get(0), parts.get(1)).getBytes();
-
-    if (!optSignature.get().verifyWithPrivateKey(headerAndContentAsBytes, serviceAccountKey)) {
+    if (!optSignature.get().verify(jwt.content(), 0, jwt.signingInputLength(), serviceAccountKey)) {
       return OAuthError.invalidGrant("Invalid signature was provided.");
     }
 
-    Map<String, String> params = new Params().parse(request, "assertion", "scope");
+    Optional<JwtReplayCache.Entry> possibleEntry = Optional.absent();
+    if (replayCache.isEnabled()) {
+      possibleEntry = replayCache.register(jwt, instant);
+      if (!possibleEntry.isPresent()) {
+        return OAuthError.invalidGrant("assertion was already used");
+      }
+    }
 
     Optional<Identity> possibleIdentity = identityFinder.findIdentity(new FindIdentityRequest(claimSet.iss, GrantType.JWT, instant, params, ""));
 
@@ -105,7 +143,6 @@ public class JwtController implements InstantaneousRequest {
 
     Identity identity = possibleIdentity.get();
 
-    Set<String> scopes = Sets.newTreeSet(Splitter.on(" ").omitEmptyStrings().split(scope));
     Client client = new Client(claimSet.iss, "", "", Collections.<String>emptySet(), false);
 
     TokenResponse response = tokens.issueToken(
@@ -119,14 +156,61 @@ public class JwtController implements InstantaneousRequest {
                     .build());
 
     if (!response.isSuccessful()) {
+      if (possibleEntry.isPresent()) {
+        replayCache.discard(possibleEntry.get());
+      }
       return OAuthError.invalidRequest("tokens issuing is temporary unavailable");
     }
 
     BearerToken accessToken = response.accessToken;
-    Optional<String> possibleIdToken = idTokenFactory.create(request.header("Host"), client.id, identity, accessToken.ttlSeconds(instant), instant);
+    Optional<String> possibleIdToken = Optional.absent();
+    if (idTokenPolicy.isIdTokenRequired(client.id, scopes)) {
+      possibleIdToken = idTokenFactory.create(request.header("Host"), client.id, identity, accessToken.ttlSeconds(instant), instant);
+    }
+
+    if (possibleEntry.isPresent()) {
+      replayCache.complete(possibleEntry.get(), scopes, response, possibleIdToken);
+    }
+    ticket.complete(response, possibleIdToken);
+
+    return bearerTokenResponse(response, possibleIdToken, instant);
+  }
+
+  private Response repeated(JwtReplayCache.Entry entry, Set<String> scopes, DateTime instant) {
+    Optional<TokenResponse> possibleResponse = entry.response();
+
+    // Token is returned again only if it was issued for the same scopes and it's still valid
+    if (replayCache.mode() != JwtReplayCache.Mode.REUSE || !possibleResponse.isPresent() || !scopes.equals(entry.scopes())) {
+      return OAuthError.invalidGrant("assertion was already used");
+    }
+
+    if (possibleResponse.get().accessToken.expiresAt(instant)) {
+      return OAuthError.invalidGrant("assertion was already used");
+    }
+
+    return bearerTokenResponse(possibleResponse.get(), entry.idToken(), instant);
+  }
+
+  private Response bearerTokenResponse(TokenResponse response, Optional<String> possibleIdToken, DateTime instant) {
+    BearerToken accessToken = response.accessToken;
     if (possibleIdToken.isPresent()) {
       return new BearerTokenResponse(accessToken.value, accessToken.ttlSeconds(instant), accessToken.scopes, response.refreshToken, possibleIdToken.get());
     }
     return new BearerTokenResponse(accessToken.value, accessToken.ttlSeconds(instant), accessToken.scopes, response.refreshToken);
   }
-}
\ No newline at end of file
+
+  private Response rejected(Rejection rejection) {
+    switch (rejection) {
+      case OVERSIZED:
+        return OAuthError.invalidRequest("assertion is too large");
+      case EXPIRED:
+        return OAuthError.invalidGrant("assertion is expired");
+      case NOT_YET_VALID:
+        return OAuthError.invalidGrant("assertion is not valid yet");
+      case INVALID_AUDIENCE:
+        return OAuthError.invalidGrant("invalid audience");
+      default:
+        return OAuthError.invalidRequest("bad request was provided");
+    }
+  }
+}
@@ -0,0 +1,256 @@
+package com.clouway.oauth2;
+
+import com.clouway.oauth2.common.Duration;
+import com.clouway.oauth2.jwt.CompactJwt;
+import com.clouway.oauth2.token.TokenResponse;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JwtIssueCache is keeping the tokens that were issued for JWT-bearer assertions for a short window, so identical
+ * requests are answered with the same token instead of issuing a new one.
+ * <p/>
+ * Requests are identical when they are having the same decoded assertion, host, scopes and custom params. The first
+ * of the concurrent identical requests is the leader which is issuing the token and all others are waiting for it's
+ * result instead of racing to issue their own tokens. If the leader fails to issue a token, the waiting requests are
+ * handled as usual.
+ * <p/>
+ * The cache is disabled by default and should be enabled only when clients are expected to present the same
+ * assertion many times within a short window.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public final class JwtIssueCache {
+
+  public static Builder newIssueCache() {
+    return new Builder();
+  }
+
+  /**
+   * Creates a cache which is not keeping any tokens.
+   */
+  public static JwtIssueCache disabled() {
+    return new Builder().window(Duration.seconds(0L)).build();
+  }
+
+  public static final class Builder {
+    private Duration window = Duration.seconds(5L);
+    private long maxEntries = 10000;
+    private Duration waitTimeout = Duration.seconds(10L);
+
+    private Builder() {
+    }
+
+    /**
+     * Sets how long issued tokens are returned for identical requests. Default is 5 seconds.
+     */
+    public Builder window(Duration window) {
+      this.window = window;
+      return this;
+    }
+
+    /**
+     * Sets the max number of issued tokens that are kept. Default is 10 000.
+     */
+    public Builder maxEntries(long maxEntries) {
+      this.maxEntries = maxEntries;
+      return this;
+    }
+
+    /**
+     * Sets how long requests are waiting for the leader to issue the token. Default is 10 seconds.
+     */
+    public Builder waitTimeout(Duration waitTimeout) {
+      this.waitTimeout = waitTimeout;
+      return this;
+    }
+
+    public JwtIssueCache build() {
+      return new JwtIssueCache(this);
+    }
+  }
+
+  /**
+   * Issued is a token that was issued for a request.
+   */
+  public static final class Issued {
+    public final TokenResponse response;
+    public final Optional<String> idToken;
+
+    Issued(TokenResponse response, Optional<String> idToken) {
+      this.response = response;
+      this.idToken = idToken;
+    }
+  }
+
+  /**
+   * Ticket is the place of the request in the cache. The leader must either {@link #complete} or
+   * {@link #release} it's ticket.
+   */
+  public final class Ticket {
+    private final HashCode key;
+    private final SettableFuture<Issued> future;
+    private final boolean leader;
+
+    private Ticket(HashCode key, SettableFuture<Issued> future, boolean leader) {
+      this.key = key;
+      this.future = future;
+      this.leader = leader;
+    }
+
+    public boolean isLeader() {
+      return leader;
+    }
+
+    /**
+     * Waits for the leader to issue the token.
+     *
+     * @return the issued token or absent value if leader failed or it's not responding
+     */
+    public Optional<Issued> await() {
+      try {
+        Optional<Issued> issued = Optional.fromNullable(future.get(waitTimeoutMillis, TimeUnit.MILLISECONDS));
+        if (issued.isPresent()) {
+          hits.incrementAndGet();
+        } else {
+          fallbacks.incrementAndGet();
+        }
+        return issued;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException | TimeoutException e) {
+        // the request is handled by the caller in this case
+      }
+      fallbacks.incrementAndGet();
+      return Optional.absent();
+    }
+
+    /**
+     * Publishes the issued token to all waiting and following identical requests.
+     */
+    public void complete(TokenResponse response, Optional<String> idToken) {
+      if (leader) {
+        future.set(new Issued(response, idToken));
+      }
+    }
+
+    /**
+     * Releases the ticket if token was not issued, so the waiting requests are handled as usual.
+     */
+    public void release() {
+      if (leader && future.set(null) && key != null) {
+        cache.asMap().remove(key, future);
+      }
+    }
+  }
+
+  private final boolean enabled;
+  private final long waitTimeoutMillis;
+  private final Cache<HashCode, SettableFuture<Issued>> cache;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong fallbacks = new AtomicLong();
+
+  private JwtIssueCache(Builder builder) {
+    this.enabled = builder.window.seconds > 0;
+    this.waitTimeoutMillis = builder.waitTimeout.asMills();
+    this.cache = CacheBuilder.newBuilder()
+            .maximumSize(builder.maxEntries)
+            .expireAfterWrite(builder.window.asMills(), TimeUnit.MILLISECONDS)
+            .build();
+  }
+
+  /**
+   * Acquires a ticket for the provided request. If cache is disabled every request is a leader.
+   *
+   * @param jwt    the received assertion
+   * @param host   the host of the request which is used as issuer of the ID token
+   * @param scopes the requested scopes
+   * @param params the custom params of the request
+   * @return the ticket of the request
+   */
+  public Ticket acquire(CompactJwt jwt, String host, Set<String> scopes, Map<String, String> params) {
+    if (!enabled) {
+      return new Ticket(null, SettableFuture.<Issued>create(), true);
+    }
+
+    HashCode key = keyOf(jwt, host, scopes, params);
+    SettableFuture<Issued> future = SettableFuture.create();
+
+    SettableFuture<Issued> existing = cache.asMap().putIfAbsent(key, future);
+    if (existing != null) {
+      return new Ticket(key, existing, false);
+    }
+
+    misses.incrementAndGet();
+    return new Ticket(key, future, true);
+  }
+
+  public Stats stats() {
+    return new Stats(hits.get(), misses.get(), fallbacks.get());
+  }
+
+  private HashCode keyOf(CompactJwt jwt, String host, Set<String> scopes, Map<String, String> params) {
+    // the decoded assertion is used, so re-encodings of it are collapsed too
+    Hasher hasher = Hashing.sha256().newHasher().putBytes(jwt.digest().asBytes());
+    hasher.putString(String.valueOf(host), StandardCharsets.UTF_8).putByte((byte) 1);
+
+    for (String scope : new TreeSet<>(scopes)) {
+      hasher.putByte((byte) 0).putString(scope, StandardCharsets.UTF_8);
+    }
+    hasher.putByte((byte) 1);
+
+    for (Map.Entry<String, String> param : new TreeMap<>(params).entrySet()) {
+      hasher.putByte((byte) 0).putString(param.getKey(), StandardCharsets.UTF_8)
+              .putByte((byte) 0).putString(String.valueOf(param.getValue()), StandardCharsets.UTF_8);
+    }
+
+    return hasher.hash();
+  }
+
+  /**
+   * Stats is a snapshot of the usage of the cache.
+   */
+  public static final class Stats {
+    /**
+     * Number of requests that got the token issued for an identical request.
+     */
+    public final long hits;
+    /**
+     * Number of requests that issued a token.
+     */
+    public final long misses;
+    /**
+     * Number of requests that were waiting for a leader that failed to issue the token.
+     */
+    public final long fallbacks;
+
+    Stats(long hits, long misses, long fallbacks) {
+      this.hits = hits;
+      this.misses = misses;
+      this.fallbacks = fallbacks;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this).add("hits", hits).add("misses", misses).add("fallbacks", fallbacks).toString();
+    }
+  }
+}
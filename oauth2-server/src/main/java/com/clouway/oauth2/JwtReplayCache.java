@@ -0,0 +1,348 @@
+package com.clouway.oauth2;
+
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.common.Duration;
+import com.clouway.oauth2.jwt.CompactJwt;
+import com.clouway.oauth2.token.TokenResponse;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+import com.google.common.hash.HashCode;
+import com.google.common.math.LongMath;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JwtReplayCache is keeping track of the JWT-bearer assertions that were already exchanged for a token, so the same
+ * assertion could not be exchanged again until it expires.
+ * <p/>
+ * Assertions are identified by the issuer and the jti claim or by the SHA-256 digest of the decoded assertion when jti
+ * is missing, so re-encodings of the same assertion are not accepted as new ones. Each entry is kept until the expiration time of the assertion plus the clock skew.
+ * <p/>
+ * The cache is split in stripes that are guarded by separate locks, so threads that are handling different assertions
+ * are not contending with each other. Each stripe is bounded and when it's full the expired entries are dropped
+ * first and then the oldest ones.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ * @see <a href="https://tools.ietf.org/html/rfc7523#section-3">JWT Format and Processing Requirements</a>
+ */
+public final class JwtReplayCache {
+
+  /**
+   * Mode is determining how repeated assertions are handled.
+   */
+  public enum Mode {
+    /**
+     * Replays are not tracked.
+     */
+    DISABLED,
+    /**
+     * Repeated assertions are rejected.
+     */
+    REJECT,
+    /**
+     * The token that was issued for the first assertion is returned again while it's still valid.
+     */
+    REUSE
+  }
+
+  public static Builder newReplayCache() {
+    return new Builder();
+  }
+
+  public static final class Builder {
+    private Mode mode = Mode.REJECT;
+    private int maxEntries = 100000;
+    private int stripes = 64;
+    private Duration clockSkew = Duration.seconds(60L);
+
+    private Builder() {
+    }
+
+    public Builder mode(Mode mode) {
+      this.mode = mode;
+      return this;
+    }
+
+    /**
+     * Sets the max number of assertions that are tracked. Default is 100 000.
+     */
+    public Builder maxEntries(int maxEntries) {
+      this.maxEntries = maxEntries;
+      return this;
+    }
+
+    /**
+     * Sets the number of independently locked stripes. Default is 64.
+     */
+    public Builder stripes(int stripes) {
+      this.stripes = stripes;
+      return this;
+    }
+
+    /**
+     * Sets the clock skew that is tolerated for the expiration time of the assertions. Default is 60 seconds.
+     */
+    public Builder clockSkew(Duration clockSkew) {
+      this.clockSkew = clockSkew;
+      return this;
+    }
+
+    public JwtReplayCache build() {
+      return new JwtReplayCache(this);
+    }
+  }
+
+  /**
+   * Entry is an assertion that was seen by the cache.
+   */
+  public static final class Entry {
+    private final String key;
+    private final HashCode digest;
+    private final long expiresAt;
+
+    private volatile Set<String> scopes;
+    private volatile TokenResponse response;
+    private volatile String idToken;
+
+    private Entry(String key, HashCode digest, long expiresAt) {
+      this.key = key;
+      this.digest = digest;
+      this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Gets the scopes for which the token was issued.
+     */
+    public Set<String> scopes() {
+      return scopes;
+    }
+
+    /**
+     * Gets the response that was issued for the assertion. Response is absent while token is being issued.
+     */
+    public Optional<TokenResponse> response() {
+      return Optional.fromNullable(response);
+    }
+
+    public Optional<String> idToken() {
+      return Optional.fromNullable(idToken);
+    }
+  }
+
+  /**
+   * Lookup is the result of checking an assertion against the cache.
+   */
+  public static final class Lookup {
+    private static final Lookup UNSEEN = new Lookup(null, false);
+
+    private final Entry entry;
+    private final boolean sameAssertion;
+
+    private Lookup(Entry entry, boolean sameAssertion) {
+      this.entry = entry;
+      this.sameAssertion = sameAssertion;
+    }
+
+    /**
+     * Checks whether the same assertion was already seen. The signature of such assertion was verified already.
+     */
+    public boolean isRepeated() {
+      return entry != null && sameAssertion;
+    }
+
+    public Entry entry() {
+      return entry;
+    }
+  }
+
+  private final Mode mode;
+  private final long clockSkewMillis;
+  private final Stripe[] stripes;
+
+  private final AtomicLong replays = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  private JwtReplayCache(Builder builder) {
+    this.mode = builder.mode;
+    this.clockSkewMillis = builder.clockSkew.asMills();
+
+    int count = Integer.highestOneBit(Math.max(1, builder.stripes));
+    int capacity = Math.max(1, builder.maxEntries / count);
+
+    this.stripes = new Stripe[count];
+    for (int i = 0; i < count; i++) {
+      stripes[i] = new Stripe(capacity);
+    }
+  }
+
+  public Mode mode() {
+    return mode;
+  }
+
+  public boolean isEnabled() {
+    return mode != Mode.DISABLED;
+  }
+
+  /**
+   * Checks whether assertion was already seen without recording it.
+   *
+   * @param jwt     the received assertion
+   * @param instant the time of the request
+   * @return the result of the lookup
+   */
+  public Lookup lookup(CompactJwt jwt, DateTime instant) {
+    String key = keyOf(jwt);
+    Entry entry = stripeOf(key).get(key, instant.timestamp());
+    if (entry == null) {
+      return Lookup.UNSEEN;
+    }
+    replays.incrementAndGet();
+    return new Lookup(entry, entry.digest.equals(jwt.digest()));
+  }
+
+  /**
+   * Records assertion which signature was verified. Only one of concurrent registrations of the same assertion will
+   * succeed.
+   *
+   * @param jwt     the verified assertion
+   * @param instant the time of the request
+   * @return the entry of the assertion if it's registered for first time or absent value if it was already seen
+   */
+  public Optional<Entry> register(CompactJwt jwt, DateTime instant) {
+    String key = keyOf(jwt);
+    // exp is only limited by the validator, so a value which is out of range is kept until the end of time
+    long expiresAt = LongMath.saturatedAdd(LongMath.saturatedMultiply(jwt.claimSet.exp, 1000), clockSkewMillis);
+    Entry entry = new Entry(key, jwt.digest(), expiresAt);
+
+    if (!stripeOf(key).putIfAbsent(key, entry, instant.timestamp())) {
+      replays.incrementAndGet();
+      return Optional.absent();
+    }
+    return Optional.of(entry);
+  }
+
+  /**
+   * Attaches the issued token to the entry, so it could be returned for repeated assertions in {@link Mode#REUSE}.
+   */
+  public void complete(Entry entry, Set<String> scopes, TokenResponse response, Optional<String> idToken) {
+    entry.scopes = scopes;
+    entry.idToken = idToken.orNull();
+    entry.response = response;
+  }
+
+  /**
+   * Discards the entry of assertion that was not exchanged for a token, so the client could retry with it.
+   */
+  public void discard(Entry entry) {
+    stripeOf(entry.key).remove(entry.key, entry);
+  }
+
+  public Stats stats() {
+    long size = 0;
+    for (Stripe each : stripes) {
+      size += each.size();
+    }
+    return new Stats(size, replays.get(), evictions.get());
+  }
+
+  private String keyOf(CompactJwt jwt) {
+    if (jwt.claimSet.jti == null) {
+      return jwt.digest().toString();
+    }
+    return jwt.claimSet.iss + " " + jwt.claimSet.jti;
+  }
+
+  private Stripe stripeOf(String key) {
+    int h = key.hashCode();
+    return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+  }
+
+  /**
+   * Stripe is an insertion ordered map, so the oldest entries are evicted first.
+   */
+  private final class Stripe {
+    private final int capacity;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+    Stripe(int capacity) {
+      this.capacity = capacity;
+    }
+
+    synchronized Entry get(String key, long now) {
+      Entry entry = entries.get(key);
+      if (entry == null) {
+        return null;
+      }
+      if (entry.expiresAt <= now) {
+        entries.remove(key);
+        return null;
+      }
+      return entry;
+    }
+
+    synchronized boolean putIfAbsent(String key, Entry entry, long now) {
+      Entry existing = entries.get(key);
+      if (existing != null && existing.expiresAt > now) {
+        return false;
+      }
+
+      if (entries.size() >= capacity) {
+        evict(now);
+      }
+      entries.put(key, entry);
+      return true;
+    }
+
+    synchronized int size() {
+      return entries.size();
+    }
+
+    synchronized void remove(String key, Entry entry) {
+      if (entries.get(key) == entry) {
+        entries.remove(key);
+      }
+    }
+
+    private void evict(long now) {
+      // entries are added in the order of arrival, so expired ones are mostly at the head
+      Iterator<Entry> it = entries.values().iterator();
+      while (it.hasNext()) {
+        if (it.next().expiresAt > now) {
+          break;
+        }
+        it.remove();
+      }
+
+      // nothing was expired so the oldest entry is dropped
+      if (entries.size() >= capacity) {
+        it = entries.values().iterator();
+        it.next();
+        it.remove();
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Stats is a snapshot of the state of the cache.
+   */
+  public static final class Stats {
+    public final long size;
+    public final long replays;
+    public final long evictions;
+
+    Stats(long size, long replays, long evictions) {
+      this.size = size;
+      this.replays = replays;
+      this.evictions = evictions;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this).add("size", size).add("replays", replays).add("evictions", evictions).toString();
+    }
+  }
+}
@@ -5,13 +5,16 @@ import com.clouway.friendlyserve.RequestHandlerMatchingParam;
 import com.clouway.friendlyserve.RequiresParam;
 import com.clouway.friendlyserve.TkFork;
 import com.clouway.friendlyserve.servlets.ServletApiSupport;
+import com.clouway.oauth2.client.CachingJwtKeyStore;
+import com.clouway.oauth2.client.ClientFinder;
+import com.clouway.oauth2.client.JwtKeyStore;
+import com.clouway.oauth2.client.NegativeCachingClientFinder;
+import com.clouway.oauth2.client.NegativeCachingJwtKeyStore;
 import com.clouway.oauth2.codechallenge.AuthorizationCodeVerifier;
-import com.clouway.oauth2.jws.RsaJwsSignature;
-import com.clouway.oauth2.jws.Signature;
+import com.clouway.oauth2.jws.AllowlistSignatureFactory;
 import com.clouway.oauth2.jws.SignatureFactory;
-import com.clouway.oauth2.jwt.Jwt.Header;
-import com.clouway.oauth2.token.JjwtIdTokenFactory;
-import com.google.common.base.Optional;
+import com.clouway.oauth2.token.IdTokenPolicy;
+import com.clouway.oauth2.token.SigningIdTokenFactory;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -23,21 +26,17 @@ import java.io.IOException;
 public class OAuth2ApiSupportFactory {
 
   public OAuth2ApiSupport create(OAuth2Config config) {
-    final SignatureFactory signatureFactory = new SignatureFactory() {
-      @Override
-      public Optional<Signature> createSignature(byte[] signatureValue, Header header) {
-        // It's vulnerable multiple algorithms to be supported, so server need to reject
-        // any calls from not supported algorithms
-        // More infromation could be taken from: https://auth0.com/blog/2015/03/31/critical-vulnerabilities-in-json-web-token-libraries/
-        if (!"RS256".equals(header.alg)) {
-          return Optional.absent();
-        }
-        return Optional.<Signature>of(new RsaJwsSignature(signatureValue));
-      }
-    };
+    final SignatureFactory signatureFactory = new AllowlistSignatureFactory(config.jwsAlgorithms());
 
+    SigningIdTokenFactory idTokenFactory = new SigningIdTokenFactory(config.keyStore());
+    JwtKeyStore jwtKeyStore = new CachingJwtKeyStore(
+            new NegativeCachingJwtKeyStore(config.jwtKeyStore(), config.negativeLookupCache()),
+            config.publicKeyCache()
+    );
+    ClientFinder clientFinder = new NegativeCachingClientFinder(config.clientFinder(), config.negativeLookupCache());
+    IdTokenCache idTokenCache = config.idTokenCache();
+    IdTokenPolicy idTokenPolicy = config.idTokenPolicy();
 
-    JjwtIdTokenFactory idTokenFactory = new JjwtIdTokenFactory(config.keyStore());
     TkFork fork = new TkFork(
             new FkRegex(".*/auth",
                     new InstantaneousRequestController(
@@ -59,7 +58,8 @@ public class OAuth2ApiSupportFactory {
                                                                             config.identityFinder(),
                                                                             new IssueNewTokenActivity(
                                                                                     config.tokens(),
-                                                                                    idTokenFactory)
+                                                                                    idTokenFactory,
+                                                                                    idTokenPolicy)
                                                                     )
                                                             )
                                                     )
@@ -69,8 +69,8 @@ public class OAuth2ApiSupportFactory {
                                     new InstantaneousRequestController(
                                             new ClientAuthenticationCredentialsRequest(
                                                     new ClientController(
-                                                            config.clientFinder(),
-                                                            new RefreshTokenActivity(config.tokens(), idTokenFactory, config.identityFinder())
+                                                            clientFinder,
+                                                            new RefreshTokenActivity(config.tokens(), idTokenFactory, config.identityFinder(), idTokenPolicy, config.refreshCoordinator())
                                                     ))
 
                                     )
@@ -81,9 +81,13 @@ public class OAuth2ApiSupportFactory {
                                             new JwtController(
                                                     signatureFactory,
                                                     config.tokens(),
-                                                    config.jwtKeyStore(),
+                                                    jwtKeyStore,
                                                     config.identityFinder(),
-                                                    idTokenFactory
+                                                    idTokenFactory,
+                                                    config.assertionValidator(),
+                                                    config.jwtReplayCache(),
+                                                    config.jwtIssueCache(),
+                                                    idTokenPolicy
                                             )))
                             ))
             ),
@@ -91,7 +95,16 @@ public class OAuth2ApiSupportFactory {
                     new RequiresParam("token",
                             new InstantaneousRequestController(
                                     new ClientAuthenticationCredentialsRequest(
-                                            new RevokeTokenController(config.clientFinder(), config.tokens())
+                                            new RevokeTokenController(clientFinder, config.tokens(), idTokenCache)
+                                    )
+                            )
+                    )
+            ),
+            new FkRegex(".*/tokenInfo/batch",
+                    new RequiresParam("access_tokens",
+                            new InstantaneousRequestController(
+                                    new ClientAuthenticationCredentialsRequest(
+                                            new BatchTokenInfoController(clientFinder, config.tokens())
                                     )
                             )
                     )
@@ -99,7 +112,7 @@ public class OAuth2ApiSupportFactory {
             new FkRegex(".*/tokenInfo",
                     new RequiresParam("access_token",
                             new InstantaneousRequestController(
-                                    new TokenInfoController(config.tokens(), config.identityFinder(), idTokenFactory)
+                                    new TokenInfoController(config.tokens(), config.identityFinder(), idTokenFactory, idTokenCache, idTokenPolicy)
                             )
                     )
             ),
@@ -109,6 +122,7 @@ public class OAuth2ApiSupportFactory {
                                     new UserInfoController(config.identityFinder(), config.tokens())
                             ))
             ),
+            new FkRegex(".*/jwks", new PublicCertsController(config.keyStore(), PublicCertsController.Format.JWKS)),
             new FkRegex(".*/certs", new PublicCertsController(config.keyStore()))
     );
 
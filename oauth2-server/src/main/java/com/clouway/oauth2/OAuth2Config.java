@@ -3,9 +3,23 @@ package com.clouway.oauth2;
 import com.clouway.oauth2.authorization.ClientAuthorizer;
 import com.clouway.oauth2.client.ClientFinder;
 import com.clouway.oauth2.client.JwtKeyStore;
+import com.clouway.oauth2.client.NegativeLookupCache;
+import com.clouway.oauth2.common.Duration;
+import com.clouway.oauth2.jws.JwsAlgorithm;
+import com.clouway.oauth2.jws.PublicKeyCache;
+import com.clouway.oauth2.jwt.AssertionValidator;
 import com.clouway.oauth2.keystore.KeyStore;
+import com.clouway.oauth2.token.CachingTokens;
+import com.clouway.oauth2.token.IdTokenPolicies;
+import com.clouway.oauth2.token.IdTokenPolicy;
 import com.clouway.oauth2.token.Tokens;
 import com.clouway.oauth2.token.IdentityFinder;
+import com.google.common.base.Optional;
+import com.google.common.collect.Sets;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * OAuth2Config is a configuration class which is used to pass configuration from apps to the oauth2-server flow.
@@ -30,6 +44,17 @@ public final class OAuth2Config {
     private String loginPageUrl;
     private ResourceOwnerIdentityFinder resourceOwnerIdentityFinder;
     private KeyStore keyStore;
+    private PublicKeyCache publicKeyCache = new PublicKeyCache(1000, 5, TimeUnit.MINUTES);
+    private AssertionValidator assertionValidator = AssertionValidator.newValidator().build();
+    private JwtReplayCache jwtReplayCache = JwtReplayCache.newReplayCache().mode(JwtReplayCache.Mode.DISABLED).build();
+    private JwtIssueCache jwtIssueCache = JwtIssueCache.disabled();
+    private RefreshCoordinator refreshCoordinator = RefreshCoordinator.disabled();
+    private Set<JwsAlgorithm> jwsAlgorithms = EnumSet.of(JwsAlgorithm.RS256);
+    private NegativeLookupCache negativeLookupCache = NegativeLookupCache.disabled();
+    private IdTokenCache idTokenCache = IdTokenCache.newIdTokenCache().build();
+    private IdTokenPolicy idTokenPolicy = IdTokenPolicies.openIdScope();
+    private long tokenCacheMaxEntries = 0;
+    private Duration tokenCacheMaxAge;
 
     public Builder tokens(Tokens tokens) {
       this.tokens = tokens;
@@ -71,6 +96,106 @@ public final class OAuth2Config {
       return this;
     }
 
+    /**
+     * Sets the cache of the public keys of the service accounts. Keys are kept for 5 minutes by default, so apps that
+     * are revoking or rotating keys of service accounts should invalidate the old keys with
+     * {@link PublicKeyCache#invalidate(String, String)} or {@link PublicKeyCache#invalidateIssuer(String)} of this
+     * cache or of the default one, which is returned by {@link OAuth2Config#publicKeyCache()}.
+     */
+    public Builder publicKeyCache(PublicKeyCache publicKeyCache) {
+      this.publicKeyCache = publicKeyCache;
+      return this;
+    }
+
+    /**
+     * Sets the validator of the JWT-bearer assertions, which is used for configuring of the clock skew, accepted
+     * audiences and max size of the assertions.
+     */
+    public Builder assertionValidator(AssertionValidator assertionValidator) {
+      this.assertionValidator = assertionValidator;
+      return this;
+    }
+
+    /**
+     * Sets the cache which is used for detecting of replayed JWT-bearer assertions. Replays are not tracked by
+     * default.
+     */
+    public Builder jwtReplayCache(JwtReplayCache jwtReplayCache) {
+      this.jwtReplayCache = jwtReplayCache;
+      return this;
+    }
+
+    /**
+     * Sets the cache which is used for returning the same token for identical JWT-bearer requests that are received
+     * within a short window. Tokens are not cached by default.
+     */
+    public Builder jwtIssueCache(JwtIssueCache jwtIssueCache) {
+      this.jwtIssueCache = jwtIssueCache;
+      return this;
+    }
+
+    /**
+     * Sets the coordinator of the refreshes, which is collapsing the concurrent refreshes of the same refresh token
+     * and is returning the refreshed token for refreshes within its grace window. By default each token is refreshed
+     * in the store, e.g. use {@code RefreshCoordinator.newRefreshCoordinator().build()} to collapse the refreshes.
+     */
+    public Builder refreshCoordinator(RefreshCoordinator refreshCoordinator) {
+      this.refreshCoordinator = refreshCoordinator;
+      return this;
+    }
+
+    /**
+     * Sets the algorithms that are accepted for signatures of JWT-bearer assertions. Only RS256 is accepted by default.
+     * EdDSA could be allowed only on Java 15 or newer.
+     */
+    public Builder jwsAlgorithms(JwsAlgorithm first, JwsAlgorithm... rest) {
+      this.jwsAlgorithms = EnumSet.of(first, rest);
+      return this;
+    }
+
+    /**
+     * Sets the cache of the clients and service accounts that were not found. Apps that are enabling it should
+     * invalidate it when a client or service account is registered. Lookups are not cached by default.
+     */
+    public Builder negativeLookupCache(NegativeLookupCache negativeLookupCache) {
+      this.negativeLookupCache = negativeLookupCache;
+      return this;
+    }
+
+    /**
+     * Sets the cache of the id_tokens that are returned by the tokenInfo endpoint. By default id_tokens are kept
+     * until the access token expires, but no longer than 10 minutes.
+     */
+    public Builder idTokenCache(IdTokenCache idTokenCache) {
+      this.idTokenCache = idTokenCache;
+      return this;
+    }
+
+    /**
+     * Sets the policy which decides whether id_token is issued to the client. By default id_token is issued only
+     * when the openid scope is requested. Use {@link IdTokenPolicies#always()} to issue it for every token.
+     */
+    public Builder idTokenPolicy(IdTokenPolicy idTokenPolicy) {
+      this.idTokenPolicy = idTokenPolicy;
+      return this;
+    }
+
+    /**
+     * Enables the cache of the tokens that are looked up by the introspection endpoints, so apps with a remote
+     * {@link Tokens} are not making a round trip for each request. Tokens are kept until they expire, but no longer
+     * than the max age, which is bounding the time for which a token that was revoked through another instance is
+     * still accepted. Tokens are not cached by default.
+     *
+     * @param maxEntries the max number of cached tokens
+     * @param maxAge     the max time for which a token is returned without a lookup in the store
+     * @see CachingTokens
+     */
+    public Builder tokenCache(long maxEntries, Duration maxAge) {
+      this.tokenCacheMaxEntries = maxEntries;
+      this.tokenCacheMaxAge = maxAge;
+      return this;
+    }
+
     public OAuth2Config build() {
       return new OAuth2Config(this);
     }
@@ -86,9 +211,25 @@ public final class OAuth2Config {
   private final JwtKeyStore jwtKeyStore;
   private final String loginPageUrl;
   private final KeyStore keyStore;
+  private final PublicKeyCache publicKeyCache;
+  private final AssertionValidator assertionValidator;
+  private final JwtReplayCache jwtReplayCache;
+  private final JwtIssueCache jwtIssueCache;
+  private final RefreshCoordinator refreshCoordinator;
+  private final Set<JwsAlgorithm> jwsAlgorithms;
+  private final NegativeLookupCache negativeLookupCache;
+  private final IdTokenCache idTokenCache;
+  private final IdTokenPolicy idTokenPolicy;
 
   private OAuth2Config(Builder builder) {
-    this.tokens = builder.tokens;
+    if (builder.tokenCacheMaxEntries > 0 && builder.tokens != null) {
+      this.tokens = CachingTokens.newCachingTokens(builder.tokens)
+              .maxEntries(builder.tokenCacheMaxEntries)
+              .maxAge(builder.tokenCacheMaxAge)
+              .build();
+    } else {
+      this.tokens = builder.tokens;
+    }
     this.identityFinder = builder.identityFinder;
     this.resourceOwnerIdentityFinder = builder.resourceOwnerIdentityFinder;
     this.clientFinder = builder.clientFinder;
@@ -96,6 +237,15 @@ public final class OAuth2Config {
     this.jwtKeyStore = builder.jwtKeyStore;
     this.loginPageUrl = builder.loginPageUrl;
     this.keyStore = builder.keyStore;
+    this.publicKeyCache = builder.publicKeyCache;
+    this.assertionValidator = builder.assertionValidator;
+    this.jwtReplayCache = builder.jwtReplayCache;
+    this.jwtIssueCache = builder.jwtIssueCache;
+    this.refreshCoordinator = builder.refreshCoordinator;
+    this.jwsAlgorithms = Sets.immutableEnumSet(builder.jwsAlgorithms);
+    this.negativeLookupCache = builder.negativeLookupCache;
+    this.idTokenCache = builder.idTokenCache;
+    this.idTokenPolicy = builder.idTokenPolicy;
   }
 
   public ClientAuthorizer clientAuthorizer() {
@@ -110,6 +260,16 @@ public final class OAuth2Config {
     return this.tokens;
   }
 
+  /**
+   * Gets the stats of the cache of the tokens or absent value if it's not enabled.
+   */
+  public Optional<CachingTokens.Stats> tokenCacheStats() {
+    if (tokens instanceof CachingTokens) {
+      return Optional.of(((CachingTokens) tokens).stats());
+    }
+    return Optional.absent();
+  }
+
   public IdentityFinder identityFinder() {
     return this.identityFinder;
   }
@@ -130,4 +290,40 @@ public final class OAuth2Config {
     return this.keyStore;
   }
 
+  public PublicKeyCache publicKeyCache() {
+    return this.publicKeyCache;
+  }
+
+  public AssertionValidator assertionValidator() {
+    return this.assertionValidator;
+  }
+
+  public JwtReplayCache jwtReplayCache() {
+    return this.jwtReplayCache;
+  }
+
+  public JwtIssueCache jwtIssueCache() {
+    return this.jwtIssueCache;
+  }
+
+  public RefreshCoordinator refreshCoordinator() {
+    return this.refreshCoordinator;
+  }
+
+  public Set<JwsAlgorithm> jwsAlgorithms() {
+    return this.jwsAlgorithms;
+  }
+
+  public NegativeLookupCache negativeLookupCache() {
+    return this.negativeLookupCache;
+  }
+
+  public IdTokenCache idTokenCache() {
+    return this.idTokenCache;
+  }
+
+  public IdTokenPolicy idTokenPolicy() {
+    return this.idTokenPolicy;
+  }
+
 }
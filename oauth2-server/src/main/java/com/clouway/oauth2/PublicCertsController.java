@@ -2,46 +2,221 @@ package com.clouway.oauth2;
 
 import com.clouway.friendlyserve.Request;
 import com.clouway.friendlyserve.Response;
-import com.clouway.friendlyserve.RsJson;
+import com.clouway.friendlyserve.Status;
 import com.clouway.friendlyserve.Take;
+import com.clouway.oauth2.common.DateTime;
 import com.clouway.oauth2.keystore.IdentityKeyPair;
 import com.clouway.oauth2.jws.Pem;
 import com.clouway.oauth2.jws.Pem.Block;
+import com.clouway.oauth2.keystore.KeySet;
+import com.clouway.oauth2.keystore.KeyRotation;
 import com.clouway.oauth2.keystore.KeyStore;
+import com.clouway.oauth2.keystore.SnapshotKeyStore;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
 import com.google.gson.JsonObject;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
+ * PublicCertsController is publishing the public keys which are used for verifying of the id_tokens, either as map of
+ * PEM encoded certificates by key id or as JSON Web Key Set.
+ * <p/>
+ * The response is encoded once per set of keys and is served with a strong ETag, so clients that already have the
+ * keys are getting 304 (Not Modified). Keys of a {@link KeyRotation}, which could be wrapped by a
+ * {@link SnapshotKeyStore}, are cached by clients until the next change of the rotation and keys of other stores for
+ * {@link #DEFAULT_MAX_AGE_SECONDS}.
+ *
  * @author Ianislav Nachev <qnislav.nachev@clouway.com>
  */
 public class PublicCertsController implements Take {
+
+  /**
+   * The format in which the keys are published.
+   */
+  public enum Format {
+    /**
+     * Map of PEM encoded certificates by key id.
+     */
+    PEM,
+    /**
+     * JSON Web Key Set as defined in RFC 7517.
+     */
+    JWKS
+  }
+
+  /**
+   * The time in seconds for which clients could cache keys that are not part of a {@link KeyRotation}.
+   */
+  static final long DEFAULT_MAX_AGE_SECONDS = 300;
+
+  /**
+   * The max time in seconds for which clients could cache the keys of a {@link KeyRotation}.
+   */
+  static final long MAX_AGE_LIMIT_SECONDS = 24 * 3600;
+
   private final KeyStore keyStore;
+  private final KeyRotation rotation;
+  private final Format format;
+  private final AtomicReference<PublishedKeys> published = new AtomicReference<PublishedKeys>();
 
   public PublicCertsController(KeyStore keyStore) {
+    this(keyStore, Format.PEM);
+  }
+
+  public PublicCertsController(KeyStore keyStore, Format format) {
     this.keyStore = keyStore;
+    this.rotation = rotationOf(keyStore);
+    this.format = format;
   }
 
   @Override
   public Response ack(Request request) throws IOException {
-    List<IdentityKeyPair> keyMap = keyStore.getKeys();
+    DateTime instant = new DateTime();
+
+    List<IdentityKeyPair> keys;
+    long maxAge;
+
+    if (rotation != null) {
+      KeySet keySet = rotation.keysAt(instant);
+      keys = keySet.verificationKeys();
+      maxAge = Math.max(0, Math.min((keySet.validUntil - instant.timestamp()) / 1000, MAX_AGE_LIMIT_SECONDS));
+    } else {
+      keys = keyStore.getKeys();
+      maxAge = DEFAULT_MAX_AGE_SECONDS;
+    }
+
+    if (keys == null) {
+      keys = Collections.emptyList();
+    }
+
+    PublishedKeys publishedKeys = published.get();
+    if (publishedKeys == null || !publishedKeys.isFor(keys)) {
+      publishedKeys = new PublishedKeys(keys, encode(keys));
+      published.set(publishedKeys);
+    }
 
-    JsonObject o = new JsonObject();
-    if (keyMap.isEmpty()) {
-      return new RsJson(o);
+    if (request != null && publishedKeys.matches(request.header("If-None-Match"))) {
+      return new RsPublishedKeys(HttpURLConnection.HTTP_NOT_MODIFIED, publishedKeys.etag, maxAge, new byte[0]);
     }
 
-    Pem pem = new Pem();
+    return new RsPublishedKeys(HttpURLConnection.HTTP_OK, publishedKeys.etag, maxAge, publishedKeys.body);
+  }
+
+  /**
+   * Gets the rotation of the provided store or null if it's not rotating its keys. Keys of a rotation are derived
+   * from its schedule, so they are read from it also when it's wrapped by a snapshot.
+   */
+  private static KeyRotation rotationOf(KeyStore keyStore) {
+    if (keyStore instanceof SnapshotKeyStore) {
+      return rotationOf(((SnapshotKeyStore) keyStore).keyStore());
+    }
+    return keyStore instanceof KeyRotation ? (KeyRotation) keyStore : null;
+  }
 
-    for (IdentityKeyPair each : keyMap) {
-      String certificateAsText = pem.format(
-              new Block("CERTIFICATE", Collections.<String, String>emptyMap(), each.publicKey.getEncoded())
+  private byte[] encode(List<IdentityKeyPair> keys) {
+    JsonObject o;
+    if (format == Format.JWKS) {
+      o = JsonWebKeys.keySetOf(keys);
+    } else {
+      o = new JsonObject();
+      Pem pem = new Pem();
+      for (IdentityKeyPair each : keys) {
+        String certificateAsText = pem.format(
+                new Block("CERTIFICATE", Collections.<String, String>emptyMap(), each.publicKey.getEncoded())
+        );
+        o.addProperty(each.keyId, certificateAsText);
+      }
+    }
+    return o.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * PublishedKeys is the encoded response of a set of keys.
+   */
+  private static final class PublishedKeys {
+    private final List<IdentityKeyPair> keys;
+    private final byte[] body;
+    private final String etag;
+
+    PublishedKeys(List<IdentityKeyPair> keys, byte[] body) {
+      this.keys = ImmutableList.copyOf(keys);
+      this.body = body;
+      this.etag = "\"" + BaseEncoding.base64Url().omitPadding().encode(Arrays.copyOf(Hashing.sha256().hashBytes(body).asBytes(), 16)) + "\"";
+    }
+
+    boolean isFor(List<IdentityKeyPair> keys) {
+      if (this.keys.size() != keys.size()) {
+        return false;
+      }
+      for (int i = 0; i < keys.size(); i++) {
+        IdentityKeyPair published = this.keys.get(i);
+        IdentityKeyPair key = keys.get(i);
+        if (published == key) {
+          continue;
+        }
+        if (!published.keyId.equals(key.keyId) || published.algorithm != key.algorithm || !published.publicKey.equals(key.publicKey)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    boolean matches(String ifNoneMatch) {
+      if (ifNoneMatch == null) {
+        return false;
+      }
+      for (String each : Splitter.on(',').trimResults().omitEmptyStrings().split(ifNoneMatch)) {
+        // weak comparison is used for If-None-Match
+        String tag = each.startsWith("W/") ? each.substring(2) : each;
+        if ("*".equals(tag) || etag.equals(tag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private static final class RsPublishedKeys implements Response {
+    private final int status;
+    private final Map<String, String> headers;
+    private final byte[] body;
+
+    RsPublishedKeys(int status, String etag, long maxAge, byte[] body) {
+      this.status = status;
+      this.body = body;
+      this.headers = ImmutableMap.of(
+              "Content-Type", "application/json; charset=utf-8",
+              "ETag", etag,
+              "Cache-Control", "public, max-age=" + maxAge
       );
-      o.addProperty(each.keyId, certificateAsText);
     }
 
-    return new RsJson(o);
+    @Override
+    public Map<String, String> header() {
+      return headers;
+    }
+
+    @Override
+    public InputStream body() throws IOException {
+      return new ByteArrayInputStream(body);
+    }
+
+    @Override
+    public Status status() {
+      return new Status(status);
+    }
   }
 }
@@ -0,0 +1,229 @@
+package com.clouway.oauth2;
+
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.common.Duration;
+import com.clouway.oauth2.token.TokenResponse;
+import com.clouway.oauth2.token.Tokens;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RefreshCoordinator is refreshing each refresh token once at a time, so clients that are sending parallel refreshes
+ * of the same refresh token are getting the same tokens instead of racing to issue their own.
+ * <p/>
+ * The first of the concurrent refreshes is the leader which is refreshing the token in the {@link Tokens} and all
+ * others are waiting for its result. Successful refreshes are kept with their time, so refreshes of the same refresh
+ * token whose time is within a short grace window after it, e.g. with a refresh token that was rotated by the leader,
+ * are answered with the same tokens instead of failing. Tokens are returned in the grace window only while they are
+ * still available in the store, which is checked with {@link Tokens#isTokenAvailableAt(String, DateTime)}, so revoked
+ * tokens are refreshed again and the check is not extending the tokens.
+ * <p/>
+ * Rotation of the refresh tokens is decided by the store, e.g. by {@code MemoryTokens.Builder.generatesNewRefreshToken},
+ * and refreshes are coordinated in the same way whether they are rotated or not. Refreshes are coordinated only in a
+ * single instance of the server.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public final class RefreshCoordinator {
+
+  public static Builder newRefreshCoordinator() {
+    return new Builder();
+  }
+
+  /**
+   * Creates a coordinator which is refreshing each token in the store.
+   */
+  public static RefreshCoordinator disabled() {
+    return new Builder().disabled().build();
+  }
+
+  public static final class Builder {
+    private boolean enabled = true;
+    private Duration graceWindow = Duration.seconds(5L);
+    private long maxEntries = 10000;
+    private Duration waitTimeout = Duration.seconds(10L);
+
+    private Builder() {
+    }
+
+    /**
+     * Sets how long a refreshed token is returned for refreshes of the same refresh token. Concurrent refreshes are
+     * still collapsed with a window of 0. Default is 5 seconds.
+     */
+    public Builder graceWindow(Duration graceWindow) {
+      this.graceWindow = graceWindow;
+      return this;
+    }
+
+    /**
+     * Sets the max number of refreshed tokens that are kept for the grace window. Default is 10 000.
+     */
+    public Builder maxEntries(long maxEntries) {
+      this.maxEntries = maxEntries;
+      return this;
+    }
+
+    /**
+     * Sets how long refreshes are waiting for the leader to refresh the token. Default is 10 seconds.
+     */
+    public Builder waitTimeout(Duration waitTimeout) {
+      this.waitTimeout = waitTimeout;
+      return this;
+    }
+
+    private Builder disabled() {
+      this.enabled = false;
+      return this;
+    }
+
+    public RefreshCoordinator build() {
+      return new RefreshCoordinator(this);
+    }
+  }
+
+  private static final class Refreshed {
+    private final TokenResponse response;
+    private final long refreshedAt;
+
+    Refreshed(TokenResponse response, long refreshedAt) {
+      this.response = response;
+      this.refreshedAt = refreshedAt;
+    }
+  }
+
+  private final boolean enabled;
+  private final long graceWindowMillis;
+  private final long waitTimeoutMillis;
+  private final ConcurrentHashMap<String, SettableFuture<TokenResponse>> inFlight = new ConcurrentHashMap<String, SettableFuture<TokenResponse>>();
+  private final Cache<String, Refreshed> refreshed;
+
+  private final AtomicLong refreshes = new AtomicLong();
+  private final AtomicLong collapsed = new AtomicLong();
+  private final AtomicLong graceHits = new AtomicLong();
+  private final AtomicLong fallbacks = new AtomicLong();
+
+  private RefreshCoordinator(Builder builder) {
+    this.enabled = builder.enabled;
+    this.graceWindowMillis = builder.graceWindow.asMills();
+    this.waitTimeoutMillis = builder.waitTimeout.asMills();
+    // entries are expired by the time of the refreshes, so the cache is bounded only by size
+    this.refreshed = CacheBuilder.newBuilder()
+            .maximumSize(builder.maxEntries)
+            .build();
+  }
+
+  /**
+   * Refreshes the provided refresh token, collapsing it with the concurrent refreshes of the same token.
+   *
+   * @param tokens       the store in which token is refreshed
+   * @param refreshToken the refresh token
+   * @param when         the time of the refresh
+   * @return the refreshed token or the one of the concurrent or the recent refresh of the same token
+   */
+  public TokenResponse refresh(Tokens tokens, String refreshToken, DateTime when) {
+    if (!enabled || refreshToken == null) {
+      return tokens.refreshToken(refreshToken, when);
+    }
+
+    Refreshed recent = refreshed.getIfPresent(refreshToken);
+    if (recent != null) {
+      // refreshes which are made at the time of the recent one or before it are concurrent with it
+      if (when.timestamp() - recent.refreshedAt < graceWindowMillis
+              && tokens.isTokenAvailableAt(recent.response.accessToken.value, when)) {
+        graceHits.incrementAndGet();
+        return recent.response;
+      }
+      refreshed.asMap().remove(refreshToken, recent);
+    }
+
+    SettableFuture<TokenResponse> flight = SettableFuture.create();
+    SettableFuture<TokenResponse> existing = inFlight.putIfAbsent(refreshToken, flight);
+    if (existing != null) {
+      Optional<TokenResponse> response = await(existing);
+      if (response.isPresent()) {
+        collapsed.incrementAndGet();
+        return response.get();
+      }
+      // leader failed or it's not responding, so the token is refreshed as usual
+      fallbacks.incrementAndGet();
+      return tokens.refreshToken(refreshToken, when);
+    }
+
+    refreshes.incrementAndGet();
+    TokenResponse response = null;
+    try {
+      response = tokens.refreshToken(refreshToken, when);
+      // refreshed token is kept before the leader is removed, so following refreshes are always finding it
+      if (response.isSuccessful() && graceWindowMillis > 0) {
+        refreshed.put(refreshToken, new Refreshed(response, when.timestamp()));
+      }
+      return response;
+    } finally {
+      flight.set(response);
+      inFlight.remove(refreshToken, flight);
+    }
+  }
+
+  public Stats stats() {
+    return new Stats(refreshes.get(), collapsed.get(), graceHits.get(), fallbacks.get());
+  }
+
+  private Optional<TokenResponse> await(SettableFuture<TokenResponse> flight) {
+    try {
+      return Optional.fromNullable(flight.get(waitTimeoutMillis, TimeUnit.MILLISECONDS));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException | TimeoutException e) {
+      // the token is refreshed by the caller in this case
+    }
+    return Optional.absent();
+  }
+
+  /**
+   * Stats is a snapshot of the usage of the coordinator.
+   */
+  public static final class Stats {
+    /**
+     * Number of refreshes that were made in the store.
+     */
+    public final long refreshes;
+    /**
+     * Number of refreshes that got the result of a concurrent refresh of the same token.
+     */
+    public final long collapsed;
+    /**
+     * Number of refreshes that got the result of a refresh in the grace window.
+     */
+    public final long graceHits;
+    /**
+     * Number of refreshes that were made in the store after their leader failed.
+     */
+    public final long fallbacks;
+
+    Stats(long refreshes, long collapsed, long graceHits, long fallbacks) {
+      this.refreshes = refreshes;
+      this.collapsed = collapsed;
+      this.graceHits = graceHits;
+      this.fallbacks = fallbacks;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+              .add("refreshes", refreshes)
+              .add("collapsed", collapsed)
+              .add("graceHits", graceHits)
+              .add("fallbacks", fallbacks)
+              .toString();
+    }
+  }
+}
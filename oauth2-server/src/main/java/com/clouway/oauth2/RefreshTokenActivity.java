@@ -7,6 +7,7 @@ import com.clouway.oauth2.client.ClientCredentials;
 import com.clouway.oauth2.common.DateTime;
 import com.clouway.oauth2.token.BearerToken;
 import com.clouway.oauth2.token.IdTokenFactory;
+import com.clouway.oauth2.token.IdTokenPolicy;
 import com.clouway.oauth2.token.TokenResponse;
 import com.clouway.oauth2.token.Tokens;
 import com.clouway.oauth2.token.FindIdentityRequest;
@@ -22,18 +23,22 @@ class RefreshTokenActivity implements ClientActivity, ClientRequest {
   private final Tokens tokens;
   private final IdTokenFactory idTokenFactory;
   private final IdentityFinder identityFinder;
+  private final IdTokenPolicy idTokenPolicy;
+  private final RefreshCoordinator refreshCoordinator;
 
-  RefreshTokenActivity(Tokens tokens, IdTokenFactory idTokenFactory, IdentityFinder identityFinder) {
+  RefreshTokenActivity(Tokens tokens, IdTokenFactory idTokenFactory, IdentityFinder identityFinder, IdTokenPolicy idTokenPolicy, RefreshCoordinator refreshCoordinator) {
     this.tokens = tokens;
     this.idTokenFactory = idTokenFactory;
     this.identityFinder = identityFinder;
+    this.idTokenPolicy = idTokenPolicy;
+    this.refreshCoordinator = refreshCoordinator;
   }
 
   @Override
   public Response execute(Client client, Request request, DateTime instant) {
     String refreshToken = request.param("refresh_token");
 
-    TokenResponse response = tokens.refreshToken(refreshToken, instant);
+    TokenResponse response = refreshCoordinator.refresh(tokens, refreshToken, instant);
     if (!response.isSuccessful()) {
       return OAuthError.invalidGrant("Provided refresh_token was not found.");
     }
@@ -45,6 +50,9 @@ class RefreshTokenActivity implements ClientActivity, ClientRequest {
     if (!possibleIdentity.isPresent()) {
       return OAuthError.invalidGrant("identity was not found");
     }
+    if (!idTokenPolicy.isIdTokenRequired(client.id, accessToken.scopes)) {
+      return new BearerTokenResponse(accessToken.value, accessToken.ttlSeconds(instant), response.accessToken.scopes, response.refreshToken);
+    }
     Optional<String> possibleIdToken = idTokenFactory.create(
             request.header("Host"),
             client.id,
@@ -62,7 +70,7 @@ class RefreshTokenActivity implements ClientActivity, ClientRequest {
   public Response handleAsOf(Request request, ClientCredentials clientCredentials, DateTime dateTime) {
     String refreshToken = request.param("refresh_token");
 
-    TokenResponse response = tokens.refreshToken(refreshToken, dateTime);
+    TokenResponse response = refreshCoordinator.refresh(tokens, refreshToken, dateTime);
     if (!response.isSuccessful()) {
       return OAuthError.invalidGrant("Provided refresh_token was not found.");
     }
@@ -74,6 +82,9 @@ class RefreshTokenActivity implements ClientActivity, ClientRequest {
     if (!possibleIdentity.isPresent()) {
       return OAuthError.invalidGrant("identity was not found");
     }
+    if (!idTokenPolicy.isIdTokenRequired(clientCredentials.clientId(), accessToken.scopes)) {
+      return new BearerTokenResponse(accessToken.value, accessToken.ttlSeconds(dateTime), response.accessToken.scopes, response.refreshToken);
+    }
     Optional<String> possibleIdToken = idTokenFactory.create(
             request.header("Host"),
             clientCredentials.clientId(),
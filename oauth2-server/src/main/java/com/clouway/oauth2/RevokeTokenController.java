@@ -18,10 +18,12 @@ class RevokeTokenController implements ClientRequest {
 
   private final ClientFinder clientFinder;
   private final Tokens tokens;
+  private final IdTokenCache idTokenCache;
 
-  RevokeTokenController(ClientFinder clientFinder, Tokens tokens) {
+  RevokeTokenController(ClientFinder clientFinder, Tokens tokens, IdTokenCache idTokenCache) {
     this.clientFinder = clientFinder;
     this.tokens = tokens;
+    this.idTokenCache = idTokenCache;
   }
 
   @Override
@@ -44,7 +46,8 @@ class RevokeTokenController implements ClientRequest {
       return OAuthError.unauthorizedClient("Client credentials mismatch.");
     }
 
-    tokens.revokeToken(token);
+    tokens.revokeToken(token, instant);
+    idTokenCache.invalidate(token);
 
     return new RsEmpty();
   }
@@ -6,6 +6,7 @@ import com.clouway.friendlyserve.RsJson;
 import com.clouway.oauth2.common.DateTime;
 import com.clouway.oauth2.token.BearerToken;
 import com.clouway.oauth2.token.IdTokenFactory;
+import com.clouway.oauth2.token.IdTokenPolicy;
 import com.clouway.oauth2.token.Tokens;
 import com.clouway.oauth2.token.FindIdentityRequest;
 import com.clouway.oauth2.token.Identity;
@@ -24,11 +25,15 @@ class TokenInfoController implements InstantaneousRequest {
   private final Tokens tokens;
   private final IdentityFinder identityFinder;
   private final IdTokenFactory idTokenFactory;
+  private final IdTokenCache idTokenCache;
+  private final IdTokenPolicy idTokenPolicy;
 
-  TokenInfoController(Tokens tokens, IdentityFinder identityFinder, IdTokenFactory idTokenFactory) {
+  TokenInfoController(Tokens tokens, IdentityFinder identityFinder, IdTokenFactory idTokenFactory, IdTokenCache idTokenCache, IdTokenPolicy idTokenPolicy) {
     this.tokens = tokens;
     this.identityFinder = identityFinder;
     this.idTokenFactory = idTokenFactory;
+    this.idTokenCache = idTokenCache;
+    this.idTokenPolicy = idTokenPolicy;
   }
 
   @Override
@@ -41,13 +46,29 @@ class TokenInfoController implements InstantaneousRequest {
     }
 
     BearerToken token = possibleToken.get();
-    Map<String, String> params = token.params != null ? token.params : Maps.<String, String>newHashMap();
-    Optional<Identity> possibleIdentity = identityFinder.findIdentity(new FindIdentityRequest(token.identityId, token.grantType, instantTime, params, token.clientId));
-    Identity identity = possibleIdentity.get();
     String host = request.header("Host");
-    Optional<String> possibleIdToken = idTokenFactory.create(host, token.clientId, identity,
-            token.ttlSeconds(instantTime), instantTime);
 
+    Optional<String> possibleIdToken = Optional.absent();
+    if (idTokenPolicy.isIdTokenRequired(token.clientId, token.scopes)) {
+      possibleIdToken = idTokenCache.get(token, host, instantTime);
+      if (!possibleIdToken.isPresent()) {
+        possibleIdToken = newIdToken(token, host, instantTime);
+      }
+    }
+
+    JsonObject o = tokenInfo(token, instantTime);
+
+    if (possibleIdToken.isPresent()) {
+      o.addProperty("id_token", possibleIdToken.get());
+    }
+
+    return new RsJson(o);
+  }
+
+  /**
+   * Gets the info of the provided token at the provided time.
+   */
+  static JsonObject tokenInfo(BearerToken token, DateTime instantTime) {
     JsonObject o = new JsonObject();
     o.addProperty("azp", token.clientId);
     o.addProperty("aud", token.clientId);
@@ -59,11 +80,19 @@ class TokenInfoController implements InstantaneousRequest {
     if (!token.scopes.isEmpty()) {
       o.addProperty("scope", Joiner.on(" ").join(token.scopes));
     }
+    return o;
+  }
+
+  private Optional<String> newIdToken(BearerToken token, String host, DateTime instantTime) {
+    Map<String, String> params = token.params != null ? token.params : Maps.<String, String>newHashMap();
+    Optional<Identity> possibleIdentity = identityFinder.findIdentity(new FindIdentityRequest(token.identityId, token.grantType, instantTime, params, token.clientId));
+    Identity identity = possibleIdentity.get();
+    Optional<String> possibleIdToken = idTokenFactory.create(host, token.clientId, identity,
+            token.ttlSeconds(instantTime), instantTime);
 
     if (possibleIdToken.isPresent()) {
-      o.addProperty("id_token", possibleIdToken.get());
+      idTokenCache.put(token, host, possibleIdToken.get(), instantTime);
     }
-
-    return new RsJson(o);
+    return possibleIdToken;
   }
 }
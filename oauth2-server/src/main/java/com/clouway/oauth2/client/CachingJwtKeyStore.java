@@ -0,0 +1,43 @@
+package com.clouway.oauth2.client;
+
+import com.clouway.oauth2.jws.Pem;
+import com.clouway.oauth2.jws.PublicKeyCache;
+import com.clouway.oauth2.jwt.Jwt;
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+
+import java.security.PublicKey;
+
+/**
+ * CachingJwtKeyStore is a {@link JwtKeyStore} decorator which is keeping the public keys of the service accounts
+ * in a {@link PublicKeyCache}, so the origin store is not asked for the same key on every JWT-bearer request.
+ * <p/>
+ * Keys are cached by the issuer and the key id of the assertion. Revoked service accounts are rejected when their key
+ * expires from the cache or when it's invalidated explicitly.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public final class CachingJwtKeyStore implements JwtKeyStore {
+  private final JwtKeyStore origin;
+  private final PublicKeyCache cache;
+
+  public CachingJwtKeyStore(JwtKeyStore origin, PublicKeyCache cache) {
+    this.origin = origin;
+    this.cache = cache;
+  }
+
+  @Override
+  public Optional<Pem.Block> findKey(Jwt.Header header, Jwt.ClaimSet claimSet) {
+    return origin.findKey(header, claimSet);
+  }
+
+  @Override
+  public Optional<PublicKey> findPublicKey(final Jwt.Header header, final Jwt.ClaimSet claimSet) {
+    return cache.get(claimSet.iss, claimSet.certId, new Supplier<Optional<PublicKey>>() {
+      @Override
+      public Optional<PublicKey> get() {
+        return origin.findPublicKey(header, claimSet);
+      }
+    });
+  }
+}
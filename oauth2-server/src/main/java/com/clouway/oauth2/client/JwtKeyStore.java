@@ -1,9 +1,12 @@
 package com.clouway.oauth2.client;
 
 import com.clouway.oauth2.jws.Pem;
+import com.clouway.oauth2.jws.PublicKeyDecoder;
 import com.clouway.oauth2.jwt.Jwt;
 import com.google.common.base.Optional;
 
+import java.security.PublicKey;
+
 /**
  * JwtKeyStore is a KeyStore which is responsible for retrieving of Key blocks for verifying
  * the JWT authorization.
@@ -24,4 +27,22 @@ public interface JwtKeyStore {
    */
   Optional<Pem.Block> findKey(Jwt.Header header, Jwt.ClaimSet claimSet);
 
+  /**
+   * Finds the public key that is used for verification of the JWT signed by the service account.
+   * <p/>
+   * The default implementation is deriving the public key from the block returned by {@link #findKey(Jwt.Header, Jwt.ClaimSet)}.
+   * Stores that are keeping the public keys separately could override it.
+   *
+   * @param header   the jwt header that specifies the type of the algorithm
+   * @param claimSet the claim set of which service account is requested
+   * @return the public key for that service account or absent value if service account is not known
+   */
+  default Optional<PublicKey> findPublicKey(Jwt.Header header, Jwt.ClaimSet claimSet) {
+    Optional<Pem.Block> possibleKey = findKey(header, claimSet);
+    if (!possibleKey.isPresent()) {
+      return Optional.absent();
+    }
+    return new PublicKeyDecoder().decode(possibleKey.get());
+  }
+
 }
@@ -0,0 +1,32 @@
+package com.clouway.oauth2.client;
+
+import com.google.common.base.Optional;
+
+/**
+ * NegativeCachingClientFinder is a {@link ClientFinder} decorator which is not asking the origin finder for clients
+ * that were recently not found.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public final class NegativeCachingClientFinder implements ClientFinder {
+  private final ClientFinder origin;
+  private final NegativeLookupCache cache;
+
+  public NegativeCachingClientFinder(ClientFinder origin, NegativeLookupCache cache) {
+    this.origin = origin;
+    this.cache = cache;
+  }
+
+  @Override
+  public Optional<Client> findClient(String clientId) {
+    if (cache.isMissing(NegativeLookupCache.CLIENTS, clientId, null)) {
+      return Optional.absent();
+    }
+
+    Optional<Client> possibleClient = origin.findClient(clientId);
+    if (!possibleClient.isPresent()) {
+      cache.markMissing(NegativeLookupCache.CLIENTS, clientId, null);
+    }
+    return possibleClient;
+  }
+}
@@ -0,0 +1,52 @@
+package com.clouway.oauth2.client;
+
+import com.clouway.oauth2.jws.Pem;
+import com.clouway.oauth2.jwt.Jwt;
+import com.google.common.base.Optional;
+
+import java.security.PublicKey;
+
+/**
+ * NegativeCachingJwtKeyStore is a {@link JwtKeyStore} decorator which is not asking the origin store for service
+ * accounts that were recently not found.
+ * <p/>
+ * Service accounts are identified by the issuer and the certificate id of the assertion, so an unknown certificate is
+ * not hiding the other keys of the same service account.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public final class NegativeCachingJwtKeyStore implements JwtKeyStore {
+  private final JwtKeyStore origin;
+  private final NegativeLookupCache cache;
+
+  public NegativeCachingJwtKeyStore(JwtKeyStore origin, NegativeLookupCache cache) {
+    this.origin = origin;
+    this.cache = cache;
+  }
+
+  @Override
+  public Optional<Pem.Block> findKey(Jwt.Header header, Jwt.ClaimSet claimSet) {
+    if (cache.isMissing(NegativeLookupCache.SERVICE_ACCOUNTS, claimSet.iss, claimSet.certId)) {
+      return Optional.absent();
+    }
+
+    Optional<Pem.Block> possibleKey = origin.findKey(header, claimSet);
+    if (!possibleKey.isPresent()) {
+      cache.markMissing(NegativeLookupCache.SERVICE_ACCOUNTS, claimSet.iss, claimSet.certId);
+    }
+    return possibleKey;
+  }
+
+  @Override
+  public Optional<PublicKey> findPublicKey(Jwt.Header header, Jwt.ClaimSet claimSet) {
+    if (cache.isMissing(NegativeLookupCache.SERVICE_ACCOUNTS, claimSet.iss, claimSet.certId)) {
+      return Optional.absent();
+    }
+
+    Optional<PublicKey> possibleKey = origin.findPublicKey(header, claimSet);
+    if (!possibleKey.isPresent()) {
+      cache.markMissing(NegativeLookupCache.SERVICE_ACCOUNTS, claimSet.iss, claimSet.certId);
+    }
+    return possibleKey;
+  }
+}
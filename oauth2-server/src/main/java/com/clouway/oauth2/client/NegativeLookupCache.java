@@ -0,0 +1,108 @@
+package com.clouway.oauth2.client;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NegativeLookupCache is remembering for a short time the clients and service accounts that were not found, so
+ * repeated requests of unknown or decommissioned ones are rejected without a round trip to the store.
+ * <p/>
+ * The cache is used by {@link NegativeCachingClientFinder} and {@link NegativeCachingJwtKeyStore}. Entries are expiring
+ * after the configured time to live and the number of entries is bounded, so a flood of random identifiers is evicting
+ * only older entries. Apps should call {@link #invalidate(String)} when a client or service account is registered, so
+ * it could be used immediately.
+ * <p/>
+ * Stats of the cache are reporting a hit for each request that was rejected from the cache and a miss for each request
+ * that was passed to the store.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public final class NegativeLookupCache {
+  static final String CLIENTS = "client";
+  static final String SERVICE_ACCOUNTS = "service-account";
+
+  // separator between the parts of the keys which is not expected in the identifiers
+  private static final char SEPARATOR = '\n';
+
+  /**
+   * Creates a cache which is not keeping any entries, so every request is passed to the store.
+   */
+  public static NegativeLookupCache disabled() {
+    return new NegativeLookupCache(0, 1, TimeUnit.SECONDS);
+  }
+
+  private final Cache<String, Boolean> cache;
+
+  public NegativeLookupCache(long maximumSize, long timeToLive, TimeUnit unit) {
+    this(maximumSize, timeToLive, unit, Ticker.systemTicker());
+  }
+
+  NegativeLookupCache(long maximumSize, long timeToLive, TimeUnit unit, Ticker ticker) {
+    this.cache = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(timeToLive, unit)
+            .ticker(ticker)
+            .recordStats()
+            .build();
+  }
+
+  /**
+   * Invalidates the entries of the provided client id or service account, e.g. after it was registered.
+   *
+   * @param id the id of the client or the issuer of the service account
+   */
+  public void invalidate(String id) {
+    String clientKey = keyOf(CLIENTS, id, null);
+    String serviceAccountPrefix = SERVICE_ACCOUNTS + SEPARATOR + id + SEPARATOR;
+
+    // service accounts are cached per certificate, so all of their entries are removed
+    for (String key : cache.asMap().keySet()) {
+      if (key.equals(clientKey) || key.startsWith(serviceAccountPrefix)) {
+        cache.invalidate(key);
+      }
+    }
+  }
+
+  /**
+   * Invalidates all entries.
+   */
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  /**
+   * Gets the statistics of the cache, e.g hit and miss counts.
+   *
+   * @return the statistics
+   */
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  /**
+   * Number of the cached entries.
+   */
+  public long size() {
+    return cache.size();
+  }
+
+  boolean isMissing(String namespace, String id, String qualifier) {
+    return cache.getIfPresent(keyOf(namespace, id, qualifier)) != null;
+  }
+
+  void markMissing(String namespace, String id, String qualifier) {
+    cache.put(keyOf(namespace, id, qualifier), Boolean.TRUE);
+  }
+
+  private String keyOf(String namespace, String id, String qualifier) {
+    StringBuilder key = new StringBuilder(namespace).append(SEPARATOR).append(id);
+    if (SERVICE_ACCOUNTS.equals(namespace)) {
+      key.append(SEPARATOR).append(qualifier == null ? "" : qualifier);
+    }
+    return key.toString();
+  }
+}
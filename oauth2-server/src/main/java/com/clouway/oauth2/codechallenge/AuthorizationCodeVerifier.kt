@@ -1,8 +1,9 @@
 package com.clouway.oauth2.codechallenge
 
+import com.clouway.oauth2.crypto.CryptoPool
 import java.nio.charset.StandardCharsets
+import java.security.GeneralSecurityException
 import java.security.MessageDigest
-import java.security.NoSuchAlgorithmException
 import java.util.Base64
 
 /**
@@ -29,19 +30,28 @@ class AuthorizationCodeVerifier : CodeVerifier {
 			}
 			
 			if (codeChallenge.method == "S256") {
-				val hashed = MessageDigest.getInstance("SHA-256").digest(
-					providedCodeVerifier.toByteArray(
-						StandardCharsets.UTF_8
+				val digest = digests.acquire()
+				val hashed = try {
+					digest.digest(
+						providedCodeVerifier.toByteArray(
+							StandardCharsets.UTF_8
+						)
 					)
-				)
+				} finally {
+					digests.release(digest)
+				}
 				
 				val codeChallengeValue = Base64.getUrlEncoder().withoutPadding().encodeToString(hashed)
 				
 				return codeChallengeValue == codeChallenge.transformedCodeChallenge
 			}
 			return false
-		} catch (e: NoSuchAlgorithmException) {
+		} catch (e: GeneralSecurityException) {
 			return false
 		}
 	}
+	
+	private companion object {
+		val digests: CryptoPool<MessageDigest> = CryptoPool.messageDigest("SHA-256")
+	}
 }
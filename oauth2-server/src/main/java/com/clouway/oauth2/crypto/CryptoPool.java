@@ -0,0 +1,216 @@
+package com.clouway.oauth2.crypto;
+
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.crypto.Mac;
+
+/**
+ * CryptoPool is keeping instances of JCA primitives like {@link Signature}, {@link MessageDigest} and
+ * {@link KeyFactory} for reuse, so the synchronized provider lookup of getInstance is not made on each request.
+ * <p/>
+ * Instances are kept in a fixed array of slots which are taken and returned with atomic operations starting from a
+ * slot selected by the id of the current thread. No locks are held and nothing is bound to the thread, so the pool
+ * is safe for virtual threads. When all slots are taken a new instance is created, and an instance that is returned
+ * in a full pool is dropped.
+ * <p/>
+ * Usage:
+ * <pre>
+ *   CryptoPool&lt;MessageDigest&gt; digests = CryptoPool.messageDigest("SHA-256");
+ *   MessageDigest digest = digests.acquire();
+ *   try {
+ *     return digest.digest(content);
+ *   } finally {
+ *     digests.release(digest);
+ *   }
+ * </pre>
+ * Acquired instance should not be used after its release. Signatures are initialized again by initSign or
+ * initVerify, so they are returned as they are. Digests are reset on release.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public final class CryptoPool<T> {
+
+  /**
+   * Factory of the pooled instances.
+   */
+  interface Factory<T> {
+
+    T create() throws GeneralSecurityException;
+
+    void reset(T instance);
+  }
+
+  private static final int SLOTS = slotsFor(Runtime.getRuntime().availableProcessors());
+
+  private static final ConcurrentMap<String, CryptoPool<Signature>> signatures = new ConcurrentHashMap<String, CryptoPool<Signature>>();
+  private static final ConcurrentMap<String, CryptoPool<MessageDigest>> digests = new ConcurrentHashMap<String, CryptoPool<MessageDigest>>();
+  private static final ConcurrentMap<String, CryptoPool<KeyFactory>> keyFactories = new ConcurrentHashMap<String, CryptoPool<KeyFactory>>();
+
+  /**
+   * Gets the pool of signatures of the provided algorithm, e.g. SHA256withRSA.
+   */
+  public static CryptoPool<Signature> signature(final String algorithm) {
+    CryptoPool<Signature> pool = signatures.get(algorithm);
+    if (pool != null) {
+      return pool;
+    }
+    pool = new CryptoPool<Signature>(SLOTS, new Factory<Signature>() {
+      @Override
+      public Signature create() throws GeneralSecurityException {
+        return Signature.getInstance(algorithm);
+      }
+
+      @Override
+      public void reset(Signature instance) {
+      }
+    });
+    CryptoPool<Signature> existing = signatures.putIfAbsent(algorithm, pool);
+    return existing == null ? pool : existing;
+  }
+
+  /**
+   * Gets the pool of message digests of the provided algorithm, e.g. SHA-256.
+   */
+  public static CryptoPool<MessageDigest> messageDigest(final String algorithm) {
+    CryptoPool<MessageDigest> pool = digests.get(algorithm);
+    if (pool != null) {
+      return pool;
+    }
+    pool = new CryptoPool<MessageDigest>(SLOTS, new Factory<MessageDigest>() {
+      @Override
+      public MessageDigest create() throws GeneralSecurityException {
+        return MessageDigest.getInstance(algorithm);
+      }
+
+      @Override
+      public void reset(MessageDigest instance) {
+        instance.reset();
+      }
+    });
+    CryptoPool<MessageDigest> existing = digests.putIfAbsent(algorithm, pool);
+    return existing == null ? pool : existing;
+  }
+
+  /**
+   * Gets the pool of key factories of the provided algorithm, e.g. RSA.
+   */
+  public static CryptoPool<KeyFactory> keyFactory(final String algorithm) {
+    CryptoPool<KeyFactory> pool = keyFactories.get(algorithm);
+    if (pool != null) {
+      return pool;
+    }
+    pool = new CryptoPool<KeyFactory>(SLOTS, new Factory<KeyFactory>() {
+      @Override
+      public KeyFactory create() throws GeneralSecurityException {
+        return KeyFactory.getInstance(algorithm);
+      }
+
+      @Override
+      public void reset(KeyFactory instance) {
+      }
+    });
+    CryptoPool<KeyFactory> existing = keyFactories.putIfAbsent(algorithm, pool);
+    return existing == null ? pool : existing;
+  }
+
+  /**
+   * Creates a pool of MACs of the provided algorithm, e.g. HmacSHA256, which are initialized with the provided key.
+   * Pools of MACs are bound to their key, so they are not shared and should be kept by the caller.
+   */
+  public static CryptoPool<Mac> mac(final String algorithm, final Key key) {
+    return new CryptoPool<Mac>(SLOTS, new Factory<Mac>() {
+      @Override
+      public Mac create() throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(algorithm);
+        mac.init(key);
+        return mac;
+      }
+
+      @Override
+      public void reset(Mac instance) {
+        instance.reset();
+      }
+    });
+  }
+
+  private final AtomicReferenceArray<T> slots;
+  private final int mask;
+  private final Factory<T> factory;
+
+  CryptoPool(int slots, Factory<T> factory) {
+    int size = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+    this.slots = new AtomicReferenceArray<T>(size);
+    this.mask = size - 1;
+    this.factory = factory;
+  }
+
+  /**
+   * Takes an instance from the pool or creates a new one when the pool is empty.
+   *
+   * @return the acquired instance
+   * @throws GeneralSecurityException if algorithm of the pool is not available
+   */
+  public T acquire() throws GeneralSecurityException {
+    int start = probe();
+    for (int i = 0; i <= mask; i++) {
+      int index = (start + i) & mask;
+      if (slots.get(index) != null) {
+        T instance = slots.getAndSet(index, null);
+        if (instance != null) {
+          return instance;
+        }
+      }
+    }
+    return factory.create();
+  }
+
+  /**
+   * Returns an acquired instance back to the pool.
+   *
+   * @param instance the instance that was acquired from this pool
+   */
+  public void release(T instance) {
+    if (instance == null) {
+      return;
+    }
+    factory.reset(instance);
+
+    int start = probe();
+    for (int i = 0; i <= mask; i++) {
+      int index = (start + i) & mask;
+      if (slots.get(index) == null && slots.compareAndSet(index, null, instance)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Number of the instances that are available in the pool.
+   */
+  int available() {
+    int count = 0;
+    for (int i = 0; i <= mask; i++) {
+      if (slots.get(i) != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static int probe() {
+    // ids of the threads are sequential, so they are spread before selecting of the slot
+    long id = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+    return (int) (id ^ (id >>> 32));
+  }
+
+  private static int slotsFor(int processors) {
+    return Math.max(8, processors * 2);
+  }
+}
@@ -0,0 +1,63 @@
+package com.clouway.oauth2.jws;
+
+import com.clouway.oauth2.jwt.Jwt.Header;
+import com.google.common.base.Optional;
+import com.google.common.collect.Sets;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * AllowlistSignatureFactory is a {@link SignatureFactory} which is creating signatures only for the algorithms that
+ * are explicitly allowed.
+ * <p/>
+ * Accepting any algorithm that is named in the JWT header is vulnerable to algorithm substitution, so signatures of any
+ * other algorithm, including "none" and the symmetric ones, are rejected. Each signature verifies only with a key of
+ * it's own algorithm. More information could be taken from:
+ * https://auth0.com/blog/2015/03/31/critical-vulnerabilities-in-json-web-token-libraries/
+ * <p/>
+ * Algorithms that are not available in the running JVM could not be allowed, e.g. EdDSA requires Java 15 or newer.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public final class AllowlistSignatureFactory implements SignatureFactory {
+  private final Set<JwsAlgorithm> allowed;
+
+  /**
+   * Creates a factory for the provided algorithms.
+   *
+   * @param allowed the algorithms that are allowed
+   * @throws IllegalArgumentException if any of the algorithms is not available in the running JVM
+   */
+  public AllowlistSignatureFactory(Set<JwsAlgorithm> allowed) {
+    for (JwsAlgorithm each : allowed) {
+      if (!each.isAvailable()) {
+        String requirement = each == JwsAlgorithm.EdDSA ? ", it requires Java 15 or newer" : "";
+        throw new IllegalArgumentException(each + " is not available in this Java runtime" + requirement);
+      }
+    }
+    this.allowed = Sets.immutableEnumSet(EnumSet.copyOf(allowed));
+  }
+
+  @Override
+  public Optional<Signature> createSignature(byte[] signatureValue, Header header) {
+    Optional<JwsAlgorithm> possibleAlgorithm = JwsAlgorithm.of(header.alg);
+
+    if (!possibleAlgorithm.isPresent() || !allowed.contains(possibleAlgorithm.get())) {
+      return Optional.absent();
+    }
+
+    JwsAlgorithm algorithm = possibleAlgorithm.get();
+    switch (algorithm) {
+      case RS256:
+        return Optional.<Signature>of(new RsaJwsSignature(signatureValue));
+      case ES256:
+      case ES384:
+        return Optional.<Signature>of(new EcdsaJwsSignature(algorithm, signatureValue));
+      case EdDSA:
+        return Optional.<Signature>of(new EdDsaJwsSignature(signatureValue));
+      default:
+        return Optional.absent();
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package com.clouway.oauth2.jws;
+
+import java.security.PublicKey;
+
+/**
+ * EcdsaJwsSignature is an implementation of {@link com.clouway.oauth2.jws.Signature} that uses ECDSA with the P-256
+ * (ES256) or P-384 (ES384) curves.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class EcdsaJwsSignature implements Signature {
+  private final JwsAlgorithm algorithm;
+  private final byte[] signature;
+
+  public EcdsaJwsSignature(JwsAlgorithm algorithm, byte[] signature) {
+    if (algorithm != JwsAlgorithm.ES256 && algorithm != JwsAlgorithm.ES384) {
+      throw new IllegalArgumentException("ECDSA algorithm is expected, but was " + algorithm);
+    }
+    this.algorithm = algorithm;
+    this.signature = signature;
+  }
+
+  @Override
+  public boolean verifyWithPrivateKey(byte[] content, Pem.Block privateKey) {
+    // signatures are randomized, so they could be verified only with the public key
+    return false;
+  }
+
+  @Override
+  public boolean verify(byte[] content, PublicKey publicKey) {
+    return verify(content, 0, content.length, publicKey);
+  }
+
+  @Override
+  public boolean verify(byte[] content, int offset, int length, PublicKey publicKey) {
+    // key of another type or curve is never accepted to prevent algorithm confusion
+    if (!algorithm.accepts(publicKey) || signature.length != algorithm.coordinateLength() * 2) {
+      return false;
+    }
+    try {
+      return algorithm.verify(publicKey, content, offset, length, signature);
+
+    } catch (Exception e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package com.clouway.oauth2.jws;
+
+/**
+ * EcdsaSignatureFormat converts ECDSA signatures between the ASN.1 DER encoding that is used by the JCA and the
+ * fixed length concatenation of R and S that is used by JWS.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ * @see <a href="https://tools.ietf.org/html/rfc7518#section-3.4">Digital Signature with ECDSA</a>
+ */
+public final class EcdsaSignatureFormat {
+
+  private EcdsaSignatureFormat() {
+  }
+
+  /**
+   * Converts JWS signature (R || S) to DER encoded sequence of two integers.
+   *
+   * @param jose the JWS signature
+   * @return the DER encoded signature
+   * @throws IllegalArgumentException if signature is not having an even length
+   */
+  public static byte[] toDer(byte[] jose) {
+    if (jose.length == 0 || jose.length % 2 != 0) {
+      throw new IllegalArgumentException("invalid ECDSA signature length: " + jose.length);
+    }
+    int half = jose.length / 2;
+
+    byte[] r = integer(jose, 0, half);
+    byte[] s = integer(jose, half, half);
+
+    int contentLength = 2 + r.length + 2 + s.length;
+    byte[] der;
+    int offset;
+    if (contentLength < 128) {
+      der = new byte[2 + contentLength];
+      der[0] = 0x30;
+      der[1] = (byte) contentLength;
+      offset = 2;
+    } else {
+      der = new byte[3 + contentLength];
+      der[0] = 0x30;
+      der[1] = (byte) 0x81;
+      der[2] = (byte) contentLength;
+      offset = 3;
+    }
+
+    der[offset++] = 0x02;
+    der[offset++] = (byte) r.length;
+    System.arraycopy(r, 0, der, offset, r.length);
+    offset += r.length;
+
+    der[offset++] = 0x02;
+    der[offset++] = (byte) s.length;
+    System.arraycopy(s, 0, der, offset, s.length);
+
+    return der;
+  }
+
+  /**
+   * Converts DER encoded signature to JWS signature (R || S) where each of the values is having the provided length.
+   *
+   * @param der    the DER encoded signature
+   * @param length the length of R and S in bytes, 32 for P-256 and 48 for P-384
+   * @return the JWS signature
+   * @throws IllegalArgumentException if signature is not a valid DER sequence
+   */
+  public static byte[] toJose(byte[] der, int length) {
+    if (der.length < 8 || der[0] != 0x30) {
+      throw new IllegalArgumentException("invalid DER signature");
+    }
+
+    int offset = (der[1] & 0xFF) == 0x81 ? 3 : 2;
+    byte[] jose = new byte[length * 2];
+
+    offset = copyInteger(der, offset, jose, 0, length);
+    copyInteger(der, offset, jose, length, length);
+
+    return jose;
+  }
+
+  private static int copyInteger(byte[] der, int offset, byte[] target, int targetOffset, int length) {
+    if (der[offset] != 0x02) {
+      throw new IllegalArgumentException("invalid DER signature");
+    }
+    int integerLength = der[offset + 1] & 0xFF;
+    int start = offset + 2;
+    int end = start + integerLength;
+    if (end > der.length) {
+      throw new IllegalArgumentException("invalid DER signature");
+    }
+
+    // skip the leading zeros which are used for the sign
+    while (start < end && der[start] == 0 && end - start > length) {
+      start++;
+    }
+    int valueLength = end - start;
+    if (valueLength > length) {
+      throw new IllegalArgumentException("invalid DER signature");
+    }
+
+    System.arraycopy(der, start, target, targetOffset + length - valueLength, valueLength);
+    return end;
+  }
+
+  private static byte[] integer(byte[] source, int offset, int length) {
+    int start = offset;
+    int end = offset + length;
+    while (start < end - 1 && source[start] == 0) {
+      start++;
+    }
+    // positive integers with the high bit set are prefixed with zero
+    boolean padding = (source[start] & 0x80) != 0;
+
+    byte[] value = new byte[(end - start) + (padding ? 1 : 0)];
+    System.arraycopy(source, start, value, padding ? 1 : 0, end - start);
+    return value;
+  }
+}
@@ -0,0 +1,42 @@
+package com.clouway.oauth2.jws;
+
+import java.security.PublicKey;
+
+/**
+ * EdDsaJwsSignature is an implementation of {@link com.clouway.oauth2.jws.Signature} that uses Ed25519.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ * @see <a href="https://tools.ietf.org/html/rfc8037">CFRG Elliptic Curve Signatures in JOSE</a>
+ */
+public class EdDsaJwsSignature implements Signature {
+  private static final int SIGNATURE_LENGTH = 64;
+
+  private final byte[] signature;
+
+  public EdDsaJwsSignature(byte[] signature) {
+    this.signature = signature;
+  }
+
+  @Override
+  public boolean verifyWithPrivateKey(byte[] content, Pem.Block privateKey) {
+    return false;
+  }
+
+  @Override
+  public boolean verify(byte[] content, PublicKey publicKey) {
+    return verify(content, 0, content.length, publicKey);
+  }
+
+  @Override
+  public boolean verify(byte[] content, int offset, int length, PublicKey publicKey) {
+    if (!JwsAlgorithm.EdDSA.accepts(publicKey) || signature.length != SIGNATURE_LENGTH) {
+      return false;
+    }
+    try {
+      return JwsAlgorithm.EdDSA.verify(publicKey, content, offset, length, signature);
+
+    } catch (Exception e) {
+      return false;
+    }
+  }
+}
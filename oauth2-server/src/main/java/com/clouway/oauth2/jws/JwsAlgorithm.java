@@ -0,0 +1,176 @@
+package com.clouway.oauth2.jws;
+
+import com.clouway.oauth2.crypto.CryptoPool;
+import com.google.common.base.Optional;
+
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.interfaces.ECKey;
+import java.security.interfaces.RSAKey;
+import java.util.Locale;
+
+/**
+ * JwsAlgorithm is the list of the asymmetric algorithms that could be used for signing and verifying of JWS.
+ * <p/>
+ * Symmetric algorithms and "none" are intentionally not part of the list. Each algorithm is accepting only keys of
+ * it's own type, so a key could not be used with an algorithm that is different from the one it was created for.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ * @see <a href="https://tools.ietf.org/html/rfc7518#section-3.1">"alg" (Algorithm) Header Parameter Values for JWS</a>
+ * @see <a href="https://tools.ietf.org/html/rfc8037#section-3.1">Edwards-Curve Digital Signature Algorithm</a>
+ */
+public enum JwsAlgorithm {
+  RS256("SHA256withRSA", "RSA", 0),
+  ES256("SHA256withECDSA", "EC", 32),
+  ES384("SHA384withECDSA", "EC", 48),
+  /**
+   * Ed25519 signatures. It's requiring a Java 15 or newer runtime.
+   */
+  EdDSA("Ed25519", "EdDSA", 0);
+
+  private final String jcaName;
+  private final String keyAlgorithm;
+  private final int coordinateLength;
+  private final boolean available;
+  private final CryptoPool<java.security.Signature> signatures;
+
+  JwsAlgorithm(String jcaName, String keyAlgorithm, int coordinateLength) {
+    this.jcaName = jcaName;
+    this.keyAlgorithm = keyAlgorithm;
+    this.coordinateLength = coordinateLength;
+    // names of the registered algorithms are returned in upper case
+    this.available = Security.getAlgorithms("Signature").contains(jcaName.toUpperCase(Locale.ROOT));
+    this.signatures = CryptoPool.signature(jcaName);
+  }
+
+  /**
+   * Finds algorithm by it's name in the JWS header.
+   *
+   * @param name the value of the alg header
+   * @return the algorithm or absent value if it's not supported
+   */
+  public static Optional<JwsAlgorithm> of(String name) {
+    if (name == null) {
+      return Optional.absent();
+    }
+    for (JwsAlgorithm each : values()) {
+      if (each.name().equals(name)) {
+        return Optional.of(each);
+      }
+    }
+    return Optional.absent();
+  }
+
+  /**
+   * Determines the algorithm that should be used for signing with the provided key.
+   *
+   * @param key the signing key
+   * @return the algorithm or absent value if key is not supported
+   */
+  public static Optional<JwsAlgorithm> forKey(Key key) {
+    for (JwsAlgorithm each : values()) {
+      if (each.accepts(key)) {
+        return Optional.of(each);
+      }
+    }
+    return Optional.absent();
+  }
+
+  /**
+   * Gets the name of the algorithm in the JCA.
+   */
+  public String jcaName() {
+    return jcaName;
+  }
+
+  /**
+   * Checks whether the algorithm is provided by the running JVM, e.g. EdDSA is not available before Java 15.
+   */
+  public boolean isAvailable() {
+    return available;
+  }
+
+  /**
+   * Checks whether the provided key could be used with this algorithm.
+   *
+   * @param key the key to be checked
+   * @return true if key is for the same algorithm and for ECDSA on the same curve
+   */
+  public boolean accepts(Key key) {
+    if (key == null) {
+      return false;
+    }
+    String algorithm = key.getAlgorithm();
+
+    switch (this) {
+      case RS256:
+        return key instanceof RSAKey && "RSA".equals(algorithm);
+      case ES256:
+      case ES384:
+        return key instanceof ECKey && "EC".equals(algorithm)
+                && (((ECKey) key).getParams().getCurve().getField().getFieldSize() + 7) / 8 == coordinateLength;
+      default:
+        return "EdDSA".equals(algorithm) || "Ed25519".equals(algorithm);
+    }
+  }
+
+  /**
+   * Signs the provided range of the content.
+   *
+   * @param privateKey the signing key
+   * @param content    the content to be signed
+   * @param offset     the offset of the signing input
+   * @param length     the length of the signing input
+   * @return the JWS signature
+   * @throws GeneralSecurityException if key is not matching the algorithm or signing fails
+   */
+  public byte[] sign(PrivateKey privateKey, byte[] content, int offset, int length) throws GeneralSecurityException {
+    if (!accepts(privateKey)) {
+      throw new java.security.InvalidKeyException(keyAlgorithm + " key is expected for " + name());
+    }
+    java.security.Signature signature = signatures.acquire();
+    try {
+      signature.initSign(privateKey);
+      signature.update(content, offset, length);
+      byte[] value = signature.sign();
+
+      return coordinateLength > 0 ? EcdsaSignatureFormat.toJose(value, coordinateLength) : value;
+    } finally {
+      signatures.release(signature);
+    }
+  }
+
+  /**
+   * Verifies the JWS signature of the provided range of the content. The key is expected to be checked with
+   * {@link #accepts(Key)} by the caller.
+   *
+   * @param publicKey the verification key
+   * @param content   the signed content
+   * @param offset    the offset of the signing input
+   * @param length    the length of the signing input
+   * @param value     the JWS signature
+   * @return true if signature is valid
+   * @throws GeneralSecurityException if key or signature could not be used
+   */
+  boolean verify(PublicKey publicKey, byte[] content, int offset, int length, byte[] value) throws GeneralSecurityException {
+    java.security.Signature signature = signatures.acquire();
+    try {
+      signature.initVerify(publicKey);
+      signature.update(content, offset, length);
+
+      return signature.verify(coordinateLength > 0 ? EcdsaSignatureFormat.toDer(value) : value);
+    } finally {
+      signatures.release(signature);
+    }
+  }
+
+  /**
+   * Length of R and S of the ECDSA signatures.
+   */
+  int coordinateLength() {
+    return coordinateLength;
+  }
+}
@@ -37,6 +37,10 @@ public final class Pem {
       this.content = content;
     }
 
+    public String getType() {
+      return type;
+    }
+
     public byte[] getBytes() {
       return content;
     }
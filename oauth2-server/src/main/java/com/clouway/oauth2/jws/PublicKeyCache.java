@@ -0,0 +1,105 @@
+package com.clouway.oauth2.jws;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import java.security.PublicKey;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PublicKeyCache is a bounded cache of the public keys of the service accounts.
+ * <p/>
+ * Keys are cached by the issuer and the key id of the assertion, so the key store is not asked for the key of the same
+ * service account on every request. Entries are evicted when the maximum size is reached or when the configured time
+ * since they were loaded has passed, so revoked or rotated keys are not accepted for longer than that time. Keys could
+ * be removed explicitly using {@link #invalidate(String, String)} or {@link #invalidateIssuer(String)} when they are
+ * revoked or rotated.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public final class PublicKeyCache {
+  private final Cache<String, PublicKey> cache;
+
+  public PublicKeyCache(long maximumSize, long expireAfterWrite, TimeUnit unit) {
+    this.cache = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(expireAfterWrite, unit)
+            .recordStats()
+            .build();
+  }
+
+  /**
+   * Gets the public key of the provided issuer and key id by loading it only when it's not already cached.
+   *
+   * @param issuer the issuer of the assertion
+   * @param keyId  the id of the key or null if assertion is not specifying it
+   * @param loader the loader of the key
+   * @return the public key or absent value if loader is not finding it
+   */
+  public Optional<PublicKey> get(String issuer, String keyId, Supplier<Optional<PublicKey>> loader) {
+    String id = idOf(issuer, keyId);
+
+    PublicKey publicKey = cache.getIfPresent(id);
+    if (publicKey != null) {
+      return Optional.of(publicKey);
+    }
+
+    // Missing keys are not cached here as they are handled by the NegativeLookupCache.
+    Optional<PublicKey> possibleKey = loader.get();
+    if (possibleKey.isPresent()) {
+      cache.put(id, possibleKey.get());
+    }
+    return possibleKey;
+  }
+
+  /**
+   * Invalidates the public key of the provided issuer and key id. It should be called when the key of a service account
+   * is revoked or rotated.
+   *
+   * @param issuer the issuer of the assertion
+   * @param keyId  the id of the key or null if assertions are not specifying it
+   */
+  public void invalidate(String issuer, String keyId) {
+    cache.invalidate(idOf(issuer, keyId));
+  }
+
+  /**
+   * Invalidates the public keys of all key ids of the provided issuer. It should be called when the keys of a service
+   * account are replaced and their ids are not known.
+   *
+   * @param issuer the issuer of the assertions
+   */
+  public void invalidateIssuer(String issuer) {
+    String prefix = issuer + "\u0000";
+    for (Iterator<String> it = cache.asMap().keySet().iterator(); it.hasNext(); ) {
+      if (it.next().startsWith(prefix)) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Invalidates all cached keys.
+   */
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  /**
+   * Gets the statistics of the cache, e.g hit and eviction counts.
+   *
+   * @return the statistics
+   */
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  private String idOf(String issuer, String keyId) {
+    // issuer and key id are separated with a char that is not expected in any of them
+    return issuer + "\u0000" + (keyId == null ? "" : keyId);
+  }
+}
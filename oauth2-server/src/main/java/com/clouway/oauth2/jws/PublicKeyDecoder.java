@@ -0,0 +1,87 @@
+package com.clouway.oauth2.jws;
+
+import com.clouway.oauth2.crypto.CryptoPool;
+import com.google.common.base.Optional;
+
+import java.io.ByteArrayInputStream;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.cert.CertificateFactory;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+
+/**
+ * PublicKeyDecoder is decoding the public key that is needed for verification of signatures from a {@link Pem.Block}.
+ * <p/>
+ * Service accounts are registered with their private keys, so the public key is derived from the CRT parameters of the
+ * RSA private key. Blocks of type PUBLIC KEY and CERTIFICATE are decoded directly and could hold RSA, EC or Ed25519
+ * keys. Public keys of EC and Ed25519 private keys are not derived, so such service accounts should be registered with
+ * their public keys.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public final class PublicKeyDecoder {
+  private static final String[] KEY_ALGORITHMS = {"RSA", "EC", "Ed25519"};
+
+  /**
+   * Decodes public key from the provided block.
+   *
+   * @param block the block to be decoded
+   * @return the public key or absent value if block could not be decoded
+   */
+  public Optional<PublicKey> decode(Pem.Block block) {
+    try {
+      String type = block.getType() == null ? "" : block.getType();
+
+      if (type.endsWith("PUBLIC KEY")) {
+        return Optional.of(decodePublicKey(block.getBytes()));
+      }
+
+      if ("CERTIFICATE".equals(type)) {
+        return Optional.of(decodeCertificate(block.getBytes()));
+      }
+
+      CryptoPool<KeyFactory> keyFactories = CryptoPool.keyFactory("RSA");
+      KeyFactory kf = keyFactories.acquire();
+      try {
+        RSAPrivateCrtKey privateKey = (RSAPrivateCrtKey) kf.generatePrivate(new PKCS8EncodedKeySpec(block.getBytes()));
+
+        return Optional.of(kf.generatePublic(new RSAPublicKeySpec(privateKey.getModulus(), privateKey.getPublicExponent())));
+      } finally {
+        keyFactories.release(kf);
+      }
+    } catch (Exception e) {
+      return Optional.absent();
+    }
+  }
+
+  private PublicKey decodeCertificate(byte[] content) throws Exception {
+    // Certificates published by the /certs endpoint are holding only the encoded public key
+    // and not a complete X.509 certificate.
+    try {
+      return decodePublicKey(content);
+    } catch (Exception e) {
+      return CertificateFactory.getInstance("X.509").generateCertificate(new ByteArrayInputStream(content)).getPublicKey();
+    }
+  }
+
+  private PublicKey decodePublicKey(byte[] content) throws Exception {
+    X509EncodedKeySpec keySpec = new X509EncodedKeySpec(content);
+    Exception failure = null;
+    for (String algorithm : KEY_ALGORITHMS) {
+      CryptoPool<KeyFactory> keyFactories = CryptoPool.keyFactory(algorithm);
+      KeyFactory kf = null;
+      try {
+        kf = keyFactories.acquire();
+        return kf.generatePublic(keySpec);
+      } catch (Exception e) {
+        failure = e;
+      } finally {
+        keyFactories.release(kf);
+      }
+    }
+    throw failure;
+  }
+}
@@ -1,8 +1,10 @@
 package com.clouway.oauth2.jws;
 
+import com.clouway.oauth2.crypto.CryptoPool;
+
 import java.security.KeyFactory;
 import java.security.PrivateKey;
-import java.security.Signature;
+import java.security.PublicKey;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.util.Arrays;
 
@@ -20,22 +22,42 @@ public class RsaJwsSignature implements com.clouway.oauth2.jws.Signature {
     this.signature = signature;
   }
 
+  @Override
   public boolean verifyWithPrivateKey(byte[] content, Pem.Block privateKey) {
     try {
 
       PKCS8EncodedKeySpec keySpec = new PKCS8EncodedKeySpec(privateKey.getBytes());
-      KeyFactory kf = KeyFactory.getInstance("RSA");
+      CryptoPool<KeyFactory> keyFactories = CryptoPool.keyFactory("RSA");
+      KeyFactory kf = keyFactories.acquire();
+
+      PrivateKey privKey;
+      try {
+        privKey = kf.generatePrivate(keySpec);
+      } finally {
+        keyFactories.release(kf);
+      }
 
-      PrivateKey privKey = kf.generatePrivate(keySpec);
+      byte[] checkSign = JwsAlgorithm.RS256.sign(privKey, content, 0, content.length);
 
-      Signature sig = Signature.getInstance("SHA256withRSA");
-      sig.initSign(privKey);
+      return Arrays.equals(signature, checkSign);
 
-      sig.update(content);
+    } catch (Exception e) {
+      return false;
+    }
+  }
 
-      byte[] checkSign = sig.sign();
+  @Override
+  public boolean verify(byte[] content, PublicKey publicKey) {
+    return verify(content, 0, content.length, publicKey);
+  }
 
-      return Arrays.equals(signature, checkSign);
+  @Override
+  public boolean verify(byte[] content, int offset, int length, PublicKey publicKey) {
+    if (!JwsAlgorithm.RS256.accepts(publicKey)) {
+      return false;
+    }
+    try {
+      return JwsAlgorithm.RS256.verify(publicKey, content, offset, length, signature);
 
     } catch (Exception e) {
       return false;
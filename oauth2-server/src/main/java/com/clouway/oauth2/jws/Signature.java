@@ -1,5 +1,8 @@
 package com.clouway.oauth2.jws;
 
+import java.security.PublicKey;
+import java.util.Arrays;
+
 /**
  * Signature is representing a single JWS signature that is applied over received messages.
  * <p/>
@@ -11,11 +14,37 @@ public interface Signature {
   /**
    * Verify is verifying Signature using the provided privateKey as PEM file.
    * <p/>
+   * The signature is re-created with the private key and compared with the received one, which is much more expensive
+   * than a public key verification. Use {@link #verify(byte[], PublicKey)} instead.
    *
    * @param content    the content to be verified
    * @param privateKey the private key used for verifying
    * @return true if signature is
    */
+  @Deprecated
   boolean verifyWithPrivateKey(byte[] content, Pem.Block privateKey);
 
+  /**
+   * Verifies Signature using the public key of the party that signed the content.
+   *
+   * @param content   the content to be verified
+   * @param publicKey the public key used for verifying
+   * @return true if signature is matching the content and false in other case
+   */
+  boolean verify(byte[] content, PublicKey publicKey);
+
+  /**
+   * Verifies Signature over a range of the provided content, so the signing input of a compact JWT could be verified
+   * without being copied.
+   *
+   * @param content   the content which contains the signing input
+   * @param offset    the offset of the signing input
+   * @param length    the length of the signing input
+   * @param publicKey the public key used for verifying
+   * @return true if signature is matching the content and false in other case
+   */
+  default boolean verify(byte[] content, int offset, int length, PublicKey publicKey) {
+    return verify(Arrays.copyOfRange(content, offset, offset + length), publicKey);
+  }
+
 }
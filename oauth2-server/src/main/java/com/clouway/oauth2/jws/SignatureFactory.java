@@ -7,7 +7,7 @@ import com.google.common.base.Optional;
  * SignatureFactory is a factory class which is creating a signature by providing it's signature value and a Header that
  * comes from the request to be able to determine the type of the Signature.
  * <p/>
- * Currently only RSA Signature is supported.
+ * See {@link AllowlistSignatureFactory} for the supported algorithms.
  *
  * @author Miroslav Genov (miroslav.genov@clouway.com)
  */
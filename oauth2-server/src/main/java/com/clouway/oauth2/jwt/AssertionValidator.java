@@ -0,0 +1,215 @@
+package com.clouway.oauth2.jwt;
+
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.common.Duration;
+import com.clouway.oauth2.jwt.Jwt.ClaimSet;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * AssertionValidator is the first stage of handling of JWT-bearer assertions. It rejects assertions that could never
+ * be accepted before any key lookup or signature verification is performed:
+ * <ul>
+ * <li>assertions larger than the configured size</li>
+ * <li>assertions that could not be parsed or that are not having an expiration time</li>
+ * <li>expired assertions</li>
+ * <li>assertions that are issued in the future or are not valid yet (nbf)</li>
+ * <li>assertions for audience that is not accepted, if accepted audiences are configured</li>
+ * </ul>
+ * The configured clock skew is tolerated in both directions.
+ * <p/>
+ * Number of the rejections is counted per reason and could be retrieved with {@link #stats()}.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ * @see <a href="https://tools.ietf.org/html/rfc7523#section-3">JWT Format and Processing Requirements</a>
+ */
+public final class AssertionValidator {
+
+  /**
+   * Rejection is the reason for which assertion was rejected.
+   */
+  public enum Rejection {
+    OVERSIZED, MALFORMED, EXPIRED, NOT_YET_VALID, INVALID_AUDIENCE
+  }
+
+  public static Builder newValidator() {
+    return new Builder();
+  }
+
+  public static final class Builder {
+    private Duration clockSkew = Duration.seconds(60L);
+    private int maxLength = 8 * 1024;
+    private Set<String> audiences = ImmutableSet.of();
+
+    private Builder() {
+    }
+
+    /**
+     * Sets the tolerated difference between the clock of the issuer and the local clock. Default is 60 seconds.
+     */
+    public Builder clockSkew(Duration clockSkew) {
+      this.clockSkew = clockSkew;
+      return this;
+    }
+
+    /**
+     * Sets the max length of the encoded assertion. Default is 8KB.
+     */
+    public Builder maxLength(int maxLength) {
+      this.maxLength = maxLength;
+      return this;
+    }
+
+    /**
+     * Sets the audiences which are accepted, e.g the URL of the token endpoint. Audience is not checked when no
+     * audiences are configured.
+     */
+    public Builder audiences(Set<String> audiences) {
+      this.audiences = ImmutableSet.copyOf(audiences);
+      return this;
+    }
+
+    public AssertionValidator build() {
+      return new AssertionValidator(this);
+    }
+  }
+
+  /**
+   * Result of the validation which holds the parsed assertion when it's accepted.
+   */
+  public static final class Result {
+    private final CompactJwt jwt;
+    private final Rejection rejection;
+
+    private Result(CompactJwt jwt, Rejection rejection) {
+      this.jwt = jwt;
+      this.rejection = rejection;
+    }
+
+    public boolean isAccepted() {
+      return rejection == null;
+    }
+
+    public CompactJwt jwt() {
+      return jwt;
+    }
+
+    public Rejection rejection() {
+      return rejection;
+    }
+  }
+
+  private static final Rejection[] REJECTIONS = Rejection.values();
+
+  private final CompactJwtParser parser = new CompactJwtParser();
+  private final AtomicLongArray rejections = new AtomicLongArray(REJECTIONS.length);
+
+  private final long clockSkewSeconds;
+  private final int maxLength;
+  private final Set<String> audiences;
+
+  private AssertionValidator(Builder builder) {
+    this.clockSkewSeconds = builder.clockSkew.seconds;
+    this.maxLength = builder.maxLength;
+    this.audiences = builder.audiences;
+  }
+
+  /**
+   * Validates the provided assertion as of the given instant.
+   *
+   * @param assertion the assertion in compact serialization
+   * @param instant   the time of the request
+   * @return the result of the validation
+   */
+  public Result validate(String assertion, DateTime instant) {
+    if (assertion == null || assertion.isEmpty()) {
+      return reject(Rejection.MALFORMED);
+    }
+
+    if (assertion.length() > maxLength) {
+      return reject(Rejection.OVERSIZED);
+    }
+
+    Optional<CompactJwt> possibleJwt = parser.parse(assertion);
+    if (!possibleJwt.isPresent()) {
+      return reject(Rejection.MALFORMED);
+    }
+
+    CompactJwt jwt = possibleJwt.get();
+    ClaimSet claimSet = jwt.claimSet;
+
+    if (claimSet.exp == null) {
+      return reject(Rejection.MALFORMED);
+    }
+
+    long now = instant.timestamp() / 1000;
+
+    if (now - clockSkewSeconds >= claimSet.exp) {
+      return reject(Rejection.EXPIRED);
+    }
+
+    if (claimSet.iat != null && claimSet.iat > now + clockSkewSeconds) {
+      return reject(Rejection.NOT_YET_VALID);
+    }
+
+    if (claimSet.nbf != null && claimSet.nbf > now + clockSkewSeconds) {
+      return reject(Rejection.NOT_YET_VALID);
+    }
+
+    if (!audiences.isEmpty() && !audiences.contains(claimSet.aud)) {
+      return reject(Rejection.INVALID_AUDIENCE);
+    }
+
+    return new Result(jwt, null);
+  }
+
+  /**
+   * Gets a snapshot of the number of rejected assertions per reason.
+   */
+  public Stats stats() {
+    Map<Rejection, Long> counts = new EnumMap<>(Rejection.class);
+    for (Rejection each : REJECTIONS) {
+      counts.put(each, rejections.get(each.ordinal()));
+    }
+    return new Stats(counts);
+  }
+
+  private Result reject(Rejection rejection) {
+    rejections.incrementAndGet(rejection.ordinal());
+    return new Result(null, rejection);
+  }
+
+  /**
+   * Stats is a snapshot of the rejections of the validator.
+   */
+  public static final class Stats {
+    private final Map<Rejection, Long> rejections;
+
+    Stats(Map<Rejection, Long> rejections) {
+      this.rejections = rejections;
+    }
+
+    public long rejections(Rejection rejection) {
+      return rejections.get(rejection);
+    }
+
+    public long totalRejections() {
+      long total = 0;
+      for (Long each : rejections.values()) {
+        total += each;
+      }
+      return total;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this).add("rejections", rejections).toString();
+    }
+  }
+}
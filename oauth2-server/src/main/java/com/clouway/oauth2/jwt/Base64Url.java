@@ -0,0 +1,81 @@
+package com.clouway.oauth2.jwt;
+
+import java.util.Arrays;
+
+/**
+ * Base64Url is decoding base64url encoded values directly from a range of ASCII bytes, so the parts of a compact JWT
+ * are decoded without being copied to separate strings first.
+ * <p/>
+ * Padding is optional as JWS is using the unpadded form of the encoding.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ * @see <a href="https://tools.ietf.org/html/rfc7515#appendix-C">Base64url Encoding without Padding</a>
+ */
+final class Base64Url {
+  private static final byte[] DECODE_TABLE = new byte[128];
+
+  static {
+    Arrays.fill(DECODE_TABLE, (byte) -1);
+    String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+    for (int i = 0; i < alphabet.length(); i++) {
+      DECODE_TABLE[alphabet.charAt(i)] = (byte) i;
+    }
+  }
+
+  private Base64Url() {
+  }
+
+  /**
+   * Decodes the bytes in the range [from, to).
+   *
+   * @param src  the source that contains encoded value
+   * @param from the index of the first byte
+   * @param to   the index after the last byte
+   * @return the decoded value
+   * @throws IllegalArgumentException if the range is not a valid base64url value
+   */
+  static byte[] decode(byte[] src, int from, int to) {
+    // trailing padding is tolerated but not required
+    while (to > from && src[to - 1] == '=') {
+      to--;
+    }
+
+    int length = to - from;
+    if (length % 4 == 1) {
+      throw new IllegalArgumentException("invalid base64url length");
+    }
+
+    byte[] out = new byte[length / 4 * 3 + Math.max(0, length % 4 - 1)];
+
+    int o = 0;
+    int i = from;
+    int fullChunksEnd = from + length / 4 * 4;
+    while (i < fullChunksEnd) {
+      int bits = valueOf(src[i]) << 18 | valueOf(src[i + 1]) << 12 | valueOf(src[i + 2]) << 6 | valueOf(src[i + 3]);
+      out[o++] = (byte) (bits >> 16);
+      out[o++] = (byte) (bits >> 8);
+      out[o++] = (byte) bits;
+      i += 4;
+    }
+
+    int remaining = to - i;
+    if (remaining == 2) {
+      int bits = valueOf(src[i]) << 18 | valueOf(src[i + 1]) << 12;
+      out[o] = (byte) (bits >> 16);
+    } else if (remaining == 3) {
+      int bits = valueOf(src[i]) << 18 | valueOf(src[i + 1]) << 12 | valueOf(src[i + 2]) << 6;
+      out[o++] = (byte) (bits >> 16);
+      out[o] = (byte) (bits >> 8);
+    }
+
+    return out;
+  }
+
+  private static int valueOf(byte b) {
+    int value = b < 0 ? -1 : DECODE_TABLE[b];
+    if (value < 0) {
+      throw new IllegalArgumentException("invalid base64url character: " + (char) (b & 0xFF));
+    }
+    return value;
+  }
+}
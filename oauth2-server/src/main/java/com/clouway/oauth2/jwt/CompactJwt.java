@@ -0,0 +1,74 @@
+package com.clouway.oauth2.jwt;
+
+import com.clouway.oauth2.jwt.Jwt.ClaimSet;
+import com.clouway.oauth2.jwt.Jwt.Header;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * CompactJwt is a JWT which was received in it's compact serialization form:
+ * <pre>
+ *   BASE64URL(header) '.' BASE64URL(claims) '.' BASE64URL(signature)
+ * </pre>
+ * The ASCII bytes of the received token are kept as is, so the signing input could be verified without copying.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ * @see <a href="https://tools.ietf.org/html/rfc7515#section-7.1">JWS Compact Serialization</a>
+ */
+public final class CompactJwt {
+  public final Header header;
+  public final ClaimSet claimSet;
+
+  private final byte[] content;
+  private final int signingInputLength;
+  private final byte[] decodedHeader;
+  private final byte[] decodedClaimSet;
+  private final byte[] signature;
+
+  CompactJwt(Header header, ClaimSet claimSet, byte[] content, int signingInputLength, byte[] decodedHeader, byte[] decodedClaimSet, byte[] signature) {
+    this.header = header;
+    this.claimSet = claimSet;
+    this.content = content;
+    this.signingInputLength = signingInputLength;
+    this.decodedHeader = decodedHeader;
+    this.decodedClaimSet = decodedClaimSet;
+    this.signature = signature;
+  }
+
+  /**
+   * Gets the ASCII bytes of the whole token. The signing input is the range [0, {@link #signingInputLength()}).
+   * <p/>
+   * The returned array is not copied and should not be modified.
+   */
+  public byte[] content() {
+    return content;
+  }
+
+  /**
+   * Gets the length of the signing input - the encoded header and claims, including the dot between them.
+   */
+  public int signingInputLength() {
+    return signingInputLength;
+  }
+
+  /**
+   * Gets the decoded signature value.
+   */
+  public byte[] signature() {
+    return signature;
+  }
+
+  /**
+   * Gets the SHA-256 digest of the decoded header, claim set and signature. Base64url allows the same bytes to be
+   * encoded in more than one way, e.g. with padding, so the digest is used instead of the content for identifying the
+   * same assertion.
+   */
+  public HashCode digest() {
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putInt(decodedHeader.length).putBytes(decodedHeader);
+    hasher.putInt(decodedClaimSet.length).putBytes(decodedClaimSet);
+    hasher.putBytes(signature);
+    return hasher.hash();
+  }
+}
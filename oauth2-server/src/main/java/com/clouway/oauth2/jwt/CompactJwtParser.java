@@ -0,0 +1,179 @@
+package com.clouway.oauth2.jwt;
+
+import com.clouway.oauth2.jwt.Jwt.ClaimSet;
+import com.clouway.oauth2.jwt.Jwt.Header;
+import com.google.common.base.Optional;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * CompactJwtParser parses JWTs in compact serialization in a single pass.
+ * <p/>
+ * The token is scanned once for finding the two dots. Each of the parts is decoded directly from the ASCII bytes and
+ * only the members that are used by {@link Header} and {@link ClaimSet} are materialized. Values of all other
+ * members are skipped without being decoded.
+ * <p/>
+ * Parser is stateless and thread-safe.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public final class CompactJwtParser {
+
+  private static final byte[][] HEADER_NAMES = names("alg");
+  private static final int ALG = 0;
+
+  private static final byte[][] CLAIM_NAMES = names("iss", "scope", "aud", "exp", "iat", "typ", "sub", "prn", "certId", "customClaims", "nbf", "jti");
+  private static final int ISS = 0;
+  private static final int SCOPE = 1;
+  private static final int AUD = 2;
+  private static final int EXP = 3;
+  private static final int IAT = 4;
+  private static final int TYP = 5;
+  private static final int SUB = 6;
+  private static final int PRN = 7;
+  private static final int CERT_ID = 8;
+  private static final int CUSTOM_CLAIMS = 9;
+  private static final int NBF = 10;
+  private static final int JTI = 11;
+
+  /**
+   * Parses the provided token.
+   *
+   * @param token the token in compact serialization
+   * @return the parsed JWT or absent value if token is malformed
+   */
+  public Optional<CompactJwt> parse(String token) {
+    if (token == null) {
+      return Optional.absent();
+    }
+
+    int length = token.length();
+    byte[] content = new byte[length];
+    int firstDot = -1;
+    int secondDot = -1;
+
+    for (int i = 0; i < length; i++) {
+      char c = token.charAt(i);
+      if (c > 0x7F) {
+        return Optional.absent();
+      }
+      if (c == '.') {
+        if (firstDot == -1) {
+          firstDot = i;
+        } else if (secondDot == -1) {
+          secondDot = i;
+        } else {
+          // JWE tokens and tokens with more parts are not supported
+          return Optional.absent();
+        }
+      }
+      content[i] = (byte) c;
+    }
+
+    if (firstDot <= 0 || secondDot == -1 || secondDot == firstDot + 1 || secondDot == length - 1) {
+      return Optional.absent();
+    }
+
+    try {
+      byte[] decodedHeader = Base64Url.decode(content, 0, firstDot);
+      byte[] decodedClaimSet = Base64Url.decode(content, firstDot + 1, secondDot);
+      Header header = readHeader(decodedHeader);
+      ClaimSet claimSet = readClaimSet(decodedClaimSet);
+      byte[] signature = Base64Url.decode(content, secondDot + 1, length);
+
+      return Optional.of(new CompactJwt(header, claimSet, content, secondDot, decodedHeader, decodedClaimSet, signature));
+    } catch (IllegalArgumentException e) {
+      return Optional.absent();
+    }
+  }
+
+  private Header readHeader(byte[] json) {
+    JsonObjectReader reader = new JsonObjectReader(json);
+    String alg = null;
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if (reader.nextName(HEADER_NAMES) == ALG) {
+        alg = reader.nextString();
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endDocument();
+
+    return new Header(alg);
+  }
+
+  private ClaimSet readClaimSet(byte[] json) {
+    JsonObjectReader reader = new JsonObjectReader(json);
+    ClaimSet.Builder builder = ClaimSet.newClaimSet();
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName(CLAIM_NAMES)) {
+        case ISS:
+          builder.iss(reader.nextString());
+          break;
+        case SCOPE:
+          builder.scope(reader.nextString());
+          break;
+        case AUD:
+          builder.aud(reader.nextString());
+          break;
+        case EXP:
+          builder.exp(reader.nextLong());
+          break;
+        case IAT:
+          builder.iat(reader.nextLong());
+          break;
+        case NBF:
+          builder.nbf(reader.nextLong());
+          break;
+        case JTI:
+          builder.jti(reader.nextString());
+          break;
+        case TYP:
+          builder.typ(reader.nextString());
+          break;
+        case SUB:
+          builder.sub(reader.nextString());
+          break;
+        case PRN:
+          builder.prn(reader.nextString());
+          break;
+        case CERT_ID:
+          builder.certId(reader.nextString());
+          break;
+        case CUSTOM_CLAIMS:
+          builder.customClaims(readObject(reader));
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.endDocument();
+
+    return builder.build();
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> readObject(JsonObjectReader reader) {
+    Object value = reader.nextValue();
+    if (value == null) {
+      return null;
+    }
+    if (!(value instanceof Map)) {
+      throw new IllegalArgumentException("customClaims is not an object");
+    }
+    return (Map<String, Object>) value;
+  }
+
+  private static byte[][] names(String... names) {
+    byte[][] result = new byte[names.length][];
+    for (int i = 0; i < names.length; i++) {
+      result[i] = names[i].getBytes(StandardCharsets.US_ASCII);
+    }
+    return result;
+  }
+}
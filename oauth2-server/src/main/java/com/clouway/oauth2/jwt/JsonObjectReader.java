@@ -0,0 +1,409 @@
+package com.clouway.oauth2.jwt;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JsonObjectReader is a forward only reader of a single UTF-8 encoded JSON object.
+ * <p/>
+ * It's used for reading of the JOSE Header and the Claim Set of the JWT where only a few members are needed, so names
+ * are matched against the expected ones without being decoded and values of the unknown members are skipped without
+ * allocation.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+final class JsonObjectReader {
+  static final int UNKNOWN_NAME = -1;
+
+  private final byte[] in;
+  private int pos;
+
+  JsonObjectReader(byte[] in) {
+    this.in = in;
+    this.pos = 0;
+  }
+
+  void beginObject() {
+    expect('{');
+  }
+
+  /**
+   * Checks whether object has more members and consumes the separator between them.
+   */
+  boolean hasNext() {
+    return hasMore('{', '}');
+  }
+
+  /**
+   * Reads the name of the next member and returns the index of the matching name or {@link #UNKNOWN_NAME}.
+   *
+   * @param names the ASCII encoded names that are expected
+   * @return the index of the name that was matched
+   */
+  int nextName(byte[][] names) {
+    skipWhitespace();
+    expect('"');
+    int start = pos;
+    boolean escaped = false;
+    while (true) {
+      byte b = next();
+      if (b == '"') {
+        break;
+      }
+      if (b == '\\') {
+        escaped = true;
+        next();
+      }
+    }
+    int end = pos - 1;
+
+    skipWhitespace();
+    expect(':');
+
+    if (escaped) {
+      pos = start;
+      byte[] name = readEscapedString().getBytes(StandardCharsets.UTF_8);
+      skipWhitespace();
+      expect(':');
+      return indexOf(names, name, 0, name.length);
+    }
+    return indexOf(names, in, start, end);
+  }
+
+  String nextString() {
+    skipWhitespace();
+    if (peek() == 'n') {
+      expectLiteral("null");
+      return null;
+    }
+    expect('"');
+    int start = pos;
+    while (true) {
+      byte b = next();
+      if (b == '"') {
+        return new String(in, start, pos - start - 1, StandardCharsets.UTF_8);
+      }
+      if (b == '\\') {
+        pos = start;
+        return readEscapedString();
+      }
+    }
+  }
+
+  Long nextLong() {
+    skipWhitespace();
+    if (peek() == 'n') {
+      expectLiteral("null");
+      return null;
+    }
+    Number value = readNumber();
+    return value.longValue();
+  }
+
+  /**
+   * Reads the next value as one of String, Double, Boolean, List, Map or null. Numbers are read as Double as they were
+   * read by Gson, so the custom claims are keeping the types of their values.
+   */
+  Object nextValue() {
+    skipWhitespace();
+    byte b = peek();
+    switch (b) {
+      case '"':
+        return nextString();
+      case '{':
+        pos++;
+        Map<String, Object> object = new LinkedHashMap<>();
+        while (hasNext()) {
+          String name = nextString();
+          skipWhitespace();
+          expect(':');
+          object.put(name, nextValue());
+        }
+        return object;
+      case '[':
+        pos++;
+        List<Object> array = new ArrayList<>();
+        while (hasNextElement()) {
+          array.add(nextValue());
+        }
+        return array;
+      case 't':
+        expectLiteral("true");
+        return Boolean.TRUE;
+      case 'f':
+        expectLiteral("false");
+        return Boolean.FALSE;
+      case 'n':
+        expectLiteral("null");
+        return null;
+      default:
+        return readNumber().doubleValue();
+    }
+  }
+
+  void skipValue() {
+    skipWhitespace();
+    byte b = peek();
+    switch (b) {
+      case '"':
+        pos++;
+        while (true) {
+          byte c = next();
+          if (c == '"') {
+            return;
+          }
+          if (c == '\\') {
+            next();
+          }
+        }
+      case '{':
+        pos++;
+        while (hasNext()) {
+          skipValue();
+          skipWhitespace();
+          expect(':');
+          skipValue();
+        }
+        return;
+      case '[':
+        pos++;
+        while (hasNextElement()) {
+          skipValue();
+        }
+        return;
+      case 't':
+        expectLiteral("true");
+        return;
+      case 'f':
+        expectLiteral("false");
+        return;
+      case 'n':
+        expectLiteral("null");
+        return;
+      default:
+        readNumber();
+    }
+  }
+
+  /**
+   * Ensures that nothing except whitespace is following the object.
+   */
+  void endDocument() {
+    skipWhitespace();
+    if (pos != in.length) {
+      throw new IllegalArgumentException("unexpected content after the end of the object");
+    }
+  }
+
+  private boolean hasNextElement() {
+    return hasMore('[', ']');
+  }
+
+  private boolean hasMore(char open, char close) {
+    // values are never ending with the opening bracket, so it's preceding only the first member
+    boolean first = in[lastSignificant()] == open;
+    skipWhitespace();
+    if (peek() == close) {
+      pos++;
+      return false;
+    }
+    if (!first) {
+      expect(',');
+    }
+    return true;
+  }
+
+  private int lastSignificant() {
+    int i = pos - 1;
+    while (in[i] == ' ' || in[i] == '\t' || in[i] == '\n' || in[i] == '\r') {
+      i--;
+    }
+    return i;
+  }
+
+  private Number readNumber() {
+    int start = pos;
+    boolean decimal = false;
+    while (pos < in.length) {
+      byte b = in[pos];
+      if (b == '.' || b == 'e' || b == 'E') {
+        decimal = true;
+      } else if (!(b == '-' || b == '+' || (b >= '0' && b <= '9'))) {
+        break;
+      }
+      pos++;
+    }
+    if (start == pos) {
+      throw new IllegalArgumentException("unexpected character at " + pos);
+    }
+
+    if (!decimal && pos - start < 19) {
+      long value = 0;
+      boolean negative = in[start] == '-';
+      if (negative && pos - start == 1) {
+        throw new IllegalArgumentException("malformed number at " + start);
+      }
+      for (int i = negative ? start + 1 : start; i < pos; i++) {
+        byte b = in[i];
+        if (b < '0' || b > '9') {
+          throw new IllegalArgumentException("malformed number at " + start);
+        }
+        value = value * 10 + (b - '0');
+      }
+      return negative ? -value : value;
+    }
+
+    return Double.parseDouble(new String(in, start, pos - start, StandardCharsets.US_ASCII));
+  }
+
+  private String readEscapedString() {
+    // the opening quote was already consumed
+    ByteSink sink = new ByteSink();
+    while (true) {
+      byte b = next();
+      if (b == '"') {
+        return sink.asString();
+      }
+      if (b != '\\') {
+        sink.write(b);
+        continue;
+      }
+      byte escaped = next();
+      switch (escaped) {
+        case '"':
+        case '\\':
+        case '/':
+          sink.write(escaped);
+          break;
+        case 'b':
+          sink.write('\b');
+          break;
+        case 'f':
+          sink.write('\f');
+          break;
+        case 'n':
+          sink.write('\n');
+          break;
+        case 'r':
+          sink.write('\r');
+          break;
+        case 't':
+          sink.write('\t');
+          break;
+        case 'u':
+          char c = readHex(pos);
+          pos += 4;
+          if (Character.isHighSurrogate(c) && pos + 6 <= in.length && in[pos] == '\\' && in[pos + 1] == 'u'
+                  && Character.isLowSurrogate(readHex(pos + 2))) {
+            char low = readHex(pos + 2);
+            pos += 6;
+            sink.write(new String(new char[]{c, low}).getBytes(StandardCharsets.UTF_8));
+          } else {
+            sink.write(String.valueOf(c).getBytes(StandardCharsets.UTF_8));
+          }
+          break;
+        default:
+          throw new IllegalArgumentException("invalid escape sequence at " + pos);
+      }
+    }
+  }
+
+  private char readHex(int start) {
+    if (start + 4 > in.length) {
+      throw new IllegalArgumentException("truncated escape sequence at " + start);
+    }
+    int value = 0;
+    for (int i = start; i < start + 4; i++) {
+      int digit = Character.digit(in[i], 16);
+      if (digit < 0) {
+        throw new IllegalArgumentException("invalid escape sequence at " + start);
+      }
+      value = value << 4 | digit;
+    }
+    return (char) value;
+  }
+
+  private int indexOf(byte[][] names, byte[] src, int start, int end) {
+    int length = end - start;
+    for (int i = 0; i < names.length; i++) {
+      byte[] name = names[i];
+      if (name.length != length) {
+        continue;
+      }
+      boolean matching = true;
+      for (int j = 0; j < length; j++) {
+        if (name[j] != src[start + j]) {
+          matching = false;
+          break;
+        }
+      }
+      if (matching) {
+        return i;
+      }
+    }
+    return UNKNOWN_NAME;
+  }
+
+  private void expectLiteral(String literal) {
+    for (int i = 0; i < literal.length(); i++) {
+      if (next() != literal.charAt(i)) {
+        throw new IllegalArgumentException("expected " + literal + " at " + pos);
+      }
+    }
+  }
+
+  private void expect(char c) {
+    skipWhitespace();
+    if (next() != c) {
+      throw new IllegalArgumentException("expected '" + c + "' at " + (pos - 1));
+    }
+  }
+
+  private void skipWhitespace() {
+    while (pos < in.length) {
+      byte b = in[pos];
+      if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+        return;
+      }
+      pos++;
+    }
+  }
+
+  private byte peek() {
+    if (pos >= in.length) {
+      throw new IllegalArgumentException("unexpected end of the object");
+    }
+    return in[pos];
+  }
+
+  private byte next() {
+    byte b = peek();
+    pos++;
+    return b;
+  }
+
+  private static final class ByteSink {
+    private byte[] buf = new byte[32];
+    private int count = 0;
+
+    void write(int b) {
+      if (count == buf.length) {
+        buf = java.util.Arrays.copyOf(buf, buf.length * 2);
+      }
+      buf[count++] = (byte) b;
+    }
+
+    void write(byte[] bytes) {
+      for (byte b : bytes) {
+        write(b);
+      }
+    }
+
+    String asString() {
+      return new String(buf, 0, count, StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -64,6 +64,16 @@ public final class Jwt {
      */
     public final Long iat;
 
+    /**
+     * The time before which the assertion must not be accepted (Optional)
+     */
+    public final Long nbf;
+
+    /**
+     * Unique identifier of the assertion which is used for preventing of replays (Optional)
+     */
+    public final String jti;
+
     /**
      * Token Type (Optional)
      */
@@ -89,6 +99,8 @@ public final class Jwt {
       private String aud;
       private Long exp;
       private Long iat;
+      private Long nbf;
+      private String jti;
       private String typ;
       private String sub;
       private String prn;
@@ -127,6 +139,16 @@ public final class Jwt {
         return this;
       }
 
+      public Builder nbf(Long nbf) {
+        this.nbf = nbf;
+        return this;
+      }
+
+      public Builder jti(String jti) {
+        this.jti = jti;
+        return this;
+      }
+
       public Builder typ(String typ) {
         this.typ = typ;
         return this;
@@ -168,6 +190,8 @@ public final class Jwt {
       this.aud = aud;
       this.exp = exp;
       this.iat = iat;
+      this.nbf = null;
+      this.jti = null;
       this.typ = typ;
       this.sub = sub;
       this.prn = sub;
@@ -178,7 +202,7 @@ public final class Jwt {
     @Override
     public String toString() {
       return MoreObjects.toStringHelper(this).add("iss", iss).add("scope", scope).add("aud", aud).add("exp", exp)
-              .add("iat", iat).add("typ", typ).add("certificate_id", certId).add("custom_claims", customClaims).toString();
+              .add("iat", iat).add("nbf", nbf).add("jti", jti).add("typ", typ).add("certificate_id", certId).add("custom_claims", customClaims).toString();
     }
 
     private ClaimSet(Builder builder) {
@@ -187,6 +211,8 @@ public final class Jwt {
       this.aud = builder.aud;
       this.exp = builder.exp;
       this.iat = builder.iat;
+      this.nbf = builder.nbf;
+      this.jti = builder.jti;
       this.typ = builder.typ;
       this.sub = builder.sub;
       this.prn = builder.prn;
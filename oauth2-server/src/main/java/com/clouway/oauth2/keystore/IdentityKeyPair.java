@@ -1,5 +1,7 @@
 package com.clouway.oauth2.keystore;
 
+import com.clouway.oauth2.jws.JwsAlgorithm;
+
 import java.security.PrivateKey;
 import java.security.PublicKey;
 
@@ -7,6 +9,9 @@ import java.security.PublicKey;
  * IdentityKeyPair is a key pair which is used to represent identity, public and private keys that are used for signing
  * of id_token. The identity in the key is used as marker to mark the key that was used for signing and this ID is encoded
  * in the header of the signature to provide a clean way for safe verification of the signature.
+ * <p/>
+ * RSA, EC (P-256 and P-384) and Ed25519 keys are supported. The algorithm is determined from the type of the key when
+ * it's not provided.
  *
  * @author Miroslav Genov (miroslav.genov@clouway.com)
  */
@@ -14,10 +19,16 @@ public final class IdentityKeyPair {
   public final String keyId;
   public final PrivateKey privateKey;
   public final PublicKey publicKey;
+  public final JwsAlgorithm algorithm;
 
   public IdentityKeyPair(String keyId, PrivateKey privateKey, PublicKey publicKey) {
+    this(keyId, privateKey, publicKey, JwsAlgorithm.forKey(publicKey).or(JwsAlgorithm.RS256));
+  }
+
+  public IdentityKeyPair(String keyId, PrivateKey privateKey, PublicKey publicKey, JwsAlgorithm algorithm) {
     this.keyId = keyId;
     this.privateKey = privateKey;
     this.publicKey = publicKey;
+    this.algorithm = algorithm;
   }
 }
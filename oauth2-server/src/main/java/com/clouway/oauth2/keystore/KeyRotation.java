@@ -0,0 +1,153 @@
+package com.clouway.oauth2.keystore;
+
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.common.Duration;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * KeyRotation is a {@link KeyStore} which is rotating the signing keys on a schedule. Each key is becoming active at
+ * its activation time and is used for signing until the next key is activated. At any time there is a single active
+ * key, so verifiers could cache it, while the next key is published in advance and the replaced keys are kept for
+ * verification during the retirement period, so tokens which were signed with them could still be verified.
+ * <p/>
+ * The rotation is derived from the schedule and the time only, so all instances are flipping to the new key at the
+ * same time. The current {@link KeySet} is computed once per change and published atomically.
+ * <p/>
+ * {@link #getKeys()} returns the verification keys, so it could be used as a {@link KeyStore} for publishing of the
+ * certificates.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public final class KeyRotation implements KeyStore, SigningKeySelector {
+
+  public static Builder newKeyRotation() {
+    return new Builder();
+  }
+
+  public static final class Builder {
+    private final List<ScheduledKey> keys = Lists.newArrayList();
+    private Duration retirement = Duration.hours(24);
+
+    private Builder() {
+    }
+
+    /**
+     * Adds a key which is activated at the provided time.
+     */
+    public Builder key(IdentityKeyPair key, DateTime activeFrom) {
+      keys.add(new ScheduledKey(key, activeFrom.timestamp()));
+      return this;
+    }
+
+    /**
+     * Sets how long a key is kept for verification after it was replaced. It should be longer than the lifetime of
+     * the signed tokens. Default is 24 hours.
+     */
+    public Builder retirement(Duration retirement) {
+      this.retirement = retirement;
+      return this;
+    }
+
+    public KeyRotation build() {
+      return new KeyRotation(this);
+    }
+  }
+
+  private static final class ScheduledKey {
+    private final IdentityKeyPair key;
+    private final long activeFrom;
+
+    ScheduledKey(IdentityKeyPair key, long activeFrom) {
+      this.key = key;
+      this.activeFrom = activeFrom;
+    }
+  }
+
+  private final List<ScheduledKey> keys;
+  private final long retirementMillis;
+  private final AtomicReference<KeySet> current = new AtomicReference<KeySet>();
+
+  private KeyRotation(Builder builder) {
+    List<ScheduledKey> keys = new ArrayList<ScheduledKey>(builder.keys);
+    Collections.sort(keys, new Comparator<ScheduledKey>() {
+      @Override
+      public int compare(ScheduledKey o1, ScheduledKey o2) {
+        return Long.compare(o1.activeFrom, o2.activeFrom);
+      }
+    });
+    this.keys = keys;
+    this.retirementMillis = builder.retirement.asMills();
+  }
+
+  @Override
+  public List<IdentityKeyPair> getKeys() {
+    return keysAt(new DateTime()).verificationKeys();
+  }
+
+  @Override
+  public Optional<IdentityKeyPair> signingKey(DateTime instant) {
+    return keysAt(instant).active;
+  }
+
+  /**
+   * Gets the set of keys at the provided time.
+   *
+   * @param instant the time
+   * @return the set of keys which is valid at that time
+   */
+  public KeySet keysAt(DateTime instant) {
+    long now = instant.timestamp();
+
+    KeySet keySet = current.get();
+    if (keySet != null && keySet.isValidAt(now)) {
+      return keySet;
+    }
+
+    keySet = compute(now);
+    current.set(keySet);
+    return keySet;
+  }
+
+  private KeySet compute(long now) {
+    int activeIndex = -1;
+    for (int i = 0; i < keys.size() && keys.get(i).activeFrom <= now; i++) {
+      activeIndex = i;
+    }
+
+    long validFrom = Long.MIN_VALUE;
+    long validUntil = Long.MAX_VALUE;
+
+    Optional<IdentityKeyPair> active = Optional.absent();
+    if (activeIndex >= 0) {
+      active = Optional.of(keys.get(activeIndex).key);
+      validFrom = keys.get(activeIndex).activeFrom;
+    }
+
+    Optional<IdentityKeyPair> next = Optional.absent();
+    if (activeIndex + 1 < keys.size()) {
+      next = Optional.of(keys.get(activeIndex + 1).key);
+      validUntil = keys.get(activeIndex + 1).activeFrom;
+    }
+
+    // keys are retired when they are replaced and are removed after the retirement period
+    List<IdentityKeyPair> retired = Lists.newArrayList();
+    for (int i = activeIndex - 1; i >= 0; i--) {
+      long removedAt = keys.get(i + 1).activeFrom + retirementMillis;
+      if (removedAt > now) {
+        retired.add(keys.get(i).key);
+        validUntil = Math.min(validUntil, removedAt);
+      } else {
+        validFrom = Math.max(validFrom, removedAt);
+      }
+    }
+
+    return new KeySet(active, next, retired, validFrom, validUntil);
+  }
+}
@@ -0,0 +1,76 @@
+package com.clouway.oauth2.keystore;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * KeySet is the set of keys of a {@link KeyRotation} at a given time. It holds the key which is used for signing, the
+ * key which will replace it and the retired keys which are still accepted for verification.
+ * <p/>
+ * The set is not changing until {@link #validUntil}, so verifiers and caches of the published keys could keep it
+ * until that time.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public final class KeySet {
+
+  /**
+   * The key that is used for signing.
+   */
+  public final Optional<IdentityKeyPair> active;
+
+  /**
+   * The key that will replace the active key. It's published in advance so verifiers know it before it's used.
+   */
+  public final Optional<IdentityKeyPair> next;
+
+  /**
+   * Keys that were replaced, but are still accepted for verification of the already signed tokens.
+   */
+  public final List<IdentityKeyPair> retired;
+
+  /**
+   * The time in milliseconds from which the set is valid.
+   */
+  public final long validFrom;
+
+  /**
+   * The time in milliseconds until which the set is valid or {@link Long#MAX_VALUE} if it's not changing.
+   */
+  public final long validUntil;
+
+  private final List<IdentityKeyPair> verificationKeys;
+
+  KeySet(Optional<IdentityKeyPair> active, Optional<IdentityKeyPair> next, List<IdentityKeyPair> retired, long validFrom, long validUntil) {
+    this.active = active;
+    this.next = next;
+    this.retired = ImmutableList.copyOf(retired);
+    this.validFrom = validFrom;
+    this.validUntil = validUntil;
+
+    ImmutableList.Builder<IdentityKeyPair> keys = ImmutableList.builder();
+    keys.addAll(active.asSet()).addAll(next.asSet()).addAll(retired);
+    this.verificationKeys = keys.build();
+  }
+
+  /**
+   * Gets the keys which should be accepted for verification: the active, the next and the retired keys.
+   *
+   * @return the verification keys starting with the active key
+   */
+  public List<IdentityKeyPair> verificationKeys() {
+    return verificationKeys;
+  }
+
+  /**
+   * Checks whether the set is valid at the provided time.
+   *
+   * @param timestamp the time in milliseconds
+   * @return true if the set is valid at that time and false otherwise
+   */
+  public boolean isValidAt(long timestamp) {
+    return validFrom <= timestamp && timestamp < validUntil;
+  }
+}
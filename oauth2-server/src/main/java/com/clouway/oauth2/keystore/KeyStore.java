@@ -4,6 +4,9 @@ import java.util.List;
 
 /**
  * KeyStore is store for keys used for signing and verifying of the signatures of the id_tokens.
+ * <p/>
+ * The first of the keys is used for signing, unless the store is a {@link SigningKeySelector}, e.g.
+ * {@link KeyRotation}, and all keys are published for verification.
  *
  * @author Ianislav Nachev <qnislav.nachev@clouway.com>
  */
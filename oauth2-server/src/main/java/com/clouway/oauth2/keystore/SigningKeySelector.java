@@ -0,0 +1,22 @@
+package com.clouway.oauth2.keystore;
+
+import com.clouway.oauth2.common.DateTime;
+import com.google.common.base.Optional;
+
+/**
+ * SigningKeySelector is selecting the key which is used for signing of the id_tokens at a given time.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ * @see KeyRotation
+ */
+public interface SigningKeySelector {
+
+  /**
+   * Selects the key that is used for signing at the provided time.
+   *
+   * @param instant the time of signing
+   * @return the signing key or absent value if no key is available
+   */
+  Optional<IdentityKeyPair> signingKey(DateTime instant);
+
+}
@@ -0,0 +1,154 @@
+package com.clouway.oauth2.keystore;
+
+import com.clouway.oauth2.common.DateTime;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * SnapshotKeyStore is a {@link KeyStore} which is keeping an immutable snapshot of the keys of another store and is
+ * refreshing it on a schedule in the background, so request threads are never waiting for the retrieval of the keys.
+ * <p/>
+ * The new snapshot is published atomically once it's retrieved. If the retrieval fails the last snapshot is served
+ * until the next successful refresh. Apps that are rotating their keys could call {@link #refresh()} after the
+ * rotation to make the new keys available without waiting for the next scheduled refresh.
+ * <p/>
+ * The signing key is selected by the wrapped store if it's a {@link SigningKeySelector}, e.g. a {@link KeyRotation},
+ * so wrapping is not changing which key is used for signing. Otherwise the first key of the snapshot is used.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public final class SnapshotKeyStore implements KeyStore, SigningKeySelector, Closeable {
+  private static final Logger logger = Logger.getLogger(SnapshotKeyStore.class.getName());
+
+  private final KeyStore keyStore;
+  private final ScheduledExecutorService executor;
+  private final boolean ownsExecutor;
+  private final AtomicReference<List<IdentityKeyPair>> snapshot = new AtomicReference<List<IdentityKeyPair>>(ImmutableList.<IdentityKeyPair>of());
+  private final AtomicLong failures = new AtomicLong();
+  private final Object refreshLock = new Object();
+  private final ScheduledFuture<?> scheduledRefresh;
+
+  /**
+   * Creates a new store which is refreshing the keys on a daemon thread of its own.
+   *
+   * @param keyStore        the store from which keys are retrieved
+   * @param refreshInterval the interval between the refreshes
+   * @param unit            the unit of the interval
+   */
+  public SnapshotKeyStore(KeyStore keyStore, long refreshInterval, TimeUnit unit) {
+    this(keyStore, Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "oauth2-keystore-refresh");
+        thread.setDaemon(true);
+        return thread;
+      }
+    }), true, refreshInterval, unit);
+  }
+
+  /**
+   * Creates a new store which is refreshing the keys using the provided executor. The executor is not shut down
+   * when the store is closed.
+   *
+   * @param keyStore        the store from which keys are retrieved
+   * @param executor        the executor on which refreshes are scheduled
+   * @param refreshInterval the interval between the refreshes
+   * @param unit            the unit of the interval
+   */
+  public SnapshotKeyStore(KeyStore keyStore, ScheduledExecutorService executor, long refreshInterval, TimeUnit unit) {
+    this(keyStore, executor, false, refreshInterval, unit);
+  }
+
+  private SnapshotKeyStore(KeyStore keyStore, ScheduledExecutorService executor, boolean ownsExecutor, long refreshInterval, TimeUnit unit) {
+    this.keyStore = keyStore;
+    this.executor = executor;
+    this.ownsExecutor = ownsExecutor;
+
+    // the first snapshot is retrieved during the construction, so the keys are available for the first request
+    refresh();
+
+    this.scheduledRefresh = executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        refresh();
+      }
+    }, refreshInterval, refreshInterval, unit);
+  }
+
+  @Override
+  public List<IdentityKeyPair> getKeys() {
+    return snapshot.get();
+  }
+
+  @Override
+  public Optional<IdentityKeyPair> signingKey(DateTime instant) {
+    if (keyStore instanceof SigningKeySelector) {
+      return ((SigningKeySelector) keyStore).signingKey(instant);
+    }
+    List<IdentityKeyPair> keys = snapshot.get();
+    return keys.isEmpty() ? Optional.<IdentityKeyPair>absent() : Optional.of(keys.get(0));
+  }
+
+  /**
+   * Gets the store from which the keys are retrieved.
+   */
+  public KeyStore keyStore() {
+    return keyStore;
+  }
+
+  /**
+   * Retrieves the keys from the underlying store and publishes them as the new snapshot. The last snapshot is kept
+   * if the keys cannot be retrieved.
+   *
+   * @return true if the snapshot was refreshed and false if the keys couldn't be retrieved
+   */
+  public boolean refresh() {
+    // refreshes are serialized so an older retrieval is never replacing a newer one
+    synchronized (refreshLock) {
+      try {
+        List<IdentityKeyPair> keys = keyStore.getKeys();
+        if (keys == null) {
+          failures.incrementAndGet();
+          logger.warning("Key store returned no keys, serving the last snapshot.");
+          return false;
+        }
+        snapshot.set(ImmutableList.copyOf(keys));
+        return true;
+      } catch (RuntimeException e) {
+        failures.incrementAndGet();
+        logger.log(Level.WARNING, "Keys cannot be retrieved, serving the last snapshot.", e);
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Gets the number of refreshes that failed since the store was created.
+   */
+  public long failures() {
+    return failures.get();
+  }
+
+  /**
+   * Stops the scheduled refreshes. The last snapshot is still served after the store is closed.
+   */
+  @Override
+  public void close() {
+    scheduledRefresh.cancel(false);
+    if (ownsExecutor) {
+      executor.shutdown();
+    }
+  }
+}
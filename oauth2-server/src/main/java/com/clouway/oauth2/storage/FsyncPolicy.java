@@ -0,0 +1,66 @@
+package com.clouway.oauth2.storage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FsyncPolicy is defining when the events of the {@link JournaledTokens} are forced to the storage device and whether
+ * the responses are waiting for it.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public final class FsyncPolicy {
+
+  /**
+   * Events are forced before the response is returned. Events of the requests which are waiting for the previous
+   * force are forced together.
+   */
+  public static FsyncPolicy everyCommit() {
+    return new FsyncPolicy("everyCommit", true, 0, 0);
+  }
+
+  /**
+   * Events are forced before the response is returned, but the journal is waiting up to the provided delay for more
+   * events before each force, so fewer forces are done at the price of latency.
+   *
+   * @param delay the max time for which the journal is waiting for more events
+   * @param unit  the unit of the delay
+   */
+  public static FsyncPolicy batched(long delay, TimeUnit unit) {
+    return new FsyncPolicy("batched(" + unit.toMicros(delay) + "us)", true, unit.toNanos(delay), 0);
+  }
+
+  /**
+   * Events are written before the response is returned and are forced on the provided interval, so events of the last
+   * interval could be lost when the machine is crashing.
+   *
+   * @param interval the interval between the forces
+   * @param unit     the unit of the interval
+   */
+  public static FsyncPolicy periodic(long interval, TimeUnit unit) {
+    return new FsyncPolicy("periodic(" + unit.toMillis(interval) + "ms)", false, 0, unit.toNanos(interval));
+  }
+
+  /**
+   * Events are written, but are never forced and are flushed by the operating system.
+   */
+  public static FsyncPolicy never() {
+    return new FsyncPolicy("never", false, 0, 0);
+  }
+
+  private final String name;
+  final boolean waitsForSync;
+  final long batchDelayNanos;
+  final long intervalNanos;
+
+  private FsyncPolicy(String name, boolean waitsForSync, long batchDelayNanos, long intervalNanos) {
+    this.name = name;
+    this.waitsForSync = waitsForSync;
+    this.batchDelayNanos = batchDelayNanos;
+    this.intervalNanos = intervalNanos;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -0,0 +1,479 @@
+package com.clouway.oauth2.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Journal is a write-ahead log of events which is split in segment files.
+ * <p/>
+ * Events are numbered in the order in which they are appended and are written by a thread of the journal, so each
+ * write and force of the segment is including all events which were appended while the previous one was done (group
+ * commit). Each event is written with its length and checksum, so events which were not completely written before a
+ * crash are detected and are truncated when the journal is replayed.
+ * <p/>
+ * Segments are named by the number of their first event and are rolled once they reach the segment size. Segments
+ * which are covered by a snapshot are deleted with {@link #deleteSegmentsBefore(long)}.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+final class Journal implements Closeable {
+  private static final Logger logger = Logger.getLogger(Journal.class.getName());
+
+  /**
+   * Replay is receiving the events of the journal.
+   */
+  interface Replay {
+
+    void apply(long sequence, byte type, ByteBuffer payload) throws IOException;
+
+  }
+
+  private static final String SEGMENT_PREFIX = "journal-";
+  private static final String SEGMENT_SUFFIX = ".log";
+
+  // length, checksum, sequence and type
+  private static final int EVENT_HEADER = 4 + 4 + 8 + 1;
+  private static final int MAX_PAYLOAD = 16 * 1024 * 1024;
+
+  private final Path directory;
+  private final long segmentSize;
+  private final FsyncPolicy policy;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition appended = lock.newCondition();
+  private final Condition written = lock.newCondition();
+
+  private Batch pending = new Batch();
+  private Batch writing = new Batch();
+  private long lastAppended;
+  private long lastWritten;
+  private long lastSynced;
+  private IOException failure;
+  private boolean closed = false;
+
+  private FileChannel segment;
+  private long segmentPosition;
+  private final Thread writer;
+
+  private Journal(Path directory, long segmentSize, FsyncPolicy policy, long lastSequence) throws IOException {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.policy = policy;
+    this.lastAppended = lastSequence;
+    this.lastWritten = lastSequence;
+    this.lastSynced = lastSequence;
+
+    List<Path> segments = segments(directory);
+    Path last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+    if (last == null || Files.size(last) >= segmentSize) {
+      openSegment(lastSequence + 1);
+    } else {
+      segment = FileChannel.open(last, StandardOpenOption.WRITE);
+      segmentPosition = segment.size();
+    }
+
+    this.writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        write();
+      }
+    }, "oauth2-tokens-journal");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Opens the journal in the provided directory for appending of the events after the provided one. The journal
+   * should be replayed before it's opened.
+   *
+   * @param directory    the directory of the segments
+   * @param segmentSize  the size after which segments are rolled
+   * @param policy       the policy of forcing of the events
+   * @param lastSequence the number of the last event in the journal
+   * @return the opened journal
+   * @throws IOException if segment cannot be opened
+   */
+  static Journal open(Path directory, long segmentSize, FsyncPolicy policy, long lastSequence) throws IOException {
+    return new Journal(directory, segmentSize, policy, lastSequence);
+  }
+
+  /**
+   * Replays the events after the provided one. Events which were not completely written at the end of the last
+   * segment are truncated.
+   *
+   * @param directory the directory of the segments
+   * @param after     the number of the last event which is not replayed
+   * @param replay    the receiver of the events
+   * @return the number of the last event in the journal or the provided one if there are no events after it
+   * @throws IOException if segments cannot be read or events are missing
+   */
+  static long replay(Path directory, long after, Replay replay) throws IOException {
+    List<Path> segments = segments(directory);
+    long last = after;
+
+    for (int i = 0; i < segments.size(); i++) {
+      Path path = segments.get(i);
+      boolean lastSegment = i == segments.size() - 1;
+
+      // segments which are followed by a segment that is starting before the first event to replay are skipped
+      if (!lastSegment && firstSequenceOf(segments.get(i + 1)) <= after + 1) {
+        continue;
+      }
+
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        long size = channel.size();
+        long valid = 0;
+        if (size > 0) {
+          ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+          valid = replaySegment(buffer, after, last, replay);
+          last = Math.max(last, lastSequenceIn(buffer, valid));
+        }
+
+        if (valid < size) {
+          if (!lastSegment) {
+            throw new IOException("Journal segment " + path + " is damaged at position " + valid + ".");
+          }
+          logger.info("Journal segment " + path + " is truncated to " + valid + " bytes as its last events were not completely written.");
+          channel.truncate(valid);
+          channel.force(true);
+        }
+      }
+    }
+    return last;
+  }
+
+  /**
+   * Appends an event. It's not waiting for the event to be written.
+   *
+   * @param type    the type of the event
+   * @param payload the payload of the event
+   * @return the number of the event
+   * @throws IOException if journal failed or is closed
+   */
+  long append(byte type, byte[] payload) throws IOException {
+    if (payload.length > MAX_PAYLOAD) {
+      throw new IOException("Event of " + payload.length + " bytes is too large.");
+    }
+
+    lock.lock();
+    try {
+      if (failure != null) {
+        throw new IOException("Journal failed.", failure);
+      }
+      if (closed) {
+        throw new IOException("Journal is closed.");
+      }
+      long sequence = ++lastAppended;
+      pending.add(sequence, type, payload);
+      appended.signal();
+      return sequence;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Waits until the provided event is durable by the policy of the journal, which is once it's forced if the policy is
+   * waiting for it or once it's written otherwise.
+   *
+   * @param sequence the number of the event
+   * @throws IOException if journal failed before the event was durable
+   */
+  void await(long sequence) throws IOException {
+    lock.lock();
+    try {
+      while (durable() < sequence && failure == null) {
+        written.awaitUninterruptibly();
+      }
+      if (durable() < sequence) {
+        throw new IOException("Journal failed.", failure);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private long durable() {
+    return policy.waitsForSync ? lastSynced : lastWritten;
+  }
+
+  /**
+   * Gets the number of the last appended event.
+   */
+  long lastSequence() {
+    lock.lock();
+    try {
+      return lastAppended;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Deletes the segments which are containing only events before the provided one.
+   *
+   * @param sequence the number of the first event which is kept
+   */
+  void deleteSegmentsBefore(long sequence) throws IOException {
+    List<Path> segments = segments(directory);
+    for (int i = 0; i < segments.size() - 1; i++) {
+      if (firstSequenceOf(segments.get(i + 1)) > sequence) {
+        break;
+      }
+      Files.deleteIfExists(segments.get(i));
+    }
+  }
+
+  /**
+   * Writes and forces the appended events and closes the current segment.
+   */
+  @Override
+  public void close() throws IOException {
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      appended.signal();
+    } finally {
+      lock.unlock();
+    }
+
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    segment.close();
+
+    if (failure != null) {
+      throw new IOException("Journal failed.", failure);
+    }
+  }
+
+  private void write() {
+    long nextSync = System.nanoTime() + policy.intervalNanos;
+
+    while (true) {
+      long first;
+      long last;
+      boolean closing;
+
+      lock.lock();
+      try {
+        while (pending.isEmpty() && !closed && !(policy.intervalNanos > 0 && lastWritten > lastSynced)) {
+          appended.awaitUninterruptibly();
+        }
+        if (policy.intervalNanos > 0 && pending.isEmpty() && !closed) {
+          long wait = nextSync - System.nanoTime();
+          if (wait > 0) {
+            awaitNanos(appended, wait);
+          }
+        }
+        if (policy.batchDelayNanos > 0 && !pending.isEmpty()) {
+          long deadline = System.nanoTime() + policy.batchDelayNanos;
+          for (long wait = policy.batchDelayNanos; wait > 0 && !closed; wait = deadline - System.nanoTime()) {
+            awaitNanos(appended, wait);
+          }
+        }
+
+        Batch batch = pending;
+        pending = writing;
+        writing = batch;
+        first = batch.first;
+        last = batch.last;
+        closing = closed;
+      } finally {
+        lock.unlock();
+      }
+
+      try {
+        if (!writing.isEmpty()) {
+          if (segmentPosition >= segmentSize) {
+            segment.force(false);
+            segment.close();
+            openSegment(first);
+          }
+          ByteBuffer buffer = writing.buffer();
+          while (buffer.hasRemaining()) {
+            segmentPosition += segment.write(buffer, segmentPosition);
+          }
+        }
+
+        long now = System.nanoTime();
+        boolean sync = policy.waitsForSync || closing || (policy.intervalNanos > 0 && now - nextSync >= 0);
+        if (sync) {
+          segment.force(false);
+          nextSync = now + policy.intervalNanos;
+        }
+
+        lock.lock();
+        try {
+          if (!writing.isEmpty()) {
+            lastWritten = last;
+          }
+          if (sync) {
+            lastSynced = lastWritten;
+          }
+          writing.clear();
+          written.signalAll();
+          if (closing && pending.isEmpty()) {
+            return;
+          }
+        } finally {
+          lock.unlock();
+        }
+
+      } catch (IOException e) {
+        logger.log(Level.SEVERE, "Journal cannot be written.", e);
+        lock.lock();
+        try {
+          failure = e;
+          written.signalAll();
+        } finally {
+          lock.unlock();
+        }
+        return;
+      }
+    }
+  }
+
+  private void openSegment(long firstSequence) throws IOException {
+    Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+    segment = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    segmentPosition = segment.size();
+  }
+
+  private static long replaySegment(ByteBuffer buffer, long after, long last, Replay replay) throws IOException {
+    int position = 0;
+    long expected = last + 1;
+
+    while (position + EVENT_HEADER <= buffer.limit()) {
+      int length = buffer.getInt(position);
+      if (length < 0 || length > MAX_PAYLOAD || position + EVENT_HEADER + length > buffer.limit()) {
+        break;
+      }
+
+      int checksum = buffer.getInt(position + 4);
+      ByteBuffer event = buffer.duplicate();
+      event.position(position + 8).limit(position + EVENT_HEADER + length);
+      CRC32 crc = new CRC32();
+      crc.update(event.duplicate());
+      if ((int) crc.getValue() != checksum) {
+        break;
+      }
+
+      long sequence = buffer.getLong(position + 8);
+      byte type = buffer.get(position + 16);
+      if (sequence > after) {
+        if (sequence != expected) {
+          throw new IOException("Journal is missing events " + expected + " to " + (sequence - 1) + ".");
+        }
+        event.position(position + EVENT_HEADER);
+        replay.apply(sequence, type, event.slice());
+        expected++;
+      }
+
+      position += EVENT_HEADER + length;
+    }
+    return position;
+  }
+
+  private static long lastSequenceIn(ByteBuffer buffer, long valid) {
+    long last = 0;
+    int position = 0;
+    while (position < valid) {
+      last = buffer.getLong(position + 8);
+      position += EVENT_HEADER + buffer.getInt(position);
+    }
+    return last;
+  }
+
+  private static List<Path> segments(Path directory) throws IOException {
+    List<Path> segments = new ArrayList<Path>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+      for (Path each : files) {
+        segments.add(each);
+      }
+    }
+    // names are padded, so they are ordered by the numbers of their first events
+    Collections.sort(segments);
+    return segments;
+  }
+
+  private static long firstSequenceOf(Path segment) {
+    String name = segment.getFileName().toString();
+    return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  private static void awaitNanos(Condition condition, long nanos) {
+    try {
+      condition.awaitNanos(nanos);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Batch is a buffer of encoded events.
+   */
+  private static final class Batch {
+    private byte[] bytes = new byte[64 * 1024];
+    private int size = 0;
+    private long first;
+    private long last;
+
+    void add(long sequence, byte type, byte[] payload) {
+      int required = size + EVENT_HEADER + payload.length;
+      if (required > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(required, bytes.length * 2));
+      }
+
+      ByteBuffer buffer = ByteBuffer.wrap(bytes, size, EVENT_HEADER + payload.length).order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putInt(payload.length);
+      buffer.putInt(0);
+      buffer.putLong(sequence);
+      buffer.put(type);
+      buffer.put(payload);
+
+      CRC32 crc = new CRC32();
+      crc.update(bytes, size + 8, EVENT_HEADER - 8 + payload.length);
+      ByteBuffer.wrap(bytes, size + 4, 4).order(ByteOrder.LITTLE_ENDIAN).putInt((int) crc.getValue());
+
+      if (size == 0) {
+        first = sequence;
+      }
+      last = sequence;
+      size = required;
+    }
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    ByteBuffer buffer() {
+      return ByteBuffer.wrap(bytes, 0, size);
+    }
+
+    void clear() {
+      size = 0;
+    }
+  }
+}
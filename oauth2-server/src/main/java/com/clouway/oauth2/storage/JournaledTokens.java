@@ -0,0 +1,746 @@
+package com.clouway.oauth2.storage;
+
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.token.BearerToken;
+import com.clouway.oauth2.token.GrantType;
+import com.clouway.oauth2.token.ObservableTokens;
+import com.clouway.oauth2.token.TokenRequest;
+import com.clouway.oauth2.token.TokenResponse;
+import com.clouway.oauth2.token.Tokens;
+import com.google.common.base.Optional;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * JournaledTokens is a {@link Tokens} which is keeping the tokens in a {@link MemoryTokens} and is writing each issue,
+ * refresh, revoke and extension of tokens in a {@link Journal}, so tokens are available after the server is restarted.
+ * <p/>
+ * Changes are applied to the memory and are appended to the journal in the same order, so the journal is replayed to
+ * the same state. Responses are waiting for their events to be durable by the {@link FsyncPolicy} of the store, but
+ * the waiting is done outside of the ordering, so events of concurrent requests are forced together.
+ * <p/>
+ * Snapshots of the tokens are taken in background after each {@link Builder#snapshotEvery(long)} events. A snapshot
+ * is taken while tokens are changed, but it's including all events up to the one that was appended before it started
+ * and events are setting the state of their tokens, so the events after that one could be replayed on top of it.
+ * Segments of the journal which are covered by a snapshot are deleted, so the store is opened by loading of the last
+ * snapshot and replaying of the events after it.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public final class JournaledTokens implements Tokens, ObservableTokens, Closeable {
+  private static final Logger logger = Logger.getLogger(JournaledTokens.class.getName());
+
+  public static Builder newJournaledTokens(File directory) {
+    return new Builder(directory);
+  }
+
+  public static final class Builder {
+    private final File directory;
+    private MemoryTokens tokens;
+    private FsyncPolicy fsyncPolicy = FsyncPolicy.everyCommit();
+    private long segmentSize = 64 * 1024 * 1024;
+    private long snapshotEvery = 1000000;
+
+    private Builder(File directory) {
+      this.directory = directory;
+    }
+
+    /**
+     * Sets the memory store in which the tokens are kept. It should be empty as it's filled from the snapshot and the
+     * journal. Default is a store with the defaults of {@link MemoryTokens.Builder}.
+     */
+    public Builder tokens(MemoryTokens tokens) {
+      this.tokens = tokens;
+      return this;
+    }
+
+    /**
+     * Sets when the events are forced to the storage device. Default is {@link FsyncPolicy#everyCommit()}.
+     */
+    public Builder fsync(FsyncPolicy fsyncPolicy) {
+      this.fsyncPolicy = fsyncPolicy;
+      return this;
+    }
+
+    /**
+     * Sets the size after which a new segment of the journal is started. Default is 64 MB.
+     */
+    public Builder segmentSize(long segmentSize) {
+      this.segmentSize = segmentSize;
+      return this;
+    }
+
+    /**
+     * Sets the number of events after which a snapshot is taken. Snapshots are not taken automatically when it's 0.
+     * Default is 1000000.
+     */
+    public Builder snapshotEvery(long snapshotEvery) {
+      this.snapshotEvery = snapshotEvery;
+      return this;
+    }
+
+    /**
+     * Opens the store in the directory, creating it if it doesn't exist.
+     *
+     * @return the opened store
+     * @throws IOException if the snapshot or the journal cannot be read
+     */
+    public JournaledTokens build() throws IOException {
+      if (tokens == null) {
+        tokens = MemoryTokens.newMemoryTokens().build();
+      }
+      return new JournaledTokens(this);
+    }
+  }
+
+  static final byte ISSUE = 1;
+  static final byte REFRESH = 2;
+  static final byte REVOKE = 3;
+  static final byte EXTEND = 4;
+  static final byte REVOKE_IDENTITY = 5;
+  static final byte REVOKE_CLIENT = 6;
+
+  private static final String SNAPSHOT_PREFIX = "snapshot-";
+  private static final String SNAPSHOT_SUFFIX = ".snap";
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final int SNAPSHOT_MAGIC = 0x4f415453;
+
+  private final Path directory;
+  private final MemoryTokens memory;
+  private final Journal journal;
+  private final long snapshotEvery;
+
+  private final ReentrantLock sequencer = new ReentrantLock();
+  private final ReentrantLock snapshotLock = new ReentrantLock();
+  private final AtomicLong eventsSinceSnapshot = new AtomicLong();
+  private final AtomicBoolean snapshotScheduled = new AtomicBoolean();
+  private final ExecutorService snapshots;
+
+  private JournaledTokens(Builder builder) throws IOException {
+    this.directory = builder.directory.toPath();
+    this.memory = builder.tokens;
+    this.snapshotEvery = builder.snapshotEvery;
+
+    Files.createDirectories(directory);
+    deleteTempFiles();
+    long snapshot = loadSnapshot();
+    long last = Journal.replay(directory, snapshot, new Journal.Replay() {
+      @Override
+      public void apply(long sequence, byte type, ByteBuffer payload) throws IOException {
+        JournaledTokens.this.apply(type, payload);
+      }
+    });
+    logger.info("Token store in " + directory + " was opened with snapshot " + snapshot + " and " + (last - snapshot) + " events.");
+
+    this.journal = Journal.open(directory, builder.segmentSize, builder.fsyncPolicy, last);
+    this.eventsSinceSnapshot.set(last - snapshot);
+    this.snapshots = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "oauth2-tokens-snapshot");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  @Override
+  public Optional<BearerToken> findTokenAvailableAt(String token, DateTime when) {
+    return memory.findTokenAvailableAt(token, when);
+  }
+
+  @Override
+  public TokenResponse refreshToken(String refreshToken, DateTime when) {
+    TokenResponse response;
+    long sequence;
+
+    sequencer.lock();
+    try {
+      response = memory.refreshToken(refreshToken, when);
+      if (!response.isSuccessful()) {
+        return response;
+      }
+
+      long refreshTokenExpiresAt = memory.refreshTokenExpiresAt(response.refreshToken);
+      sequence = journal.append(REFRESH, refreshEvent(refreshToken, response.accessToken, response.refreshToken, refreshTokenExpiresAt));
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Token cannot be refreshed.", e);
+      return new TokenResponse(false, null, "");
+    } finally {
+      sequencer.unlock();
+    }
+
+    if (!awaitEvent(sequence)) {
+      return new TokenResponse(false, null, "");
+    }
+    return response;
+  }
+
+  @Override
+  public TokenResponse issueToken(TokenRequest tokenRequest) {
+    TokenResponse response = null;
+    long sequence;
+
+    sequencer.lock();
+    try {
+      response = memory.issueToken(tokenRequest);
+      if (!response.isSuccessful()) {
+        return response;
+      }
+
+      long refreshTokenExpiresAt = memory.refreshTokenExpiresAt(response.refreshToken);
+      sequence = journal.append(ISSUE, issueEvent(response.accessToken, response.refreshToken, refreshTokenExpiresAt));
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Token cannot be issued.", e);
+      if (response != null) {
+        memory.revoke(response.refreshToken);
+      }
+      return new TokenResponse(false, null, "");
+    } finally {
+      sequencer.unlock();
+    }
+
+    if (!awaitEvent(sequence)) {
+      memory.revoke(response.refreshToken);
+      return new TokenResponse(false, null, "");
+    }
+    return response;
+  }
+
+  /**
+   * Revokes the provided token.
+   *
+   * @throws UncheckedIOException if the revocation cannot be written, in which case the token is revoked only until
+   *                              the store is reopened
+   */
+  @Override
+  public void revokeToken(String token) {
+    long sequence;
+
+    sequencer.lock();
+    try {
+      if (!memory.revoke(token)) {
+        return;
+      }
+      sequence = journal.append(REVOKE, revokeEvent(token));
+    } catch (IOException e) {
+      throw new UncheckedIOException("Token revocation cannot be written.", e);
+    } finally {
+      sequencer.unlock();
+    }
+
+    if (!awaitEvent(sequence)) {
+      throw new UncheckedIOException(new IOException("Token revocation cannot be written."));
+    }
+  }
+
+  /**
+   * Issues the tokens of the provided requests, waiting once for all of their events, so the tokens of a batch are
+   * written with a single force of the journal.
+   */
+  @Override
+  public List<TokenResponse> issueTokens(List<TokenRequest> tokenRequests) {
+    List<TokenResponse> responses = new ArrayList<TokenResponse>(tokenRequests.size());
+    long sequence = -1;
+    int events = 0;
+
+    sequencer.lock();
+    try {
+      for (TokenRequest each : tokenRequests) {
+        TokenResponse response = memory.issueToken(each);
+        if (response.isSuccessful()) {
+          long refreshTokenExpiresAt = memory.refreshTokenExpiresAt(response.refreshToken);
+          try {
+            sequence = journal.append(ISSUE, issueEvent(response.accessToken, response.refreshToken, refreshTokenExpiresAt));
+            events++;
+          } catch (IOException e) {
+            logger.log(Level.WARNING, "Token cannot be issued.", e);
+            memory.revoke(response.refreshToken);
+            response = new TokenResponse(false, null, "");
+          }
+        }
+        responses.add(response);
+      }
+    } finally {
+      sequencer.unlock();
+    }
+
+    if (events > 0 && !awaitEvents(sequence, events)) {
+      for (int i = 0; i < responses.size(); i++) {
+        TokenResponse response = responses.get(i);
+        if (response.isSuccessful()) {
+          memory.revoke(response.refreshToken);
+          responses.set(i, new TokenResponse(false, null, ""));
+        }
+      }
+    }
+    return responses;
+  }
+
+  /**
+   * Revokes the provided tokens, waiting once for all of their events.
+   *
+   * @throws UncheckedIOException if the revocations cannot be written, in which case the tokens are revoked only until
+   *                              the store is reopened
+   */
+  @Override
+  public void revokeTokens(Collection<String> tokens) {
+    long sequence = -1;
+    int events = 0;
+
+    sequencer.lock();
+    try {
+      for (String each : tokens) {
+        if (memory.revoke(each)) {
+          sequence = journal.append(REVOKE, revokeEvent(each));
+          events++;
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Token revocation cannot be written.", e);
+    } finally {
+      sequencer.unlock();
+    }
+
+    if (events > 0 && !awaitEvents(sequence, events)) {
+      throw new UncheckedIOException(new IOException("Token revocation cannot be written."));
+    }
+  }
+
+  /**
+   * Revokes all grants of the provided identity with a single event.
+   *
+   * @throws UncheckedIOException if the revocation cannot be written, in which case grants are revoked only until
+   *                              the store is reopened
+   */
+  @Override
+  public int revokeAllForIdentity(String identityId) {
+    return revokeAll(REVOKE_IDENTITY, identityId);
+  }
+
+  /**
+   * Revokes all grants of the provided client with a single event.
+   *
+   * @throws UncheckedIOException if the revocation cannot be written, in which case grants are revoked only until
+   *                              the store is reopened
+   */
+  @Override
+  public int revokeAllForClient(String clientId) {
+    return revokeAll(REVOKE_CLIENT, clientId);
+  }
+
+  /**
+   * Extends the expiration of the provided access tokens with a single event, so a batch of extensions is a single
+   * write of the journal.
+   */
+  @Override
+  public void extendExpirations(Map<String, DateTime> expirations) {
+    long sequence;
+
+    sequencer.lock();
+    try {
+      if (memory.extend(expirations) == 0) {
+        return;
+      }
+      sequence = journal.append(EXTEND, extendEvent(expirations));
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Token extension cannot be written.", e);
+      return;
+    } finally {
+      sequencer.unlock();
+    }
+
+    awaitEvent(sequence);
+  }
+
+  @Override
+  public void addListener(Listener listener) {
+    memory.addListener(listener);
+  }
+
+  @Override
+  public void forEachAccessToken(Visitor visitor) {
+    memory.forEachAccessToken(visitor);
+  }
+
+  /**
+   * Takes a snapshot of the tokens and deletes the previous snapshot and the segments of the journal which are covered
+   * by it.
+   *
+   * @throws IOException if the snapshot cannot be written
+   */
+  public void snapshot() throws IOException {
+    snapshotLock.lock();
+    try {
+      long sequence;
+      sequencer.lock();
+      try {
+        sequence = journal.lastSequence();
+        eventsSinceSnapshot.set(0);
+      } finally {
+        sequencer.unlock();
+      }
+
+      Path snapshot = directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX));
+      Path temp = directory.resolve(snapshot.getFileName() + TEMP_SUFFIX);
+      long count = writeSnapshot(temp, sequence);
+      Files.move(temp, snapshot, StandardCopyOption.ATOMIC_MOVE);
+
+      for (Path each : snapshots(directory)) {
+        if (!each.equals(snapshot)) {
+          Files.deleteIfExists(each);
+        }
+      }
+      journal.deleteSegmentsBefore(sequence + 1);
+
+      logger.info("Snapshot " + sequence + " of " + count + " tokens was written in " + directory + ".");
+    } finally {
+      snapshotLock.unlock();
+    }
+  }
+
+  /**
+   * Writes the events which were not forced yet and closes the journal.
+   */
+  @Override
+  public void close() throws IOException {
+    snapshots.shutdown();
+    snapshotLock.lock();
+    try {
+      journal.close();
+    } finally {
+      snapshotLock.unlock();
+    }
+  }
+
+  private int revokeAll(byte type, String id) {
+    int revoked;
+    long sequence;
+
+    // grants are not issued during the revocation, so no grant of the identity or client is kept
+    sequencer.lock();
+    try {
+      revoked = type == REVOKE_IDENTITY ? memory.revokeAllForIdentity(id) : memory.revokeAllForClient(id);
+      if (revoked == 0) {
+        return 0;
+      }
+      sequence = journal.append(type, revokeEvent(id));
+    } catch (IOException e) {
+      // callers are revoking all grants for security reasons, so they should know that it's not durable
+      throw new UncheckedIOException("Revocation of the grants of " + id + " cannot be written.", e);
+    } finally {
+      sequencer.unlock();
+    }
+
+    if (!awaitEvent(sequence)) {
+      throw new UncheckedIOException(new IOException("Revocation of the grants of " + id + " cannot be written."));
+    }
+    return revoked;
+  }
+
+  private boolean awaitEvent(long sequence) {
+    return awaitEvents(sequence, 1);
+  }
+
+  /**
+   * Waits for the events up to the provided sequence, which were appended by a batch of the provided size.
+   */
+  private boolean awaitEvents(long sequence, int events) {
+    try {
+      journal.await(sequence);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Event " + sequence + " cannot be written.", e);
+      return false;
+    }
+
+    if (snapshotEvery > 0 && eventsSinceSnapshot.addAndGet(events) >= snapshotEvery && snapshotScheduled.compareAndSet(false, true)) {
+      snapshots.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            snapshot();
+          } catch (IOException e) {
+            logger.log(Level.WARNING, "Snapshot cannot be written.", e);
+          } finally {
+            snapshotScheduled.set(false);
+          }
+        }
+      });
+    }
+    return true;
+  }
+
+  static byte[] issueEvent(BearerToken accessToken, String refreshToken, long refreshTokenExpiresAt) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    writeGrant(new DataOutputStream(bytes), accessToken, refreshToken, refreshTokenExpiresAt);
+    return bytes.toByteArray();
+  }
+
+  static byte[] refreshEvent(String refreshToken, BearerToken accessToken, String newRefreshToken, long refreshTokenExpiresAt) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeUTF(refreshToken);
+    out.writeUTF(accessToken.value);
+    out.writeLong(accessToken.expirationTimestamp());
+    out.writeUTF(newRefreshToken);
+    out.writeLong(refreshTokenExpiresAt);
+    return bytes.toByteArray();
+  }
+
+  static byte[] revokeEvent(String token) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+    new DataOutputStream(bytes).writeUTF(token);
+    return bytes.toByteArray();
+  }
+
+  static byte[] extendEvent(Map<String, DateTime> expirations) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + expirations.size() * 48);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(expirations.size());
+    for (Map.Entry<String, DateTime> each : expirations.entrySet()) {
+      out.writeUTF(each.getKey());
+      out.writeLong(each.getValue().timestamp());
+    }
+    return bytes.toByteArray();
+  }
+
+  private void apply(byte type, ByteBuffer payload) throws IOException {
+    byte[] bytes = new byte[payload.remaining()];
+    payload.get(bytes);
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+    switch (type) {
+      case ISSUE:
+        readGrant(in);
+        break;
+      case REFRESH:
+        memory.restoreRefresh(in.readUTF(), in.readUTF(), in.readLong(), in.readUTF(), in.readLong());
+        break;
+      case REVOKE:
+        memory.revoke(in.readUTF());
+        break;
+      case EXTEND:
+        int count = in.readInt();
+        Map<String, DateTime> expirations = new LinkedHashMap<String, DateTime>(count * 2);
+        for (int i = 0; i < count; i++) {
+          expirations.put(in.readUTF(), new DateTime(in.readLong()));
+        }
+        memory.extend(expirations);
+        break;
+      case REVOKE_IDENTITY:
+        memory.revokeAllForIdentity(in.readUTF());
+        break;
+      case REVOKE_CLIENT:
+        memory.revokeAllForClient(in.readUTF());
+        break;
+      default:
+        throw new IOException("Unknown event type " + type + ".");
+    }
+  }
+
+  private long writeSnapshot(Path file, long sequence) throws IOException {
+    final long[] count = {0};
+    FileOutputStream fileOut = new FileOutputStream(file.toFile());
+    try {
+      BufferedOutputStream buffered = new BufferedOutputStream(fileOut, 1 << 16);
+      CheckedOutputStream checked = new CheckedOutputStream(buffered, new CRC32());
+      final DataOutputStream out = new DataOutputStream(checked);
+      out.writeInt(SNAPSHOT_MAGIC);
+      out.writeLong(sequence);
+
+      try {
+        memory.forEachGrant(new MemoryTokens.GrantVisitor() {
+          @Override
+          public void visit(BearerToken accessToken, String refreshToken, long refreshTokenExpiresAt) {
+            try {
+              out.writeBoolean(true);
+              writeGrant(out, accessToken, refreshToken, refreshTokenExpiresAt);
+              count[0]++;
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          }
+        });
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+
+      out.writeBoolean(false);
+      // checksum is not part of itself
+      DataOutputStream trailer = new DataOutputStream(buffered);
+      trailer.writeInt((int) checked.getChecksum().getValue());
+      trailer.flush();
+      fileOut.getFD().sync();
+    } finally {
+      fileOut.close();
+    }
+    return count[0];
+  }
+
+  private long loadSnapshot() throws IOException {
+    List<Path> snapshots = snapshots(directory);
+    for (int i = snapshots.size() - 1; i >= 0; i--) {
+      Path snapshot = snapshots.get(i);
+      try {
+        return readSnapshot(snapshot);
+      } catch (IOException e) {
+        // an older snapshot is used only if the segments after it were not deleted yet, otherwise replay fails
+        logger.log(Level.WARNING, "Snapshot " + snapshot + " cannot be read.", e);
+      }
+    }
+    return 0;
+  }
+
+  private long readSnapshot(Path file) throws IOException {
+    // checksum is verified before the grants are restored, so a damaged snapshot is not restored partially
+    long size = Files.size(file);
+    DataInputStream checked = new DataInputStream(new BufferedInputStream(new FileInputStream(file.toFile()), 1 << 16));
+    try {
+      CRC32 crc = new CRC32();
+      byte[] buffer = new byte[1 << 16];
+      for (long remaining = size - 4; remaining > 0; ) {
+        int read = checked.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+        if (read < 0) {
+          throw new IOException("Snapshot " + file + " is truncated.");
+        }
+        crc.update(buffer, 0, read);
+        remaining -= read;
+      }
+      if (size < 4 || checked.readInt() != (int) crc.getValue()) {
+        throw new IOException("Snapshot " + file + " is damaged.");
+      }
+    } finally {
+      checked.close();
+    }
+
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file.toFile()), 1 << 16));
+    try {
+      if (in.readInt() != SNAPSHOT_MAGIC) {
+        throw new IOException("Snapshot " + file + " has an unknown format.");
+      }
+      long sequence = in.readLong();
+      while (in.readBoolean()) {
+        readGrant(in);
+      }
+      return sequence;
+    } finally {
+      in.close();
+    }
+  }
+
+  private void readGrant(DataInputStream in) throws IOException {
+    String value = in.readUTF();
+    String grantType = readNullable(in);
+    String identityId = readNullable(in);
+    String clientId = readNullable(in);
+    String email = readNullable(in);
+    long expiresAt = in.readLong();
+
+    int scopeCount = in.readInt();
+    Set<String> scopes = new LinkedHashSet<String>();
+    for (int i = 0; i < scopeCount; i++) {
+      scopes.add(in.readUTF());
+    }
+
+    int paramCount = in.readInt();
+    Map<String, String> params = paramCount == 0 ? Collections.<String, String>emptyMap() : new LinkedHashMap<String, String>();
+    for (int i = 0; i < paramCount; i++) {
+      params.put(in.readUTF(), in.readUTF());
+    }
+
+    String refreshToken = in.readUTF();
+    long refreshTokenExpiresAt = in.readLong();
+
+    BearerToken accessToken = new BearerToken(value, grantType == null ? null : GrantType.valueOf(grantType), identityId,
+            clientId, email, scopes, new DateTime(expiresAt), params);
+    memory.restore(accessToken, refreshToken, refreshTokenExpiresAt);
+  }
+
+  private static void writeGrant(DataOutputStream out, BearerToken accessToken, String refreshToken, long refreshTokenExpiresAt) throws IOException {
+    out.writeUTF(accessToken.value);
+    writeNullable(out, accessToken.grantType == null ? null : accessToken.grantType.name());
+    writeNullable(out, accessToken.identityId);
+    writeNullable(out, accessToken.clientId);
+    writeNullable(out, accessToken.email);
+    out.writeLong(accessToken.expirationTimestamp());
+
+    out.writeInt(accessToken.scopes.size());
+    for (String scope : accessToken.scopes) {
+      out.writeUTF(scope);
+    }
+
+    out.writeInt(accessToken.params.size());
+    for (Map.Entry<String, String> each : accessToken.params.entrySet()) {
+      out.writeUTF(each.getKey());
+      out.writeUTF(each.getValue());
+    }
+
+    out.writeUTF(refreshToken);
+    out.writeLong(refreshTokenExpiresAt);
+  }
+
+  private static void writeNullable(DataOutputStream out, String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  private static String readNullable(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private void deleteTempFiles() throws IOException {
+    // snapshots which were not completed before a crash
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + TEMP_SUFFIX)) {
+      for (Path each : files) {
+        Files.deleteIfExists(each);
+      }
+    }
+  }
+
+  private static List<Path> snapshots(Path directory) throws IOException {
+    List<Path> snapshots = new ArrayList<Path>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+      for (Path each : files) {
+        snapshots.add(each);
+      }
+    }
+    Collections.sort(snapshots);
+    return snapshots;
+  }
+}
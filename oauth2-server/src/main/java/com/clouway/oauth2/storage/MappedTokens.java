@@ -0,0 +1,739 @@
+package com.clouway.oauth2.storage;
+
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.common.Duration;
+import com.clouway.oauth2.crypto.CryptoPool;
+import com.clouway.oauth2.storage.TokenTable.Record;
+import com.clouway.oauth2.token.BearerToken;
+import com.clouway.oauth2.token.GrantType;
+import com.clouway.oauth2.token.TokenGenerator;
+import com.clouway.oauth2.token.TokenRequest;
+import com.clouway.oauth2.token.TokenResponse;
+import com.clouway.oauth2.token.Tokens;
+import com.clouway.oauth2.token.UrlSafeTokenGenerator;
+import com.google.common.base.Optional;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * MappedTokens is a {@link Tokens} which is keeping the issued tokens in memory-mapped files in a directory, so
+ * tokens are available after the server is restarted.
+ * <p/>
+ * Tokens are kept in a {@link TokenTable}, which is an open-addressing hash table of fixed-size records, and in a
+ * {@link RecordHeap} for the identities, clients and params that are referenced by the records. Records are keyed by
+ * the SHA-256 hash of the token, so the tokens themselves are never written in the files.
+ * <p/>
+ * Lookups of tokens are not taking any locks. Issuing, refreshing and revoking of tokens are done by a single writer
+ * at a time. Records are written before they are referenced and each of them has a checksum, so a crash of the
+ * process is never leaving tokens that are partially written. A store which was not closed is recovered when it's
+ * opened, otherwise it's available without reading of the records. Written records are flushed by the operating
+ * system, unless {@link Builder#syncWrites(boolean)} is set, in which case each write is forced to the storage device
+ * before the response is returned, so tokens are also kept when the machine is crashing.
+ * <p/>
+ * The table is rebuilt with a larger capacity when it's filled and the records of expired and revoked tokens are
+ * dropped at the same time.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public final class MappedTokens implements Tokens, Closeable {
+  private static final Logger logger = Logger.getLogger(MappedTokens.class.getName());
+
+  public static Builder newMappedTokens(File directory) {
+    return new Builder(directory);
+  }
+
+  public static final class Builder {
+    private final File directory;
+    private TokenGenerator tokenGenerator = new UrlSafeTokenGenerator();
+    private Duration timeToLive = Duration.hours(1);
+    private Duration refreshTokenTimeToLive = Duration.hours(30 * 24);
+    private boolean generatesNewRefreshToken = false;
+    private int initialCapacity = 1 << 16;
+    private int heapSegmentSize = 16 * 1024 * 1024;
+    private boolean syncWrites = false;
+
+    private Builder(File directory) {
+      this.directory = directory;
+    }
+
+    /**
+     * Sets the generator of the access and refresh tokens. Default is {@link UrlSafeTokenGenerator}.
+     */
+    public Builder tokenGenerator(TokenGenerator tokenGenerator) {
+      this.tokenGenerator = tokenGenerator;
+      return this;
+    }
+
+    /**
+     * Sets the time to live of the access tokens. Default is 1 hour.
+     */
+    public Builder timeToLive(Duration timeToLive) {
+      this.timeToLive = timeToLive;
+      return this;
+    }
+
+    /**
+     * Sets the time to live of the refresh tokens. Default is 30 days.
+     */
+    public Builder refreshTokenTimeToLive(Duration refreshTokenTimeToLive) {
+      this.refreshTokenTimeToLive = refreshTokenTimeToLive;
+      return this;
+    }
+
+    /**
+     * Sets whether a new refresh token is generated when token is refreshed. Default is false.
+     */
+    public Builder generatesNewRefreshToken(boolean generatesNewRefreshToken) {
+      this.generatesNewRefreshToken = generatesNewRefreshToken;
+      return this;
+    }
+
+    /**
+     * Sets the number of records of a new table. It's rounded up to a power of two. Each token is using two records,
+     * one for the access token and one for the refresh token. Default is 65536.
+     */
+    public Builder initialCapacity(int initialCapacity) {
+      this.initialCapacity = initialCapacity;
+      return this;
+    }
+
+    /**
+     * Sets the size of the segments in which the heap file is mapped. Default is 16 MB.
+     */
+    public Builder heapSegmentSize(int heapSegmentSize) {
+      this.heapSegmentSize = heapSegmentSize;
+      return this;
+    }
+
+    /**
+     * Sets whether each write is forced to the storage device before the response is returned. Default is false.
+     */
+    public Builder syncWrites(boolean syncWrites) {
+      this.syncWrites = syncWrites;
+      return this;
+    }
+
+    /**
+     * Opens the store in the directory, creating it if it doesn't exist.
+     *
+     * @return the opened store
+     * @throws IOException if the store cannot be opened
+     */
+    public MappedTokens build() throws IOException {
+      return new MappedTokens(this);
+    }
+  }
+
+  private static final String TABLE_FILE = "tokens.table";
+  private static final String HEAP_FILE_PREFIX = "tokens.heap.";
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private static final int MAX_GENERATION_ATTEMPTS = 3;
+  private static final int MAX_CAPACITY = 1 << 30;
+  private static final int STRING_CACHE_SIZE = 4096;
+
+  private final Path directory;
+  private final TokenGenerator tokenGenerator;
+  private final long timeToLiveMillis;
+  private final long refreshTokenTimeToLiveMillis;
+  private final boolean generatesNewRefreshToken;
+  private final int minCapacity;
+  private final int heapSegmentSize;
+  private final boolean syncWrites;
+
+  private final CryptoPool<MessageDigest> digests = CryptoPool.messageDigest("SHA-256");
+  private final ReentrantLock writeLock = new ReentrantLock();
+  private final Map<String, Long> strings = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+      return size() > STRING_CACHE_SIZE;
+    }
+  };
+
+  private volatile TokenTable table;
+  private long heapLimit;
+  private boolean closed = false;
+
+  private MappedTokens(Builder builder) throws IOException {
+    this.directory = builder.directory.toPath();
+    this.tokenGenerator = builder.tokenGenerator;
+    this.timeToLiveMillis = builder.timeToLive.asMills();
+    this.refreshTokenTimeToLiveMillis = builder.refreshTokenTimeToLive.asMills();
+    this.generatesNewRefreshToken = builder.generatesNewRefreshToken;
+    this.minCapacity = capacityFor(builder.initialCapacity);
+    this.heapSegmentSize = builder.heapSegmentSize;
+    this.syncWrites = builder.syncWrites;
+
+    Files.createDirectories(directory);
+    Path tableFile = directory.resolve(TABLE_FILE);
+
+    TokenTable opened;
+    if (Files.exists(tableFile)) {
+      opened = TokenTable.open(tableFile, heapFiles(), heapSegmentSize);
+      if (!opened.wasClean()) {
+        int deleted = opened.recover();
+        logger.info("Token store in " + directory + " was not closed, " + deleted + " incomplete records were deleted.");
+      }
+    } else {
+      // new table is created aside, so a crash is never leaving a table file which is partially created
+      Path tempFile = directory.resolve(TABLE_FILE + TEMP_SUFFIX);
+      opened = create(tempFile, 0, minCapacity);
+      opened.force();
+      Files.move(tempFile, tableFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    opened.markOpen();
+    this.table = opened;
+    this.heapLimit = heapLimitOf(opened);
+    deleteUnusedFiles(opened.heapGeneration());
+  }
+
+  @Override
+  public Optional<BearerToken> findTokenAvailableAt(String token, DateTime when) {
+    if (token == null) {
+      return Optional.absent();
+    }
+
+    long[] key = hash(token);
+    TokenTable current = table;
+    Record record = current.find(key[0], key[1]);
+    if (record == null || record.kind != TokenTable.ACCESS || when.timestamp() > record.expiresAt) {
+      return Optional.absent();
+    }
+
+    return Optional.fromNullable(bearerToken(current, token, record));
+  }
+
+  @Override
+  public TokenResponse refreshToken(String refreshToken, DateTime when) {
+    if (refreshToken == null) {
+      return new TokenResponse(false, null, "");
+    }
+
+    long now = when.timestamp();
+    long[] refreshKey = hash(refreshToken);
+
+    writeLock.lock();
+    try {
+      checkOpen();
+      ensureCapacity(now);
+
+      TokenTable current = table;
+      Record refresh = current.find(refreshKey[0], refreshKey[1]);
+      if (refresh == null || refresh.kind != TokenTable.REFRESH || now > refresh.expiresAt) {
+        return new TokenResponse(false, null, "");
+      }
+
+      for (int attempt = 0; attempt < MAX_GENERATION_ATTEMPTS; attempt++) {
+        String newAccessToken = tokenGenerator.generate();
+        String newRefreshToken = generatesNewRefreshToken ? tokenGenerator.generate() : refreshToken;
+        long[] accessKey = hash(newAccessToken);
+        long[] newRefreshKey = generatesNewRefreshToken ? hash(newRefreshToken) : refreshKey;
+
+        Record access = copyOf(refresh, TokenTable.ACCESS, accessKey, newRefreshKey, now + timeToLiveMillis);
+        int refreshSlot = refresh.slot;
+
+        if (generatesNewRefreshToken) {
+          Record rotated = copyOf(refresh, TokenTable.REFRESH, newRefreshKey, accessKey, now + refreshTokenTimeToLiveMillis);
+          refreshSlot = current.insert(rotated, now);
+          if (refreshSlot < 0) {
+            continue;
+          }
+        }
+
+        int accessSlot = current.insert(access, now);
+        if (accessSlot < 0) {
+          if (generatesNewRefreshToken) {
+            current.delete(refreshSlot);
+          }
+          continue;
+        }
+        current.accessSlot(refreshSlot, accessSlot);
+
+        // the replaced access token is deleted after the new one is written, unless its slot was reused as expired
+        if (refresh.accessSlot != accessSlot) {
+          deleteAccessOf(current, refresh);
+        }
+        if (generatesNewRefreshToken) {
+          current.delete(refresh.slot);
+        }
+        sync(current);
+
+        BearerToken token = bearerToken(current, newAccessToken, access);
+        return new TokenResponse(true, token, newRefreshToken);
+      }
+      return new TokenResponse(false, null, "");
+
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Token cannot be refreshed.", e);
+      return new TokenResponse(false, null, "");
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public TokenResponse issueToken(TokenRequest tokenRequest) {
+    long now = tokenRequest.when.timestamp();
+
+    writeLock.lock();
+    try {
+      checkOpen();
+      ensureCapacity(now);
+
+      TokenTable current = table;
+      Record values = new Record();
+      values.grantType = tokenRequest.grantType == null ? 0 : tokenRequest.grantType.ordinal() + 1;
+      values.identity = string(current, tokenRequest.identity.id());
+      values.client = string(current, tokenRequest.client.id);
+      values.email = string(current, tokenRequest.identity.email());
+      encodeExtras(current, values, tokenRequest.scopes, tokenRequest.params);
+      current.commitHeap();
+
+      for (int attempt = 0; attempt < MAX_GENERATION_ATTEMPTS; attempt++) {
+        String accessToken = tokenGenerator.generate();
+        String refreshToken = tokenGenerator.generate();
+        long[] accessKey = hash(accessToken);
+        long[] refreshKey = hash(refreshToken);
+
+        // refresh token is written first, so an access token is never left without its refresh token
+        Record refresh = copyOf(values, TokenTable.REFRESH, refreshKey, accessKey, now + refreshTokenTimeToLiveMillis);
+        int refreshSlot = current.insert(refresh, now);
+        if (refreshSlot < 0) {
+          continue;
+        }
+
+        Record access = copyOf(values, TokenTable.ACCESS, accessKey, refreshKey, now + timeToLiveMillis);
+        int accessSlot = current.insert(access, now);
+        if (accessSlot < 0) {
+          current.delete(refreshSlot);
+          continue;
+        }
+        current.accessSlot(refreshSlot, accessSlot);
+        sync(current);
+
+        return new TokenResponse(true, bearerToken(current, accessToken, access), refreshToken);
+      }
+      return new TokenResponse(false, null, "");
+
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Token cannot be issued.", e);
+      return new TokenResponse(false, null, "");
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Revokes the provided access or refresh token together with its pair, so both of them are no longer valid.
+   *
+   * @param token the access or the refresh token
+   */
+  @Override
+  public void revokeToken(String token) {
+    if (token == null) {
+      return;
+    }
+
+    long[] key = hash(token);
+
+    writeLock.lock();
+    try {
+      checkOpen();
+
+      TokenTable current = table;
+      Record record = current.find(key[0], key[1]);
+      if (record == null) {
+        return;
+      }
+
+      current.delete(record.slot);
+      if (record.kind == TokenTable.REFRESH) {
+        deleteAccessOf(current, record);
+      } else {
+        Record refresh = current.find(record.pairHi, record.pairLo);
+        if (refresh != null && refresh.kind == TokenTable.REFRESH && refresh.accessSlot == record.slot) {
+          current.delete(refresh.slot);
+        }
+      }
+      sync(current);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Revokes all grants of the provided identity with a scan of the table, as records are not indexed by identity.
+   */
+  @Override
+  public int revokeAllForIdentity(String identityId) {
+    return revokeAll(identityId, false);
+  }
+
+  /**
+   * Revokes all grants of the provided client with a scan of the table, as records are not indexed by client.
+   */
+  @Override
+  public int revokeAllForClient(String clientId) {
+    return revokeAll(clientId, true);
+  }
+
+  /**
+   * Forces all records to the storage device and closes the files. The store is opened without recovery next time.
+   */
+  @Override
+  public void close() throws IOException {
+    writeLock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      table.markClean();
+      table.close();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private int revokeAll(String id, boolean byClient) {
+    if (id == null) {
+      return 0;
+    }
+
+    writeLock.lock();
+    try {
+      checkOpen();
+
+      TokenTable current = table;
+      // the same value could be written more than once in the heap, so the offsets are matched by their values
+      Map<Long, Boolean> matches = new HashMap<Long, Boolean>();
+      int revoked = 0;
+      for (int slot = 0; slot < current.capacity(); slot++) {
+        Record record = current.record(slot);
+        if (record == null) {
+          continue;
+        }
+        long offset = byClient ? record.client : record.identity;
+        Boolean matching = matches.get(offset);
+        if (matching == null) {
+          matching = id.equals(stringAt(current.heap(), offset));
+          matches.put(offset, matching);
+        }
+        if (matching) {
+          current.delete(slot);
+          if (record.kind == TokenTable.REFRESH) {
+            revoked++;
+          }
+        }
+      }
+      sync(current);
+      return revoked;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private void ensureCapacity(long now) throws IOException {
+    TokenTable current = table;
+
+    // each write is inserting up to two records and the table is rebuilt before it's filled by 3/4
+    boolean filled = (long) (current.used() + 2) * 4 > (long) current.capacity() * 3;
+    if (!filled && current.heap().end() <= heapLimit) {
+      return;
+    }
+
+    int live = 0;
+    for (int slot = 0; slot < current.capacity(); slot++) {
+      Record record = current.record(slot);
+      if (record != null && record.expiresAt >= now) {
+        live++;
+      }
+    }
+
+    // the rebuilt table is filled by at most 3/8
+    int capacity = Math.max(minCapacity, capacityFor((int) Math.min(MAX_CAPACITY, ((long) live + 2) * 8 / 3)));
+    rebuild(current, capacity, now);
+  }
+
+  private void rebuild(TokenTable current, int capacity, long now) throws IOException {
+    long generation = current.heapGeneration() + 1;
+    Path tableFile = directory.resolve(TABLE_FILE);
+    Path tempFile = directory.resolve(TABLE_FILE + TEMP_SUFFIX);
+
+    TokenTable rebuilt = create(tempFile, generation, capacity);
+    try {
+      Map<Long, Long> offsets = new HashMap<Long, Long>();
+      for (int i = 0; i < TokenTable.MAX_SCOPES && current.scope(i) != null; i++) {
+        rebuilt.scopeIndex(current.scope(i));
+      }
+
+      for (int slot = 0; slot < current.capacity(); slot++) {
+        Record record = current.record(slot);
+        if (record == null || record.expiresAt < now) {
+          continue;
+        }
+        record.identity = copy(current, rebuilt, record.identity, offsets);
+        record.client = copy(current, rebuilt, record.client, offsets);
+        record.email = copy(current, rebuilt, record.email, offsets);
+        record.extras = copy(current, rebuilt, record.extras, offsets);
+        rebuilt.commitHeap();
+        rebuilt.insert(record, now);
+      }
+
+      // slots of the access tokens are changed, so they are found again by their keys
+      for (int slot = 0; slot < rebuilt.capacity(); slot++) {
+        Record refresh = rebuilt.record(slot);
+        if (refresh == null || refresh.kind != TokenTable.REFRESH) {
+          continue;
+        }
+        Record access = refresh.accessSlot < 0 ? null : current.record((int) refresh.accessSlot);
+        Record moved = access == null ? null : rebuilt.find(access.keyHi, access.keyLo);
+        rebuilt.accessSlot(slot, moved == null ? -1 : moved.slot);
+      }
+
+      rebuilt.markOpen();
+      rebuilt.force();
+    } catch (IOException e) {
+      rebuilt.close();
+      throw e;
+    }
+
+    Files.move(tempFile, tableFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    // readers could still use the previous table, which remains mapped after its files are closed
+    table = rebuilt;
+    heapLimit = heapLimitOf(rebuilt);
+    strings.clear();
+    current.close();
+    deleteUnusedFiles(generation);
+
+    logger.info("Token store in " + directory + " was rebuilt with capacity " + capacity + ".");
+  }
+
+  private TokenTable create(Path file, long generation, int capacity) throws IOException {
+    Path heapFile = heapFiles().of(generation);
+    Files.deleteIfExists(heapFile);
+    RecordHeap heap = RecordHeap.open(heapFile, heapSegmentSize, 0);
+    try {
+      return TokenTable.create(file, heap, generation, capacity);
+    } catch (IOException e) {
+      heap.close();
+      throw e;
+    }
+  }
+
+  private void deleteUnusedFiles(long generation) {
+    String used = HEAP_FILE_PREFIX + generation;
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "tokens.*")) {
+      for (Path each : files) {
+        String name = each.getFileName().toString();
+        if (name.equals(TABLE_FILE + TEMP_SUFFIX) || (name.startsWith(HEAP_FILE_PREFIX) && !name.equals(used))) {
+          Files.deleteIfExists(each);
+        }
+      }
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Unused files of the token store cannot be deleted.", e);
+    }
+  }
+
+  private TokenTable.HeapFile heapFiles() {
+    return new TokenTable.HeapFile() {
+      @Override
+      public Path of(long generation) {
+        return directory.resolve(HEAP_FILE_PREFIX + generation);
+      }
+    };
+  }
+
+  private void deleteAccessOf(TokenTable current, Record refresh) {
+    if (refresh.accessSlot < 0) {
+      return;
+    }
+    Record access = current.record((int) refresh.accessSlot);
+    if (access != null && access.kind == TokenTable.ACCESS && access.hasPair(refresh.keyHi, refresh.keyLo)) {
+      current.delete(access.slot);
+    }
+  }
+
+  private void sync(TokenTable current) {
+    if (syncWrites) {
+      current.force();
+    }
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("Token store is closed.");
+    }
+  }
+
+  private long string(TokenTable current, String value) throws IOException {
+    if (value == null) {
+      return -1;
+    }
+    Long offset = strings.get(value);
+    if (offset == null) {
+      offset = current.heap().append(value.getBytes(StandardCharsets.UTF_8));
+      strings.put(value, offset);
+    }
+    return offset;
+  }
+
+  /**
+   * Encodes the scopes in the bitset of the record. Scopes that are not fitting in the bitset are written in the
+   * extras of the record together with the params.
+   */
+  private void encodeExtras(TokenTable current, Record record, Set<String> scopes, Map<String, String> params) throws IOException {
+    Set<String> remaining = new LinkedHashSet<String>();
+    if (scopes != null) {
+      for (String scope : scopes) {
+        int index = current.scopeIndex(scope);
+        if (index < 0) {
+          remaining.add(scope);
+        } else {
+          record.scopes |= 1L << index;
+        }
+      }
+    }
+
+    if (remaining.isEmpty() && (params == null || params.isEmpty())) {
+      record.extras = -1;
+      return;
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(remaining.size());
+    for (String scope : remaining) {
+      out.writeUTF(scope);
+    }
+    Map<String, String> values = params == null ? Collections.<String, String>emptyMap() : params;
+    out.writeInt(values.size());
+    for (Map.Entry<String, String> each : values.entrySet()) {
+      out.writeUTF(each.getKey());
+      out.writeUTF(each.getValue());
+    }
+    out.flush();
+    record.extras = current.heap().append(bytes.toByteArray());
+  }
+
+  private BearerToken bearerToken(TokenTable current, String token, Record record) {
+    RecordHeap heap = current.heap();
+
+    Set<String> scopes = new LinkedHashSet<String>();
+    long bits = record.scopes;
+    while (bits != 0) {
+      int index = Long.numberOfTrailingZeros(bits);
+      scopes.add(current.scope(index));
+      bits &= bits - 1;
+    }
+
+    Map<String, String> params = new LinkedHashMap<String, String>();
+    if (record.extras >= 0) {
+      byte[] extras = heap.read(record.extras);
+      if (extras == null) {
+        return null;
+      }
+      try {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(extras));
+        for (int i = in.readInt(); i > 0; i--) {
+          scopes.add(in.readUTF());
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+          params.put(in.readUTF(), in.readUTF());
+        }
+      } catch (IOException e) {
+        return null;
+      }
+    }
+
+    GrantType grantType = record.grantType == 0 ? null : GrantType.values()[record.grantType - 1];
+
+    return new BearerToken(token, grantType, stringAt(heap, record.identity), stringAt(heap, record.client),
+            stringAt(heap, record.email), scopes, new DateTime(record.expiresAt), params);
+  }
+
+  private String stringAt(RecordHeap heap, long offset) {
+    byte[] value = heap.read(offset);
+    return value == null ? null : new String(value, StandardCharsets.UTF_8);
+  }
+
+  private long[] hash(String token) {
+    MessageDigest digest;
+    try {
+      digest = digests.acquire();
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+    try {
+      ByteBuffer hash = ByteBuffer.wrap(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+      return new long[]{hash.getLong(), hash.getLong()};
+    } finally {
+      digests.release(digest);
+    }
+  }
+
+  private static Record copyOf(Record values, int kind, long[] key, long[] pair, long expiresAt) {
+    Record record = new Record();
+    record.kind = kind;
+    record.keyHi = key[0];
+    record.keyLo = key[1];
+    record.pairHi = pair[0];
+    record.pairLo = pair[1];
+    record.grantType = values.grantType;
+    record.expiresAt = expiresAt;
+    record.scopes = values.scopes;
+    record.identity = values.identity;
+    record.client = values.client;
+    record.email = values.email;
+    record.extras = values.extras;
+    return record;
+  }
+
+  private static long copy(TokenTable from, TokenTable to, long offset, Map<Long, Long> offsets) throws IOException {
+    if (offset < 0) {
+      return -1;
+    }
+    Long copied = offsets.get(offset);
+    if (copied == null) {
+      byte[] value = from.heap().read(offset);
+      copied = value == null ? -1 : to.heap().append(value);
+      offsets.put(offset, copied);
+    }
+    return copied;
+  }
+
+  private static long heapLimitOf(TokenTable table) {
+    // heap is compacted by a rebuild once it's grown four times since the last one
+    return Math.max(64L * 1024 * 1024, table.heap().end() * 4);
+  }
+
+  private static int capacityFor(int records) {
+    int capacity = Integer.highestOneBit(Math.max(16, Math.min(MAX_CAPACITY, records)));
+    return capacity < records ? capacity << 1 : capacity;
+  }
+}
@@ -0,0 +1,834 @@
+package com.clouway.oauth2.storage;
+
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.common.Duration;
+import com.clouway.oauth2.storage.TimingWheel.Timeout;
+import com.clouway.oauth2.token.BearerToken;
+import com.clouway.oauth2.token.ObservableTokens;
+import com.clouway.oauth2.token.TokenGenerator;
+import com.clouway.oauth2.token.TokenRequest;
+import com.clouway.oauth2.token.TokenResponse;
+import com.clouway.oauth2.token.Tokens;
+import com.clouway.oauth2.token.UrlSafeTokenGenerator;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * MemoryTokens is a thread-safe {@link Tokens} which is keeping the issued tokens in memory.
+ * <p/>
+ * Each issued token is a grant which is holding the current access token and its refresh token. Grants are indexed by
+ * both tokens in concurrent hash maps, so lookups of tokens are not taking any locks. Access tokens are removed from
+ * the index when they expire and the grants when their refresh tokens expire. Expiration is driven by hierarchical
+ * timing wheels which are moved forward with the time of each issuing, refreshing and revoking of a token, or by
+ * calling {@link #expire(DateTime)}, so expired tokens are removed in O(1) without a scan of the tokens.
+ * <p/>
+ * Grants are split in stripes, each with its own lock and timing wheel, so changes of different grants are not
+ * waiting for each other. The number of grants is bounded by the max tokens and grants which are due to expire
+ * first are evicted when it's exceeded.
+ * <p/>
+ * Each stripe is also indexing its grants by identity and by client in posting lists, so all grants of an identity or
+ * a client are revoked by visiting only them instead of scanning all grants.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public final class MemoryTokens implements Tokens, ObservableTokens {
+
+  public static Builder newMemoryTokens() {
+    return new Builder();
+  }
+
+  public static final class Builder {
+    private TokenGenerator tokenGenerator = new UrlSafeTokenGenerator();
+    private Duration timeToLive = Duration.hours(1);
+    private Duration refreshTokenTimeToLive = Duration.hours(30 * 24);
+    private long maxTokens = 1000000;
+    private boolean generatesNewRefreshToken = false;
+    private long tickMillis = TimeUnit.SECONDS.toMillis(1);
+    private int stripes = 16;
+
+    private Builder() {
+    }
+
+    /**
+     * Sets the generator of the access and refresh tokens. Default is {@link UrlSafeTokenGenerator}.
+     */
+    public Builder tokenGenerator(TokenGenerator tokenGenerator) {
+      this.tokenGenerator = tokenGenerator;
+      return this;
+    }
+
+    /**
+     * Sets the time to live of the access tokens. Default is 1 hour.
+     */
+    public Builder timeToLive(Duration timeToLive) {
+      this.timeToLive = timeToLive;
+      return this;
+    }
+
+    /**
+     * Sets the time to live of the refresh tokens. Default is 30 days.
+     */
+    public Builder refreshTokenTimeToLive(Duration refreshTokenTimeToLive) {
+      this.refreshTokenTimeToLive = refreshTokenTimeToLive;
+      return this;
+    }
+
+    /**
+     * Sets the max number of grants that are kept. Grants which are due to expire first are evicted when it's
+     * exceeded. Default is 1 000 000.
+     */
+    public Builder maxTokens(long maxTokens) {
+      this.maxTokens = maxTokens;
+      return this;
+    }
+
+    /**
+     * Sets whether a new refresh token is generated when token is refreshed. Default is false.
+     */
+    public Builder generatesNewRefreshToken(boolean generatesNewRefreshToken) {
+      this.generatesNewRefreshToken = generatesNewRefreshToken;
+      return this;
+    }
+
+    /**
+     * Sets the precision of the expiration. Tokens are removed within a tick after they expire. Default is 1 second.
+     */
+    public Builder expirationTick(long tick, TimeUnit unit) {
+      this.tickMillis = Math.max(1, unit.toMillis(tick));
+      return this;
+    }
+
+    /**
+     * Sets the number of stripes. It's rounded up to a power of two. Default is 16.
+     */
+    public Builder stripes(int stripes) {
+      this.stripes = stripes;
+      return this;
+    }
+
+    public MemoryTokens build() {
+      return new MemoryTokens(this);
+    }
+  }
+
+  /**
+   * Grant is holding the current access token and the refresh token which were issued together. Grants are changed
+   * only under the lock of their stripe.
+   */
+  private static final class Grant {
+    private final Stripe stripe;
+    private final Timeout<Grant> accessTimeout = new Timeout<Grant>(this);
+    private final Timeout<Grant> refreshTimeout = new Timeout<Grant>(this);
+    private volatile BearerToken accessToken;
+    private volatile String refreshToken;
+    private volatile long refreshTokenExpiresAt;
+    private boolean removed = false;
+    private int identityPosition = -1;
+    private int clientPosition = -1;
+
+    Grant(Stripe stripe, BearerToken accessToken, String refreshToken, long refreshTokenExpiresAt) {
+      this.stripe = stripe;
+      this.accessToken = accessToken;
+      this.refreshToken = refreshToken;
+      this.refreshTokenExpiresAt = refreshTokenExpiresAt;
+    }
+  }
+
+  private static final class Stripe {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final TimingWheel<Grant> wheel;
+    private final Map<String, Postings> identities = new HashMap<String, Postings>();
+    private final Map<String, Postings> clients = new HashMap<String, Postings>();
+
+    Stripe(long tickMillis) {
+      this.wheel = new TimingWheel<Grant>(tickMillis);
+    }
+  }
+
+  /**
+   * Postings is the list of the grants of a single identity or client in a stripe. Each grant is keeping its position
+   * in the list, so grants are added and removed in O(1). Postings are changed only under the lock of their stripe.
+   */
+  private static final class Postings {
+    private final boolean byClient;
+    private Grant[] grants = new Grant[1];
+    private int size = 0;
+
+    Postings(boolean byClient) {
+      this.byClient = byClient;
+    }
+
+    void add(Grant grant) {
+      if (size == grants.length) {
+        grants = Arrays.copyOf(grants, size * 2);
+      }
+      grants[size] = grant;
+      position(grant, size);
+      size++;
+    }
+
+    void remove(Grant grant) {
+      int position = byClient ? grant.clientPosition : grant.identityPosition;
+      if (position < 0) {
+        return;
+      }
+      // the last grant is moved in place of the removed one
+      Grant last = grants[--size];
+      grants[position] = last;
+      position(last, position);
+      grants[size] = null;
+      position(grant, -1);
+
+      if (size > 0 && size < grants.length / 4) {
+        grants = Arrays.copyOf(grants, grants.length / 2);
+      }
+    }
+
+    Grant[] grants() {
+      return Arrays.copyOf(grants, size);
+    }
+
+    private void position(Grant grant, int position) {
+      if (byClient) {
+        grant.clientPosition = position;
+      } else {
+        grant.identityPosition = position;
+      }
+    }
+  }
+
+  private static final int MAX_GENERATION_ATTEMPTS = 3;
+
+  private final TokenGenerator tokenGenerator;
+  private final long timeToLiveMillis;
+  private final long refreshTokenTimeToLiveMillis;
+  private final long maxTokens;
+  private final boolean generatesNewRefreshToken;
+
+  private final ConcurrentHashMap<String, Grant> accessTokens;
+  private final ConcurrentHashMap<String, Grant> refreshTokens;
+  private final Stripe[] stripes;
+  private final AtomicInteger nextStripe = new AtomicInteger();
+  private final AtomicInteger nextEviction = new AtomicInteger();
+  private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+  private final AtomicLong size = new AtomicLong();
+  private final AtomicLong expirations = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong revocations = new AtomicLong();
+
+  private final TimingWheel.Expiration<Grant> expiration = new TimingWheel.Expiration<Grant>() {
+    @Override
+    public void expired(Timeout<Grant> timeout) {
+      Grant grant = timeout.value;
+      if (timeout == grant.accessTimeout) {
+        removeAccessToken(grant.accessToken.value, grant);
+      } else {
+        remove(grant);
+        expirations.incrementAndGet();
+      }
+    }
+  };
+
+  private MemoryTokens(Builder builder) {
+    this.tokenGenerator = builder.tokenGenerator;
+    this.timeToLiveMillis = builder.timeToLive.asMills();
+    this.refreshTokenTimeToLiveMillis = builder.refreshTokenTimeToLive.asMills();
+    this.maxTokens = builder.maxTokens;
+    this.generatesNewRefreshToken = builder.generatesNewRefreshToken;
+
+    int stripeCount = Integer.highestOneBit(Math.max(1, builder.stripes) * 2 - 1);
+    this.stripes = new Stripe[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] = new Stripe(builder.tickMillis);
+    }
+
+    int capacity = (int) Math.min(maxTokens, 1 << 16);
+    this.accessTokens = new ConcurrentHashMap<String, Grant>(capacity);
+    this.refreshTokens = new ConcurrentHashMap<String, Grant>(capacity);
+  }
+
+  @Override
+  public Optional<BearerToken> findTokenAvailableAt(String token, DateTime when) {
+    if (token == null) {
+      return Optional.absent();
+    }
+
+    Grant grant = accessTokens.get(token);
+    if (grant == null) {
+      return Optional.absent();
+    }
+
+    BearerToken accessToken = grant.accessToken;
+
+    // access token could be replaced by a refresh after the lookup
+    if (!accessToken.value.equals(token) || accessToken.expiresAt(when)) {
+      return Optional.absent();
+    }
+
+    return Optional.of(accessToken);
+  }
+
+  @Override
+  public TokenResponse refreshToken(String refreshToken, DateTime when) {
+    expire(when);
+
+    Grant grant = refreshToken == null ? null : refreshTokens.get(refreshToken);
+    if (grant == null) {
+      return new TokenResponse(false, null, "");
+    }
+
+    long now = when.timestamp();
+    String newAccessToken = tokenGenerator.generate();
+    String newRefreshToken = generatesNewRefreshToken ? tokenGenerator.generate() : refreshToken;
+
+    Stripe stripe = grant.stripe;
+    stripe.lock.lock();
+    try {
+      if (grant.removed || !refreshToken.equals(grant.refreshToken) || now > grant.refreshTokenExpiresAt) {
+        return new TokenResponse(false, null, "");
+      }
+
+      BearerToken oldToken = grant.accessToken;
+      BearerToken newToken = new BearerToken(newAccessToken, oldToken.grantType, oldToken.identityId, oldToken.clientId,
+              oldToken.email, oldToken.scopes, new DateTime(now + timeToLiveMillis), oldToken.params);
+
+      if (accessTokens.putIfAbsent(newAccessToken, grant) != null) {
+        return new TokenResponse(false, null, "");
+      }
+      if (generatesNewRefreshToken) {
+        if (refreshTokens.putIfAbsent(newRefreshToken, grant) != null) {
+          accessTokens.remove(newAccessToken, grant);
+          return new TokenResponse(false, null, "");
+        }
+        refreshTokens.remove(refreshToken, grant);
+        grant.refreshToken = newRefreshToken;
+        grant.refreshTokenExpiresAt = now + refreshTokenTimeToLiveMillis;
+        stripe.wheel.schedule(grant.refreshTimeout, grant.refreshTokenExpiresAt);
+      }
+
+      grant.accessToken = newToken;
+      removeAccessToken(oldToken.value, grant);
+      added(newAccessToken);
+      stripe.wheel.schedule(grant.accessTimeout, newToken.expirationTimestamp());
+
+      return new TokenResponse(true, newToken, newRefreshToken);
+    } finally {
+      stripe.lock.unlock();
+    }
+  }
+
+  @Override
+  public TokenResponse issueToken(TokenRequest tokenRequest) {
+    DateTime when = tokenRequest.when;
+    expire(when);
+
+    long now = when.timestamp();
+    Set<String> scopes = tokenRequest.scopes == null ? Collections.<String>emptySet() : tokenRequest.scopes;
+    Map<String, String> params = tokenRequest.params == null ? Collections.<String, String>emptyMap() : tokenRequest.params;
+
+    Stripe stripe = stripes[nextStripe.getAndIncrement() & (stripes.length - 1)];
+
+    for (int attempt = 0; attempt < MAX_GENERATION_ATTEMPTS; attempt++) {
+      String accessToken = tokenGenerator.generate();
+      String refreshToken = tokenGenerator.generate();
+
+      BearerToken token = new BearerToken(accessToken, tokenRequest.grantType, tokenRequest.identity.id(),
+              tokenRequest.client.id, tokenRequest.identity.email(), scopes, new DateTime(now + timeToLiveMillis), params);
+
+      Grant grant = new Grant(stripe, token, refreshToken, now + refreshTokenTimeToLiveMillis);
+
+      stripe.lock.lock();
+      try {
+        // generated tokens are not expected to collide, but a collision is never replacing another grant
+        if (accessTokens.putIfAbsent(accessToken, grant) != null) {
+          continue;
+        }
+        if (refreshTokens.putIfAbsent(refreshToken, grant) != null) {
+          accessTokens.remove(accessToken, grant);
+          continue;
+        }
+        added(accessToken);
+        index(grant);
+        stripe.wheel.start(now);
+        stripe.wheel.schedule(grant.accessTimeout, token.expirationTimestamp());
+        stripe.wheel.schedule(grant.refreshTimeout, grant.refreshTokenExpiresAt);
+      } finally {
+        stripe.lock.unlock();
+      }
+
+      if (size.incrementAndGet() > maxTokens) {
+        evict();
+      }
+
+      return new TokenResponse(true, token, refreshToken);
+    }
+
+    return new TokenResponse(false, null, "");
+  }
+
+  /**
+   * Revokes the grant of the provided access or refresh token, so both of them are no longer valid.
+   *
+   * @param token the access or the refresh token
+   */
+  @Override
+  public void revokeToken(String token) {
+    revoke(token);
+  }
+
+  /**
+   * Revokes all grants of the provided identity by visiting only its grants. Grants which are issued while they are
+   * revoked could be kept.
+   */
+  @Override
+  public int revokeAllForIdentity(String identityId) {
+    return revokeAll(identityId, false);
+  }
+
+  /**
+   * Revokes all grants of the provided client by visiting only its grants. Grants which are issued while they are
+   * revoked could be kept.
+   */
+  @Override
+  public int revokeAllForClient(String clientId) {
+    return revokeAll(clientId, true);
+  }
+
+  /**
+   * Extends the expiration of the provided access tokens. Access tokens which were refreshed or revoked are skipped.
+   */
+  @Override
+  public void extendExpirations(Map<String, DateTime> expirations) {
+    extend(expirations);
+  }
+
+  /**
+   * Removes the tokens which are expired at the provided time. It's called when tokens are issued, refreshed or
+   * revoked, so it's needed only by apps which want to release the memory of the expired tokens when no tokens are
+   * issued. Stripes which are locked by other threads are skipped and are expired on the next call.
+   *
+   * @param when the current time
+   * @return the number of the removed tokens
+   */
+  public int expire(DateTime when) {
+    long now = when.timestamp();
+    int removed = 0;
+    for (Stripe stripe : stripes) {
+      if (stripe.lock.tryLock()) {
+        try {
+          removed += stripe.wheel.advance(now, expiration);
+        } finally {
+          stripe.lock.unlock();
+        }
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Gets the statistics of the store.
+   */
+  public Stats stats() {
+    return new Stats(size.get(), expirations.get(), evictions.get(), revocations.get());
+  }
+
+  /**
+   * Adds a listener of the access tokens. Listeners are called under the lock of the stripe of the changed grant.
+   */
+  @Override
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public void forEachAccessToken(Visitor visitor) {
+    for (String each : accessTokens.keySet()) {
+      visitor.visit(each);
+    }
+  }
+
+  /**
+   * Visitor of the grants of the store.
+   */
+  interface GrantVisitor {
+
+    void visit(BearerToken accessToken, String refreshToken, long refreshTokenExpiresAt);
+
+  }
+
+  /**
+   * Visits the grants of the store. Grants that are changed during the visit are visited either before or after the
+   * change.
+   */
+  void forEachGrant(GrantVisitor visitor) {
+    for (Grant grant : refreshTokens.values()) {
+      BearerToken accessToken;
+      String refreshToken;
+      long refreshTokenExpiresAt;
+
+      grant.stripe.lock.lock();
+      try {
+        if (grant.removed) {
+          continue;
+        }
+        accessToken = grant.accessToken;
+        refreshToken = grant.refreshToken;
+        refreshTokenExpiresAt = grant.refreshTokenExpiresAt;
+      } finally {
+        grant.stripe.lock.unlock();
+      }
+
+      visitor.visit(accessToken, refreshToken, refreshTokenExpiresAt);
+    }
+  }
+
+  /**
+   * Gets the time at which the provided refresh token expires.
+   *
+   * @return the time in milliseconds or -1 if the refresh token is not known
+   */
+  long refreshTokenExpiresAt(String refreshToken) {
+    Grant grant = refreshTokens.get(refreshToken);
+    return grant == null ? -1 : grant.refreshTokenExpiresAt;
+  }
+
+  /**
+   * Revokes the grant of the provided access or refresh token.
+   *
+   * @return true if the grant was revoked and false if the token is not known
+   */
+  boolean revoke(String token) {
+    if (token == null) {
+      return false;
+    }
+
+    Grant grant = accessTokens.get(token);
+    if (grant == null) {
+      grant = refreshTokens.get(token);
+    }
+    if (grant == null) {
+      return false;
+    }
+
+    Stripe stripe = grant.stripe;
+    stripe.lock.lock();
+    try {
+      if (!grant.removed && (token.equals(grant.accessToken.value) || token.equals(grant.refreshToken))) {
+        remove(grant);
+        revocations.incrementAndGet();
+        return true;
+      }
+      return false;
+    } finally {
+      stripe.lock.unlock();
+    }
+  }
+
+  /**
+   * Extends the expiration of the provided access tokens.
+   *
+   * @return the number of the access tokens that were extended
+   */
+  int extend(Map<String, DateTime> expirations) {
+    int extended = 0;
+    for (Map.Entry<String, DateTime> each : expirations.entrySet()) {
+      String token = each.getKey();
+      Grant grant = accessTokens.get(token);
+      if (grant == null) {
+        continue;
+      }
+
+      long expiresAt = each.getValue().timestamp();
+      Stripe stripe = grant.stripe;
+      stripe.lock.lock();
+      try {
+        BearerToken accessToken = grant.accessToken;
+        if (grant.removed || !token.equals(accessToken.value) || expiresAt <= accessToken.expirationTimestamp()) {
+          continue;
+        }
+        grant.accessToken = new BearerToken(accessToken.value, accessToken.grantType, accessToken.identityId,
+                accessToken.clientId, accessToken.email, accessToken.scopes, new DateTime(expiresAt), accessToken.params);
+        stripe.wheel.schedule(grant.accessTimeout, expiresAt);
+        extended++;
+      } finally {
+        stripe.lock.unlock();
+      }
+    }
+    return extended;
+  }
+
+  /**
+   * Restores a grant which was issued before, replacing the grants of the same tokens.
+   *
+   * @param accessToken           the current access token of the grant
+   * @param refreshToken          the refresh token of the grant
+   * @param refreshTokenExpiresAt the time at which the refresh token expires
+   */
+  void restore(BearerToken accessToken, String refreshToken, long refreshTokenExpiresAt) {
+    discard(refreshTokens.get(refreshToken));
+    discard(accessTokens.get(accessToken.value));
+
+    Stripe stripe = stripes[nextStripe.getAndIncrement() & (stripes.length - 1)];
+    Grant grant = new Grant(stripe, accessToken, refreshToken, refreshTokenExpiresAt);
+
+    stripe.lock.lock();
+    try {
+      Grant replaced = accessTokens.put(accessToken.value, grant);
+      if (replaced != null) {
+        removed(accessToken.value);
+      }
+      added(accessToken.value);
+      refreshTokens.put(refreshToken, grant);
+      index(grant);
+      stripe.wheel.schedule(grant.accessTimeout, accessToken.expirationTimestamp());
+      stripe.wheel.schedule(grant.refreshTimeout, refreshTokenExpiresAt);
+    } finally {
+      stripe.lock.unlock();
+    }
+
+    if (size.incrementAndGet() > maxTokens) {
+      evict();
+    }
+  }
+
+  /**
+   * Restores a refresh of a grant which was done before.
+   *
+   * @param refreshToken          the refresh token that was used
+   * @param accessToken           the new access token
+   * @param accessTokenExpiresAt  the time at which the new access token expires
+   * @param newRefreshToken       the new refresh token, which is the same if it was not changed
+   * @param refreshTokenExpiresAt the time at which the new refresh token expires
+   * @return true if the grant was refreshed and false if the refresh token is not known
+   */
+  boolean restoreRefresh(String refreshToken, String accessToken, long accessTokenExpiresAt, String newRefreshToken, long refreshTokenExpiresAt) {
+    Grant grant = refreshTokens.get(refreshToken);
+    if (grant == null) {
+      return false;
+    }
+
+    Stripe stripe = grant.stripe;
+    stripe.lock.lock();
+    try {
+      if (grant.removed || !refreshToken.equals(grant.refreshToken)) {
+        return false;
+      }
+
+      BearerToken oldToken = grant.accessToken;
+      BearerToken newToken = new BearerToken(accessToken, oldToken.grantType, oldToken.identityId, oldToken.clientId,
+              oldToken.email, oldToken.scopes, new DateTime(accessTokenExpiresAt), oldToken.params);
+
+      if (!newRefreshToken.equals(refreshToken)) {
+        refreshTokens.remove(refreshToken, grant);
+        refreshTokens.put(newRefreshToken, grant);
+        grant.refreshToken = newRefreshToken;
+        grant.refreshTokenExpiresAt = refreshTokenExpiresAt;
+        stripe.wheel.schedule(grant.refreshTimeout, refreshTokenExpiresAt);
+      }
+
+      removeAccessToken(oldToken.value, grant);
+      Grant replaced = accessTokens.put(accessToken, grant);
+      if (replaced != null) {
+        removed(accessToken);
+      }
+      added(accessToken);
+      grant.accessToken = newToken;
+      stripe.wheel.schedule(grant.accessTimeout, accessTokenExpiresAt);
+      return true;
+    } finally {
+      stripe.lock.unlock();
+    }
+  }
+
+  /**
+   * Revokes the grants of the posting lists of the provided identity or client in each stripe.
+   *
+   * @return the number of the revoked grants
+   */
+  private int revokeAll(String key, boolean byClient) {
+    if (key == null) {
+      return 0;
+    }
+
+    int revoked = 0;
+    for (Stripe stripe : stripes) {
+      stripe.lock.lock();
+      try {
+        Postings postings = (byClient ? stripe.clients : stripe.identities).get(key);
+        if (postings == null) {
+          continue;
+        }
+        for (Grant grant : postings.grants()) {
+          remove(grant);
+          revocations.incrementAndGet();
+          revoked++;
+        }
+      } finally {
+        stripe.lock.unlock();
+      }
+    }
+    return revoked;
+  }
+
+  /**
+   * Adds the grant to the posting lists of its identity and client. It's called under the lock of the stripe of the
+   * grant.
+   */
+  private void index(Grant grant) {
+    index(grant.stripe.identities, grant.accessToken.identityId, grant, false);
+    index(grant.stripe.clients, grant.accessToken.clientId, grant, true);
+  }
+
+  private void index(Map<String, Postings> index, String key, Grant grant, boolean byClient) {
+    if (key == null) {
+      return;
+    }
+    Postings postings = index.get(key);
+    if (postings == null) {
+      postings = new Postings(byClient);
+      index.put(key, postings);
+    }
+    postings.add(grant);
+  }
+
+  /**
+   * Removes the grant from the posting lists of its identity and client. It's called under the lock of the stripe of
+   * the grant.
+   */
+  private void unindex(Grant grant) {
+    unindex(grant.stripe.identities, grant.accessToken.identityId, grant);
+    unindex(grant.stripe.clients, grant.accessToken.clientId, grant);
+  }
+
+  private void unindex(Map<String, Postings> index, String key, Grant grant) {
+    if (key == null) {
+      return;
+    }
+    Postings postings = index.get(key);
+    if (postings == null) {
+      return;
+    }
+    postings.remove(grant);
+    if (postings.size == 0) {
+      index.remove(key);
+    }
+  }
+
+  private void discard(Grant grant) {
+    if (grant == null) {
+      return;
+    }
+    grant.stripe.lock.lock();
+    try {
+      remove(grant);
+    } finally {
+      grant.stripe.lock.unlock();
+    }
+  }
+
+  private void evict() {
+    // grants are evicted from the stripes in turn as each of them is ordering only its own grants
+    for (int i = 0; i < stripes.length && size.get() > maxTokens; i++) {
+      Stripe stripe = stripes[nextEviction.getAndIncrement() & (stripes.length - 1)];
+      stripe.lock.lock();
+      try {
+        Timeout<Grant> timeout = stripe.wheel.earliest();
+        if (timeout != null) {
+          remove(timeout.value);
+          evictions.incrementAndGet();
+        }
+      } finally {
+        stripe.lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Removes the access token of the grant, if it's still indexed. It's called under the lock of the stripe of the grant.
+   */
+  private void removeAccessToken(String accessToken, Grant grant) {
+    if (accessTokens.remove(accessToken, grant)) {
+      removed(accessToken);
+    }
+  }
+
+  private void added(String accessToken) {
+    for (Listener each : listeners) {
+      each.added(accessToken);
+    }
+  }
+
+  private void removed(String accessToken) {
+    for (Listener each : listeners) {
+      each.removed(accessToken);
+    }
+  }
+
+  /**
+   * Removes the grant from the indexes. It's called under the lock of the stripe of the grant.
+   */
+  private void remove(Grant grant) {
+    if (grant.removed) {
+      return;
+    }
+    grant.removed = true;
+    removeAccessToken(grant.accessToken.value, grant);
+    refreshTokens.remove(grant.refreshToken, grant);
+    unindex(grant);
+    grant.stripe.wheel.cancel(grant.accessTimeout);
+    grant.stripe.wheel.cancel(grant.refreshTimeout);
+    size.decrementAndGet();
+  }
+
+  /**
+   * Stats is a snapshot of the usage of the store.
+   */
+  public static final class Stats {
+    /**
+     * Number of the kept grants.
+     */
+    public final long size;
+    /**
+     * Number of grants that were removed as their refresh token expired.
+     */
+    public final long expirations;
+    /**
+     * Number of grants that were removed as max tokens was exceeded.
+     */
+    public final long evictions;
+    /**
+     * Number of grants that were revoked.
+     */
+    public final long revocations;
+
+    Stats(long size, long expirations, long evictions, long revocations) {
+      this.size = size;
+      this.expirations = expirations;
+      this.evictions = evictions;
+      this.revocations = revocations;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+              .add("size", size)
+              .add("expirations", expirations)
+              .add("evictions", evictions)
+              .add("revocations", revocations)
+              .toString();
+    }
+  }
+}
@@ -0,0 +1,174 @@
+package com.clouway.oauth2.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * RecordHeap is an append-only file of variable-sized records which are referenced by their offset from the fixed-size
+ * records of the {@link TokenTable}.
+ * <p/>
+ * The file is mapped in segments and each record is written with its length and checksum, so records that were not
+ * completely written before a crash are detected when they are read. Records are never spanning segments. Appending
+ * is done by a single writer and reading is safe from any thread once the offset of the record is published.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+final class RecordHeap implements Closeable {
+
+  private static final int RECORD_HEADER = 8;
+
+  private final FileChannel channel;
+  private final int segmentSize;
+  private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+  private long end;
+  private int forcedSegment = 0;
+
+  private RecordHeap(FileChannel channel, int segmentSize, long end) {
+    this.channel = channel;
+    this.segmentSize = segmentSize;
+    this.end = end;
+  }
+
+  /**
+   * Opens or creates the heap file.
+   *
+   * @param file        the heap file
+   * @param segmentSize the size of the mapped segments
+   * @param end         the end of the records that were written in the file
+   * @return the opened heap
+   * @throws IOException if the file cannot be opened or mapped
+   */
+  static RecordHeap open(Path file, int segmentSize, long end) throws IOException {
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    RecordHeap heap = new RecordHeap(channel, segmentSize, end);
+    try {
+      if (end > 0) {
+        heap.segment((int) ((end - 1) / segmentSize));
+      }
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    return heap;
+  }
+
+  /**
+   * Appends the provided record.
+   *
+   * @param data the content of the record
+   * @return the offset of the record
+   * @throws IOException if the record is larger than a segment or the file cannot be extended
+   */
+  long append(byte[] data) throws IOException {
+    int size = RECORD_HEADER + data.length;
+    if (size > segmentSize) {
+      throw new IOException("Record of " + data.length + " bytes is not fitting in a heap segment.");
+    }
+
+    long offset = end;
+    int position = (int) (offset % segmentSize);
+    if (position + size > segmentSize) {
+      offset += segmentSize - position;
+      position = 0;
+    }
+
+    ByteBuffer buffer = segment((int) (offset / segmentSize)).duplicate();
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(position + 4, checksum(data));
+    buffer.position(position + RECORD_HEADER);
+    buffer.put(data);
+    buffer.putInt(position, data.length);
+
+    end = offset + size;
+    return offset;
+  }
+
+  /**
+   * Reads the record at the provided offset.
+   *
+   * @param offset the offset of the record
+   * @return the content of the record or null if there is no valid record at that offset
+   */
+  byte[] read(long offset) {
+    if (offset < 0) {
+      return null;
+    }
+    int index = (int) (offset / segmentSize);
+    MappedByteBuffer[] current = segments;
+    if (index >= current.length) {
+      return null;
+    }
+
+    int position = (int) (offset % segmentSize);
+    if (position + RECORD_HEADER > segmentSize) {
+      return null;
+    }
+
+    ByteBuffer buffer = current[index].duplicate();
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    int length = buffer.getInt(position);
+    if (length < 0 || position + RECORD_HEADER + length > segmentSize) {
+      return null;
+    }
+
+    byte[] data = new byte[length];
+    buffer.position(position + RECORD_HEADER);
+    buffer.get(data);
+
+    if (buffer.getInt(position + 4) != checksum(data)) {
+      return null;
+    }
+    return data;
+  }
+
+  /**
+   * Gets the end of the written records.
+   */
+  long end() {
+    return end;
+  }
+
+  /**
+   * Forces the records that were appended since the last call to the storage device.
+   */
+  void force() {
+    MappedByteBuffer[] current = segments;
+    for (int i = forcedSegment; i < current.length; i++) {
+      current[i].force();
+    }
+    forcedSegment = Math.max(0, current.length - 1);
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private MappedByteBuffer segment(int index) throws IOException {
+    MappedByteBuffer[] current = segments;
+    if (index < current.length) {
+      return current[index];
+    }
+
+    MappedByteBuffer[] extended = Arrays.copyOf(current, index + 1);
+    for (int i = current.length; i <= index; i++) {
+      extended[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * segmentSize, segmentSize);
+    }
+    segments = extended;
+    return extended[index];
+  }
+
+  private static int checksum(byte[] data) {
+    CRC32 crc = new CRC32();
+    crc.update(data, 0, data.length);
+    return (int) crc.getValue();
+  }
+}
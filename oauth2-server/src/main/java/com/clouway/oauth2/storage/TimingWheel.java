@@ -0,0 +1,281 @@
+package com.clouway.oauth2.storage;
+
+/**
+ * TimingWheel is a hierarchical timing wheel which is scheduling, cancelling and firing of timeouts in O(1).
+ * <p/>
+ * The wheel has 4 levels of 64 slots. Timeouts which are due within 64 ticks are placed in the first level and the
+ * ones which are due later in the higher levels, from which they are moved to the lower levels when their time comes
+ * closer. Timeouts which are due after the span of the wheel are kept in the last level until they are in range.
+ * <p/>
+ * Timeouts are fired on the first tick after their deadline, so they are never fired earlier. The wheel is not
+ * thread-safe and is guarded by its owner.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+final class TimingWheel<T> {
+
+  /**
+   * Listener which is notified for the timeouts that are due.
+   */
+  interface Expiration<T> {
+
+    void expired(Timeout<T> timeout);
+
+  }
+
+  /**
+   * Timeout is a scheduled entry of the wheel.
+   */
+  static final class Timeout<T> {
+    final T value;
+    private long deadlineTick;
+    private int level = -1;
+    private int slot;
+    private Timeout<T> prev;
+    private Timeout<T> next;
+
+    Timeout(T value) {
+      this.value = value;
+    }
+
+    boolean isScheduled() {
+      return level >= 0;
+    }
+  }
+
+  private static final int SLOT_BITS = 6;
+  private static final int SLOTS = 1 << SLOT_BITS;
+  private static final int SLOT_MASK = SLOTS - 1;
+  private static final int LEVELS = 4;
+  private static final long SPAN = 1L << (SLOT_BITS * LEVELS);
+
+  private final long tickMillis;
+  private final Timeout<T>[][] slots;
+  private long currentTick;
+  private boolean started = false;
+  private int size;
+
+  @SuppressWarnings("unchecked")
+  TimingWheel(long tickMillis) {
+    this.tickMillis = tickMillis;
+    this.slots = new Timeout[LEVELS][SLOTS];
+  }
+
+  /**
+   * Starts the wheel at the provided time if it's not started yet, so the timeouts that are scheduled after it are
+   * placed from the current tick.
+   *
+   * @param nowMillis the current time in milliseconds
+   */
+  void start(long nowMillis) {
+    if (!started) {
+      currentTick = Math.floorDiv(nowMillis, tickMillis);
+      started = true;
+    }
+  }
+
+  /**
+   * Schedules the provided timeout to be fired after the deadline. Already scheduled timeout is rescheduled. Wheel
+   * which is not started, e.g. when timeouts are restored without a current time, is started at the deadline.
+   *
+   * @param timeout        the timeout to be scheduled
+   * @param deadlineMillis the deadline in milliseconds
+   */
+  void schedule(Timeout<T> timeout, long deadlineMillis) {
+    if (timeout.isScheduled()) {
+      unlink(timeout);
+      size--;
+    }
+
+    // timeout is due on the first tick after the deadline
+    timeout.deadlineTick = Math.floorDiv(deadlineMillis, tickMillis) + 1;
+
+    if (!started) {
+      currentTick = timeout.deadlineTick - 1;
+      started = true;
+    }
+
+    place(timeout, false);
+    size++;
+  }
+
+  /**
+   * Cancels the provided timeout if it's scheduled.
+   *
+   * @param timeout the timeout to be cancelled
+   */
+  void cancel(Timeout<T> timeout) {
+    if (timeout.isScheduled()) {
+      unlink(timeout);
+      size--;
+    }
+  }
+
+  /**
+   * Moves the wheel to the provided time and fires all timeouts which are due until then.
+   *
+   * @param nowMillis  the current time in milliseconds
+   * @param expiration the listener that is notified for each due timeout
+   * @return the number of fired timeouts
+   */
+  int advance(long nowMillis, Expiration<T> expiration) {
+    long nowTick = Math.floorDiv(nowMillis, tickMillis);
+
+    if (!started || size == 0) {
+      currentTick = Math.max(currentTick, nowTick);
+      started = true;
+      return 0;
+    }
+
+    int fired = 0;
+    while (currentTick < nowTick) {
+      // ticks without timeouts are skipped, so a long gap between the advances is not walked tick by tick
+      long next = nextTick();
+      if (next > nowTick) {
+        currentTick = nowTick;
+        break;
+      }
+      currentTick = next;
+
+      // timeouts of the higher levels are moved down when the lower levels are completing a revolution
+      for (int level = LEVELS - 1; level > 0; level--) {
+        if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+          cascade(level, (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK));
+        }
+      }
+
+      // the listener could cancel other timeouts of the slot, so the head of the slot is taken each time
+      int slot = (int) (currentTick & SLOT_MASK);
+      Timeout<T> timeout;
+      while ((timeout = slots[0][slot]) != null) {
+        unlink(timeout);
+        size--;
+        fired++;
+        expiration.expired(timeout);
+      }
+    }
+    return fired;
+  }
+
+  /**
+   * Gets the first tick after the current one at which a slot of the first level is fired or a slot of a higher level
+   * is cascaded, or Long.MAX_VALUE if wheel is empty. Higher levels are checked only if they could be cascaded before
+   * the found tick.
+   */
+  private long nextTick() {
+    long next = Long.MAX_VALUE;
+    for (int i = 1; i <= SLOTS; i++) {
+      if (slots[0][(int) ((currentTick + i) & SLOT_MASK)] != null) {
+        next = currentTick + i;
+        break;
+      }
+    }
+
+    for (int level = 1; level < LEVELS; level++) {
+      int shift = SLOT_BITS * level;
+      long base = currentTick >>> shift;
+      if (((base + 1) << shift) >= next) {
+        break;
+      }
+      for (int i = 1; i <= SLOTS; i++) {
+        if (slots[level][(int) ((base + i) & SLOT_MASK)] != null) {
+          next = Math.min(next, (base + i) << shift);
+          break;
+        }
+      }
+    }
+    return next;
+  }
+
+  /**
+   * Gets a timeout which is due before the others. Timeouts of the same slot are not ordered, so the returned timeout
+   * is the earliest within the precision of its level.
+   *
+   * @return the timeout or null if wheel is empty
+   */
+  Timeout<T> earliest() {
+    for (int level = 0; level < LEVELS; level++) {
+      long base = currentTick >>> (SLOT_BITS * level);
+      for (int i = 0; i < SLOTS; i++) {
+        Timeout<T> timeout = slots[level][(int) ((base + i) & SLOT_MASK)];
+        if (timeout != null) {
+          return timeout;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Gets the number of scheduled timeouts.
+   */
+  int size() {
+    return size;
+  }
+
+  private void cascade(int level, int slot) {
+    Timeout<T> timeout = slots[level][slot];
+    slots[level][slot] = null;
+    while (timeout != null) {
+      Timeout<T> next = timeout.next;
+      timeout.prev = null;
+      timeout.next = null;
+      timeout.level = -1;
+      place(timeout, true);
+      timeout = next;
+    }
+  }
+
+  private void place(Timeout<T> timeout, boolean cascading) {
+    long ticks = timeout.deadlineTick - currentTick;
+
+    int level;
+    long placementTick;
+
+    if (ticks == 0 && cascading) {
+      // slot of the current tick is fired after the cascading
+      level = 0;
+      placementTick = currentTick;
+    } else if (ticks <= 0) {
+      // overdue timeouts are fired on the next tick
+      level = 0;
+      placementTick = currentTick + 1;
+    } else if (ticks >= SPAN) {
+      // timeouts beyond the span are kept in the last slot in range and are placed again when it's reached
+      level = LEVELS - 1;
+      placementTick = currentTick + SPAN - 1;
+    } else {
+      level = 0;
+      while (ticks >= (1L << (SLOT_BITS * (level + 1)))) {
+        level++;
+      }
+      placementTick = timeout.deadlineTick;
+    }
+
+    int slot = (int) ((placementTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+
+    Timeout<T> head = slots[level][slot];
+    timeout.level = level;
+    timeout.slot = slot;
+    timeout.prev = null;
+    timeout.next = head;
+    if (head != null) {
+      head.prev = timeout;
+    }
+    slots[level][slot] = timeout;
+  }
+
+  private void unlink(Timeout<T> timeout) {
+    if (timeout.prev != null) {
+      timeout.prev.next = timeout.next;
+    } else {
+      slots[timeout.level][timeout.slot] = timeout.next;
+    }
+    if (timeout.next != null) {
+      timeout.next.prev = timeout.prev;
+    }
+    timeout.prev = null;
+    timeout.next = null;
+    timeout.level = -1;
+  }
+}
@@ -0,0 +1,577 @@
+package com.clouway.oauth2.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * TokenTable is a memory-mapped open-addressing hash table of fixed-size token records which are keyed by the hash of
+ * the token. Variable-sized values of the records, like the identity and the client, are kept in a {@link RecordHeap}.
+ * <p/>
+ * Records are changed by a single writer and are read without locks. Each record is guarded by a sequence number
+ * which is odd while the record is written, so readers are retrying when they see a record that is changed during the
+ * read. Records are never moved and are only marked as deleted, so the probe sequences of the other records remain
+ * valid while they are read.
+ * <p/>
+ * A table which was not closed cleanly is recovered when it's opened. Records that were not completely written, that
+ * are not matching their checksum or are referencing heap records after the committed end of the heap are deleted.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+final class TokenTable implements Closeable {
+
+  static final int ACCESS = 1;
+  static final int REFRESH = 2;
+
+  /**
+   * Record is a copy of the values of a record of the table.
+   */
+  static final class Record {
+    int slot = -1;
+    int kind;
+    long keyHi;
+    long keyLo;
+    long pairHi;
+    long pairLo;
+    int grantType;
+    long expiresAt;
+    long scopes;
+    long identity = -1;
+    long client = -1;
+    long email = -1;
+    long extras = -1;
+    long accessSlot = -1;
+
+    boolean hasPair(long hi, long lo) {
+      return pairHi == hi && pairLo == lo;
+    }
+  }
+
+  private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+  private static final int MAGIC = 0x4f41544b;
+  private static final int FORMAT = 1;
+
+  private static final int HEADER_SIZE = 4096;
+  private static final int H_MAGIC = 0;
+  private static final int H_FORMAT = 4;
+  private static final int H_CAPACITY = 8;
+  private static final int H_CLEAN = 12;
+  private static final int H_HEAP_END = 16;
+  private static final int H_HEAP_GENERATION = 24;
+  private static final int H_SCOPE_COUNT = 32;
+  private static final int H_USED = 40;
+  private static final int H_SCOPES = 64;
+
+  static final int MAX_SCOPES = 64;
+
+  private static final int SLOT_SIZE = 128;
+  private static final int S_VERSION = 0;
+  private static final int S_STATE = 8;
+  private static final int S_CHECKSUM = 12;
+  private static final int S_KEY = 16;
+  private static final int S_PAIR = 32;
+  private static final int S_KIND = 48;
+  private static final int S_GRANT_TYPE = 49;
+  private static final int S_EXPIRES_AT = 56;
+  private static final int S_SCOPES = 64;
+  private static final int S_IDENTITY = 72;
+  private static final int S_CLIENT = 80;
+  private static final int S_EMAIL = 88;
+  private static final int S_EXTRAS = 96;
+  // access slot is changed in place when token is refreshed, so it's not part of the checksum
+  private static final int S_ACCESS_SLOT = 120;
+
+  private static final int EMPTY = 0;
+  private static final int LIVE = 1;
+  private static final int DELETED = 2;
+
+  private static final int CHUNK_BITS = 20;
+  private static final int CHUNK_SLOTS = 1 << CHUNK_BITS;
+
+  private final FileChannel channel;
+  private final RecordHeap heap;
+  private final long heapGeneration;
+  private final int capacity;
+  private final MappedByteBuffer header;
+  private final MappedByteBuffer[] chunks;
+  private final String[] scopeNames = new String[MAX_SCOPES];
+  private final Map<String, Integer> scopeIndexes = new HashMap<String, Integer>();
+  private final boolean clean;
+  private int used;
+
+  private TokenTable(FileChannel channel, RecordHeap heap, long heapGeneration, int capacity) throws IOException {
+    this.channel = channel;
+    this.heap = heap;
+    this.heapGeneration = heapGeneration;
+    this.capacity = capacity;
+
+    this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+    header.order(ByteOrder.LITTLE_ENDIAN);
+
+    int chunkCount = (capacity + CHUNK_SLOTS - 1) / CHUNK_SLOTS;
+    this.chunks = new MappedByteBuffer[chunkCount];
+    for (int i = 0; i < chunkCount; i++) {
+      int slots = Math.min(CHUNK_SLOTS, capacity - i * CHUNK_SLOTS);
+      chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + (long) i * CHUNK_SLOTS * SLOT_SIZE, (long) slots * SLOT_SIZE);
+      chunks[i].order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    this.clean = header.getInt(H_CLEAN) == 1;
+    this.used = (int) header.getLong(H_USED);
+  }
+
+  /**
+   * Creates a new table file. Existing file is replaced.
+   *
+   * @param file           the table file
+   * @param heap           the heap of the table
+   * @param heapGeneration the generation of the heap file
+   * @param capacity       the number of records, which is a power of two
+   * @return the created table
+   * @throws IOException if the file cannot be created
+   */
+  static TokenTable create(Path file, RecordHeap heap, long heapGeneration, int capacity) throws IOException {
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      TokenTable table = new TokenTable(channel, heap, heapGeneration, capacity);
+      table.header.putInt(H_FORMAT, FORMAT);
+      table.header.putInt(H_CAPACITY, capacity);
+      table.header.putLong(H_HEAP_GENERATION, heapGeneration);
+      table.header.putInt(H_CLEAN, 1);
+      table.header.putInt(H_MAGIC, MAGIC);
+      return table;
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Opens an existing table file and its heap.
+   *
+   * @param file        the table file
+   * @param heapFile    the resolver of the heap file by generation
+   * @param segmentSize the size of the segments of the heap
+   * @return the opened table
+   * @throws IOException if the file cannot be opened or it's not a table file
+   */
+  static TokenTable open(Path file, HeapFile heapFile, int segmentSize) throws IOException {
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    RecordHeap heap = null;
+    try {
+      ByteBuffer head = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+      channel.read(head, 0);
+      if (head.getInt(H_MAGIC) != MAGIC || head.getInt(H_FORMAT) != FORMAT) {
+        throw new IOException("File " + file + " is not a token table.");
+      }
+
+      int capacity = head.getInt(H_CAPACITY);
+      long generation = head.getLong(H_HEAP_GENERATION);
+      long heapEnd = head.getLong(H_HEAP_END);
+      if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+        throw new IOException("File " + file + " has invalid capacity " + capacity + ".");
+      }
+
+      heap = RecordHeap.open(heapFile.of(generation), segmentSize, heapEnd);
+      TokenTable table = new TokenTable(channel, heap, generation, capacity);
+      table.loadScopes();
+      return table;
+    } catch (IOException e) {
+      if (heap != null) {
+        heap.close();
+      }
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Resolves the heap file of a generation.
+   */
+  interface HeapFile {
+
+    Path of(long generation);
+
+  }
+
+  RecordHeap heap() {
+    return heap;
+  }
+
+  long heapGeneration() {
+    return heapGeneration;
+  }
+
+  int capacity() {
+    return capacity;
+  }
+
+  /**
+   * Gets the number of records that are live or deleted.
+   */
+  int used() {
+    return used;
+  }
+
+  /**
+   * Gets whether the table was closed cleanly before it was opened.
+   */
+  boolean wasClean() {
+    return clean;
+  }
+
+  /**
+   * Finds the live record of the provided key. It's safe to be called from any thread.
+   *
+   * @return the record or null if there is no live record with that key
+   */
+  Record find(long keyHi, long keyLo) {
+    int mask = capacity - 1;
+    int slot = (int) (keyHi ^ (keyHi >>> 32)) & mask;
+
+    for (int probes = 0; probes < capacity; probes++) {
+      ByteBuffer chunk = chunks[slot >>> CHUNK_BITS];
+      int offset = (slot & (CHUNK_SLOTS - 1)) * SLOT_SIZE;
+
+      while (true) {
+        long version = (long) LONGS.getAcquire(chunk, offset + S_VERSION);
+        if ((version & 1) != 0) {
+          Thread.onSpinWait();
+          continue;
+        }
+
+        int state = chunk.getInt(offset + S_STATE);
+        boolean matches = state == LIVE
+                && chunk.getLong(offset + S_KEY) == keyHi
+                && chunk.getLong(offset + S_KEY + 8) == keyLo;
+
+        Record record = matches ? read(chunk, offset, slot) : null;
+
+        VarHandle.acquireFence();
+        if ((long) LONGS.get(chunk, offset + S_VERSION) != version) {
+          continue;
+        }
+
+        if (state == EMPTY) {
+          return null;
+        }
+        if (record != null) {
+          return record;
+        }
+        break;
+      }
+
+      slot = (slot + 1) & mask;
+    }
+    return null;
+  }
+
+  /**
+   * Reads the live record at the provided slot. It's called only by the writer.
+   *
+   * @return the record or null if the slot is not live
+   */
+  Record record(int slot) {
+    ByteBuffer chunk = chunks[slot >>> CHUNK_BITS];
+    int offset = (slot & (CHUNK_SLOTS - 1)) * SLOT_SIZE;
+    if (chunk.getInt(offset + S_STATE) != LIVE) {
+      return null;
+    }
+    return read(chunk, offset, slot);
+  }
+
+  /**
+   * Inserts the provided record. Slots of deleted records and of records that are expired at the provided time are
+   * reused. It's called only by the writer.
+   *
+   * @param record the record to be inserted
+   * @param now    the current time
+   * @return the slot of the record or -1 if there is no free slot
+   */
+  int insert(Record record, long now) {
+    int mask = capacity - 1;
+    int slot = (int) (record.keyHi ^ (record.keyHi >>> 32)) & mask;
+    int free = -1;
+
+    for (int probes = 0; probes < capacity; probes++) {
+      ByteBuffer chunk = chunks[slot >>> CHUNK_BITS];
+      int offset = (slot & (CHUNK_SLOTS - 1)) * SLOT_SIZE;
+      int state = chunk.getInt(offset + S_STATE);
+
+      if (state == EMPTY) {
+        if (free < 0) {
+          free = slot;
+          used++;
+          header.putLong(H_USED, used);
+        }
+        break;
+      }
+
+      if (state == LIVE && chunk.getLong(offset + S_KEY) == record.keyHi && chunk.getLong(offset + S_KEY + 8) == record.keyLo) {
+        if (chunk.getLong(offset + S_EXPIRES_AT) >= now) {
+          return -1;
+        }
+        free = slot;
+        break;
+      }
+
+      if (free < 0 && (state == DELETED || chunk.getLong(offset + S_EXPIRES_AT) < now)) {
+        free = slot;
+      }
+
+      slot = (slot + 1) & mask;
+    }
+
+    if (free >= 0) {
+      write(free, record);
+    }
+    return free;
+  }
+
+  /**
+   * Deletes the record at the provided slot. It's called only by the writer.
+   */
+  void delete(int slot) {
+    ByteBuffer chunk = chunks[slot >>> CHUNK_BITS];
+    int offset = (slot & (CHUNK_SLOTS - 1)) * SLOT_SIZE;
+    if (chunk.getInt(offset + S_STATE) != LIVE) {
+      return;
+    }
+
+    long version = chunk.getLong(offset + S_VERSION);
+    LONGS.setOpaque(chunk, offset + S_VERSION, version + 1);
+    VarHandle.releaseFence();
+    chunk.putInt(offset + S_STATE, DELETED);
+    LONGS.setRelease(chunk, offset + S_VERSION, version + 2);
+  }
+
+  /**
+   * Sets the slot of the current access token of a refresh token. It's called only by the writer.
+   */
+  void accessSlot(int refreshSlot, int accessSlot) {
+    ByteBuffer chunk = chunks[refreshSlot >>> CHUNK_BITS];
+    int offset = (refreshSlot & (CHUNK_SLOTS - 1)) * SLOT_SIZE;
+    LONGS.setRelease(chunk, offset + S_ACCESS_SLOT, (long) accessSlot);
+  }
+
+  /**
+   * Gets the index of the provided scope in the scope bitset of the records, adding it if it's not known yet. It's
+   * called only by the writer.
+   *
+   * @param scope the scope
+   * @return the index of the scope or -1 if bitset is full
+   * @throws IOException if scope cannot be written in the heap
+   */
+  int scopeIndex(String scope) throws IOException {
+    Integer index = scopeIndexes.get(scope);
+    if (index != null) {
+      return index;
+    }
+
+    int count = header.getInt(H_SCOPE_COUNT);
+    if (count >= MAX_SCOPES) {
+      return -1;
+    }
+
+    long offset = heap.append(scope.getBytes(StandardCharsets.UTF_8));
+    commitHeap();
+    header.putLong(H_SCOPES + count * 8, offset);
+    // the count is increased last, so a scope is used by records only once it's written
+    header.putInt(H_SCOPE_COUNT, count + 1);
+
+    scopeNames[count] = scope;
+    scopeIndexes.put(scope, count);
+    return count;
+  }
+
+  /**
+   * Gets the scope at the provided index of the bitset.
+   */
+  String scope(int index) {
+    return scopeNames[index];
+  }
+
+  /**
+   * Writes the end of the heap to the header, so heap records are known to be written before they are referenced.
+   */
+  void commitHeap() {
+    header.putLong(H_HEAP_END, heap.end());
+  }
+
+  /**
+   * Deletes the records that were not written completely and the access tokens that were replaced by a refresh which
+   * was not completed. It's called only by the writer before the table is used.
+   *
+   * @return the number of the deleted records
+   */
+  int recover() {
+    long heapEnd = heap.end();
+    int deleted = 0;
+    int usedSlots = 0;
+
+    for (int slot = 0; slot < capacity; slot++) {
+      ByteBuffer chunk = chunks[slot >>> CHUNK_BITS];
+      int offset = (slot & (CHUNK_SLOTS - 1)) * SLOT_SIZE;
+      long version = chunk.getLong(offset + S_VERSION);
+      int state = chunk.getInt(offset + S_STATE);
+
+      if (version == 0 && state == EMPTY) {
+        continue;
+      }
+      usedSlots++;
+
+      boolean valid = (version & 1) == 0 && (state == DELETED || (state == LIVE
+              && chunk.getInt(offset + S_CHECKSUM) == checksum(chunk, offset)
+              && references(chunk.getLong(offset + S_IDENTITY), heapEnd)
+              && references(chunk.getLong(offset + S_CLIENT), heapEnd)
+              && references(chunk.getLong(offset + S_EMAIL), heapEnd)
+              && references(chunk.getLong(offset + S_EXTRAS), heapEnd)));
+
+      if (!valid) {
+        chunk.putInt(offset + S_STATE, DELETED);
+        chunk.putLong(offset + S_VERSION, (version | 1) + 1);
+        deleted++;
+      }
+    }
+
+    for (int slot = 0; slot < capacity; slot++) {
+      Record record = record(slot);
+      if (record == null || record.kind != ACCESS) {
+        continue;
+      }
+      Record refresh = find(record.pairHi, record.pairLo);
+      if (refresh != null && refresh.kind == REFRESH && refresh.accessSlot != slot) {
+        delete(slot);
+        deleted++;
+      }
+    }
+
+    used = usedSlots;
+    header.putLong(H_USED, used);
+    return deleted;
+  }
+
+  /**
+   * Marks the table as open, so it's recovered if it's not closed cleanly.
+   */
+  void markOpen() {
+    header.putInt(H_CLEAN, 0);
+    header.force();
+  }
+
+  /**
+   * Forces the table and the heap to the storage device.
+   */
+  void force() {
+    heap.force();
+    for (MappedByteBuffer chunk : chunks) {
+      chunk.force();
+    }
+    header.force();
+  }
+
+  /**
+   * Forces the table and marks it as closed cleanly.
+   */
+  void markClean() {
+    force();
+    header.putInt(H_CLEAN, 1);
+    header.force();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      heap.close();
+    } finally {
+      channel.close();
+    }
+  }
+
+  private void write(int slot, Record record) {
+    ByteBuffer chunk = chunks[slot >>> CHUNK_BITS];
+    int offset = (slot & (CHUNK_SLOTS - 1)) * SLOT_SIZE;
+
+    long version = chunk.getLong(offset + S_VERSION);
+    LONGS.setOpaque(chunk, offset + S_VERSION, version + 1);
+    VarHandle.releaseFence();
+
+    chunk.putLong(offset + S_KEY, record.keyHi);
+    chunk.putLong(offset + S_KEY + 8, record.keyLo);
+    chunk.putLong(offset + S_PAIR, record.pairHi);
+    chunk.putLong(offset + S_PAIR + 8, record.pairLo);
+    chunk.put(offset + S_KIND, (byte) record.kind);
+    chunk.put(offset + S_GRANT_TYPE, (byte) record.grantType);
+    chunk.putLong(offset + S_EXPIRES_AT, record.expiresAt);
+    chunk.putLong(offset + S_SCOPES, record.scopes);
+    chunk.putLong(offset + S_IDENTITY, record.identity);
+    chunk.putLong(offset + S_CLIENT, record.client);
+    chunk.putLong(offset + S_EMAIL, record.email);
+    chunk.putLong(offset + S_EXTRAS, record.extras);
+    chunk.putLong(offset + S_ACCESS_SLOT, record.accessSlot);
+    chunk.putInt(offset + S_CHECKSUM, checksum(chunk, offset));
+    chunk.putInt(offset + S_STATE, LIVE);
+
+    LONGS.setRelease(chunk, offset + S_VERSION, version + 2);
+    record.slot = slot;
+  }
+
+  private Record read(ByteBuffer chunk, int offset, int slot) {
+    Record record = new Record();
+    record.slot = slot;
+    record.keyHi = chunk.getLong(offset + S_KEY);
+    record.keyLo = chunk.getLong(offset + S_KEY + 8);
+    record.pairHi = chunk.getLong(offset + S_PAIR);
+    record.pairLo = chunk.getLong(offset + S_PAIR + 8);
+    record.kind = chunk.get(offset + S_KIND);
+    record.grantType = chunk.get(offset + S_GRANT_TYPE);
+    record.expiresAt = chunk.getLong(offset + S_EXPIRES_AT);
+    record.scopes = chunk.getLong(offset + S_SCOPES);
+    record.identity = chunk.getLong(offset + S_IDENTITY);
+    record.client = chunk.getLong(offset + S_CLIENT);
+    record.email = chunk.getLong(offset + S_EMAIL);
+    record.extras = chunk.getLong(offset + S_EXTRAS);
+    record.accessSlot = (long) LONGS.getAcquire(chunk, offset + S_ACCESS_SLOT);
+    return record;
+  }
+
+  private void loadScopes() {
+    int count = Math.min(header.getInt(H_SCOPE_COUNT), MAX_SCOPES);
+    for (int i = 0; i < count; i++) {
+      byte[] name = heap.read(header.getLong(H_SCOPES + i * 8));
+      if (name == null) {
+        // scopes are written before the count is increased, so this is only possible if heap is damaged
+        header.putInt(H_SCOPE_COUNT, i);
+        break;
+      }
+      scopeNames[i] = new String(name, StandardCharsets.UTF_8);
+      scopeIndexes.put(scopeNames[i], i);
+    }
+  }
+
+  private boolean references(long offset, long heapEnd) {
+    return offset < 0 || (offset < heapEnd && heap.read(offset) != null);
+  }
+
+  private static int checksum(ByteBuffer chunk, int offset) {
+    ByteBuffer values = chunk.duplicate();
+    values.limit(offset + S_ACCESS_SLOT);
+    values.position(offset + S_KEY);
+    CRC32 crc = new CRC32();
+    crc.update(values);
+    return (int) crc.getValue();
+  }
+}
@@ -0,0 +1,436 @@
+package com.clouway.oauth2.token;
+
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.common.Duration;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CachingTokens is a {@link Tokens} which is keeping the tokens that were found by another {@link Tokens}, so
+ * repeated introspection of the same access token is not making a round trip to the store.
+ * <p/>
+ * Entries are valid until the access token expires, but no longer than the configured max age, so tokens that were
+ * revoked through another instance of the server are rejected after that time. Tokens that are revoked or refreshed
+ * through this instance are removed immediately. Refresh tokens are mapped to the access tokens that were issued
+ * with them by this instance, so revoking of a refresh token is also removing its access token.
+ * <p/>
+ * Concurrent lookups of the same token which is not cached are waiting for a single lookup in the store. Tokens that
+ * are not found are not cached.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public final class CachingTokens implements Tokens {
+
+  public static Builder newCachingTokens(Tokens tokens) {
+    return new Builder(tokens);
+  }
+
+  public static final class Builder {
+    private final Tokens tokens;
+    private long maxEntries = 100000;
+    private Duration maxAge = Duration.seconds(30L);
+
+    private Builder(Tokens tokens) {
+      this.tokens = tokens;
+    }
+
+    /**
+     * Sets the max number of tokens that are kept. Default is 100 000.
+     */
+    public Builder maxEntries(long maxEntries) {
+      this.maxEntries = maxEntries;
+      return this;
+    }
+
+    /**
+     * Sets how long a token is returned before it's looked up again in the store. Default is 30 seconds.
+     */
+    public Builder maxAge(Duration maxAge) {
+      this.maxAge = maxAge;
+      return this;
+    }
+
+    public CachingTokens build() {
+      return new CachingTokens(this);
+    }
+  }
+
+  private static final class Entry {
+    private final BearerToken token;
+    private final long cachedAt;
+
+    Entry(BearerToken token, long cachedAt) {
+      this.token = token;
+      this.cachedAt = cachedAt;
+    }
+  }
+
+  private final Tokens tokens;
+  private final long maxAgeMillis;
+  private final Cache<String, Entry> cache;
+  private final Cache<String, String> accessTokens;
+  private final ConcurrentHashMap<String, FutureTask<Optional<BearerToken>>> loading = new ConcurrentHashMap<String, FutureTask<Optional<BearerToken>>>();
+
+  private final AtomicLong invalidations = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong collapsed = new AtomicLong();
+
+  private CachingTokens(Builder builder) {
+    this.tokens = builder.tokens;
+    this.maxAgeMillis = builder.maxAge.asMills();
+    this.cache = CacheBuilder.newBuilder()
+            .maximumSize(builder.maxEntries)
+            .expireAfterWrite(maxAgeMillis, TimeUnit.MILLISECONDS)
+            .build();
+    this.accessTokens = CacheBuilder.newBuilder()
+            .maximumSize(builder.maxEntries)
+            .build();
+  }
+
+  @Override
+  public Optional<BearerToken> findTokenAvailableAt(final String token, final DateTime when) {
+    if (token == null) {
+      return Optional.absent();
+    }
+
+    long now = when.timestamp();
+    Entry entry = cache.getIfPresent(token);
+    if (entry != null) {
+      if (!entry.token.expiresAt(when) && now - entry.cachedAt < maxAgeMillis) {
+        hits.incrementAndGet();
+        return Optional.of(entry.token);
+      }
+      cache.asMap().remove(token, entry);
+    }
+    misses.incrementAndGet();
+
+    FutureTask<Optional<BearerToken>> task = new FutureTask<Optional<BearerToken>>(new Callable<Optional<BearerToken>>() {
+      @Override
+      public Optional<BearerToken> call() {
+        return load(token, when);
+      }
+    });
+
+    FutureTask<Optional<BearerToken>> existing = loading.putIfAbsent(token, task);
+    if (existing == null) {
+      try {
+        task.run();
+      } finally {
+        loading.remove(token, task);
+      }
+    } else {
+      collapsed.incrementAndGet();
+      task = existing;
+    }
+
+    Optional<BearerToken> possibleToken = await(task);
+    // the lookup could be made by a request of another time
+    if (possibleToken.isPresent() && possibleToken.get().expiresAt(when)) {
+      return Optional.absent();
+    }
+    return possibleToken;
+  }
+
+  /**
+   * Checks the cached token or the store if it's not cached. Tokens that are checked in the store are not cached.
+   */
+  @Override
+  public boolean isTokenAvailableAt(String token, DateTime when) {
+    if (token == null) {
+      return false;
+    }
+    Entry entry = cache.getIfPresent(token);
+    if (entry != null && !entry.token.expiresAt(when) && when.timestamp() - entry.cachedAt < maxAgeMillis) {
+      return true;
+    }
+    return tokens.isTokenAvailableAt(token, when);
+  }
+
+  /**
+   * Finds the cached tokens and looks up the others with a single lookup in the store. Lookups of a batch are not
+   * waiting for the lookups of other requests.
+   */
+  @Override
+  public Map<String, BearerToken> findTokensAvailableAt(Collection<String> tokens, DateTime when) {
+    long now = when.timestamp();
+    Map<String, BearerToken> found = new LinkedHashMap<String, BearerToken>();
+    List<String> missing = new ArrayList<String>();
+
+    for (String token : tokens) {
+      Entry entry = token == null ? null : cache.getIfPresent(token);
+      if (entry != null && !entry.token.expiresAt(when) && now - entry.cachedAt < maxAgeMillis) {
+        hits.incrementAndGet();
+        found.put(token, entry.token);
+      } else if (token != null) {
+        misses.incrementAndGet();
+        missing.add(token);
+      }
+    }
+
+    if (!missing.isEmpty()) {
+      long invalidation = invalidations.get();
+      Map<String, BearerToken> loaded = this.tokens.findTokensAvailableAt(missing, when);
+      for (Map.Entry<String, BearerToken> each : loaded.entrySet()) {
+        cacheUnlessInvalidated(each.getKey(), new Entry(each.getValue(), now), invalidation);
+        found.put(each.getKey(), each.getValue());
+      }
+    }
+    return found;
+  }
+
+  @Override
+  public TokenResponse refreshToken(String token, DateTime when) {
+    invalidateGrantOf(token);
+    TokenResponse response = tokens.refreshToken(token, when);
+    keep(response, when);
+    return response;
+  }
+
+  @Override
+  public TokenResponse issueToken(TokenRequest tokenRequest) {
+    TokenResponse response = tokens.issueToken(tokenRequest);
+    keep(response, tokenRequest.when);
+    return response;
+  }
+
+  @Override
+  public List<TokenResponse> issueTokens(List<TokenRequest> tokenRequests) {
+    List<TokenResponse> responses = tokens.issueTokens(tokenRequests);
+    for (int i = 0; i < responses.size(); i++) {
+      keep(responses.get(i), tokenRequests.get(i).when);
+    }
+    return responses;
+  }
+
+  @Override
+  public void revokeTokens(Collection<String> tokens) {
+    try {
+      this.tokens.revokeTokens(tokens);
+    } finally {
+      for (String each : tokens) {
+        invalidateGrantOf(each);
+      }
+    }
+  }
+
+  @Override
+  public void revokeToken(String token) {
+    try {
+      tokens.revokeToken(token);
+    } finally {
+      invalidateGrantOf(token);
+    }
+  }
+
+  @Override
+  public void revokeToken(String token, DateTime when) {
+    try {
+      tokens.revokeToken(token, when);
+    } finally {
+      invalidateGrantOf(token);
+    }
+  }
+
+  @Override
+  public int revokeAllForIdentity(String identityId) {
+    try {
+      return tokens.revokeAllForIdentity(identityId);
+    } finally {
+      invalidateTokensOf(identityId, false);
+    }
+  }
+
+  @Override
+  public int revokeAllForIdentity(String identityId, DateTime when) {
+    try {
+      return tokens.revokeAllForIdentity(identityId, when);
+    } finally {
+      invalidateTokensOf(identityId, false);
+    }
+  }
+
+  @Override
+  public int revokeAllForClient(String clientId) {
+    try {
+      return tokens.revokeAllForClient(clientId);
+    } finally {
+      invalidateTokensOf(clientId, true);
+    }
+  }
+
+  @Override
+  public int revokeAllForClient(String clientId, DateTime when) {
+    try {
+      return tokens.revokeAllForClient(clientId, when);
+    } finally {
+      invalidateTokensOf(clientId, true);
+    }
+  }
+
+  @Override
+  public void extendExpirations(Map<String, DateTime> expirations) {
+    try {
+      tokens.extendExpirations(expirations);
+    } finally {
+      // cached tokens are looked up again, so they are returned with their extended expiration
+      cache.invalidateAll(expirations.keySet());
+    }
+  }
+
+  public Stats stats() {
+    return new Stats(hits.get(), misses.get(), collapsed.get(), cache.size());
+  }
+
+  private Optional<BearerToken> load(String token, DateTime when) {
+    // tokens which were invalidated while they were looked up are not cached as they could be revoked
+    long invalidation = invalidations.get();
+    Optional<BearerToken> possibleToken = tokens.findTokenAvailableAt(token, when);
+    if (possibleToken.isPresent()) {
+      cacheUnlessInvalidated(token, new Entry(possibleToken.get(), when.timestamp()), invalidation);
+    }
+    return possibleToken;
+  }
+
+  /**
+   * Caches the entry of a token which was looked up after the provided invalidation. The entry is put before the
+   * invalidations are checked, so an invalidation which is made at the same time is either seen here or is removing
+   * the entry.
+   */
+  private void cacheUnlessInvalidated(String token, Entry entry, long invalidation) {
+    if (invalidation != invalidations.get()) {
+      return;
+    }
+    cache.put(token, entry);
+    if (invalidation != invalidations.get()) {
+      cache.asMap().remove(token, entry);
+    }
+  }
+
+  private void keep(TokenResponse response, DateTime when) {
+    if (response.isSuccessful() && response.accessToken != null) {
+      cache.put(response.accessToken.value, new Entry(response.accessToken, when.timestamp()));
+      accessTokens.put(response.refreshToken, response.accessToken.value);
+    }
+  }
+
+  private void invalidateGrantOf(String token) {
+    if (token == null) {
+      return;
+    }
+    invalidations.incrementAndGet();
+    cache.invalidate(token);
+
+    String accessToken = accessTokens.getIfPresent(token);
+    if (accessToken != null) {
+      accessTokens.invalidate(token);
+      cache.invalidate(accessToken);
+    }
+  }
+
+  /**
+   * Invalidates the cached tokens of the provided identity or client. Only the cache is scanned, which is bounded by
+   * its max entries.
+   */
+  private void invalidateTokensOf(String id, boolean byClient) {
+    if (id == null) {
+      return;
+    }
+    invalidations.incrementAndGet();
+    for (Iterator<Entry> it = cache.asMap().values().iterator(); it.hasNext(); ) {
+      BearerToken token = it.next().token;
+      if (id.equals(byClient ? token.clientId : token.identityId)) {
+        it.remove();
+      }
+    }
+  }
+
+  private static Optional<BearerToken> await(FutureTask<Optional<BearerToken>> task) {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return task.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Stats is a snapshot of the usage of the cache.
+   */
+  public static final class Stats {
+    /**
+     * Number of lookups that got the cached token.
+     */
+    public final long hits;
+    /**
+     * Number of lookups for which token was not cached.
+     */
+    public final long misses;
+    /**
+     * Number of misses that were waiting for the lookup of another request instead of making their own.
+     */
+    public final long collapsed;
+    /**
+     * Number of the cached tokens.
+     */
+    public final long size;
+
+    Stats(long hits, long misses, long collapsed, long size) {
+      this.hits = hits;
+      this.misses = misses;
+      this.collapsed = collapsed;
+      this.size = size;
+    }
+
+    /**
+     * Ratio of the lookups that got the cached token or 0 if there were no lookups.
+     */
+    public double hitRatio() {
+      long lookups = hits + misses;
+      return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+              .add("hits", hits)
+              .add("misses", misses)
+              .add("collapsed", collapsed)
+              .add("hitRatio", hitRatio())
+              .add("size", size)
+              .toString();
+    }
+  }
+}
@@ -0,0 +1,291 @@
+package com.clouway.oauth2.token;
+
+import com.clouway.oauth2.common.DateTime;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * FilteringTokens is a {@link Tokens} which is rejecting the access tokens that are not live without a lookup in the
+ * store, so requests of the token info and user info endpoints with random tokens are not reaching the store.
+ * <p/>
+ * Live access tokens are kept in a {@link TokenFilter} which is changed by the events of the store. When it's built
+ * the filter is filled with a scan of the store, so it should be built before the tokens are used. Removals that are
+ * received during the scan are applied after it, and only for tokens which were added to the filter. Events are
+ * delivered only by the store of the same process, so stores which are changed by other processes are not supported.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public final class FilteringTokens implements Tokens {
+
+  public static <T extends Tokens & ObservableTokens> Builder newFilteringTokens(T tokens) {
+    return new Builder(tokens, tokens);
+  }
+
+  public static final class Builder {
+    private final Tokens tokens;
+    private final ObservableTokens observableTokens;
+    private long expectedTokens = 1000000;
+
+    private Builder(Tokens tokens, ObservableTokens observableTokens) {
+      this.tokens = tokens;
+      this.observableTokens = observableTokens;
+    }
+
+    /**
+     * Sets the expected number of live access tokens. The filter grows when it's exceeded. Default is 1 000 000.
+     */
+    public Builder expectedTokens(long expectedTokens) {
+      this.expectedTokens = expectedTokens;
+      return this;
+    }
+
+    public FilteringTokens build() {
+      return new FilteringTokens(this);
+    }
+  }
+
+  private final Tokens tokens;
+  private final TokenFilter filter;
+
+  // while the filter is filled, removals are delayed and the hashes of the added tokens are kept, so only tokens that
+  // were added are removed from it
+  private final Object scanLock = new Object();
+  private final HashFunction scanHash = Hashing.murmur3_128();
+  private boolean scanning = true;
+  private long[] scanned = new long[1024];
+  private int scannedSize = 0;
+  private List<String> delayedRemovals = new ArrayList<String>();
+
+  private final AtomicLong rejected = new AtomicLong();
+  private final AtomicLong passed = new AtomicLong();
+  private final AtomicLong passedNotFound = new AtomicLong();
+
+  private FilteringTokens(Builder builder) {
+    this.tokens = builder.tokens;
+    this.filter = TokenFilter.newTokenFilter(builder.expectedTokens);
+
+    // listener is added before the scan, so tokens that are issued during the scan are not missed
+    builder.observableTokens.addListener(new ObservableTokens.Listener() {
+      @Override
+      public void added(String accessToken) {
+        scanned(accessToken);
+        filter.add(accessToken);
+      }
+
+      @Override
+      public void removed(String accessToken) {
+        synchronized (scanLock) {
+          if (scanning) {
+            delayedRemovals.add(accessToken);
+            return;
+          }
+        }
+        filter.remove(accessToken);
+      }
+    });
+
+    rebuild(builder.observableTokens);
+  }
+
+  @Override
+  public Optional<BearerToken> findTokenAvailableAt(String token, DateTime when) {
+    if (token == null) {
+      return Optional.absent();
+    }
+
+    if (!filter.mightContain(token)) {
+      rejected.incrementAndGet();
+      return Optional.absent();
+    }
+
+    passed.incrementAndGet();
+    Optional<BearerToken> possibleToken = tokens.findTokenAvailableAt(token, when);
+    if (!possibleToken.isPresent()) {
+      passedNotFound.incrementAndGet();
+    }
+    return possibleToken;
+  }
+
+  @Override
+  public boolean isTokenAvailableAt(String token, DateTime when) {
+    return token != null && filter.mightContain(token) && tokens.isTokenAvailableAt(token, when);
+  }
+
+  @Override
+  public Map<String, BearerToken> findTokensAvailableAt(Collection<String> tokens, DateTime when) {
+    List<String> passing = new ArrayList<String>(tokens.size());
+    for (String token : tokens) {
+      if (token == null || !filter.mightContain(token)) {
+        rejected.incrementAndGet();
+      } else {
+        passing.add(token);
+      }
+    }
+    if (passing.isEmpty()) {
+      return new LinkedHashMap<String, BearerToken>();
+    }
+
+    passed.addAndGet(passing.size());
+    Map<String, BearerToken> found = this.tokens.findTokensAvailableAt(passing, when);
+    passedNotFound.addAndGet(passing.size() - found.size());
+    return found;
+  }
+
+  @Override
+  public TokenResponse refreshToken(String token, DateTime when) {
+    return tokens.refreshToken(token, when);
+  }
+
+  @Override
+  public TokenResponse issueToken(TokenRequest tokenRequest) {
+    return tokens.issueToken(tokenRequest);
+  }
+
+  @Override
+  public List<TokenResponse> issueTokens(List<TokenRequest> tokenRequests) {
+    return tokens.issueTokens(tokenRequests);
+  }
+
+  @Override
+  public void revokeToken(String token) {
+    tokens.revokeToken(token);
+  }
+
+  @Override
+  public void revokeToken(String token, DateTime when) {
+    tokens.revokeToken(token, when);
+  }
+
+  @Override
+  public void revokeTokens(Collection<String> tokens) {
+    this.tokens.revokeTokens(tokens);
+  }
+
+  @Override
+  public int revokeAllForIdentity(String identityId) {
+    return tokens.revokeAllForIdentity(identityId);
+  }
+
+  @Override
+  public int revokeAllForIdentity(String identityId, DateTime when) {
+    return tokens.revokeAllForIdentity(identityId, when);
+  }
+
+  @Override
+  public int revokeAllForClient(String clientId) {
+    return tokens.revokeAllForClient(clientId);
+  }
+
+  @Override
+  public int revokeAllForClient(String clientId, DateTime when) {
+    return tokens.revokeAllForClient(clientId, when);
+  }
+
+  @Override
+  public void extendExpirations(Map<String, DateTime> expirations) {
+    tokens.extendExpirations(expirations);
+  }
+
+  public Stats stats() {
+    return new Stats(rejected.get(), passed.get(), passedNotFound.get(), filter.stats());
+  }
+
+  private void rebuild(ObservableTokens observableTokens) {
+    // tokens which are issued during the scan could be added twice, so they are only not rejected after their removal
+    observableTokens.forEachAccessToken(new ObservableTokens.Visitor() {
+      @Override
+      public void visit(String accessToken) {
+        scanned(accessToken);
+        filter.add(accessToken);
+      }
+    });
+
+    synchronized (scanLock) {
+      // tokens that were removed before the scan has reached them were never added, so they are not removed
+      Arrays.sort(scanned, 0, scannedSize);
+      for (String each : delayedRemovals) {
+        if (Arrays.binarySearch(scanned, 0, scannedSize, hashOf(each)) >= 0) {
+          filter.remove(each);
+        }
+      }
+      scanning = false;
+      scanned = null;
+      delayedRemovals = null;
+    }
+  }
+
+  private void scanned(String accessToken) {
+    synchronized (scanLock) {
+      if (!scanning) {
+        return;
+      }
+      if (scannedSize == scanned.length) {
+        scanned = Arrays.copyOf(scanned, scannedSize * 2);
+      }
+      scanned[scannedSize++] = hashOf(accessToken);
+    }
+  }
+
+  private long hashOf(String accessToken) {
+    return scanHash.hashString(accessToken, StandardCharsets.UTF_8).asLong();
+  }
+
+  /**
+   * Stats is a snapshot of the usage of the filter.
+   */
+  public static final class Stats {
+    /**
+     * Number of lookups that were rejected by the filter.
+     */
+    public final long rejected;
+    /**
+     * Number of lookups that were passed to the store.
+     */
+    public final long passed;
+    /**
+     * Number of lookups that were passed to the store, but the token was not found.
+     */
+    public final long passedNotFound;
+    /**
+     * Stats of the filter.
+     */
+    public final TokenFilter.Stats filter;
+
+    Stats(long rejected, long passed, long passedNotFound, TokenFilter.Stats filter) {
+      this.rejected = rejected;
+      this.passed = passed;
+      this.passedNotFound = passedNotFound;
+      this.filter = filter;
+    }
+
+    /**
+     * Observed ratio of the unknown tokens that were not rejected by the filter or 0 if there were no such tokens.
+     */
+    public double falsePositiveRate() {
+      long unknown = rejected + passedNotFound;
+      return unknown == 0 ? 0 : (double) passedNotFound / unknown;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+              .add("rejected", rejected)
+              .add("passed", passed)
+              .add("passedNotFound", passedNotFound)
+              .add("falsePositiveRate", falsePositiveRate())
+              .add("filter", filter)
+              .toString();
+    }
+  }
+}
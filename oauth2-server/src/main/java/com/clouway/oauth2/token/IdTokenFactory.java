@@ -18,7 +18,7 @@ public interface IdTokenFactory {
    * @param host     that requested the token
    * @param clientId the client id
    * @param identity identity to which the token is issued to
-   * @param ttl      time to live for the token
+   * @param ttl      time to live for the token in seconds
    * @param instant  the time at which the token was requested
    * @return an encoded id token
    */
@@ -0,0 +1,47 @@
+package com.clouway.oauth2.token;
+
+import java.util.Set;
+
+/**
+ * IdTokenPolicies is holding the commonly used {@link IdTokenPolicy} implementations.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public final class IdTokenPolicies {
+
+  /**
+   * The scope which is requesting an id_token as defined by OpenID Connect.
+   */
+  public static final String OPENID_SCOPE = "openid";
+
+  private static final IdTokenPolicy OPENID = new IdTokenPolicy() {
+    @Override
+    public boolean isIdTokenRequired(String clientId, Set<String> scopes) {
+      return scopes != null && scopes.contains(OPENID_SCOPE);
+    }
+  };
+
+  private static final IdTokenPolicy ALWAYS = new IdTokenPolicy() {
+    @Override
+    public boolean isIdTokenRequired(String clientId, Set<String> scopes) {
+      return true;
+    }
+  };
+
+  private IdTokenPolicies() {
+  }
+
+  /**
+   * Issues id_token only when the openid scope is requested.
+   */
+  public static IdTokenPolicy openIdScope() {
+    return OPENID;
+  }
+
+  /**
+   * Issues id_token for every token request, which was the behaviour before id_tokens were issued on demand.
+   */
+  public static IdTokenPolicy always() {
+    return ALWAYS;
+  }
+}
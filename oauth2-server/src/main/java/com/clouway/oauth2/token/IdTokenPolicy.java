@@ -0,0 +1,23 @@
+package com.clouway.oauth2.token;
+
+import java.util.Set;
+
+/**
+ * IdTokenPolicy is deciding whether an id_token is issued together with the access token, so clients that are not
+ * reading it are not paying for its signing.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ * @see IdTokenPolicies
+ */
+public interface IdTokenPolicy {
+
+  /**
+   * Checks whether an id_token should be issued to the client for the provided scopes.
+   *
+   * @param clientId the id of the client or the service account to which token is issued
+   * @param scopes   the scopes of the access token
+   * @return true if id_token should be issued and false otherwise
+   */
+  boolean isIdTokenRequired(String clientId, Set<String> scopes);
+
+}
@@ -0,0 +1,421 @@
+package com.clouway.oauth2.token;
+
+import com.clouway.oauth2.keystore.IdentityKeyPair;
+import io.jsonwebtoken.io.JacksonSerializer;
+import io.jsonwebtoken.io.Serializer;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * IdTokenSigner is creating signed id_tokens in the JWS compact serialization.
+ * <p/>
+ * The protected header of each signing key is encoded once and reused. Claims are written as JSON directly in a buffer
+ * of the current thread, encoded to base64url in the same buffer and signed with the pooled signatures of the
+ * {@link com.clouway.oauth2.jws.JwsAlgorithm}, so the only allocations per token are the signature and the resulting
+ * string. Values of custom claims which are not strings, numbers, booleans, maps, collections or arrays are serialized
+ * with Jackson.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public final class IdTokenSigner {
+  private static final int MAX_HEADERS = 64;
+
+  private static final ThreadLocal<TokenBuffer> buffers = new ThreadLocal<TokenBuffer>() {
+    @Override
+    protected TokenBuffer initialValue() {
+      return new TokenBuffer();
+    }
+  };
+
+  private final ConcurrentMap<HeaderKey, byte[]> headers = new ConcurrentHashMap<HeaderKey, byte[]>();
+  private final Serializer<Object> serializer = new JacksonSerializer<Object>();
+
+  /**
+   * Signs a new id_token.
+   *
+   * @param signingKey the key that is used for signing
+   * @param host       the issuer of the token
+   * @param clientId   the audience of the token
+   * @param identity   the identity of the subject
+   * @param issuedAt   the time at which the token was issued in seconds since the epoch
+   * @param expiresAt  the expiration time of the token in seconds since the epoch
+   * @return the encoded id_token
+   * @throws GeneralSecurityException if token could not be signed with the provided key
+   */
+  public String sign(IdentityKeyPair signingKey, String host, String clientId, Identity identity, long issuedAt, long expiresAt) throws GeneralSecurityException {
+    TokenBuffer buffer = buffers.get();
+    buffer.reset();
+
+    Map<String, Object> claims = identity.claims() == null ? Collections.<String, Object>emptyMap() : identity.claims();
+
+    buffer.beginObject();
+    standardClaim(buffer, claims, "iss", host);
+    standardClaim(buffer, claims, "aud", clientId);
+    standardClaim(buffer, claims, "sub", identity.id());
+    standardClaim(buffer, claims, "name", identity.name());
+    standardClaim(buffer, claims, "email", identity.email());
+    standardClaim(buffer, claims, "given_name", identity.givenName());
+    standardClaim(buffer, claims, "family_name", identity.familyName());
+
+    for (Map.Entry<String, Object> claim : claims.entrySet()) {
+      // iat and exp are always set by the signer, so they could not be overridden by the identity
+      if (claim.getValue() != null && !"iat".equals(claim.getKey()) && !"exp".equals(claim.getKey())) {
+        buffer.name(claim.getKey());
+        writeValue(buffer, claim.getValue());
+      }
+    }
+
+    buffer.longClaim("iat", issuedAt);
+    buffer.longClaim("exp", expiresAt);
+    buffer.endObject();
+
+    buffer.beginToken(headerOf(signingKey));
+    buffer.appendEncodedPayload();
+
+    byte[] signature = signingKey.algorithm.sign(signingKey.privateKey, buffer.token(), 0, buffer.tokenLength());
+
+    return buffer.completeToken(signature);
+  }
+
+  private void standardClaim(TokenBuffer buffer, Map<String, Object> claims, String name, String value) {
+    // custom claims of the identity are replacing the standard ones
+    if (!claims.containsKey(name)) {
+      buffer.stringClaim(name, value);
+    }
+  }
+
+  private void writeValue(TokenBuffer buffer, Object value) {
+    if (value == null) {
+      buffer.raw("null");
+    } else if (value instanceof String) {
+      buffer.string((String) value);
+    } else if (value instanceof Boolean || value instanceof Integer || value instanceof Long
+            || value instanceof Short || value instanceof Byte) {
+      buffer.raw(value.toString());
+    } else if (value instanceof Map) {
+      buffer.beginObject();
+      for (Map.Entry<?, ?> each : ((Map<?, ?>) value).entrySet()) {
+        buffer.name(String.valueOf(each.getKey()));
+        writeValue(buffer, each.getValue());
+      }
+      buffer.endObject();
+    } else if (value instanceof Iterable) {
+      buffer.beginArray();
+      for (Object each : (Iterable<?>) value) {
+        buffer.element();
+        writeValue(buffer, each);
+      }
+      buffer.endArray();
+    } else if (value instanceof Object[]) {
+      buffer.beginArray();
+      for (Object each : (Object[]) value) {
+        buffer.element();
+        writeValue(buffer, each);
+      }
+      buffer.endArray();
+    } else {
+      // decimals, dates and beans are serialized in the same way as by jjwt
+      buffer.raw(serializer.serialize(value));
+    }
+  }
+
+  private byte[] headerOf(IdentityKeyPair signingKey) {
+    HeaderKey key = new HeaderKey(signingKey.algorithm.name(), signingKey.keyId);
+    byte[] header = headers.get(key);
+    if (header != null) {
+      return header;
+    }
+
+    // headers of rotated keys are not removed one by one, so all of them are dropped when there are too many
+    if (headers.size() >= MAX_HEADERS) {
+      headers.clear();
+    }
+
+    TokenBuffer buffer = new TokenBuffer();
+    buffer.beginObject();
+    buffer.stringClaim("alg", key.algorithm);
+    buffer.stringClaim("cid", key.keyId);//CertificateId - the ID of the certificate that the token was signed with.
+    buffer.endObject();
+
+    header = buffer.encodedPayload();
+    headers.put(key, header);
+    return header;
+  }
+
+  private static final class HeaderKey {
+    private final String algorithm;
+    private final String keyId;
+
+    HeaderKey(String algorithm, String keyId) {
+      this.algorithm = algorithm;
+      this.keyId = keyId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      HeaderKey that = (HeaderKey) o;
+      return algorithm.equals(that.algorithm) && (keyId == null ? that.keyId == null : keyId.equals(that.keyId));
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * algorithm.hashCode() + (keyId == null ? 0 : keyId.hashCode());
+    }
+  }
+
+  /**
+   * TokenBuffer is holding the JSON of the claims and the token that is encoded from it.
+   */
+  static final class TokenBuffer {
+    // buffers that grew above this size for a large token are not kept for the next ones
+    private static final int RETAINED_CAPACITY = 16 * 1024;
+
+    private static final byte[] BASE64URL = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] json = new byte[1024];
+    private int jsonLength;
+    private boolean first;
+
+    private byte[] token = new byte[2048];
+    private int tokenLength;
+
+    void reset() {
+      if (json.length > RETAINED_CAPACITY) {
+        json = new byte[1024];
+      }
+      if (token.length > RETAINED_CAPACITY * 2) {
+        token = new byte[2048];
+      }
+      jsonLength = 0;
+      tokenLength = 0;
+      first = true;
+    }
+
+    void beginObject() {
+      put((byte) '{');
+      first = true;
+    }
+
+    void endObject() {
+      put((byte) '}');
+      first = false;
+    }
+
+    void beginArray() {
+      put((byte) '[');
+      first = true;
+    }
+
+    void endArray() {
+      put((byte) ']');
+      first = false;
+    }
+
+    void element() {
+      if (!first) {
+        put((byte) ',');
+      }
+      first = false;
+    }
+
+    void name(String name) {
+      element();
+      string(name);
+      put((byte) ':');
+    }
+
+    void stringClaim(String name, String value) {
+      // claims without value are not part of the token
+      if (value != null) {
+        name(name);
+        string(value);
+      }
+    }
+
+    void longClaim(String name, long value) {
+      name(name);
+      raw(Long.toString(value));
+    }
+
+    void raw(String value) {
+      ensureJson(value.length());
+      for (int i = 0; i < value.length(); i++) {
+        json[jsonLength++] = (byte) value.charAt(i);
+      }
+    }
+
+    void raw(byte[] value) {
+      ensureJson(value.length);
+      System.arraycopy(value, 0, json, jsonLength, value.length);
+      jsonLength += value.length;
+    }
+
+    void string(String value) {
+      // each char is taking at most 6 bytes when escaped and 3 bytes when encoded as UTF-8
+      ensureJson(value.length() * 6 + 2);
+      json[jsonLength++] = '"';
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        if (c == '"' || c == '\\') {
+          json[jsonLength++] = '\\';
+          json[jsonLength++] = (byte) c;
+        } else if (c < 0x20) {
+          escapeControl(c);
+        } else if (c < 0x80) {
+          json[jsonLength++] = (byte) c;
+        } else if (c < 0x800) {
+          json[jsonLength++] = (byte) (0xc0 | (c >> 6));
+          json[jsonLength++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+          int codePoint = Character.toCodePoint(c, value.charAt(++i));
+          json[jsonLength++] = (byte) (0xf0 | (codePoint >> 18));
+          json[jsonLength++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+          json[jsonLength++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+          json[jsonLength++] = (byte) (0x80 | (codePoint & 0x3f));
+        } else if (Character.isSurrogate(c)) {
+          // unpaired surrogates could not be encoded as UTF-8
+          json[jsonLength++] = '?';
+        } else {
+          json[jsonLength++] = (byte) (0xe0 | (c >> 12));
+          json[jsonLength++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+          json[jsonLength++] = (byte) (0x80 | (c & 0x3f));
+        }
+      }
+      json[jsonLength++] = '"';
+    }
+
+    /**
+     * Starts the token with the already encoded header.
+     */
+    void beginToken(byte[] encodedHeader) {
+      ensureToken(encodedHeader.length + 1);
+      System.arraycopy(encodedHeader, 0, token, 0, encodedHeader.length);
+      tokenLength = encodedHeader.length;
+      token[tokenLength++] = '.';
+    }
+
+    /**
+     * Appends the written JSON as base64url to the token.
+     */
+    void appendEncodedPayload() {
+      ensureToken(encodedLength(jsonLength));
+      tokenLength = encode(json, 0, jsonLength, token, tokenLength);
+    }
+
+    /**
+     * Gets the written JSON as base64url.
+     */
+    byte[] encodedPayload() {
+      byte[] encoded = new byte[encodedLength(jsonLength)];
+      encode(json, 0, jsonLength, encoded, 0);
+      return encoded;
+    }
+
+    byte[] token() {
+      return token;
+    }
+
+    int tokenLength() {
+      return tokenLength;
+    }
+
+    /**
+     * Appends the signature to the token.
+     *
+     * @return the complete token
+     */
+    String completeToken(byte[] signature) {
+      ensureToken(encodedLength(signature.length) + 1);
+      token[tokenLength++] = '.';
+      tokenLength = encode(signature, 0, signature.length, token, tokenLength);
+
+      return new String(token, 0, tokenLength, StandardCharsets.US_ASCII);
+    }
+
+    private void escapeControl(char c) {
+      json[jsonLength++] = '\\';
+      switch (c) {
+        case '\n':
+          json[jsonLength++] = 'n';
+          break;
+        case '\r':
+          json[jsonLength++] = 'r';
+          break;
+        case '\t':
+          json[jsonLength++] = 't';
+          break;
+        case '\b':
+          json[jsonLength++] = 'b';
+          break;
+        case '\f':
+          json[jsonLength++] = 'f';
+          break;
+        default:
+          json[jsonLength++] = 'u';
+          json[jsonLength++] = '0';
+          json[jsonLength++] = '0';
+          json[jsonLength++] = HEX[c >> 4];
+          json[jsonLength++] = HEX[c & 0xf];
+      }
+    }
+
+    private void put(byte b) {
+      ensureJson(1);
+      json[jsonLength++] = b;
+    }
+
+    private void ensureJson(int length) {
+      if (jsonLength + length > json.length) {
+        byte[] grown = new byte[Math.max(json.length * 2, jsonLength + length)];
+        System.arraycopy(json, 0, grown, 0, jsonLength);
+        json = grown;
+      }
+    }
+
+    private void ensureToken(int length) {
+      if (tokenLength + length > token.length) {
+        byte[] grown = new byte[Math.max(token.length * 2, tokenLength + length)];
+        System.arraycopy(token, 0, grown, 0, tokenLength);
+        token = grown;
+      }
+    }
+
+    private static int encodedLength(int length) {
+      return (length / 3) * 4 + (length % 3 == 0 ? 0 : length % 3 + 1);
+    }
+
+    private static int encode(byte[] src, int offset, int length, byte[] dst, int position) {
+      int end = offset + length - length % 3;
+      int i = offset;
+      while (i < end) {
+        int bits = (src[i++] & 0xff) << 16 | (src[i++] & 0xff) << 8 | (src[i++] & 0xff);
+        dst[position++] = BASE64URL[(bits >>> 18) & 0x3f];
+        dst[position++] = BASE64URL[(bits >>> 12) & 0x3f];
+        dst[position++] = BASE64URL[(bits >>> 6) & 0x3f];
+        dst[position++] = BASE64URL[bits & 0x3f];
+      }
+
+      int remaining = offset + length - end;
+      if (remaining == 1) {
+        int bits = (src[i] & 0xff) << 16;
+        dst[position++] = BASE64URL[(bits >>> 18) & 0x3f];
+        dst[position++] = BASE64URL[(bits >>> 12) & 0x3f];
+      } else if (remaining == 2) {
+        int bits = (src[i] & 0xff) << 16 | (src[i + 1] & 0xff) << 8;
+        dst[position++] = BASE64URL[(bits >>> 18) & 0x3f];
+        dst[position++] = BASE64URL[(bits >>> 12) & 0x3f];
+        dst[position++] = BASE64URL[(bits >>> 6) & 0x3f];
+      }
+      return position;
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package com.clouway.oauth2.token;
+
+import com.clouway.oauth2.common.DateTime;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MemoryRevokedTokens is a {@link RevokedTokens} of a single instance of the server. Revoked grants and owners are
+ * removed once their time passes, which is checked on each revocation at most once per second.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public final class MemoryRevokedTokens implements RevokedTokens {
+  private static final long PURGE_INTERVAL = 1000;
+
+  private final ConcurrentHashMap<String, Long> revoked = new ConcurrentHashMap<String, Long>();
+  private final ConcurrentHashMap<String, Revocation> owners = new ConcurrentHashMap<String, Revocation>();
+  private final AtomicLong nextPurge = new AtomicLong();
+
+  @Override
+  public void revoke(String grantId, DateTime until) {
+    long timestamp = until.timestamp();
+    Long previous = revoked.putIfAbsent(grantId, timestamp);
+    if (previous != null && previous < timestamp) {
+      revoked.put(grantId, timestamp);
+    }
+
+    purgeIfDue();
+  }
+
+  @Override
+  public boolean isRevoked(String grantId, DateTime when) {
+    Long until = revoked.get(grantId);
+    return until != null && until >= when.timestamp();
+  }
+
+  @Override
+  public void revokeIssuedBefore(String ownerId, DateTime time, DateTime until) {
+    Revocation revocation = new Revocation(time.timestamp(), until.timestamp());
+    while (true) {
+      Revocation previous = owners.putIfAbsent(ownerId, revocation);
+      if (previous == null) {
+        break;
+      }
+      // the latest revocation is revoking all grants of the previous ones
+      Revocation merged = new Revocation(Math.max(previous.time, revocation.time), Math.max(previous.until, revocation.until));
+      if (owners.replace(ownerId, previous, merged)) {
+        break;
+      }
+    }
+
+    purgeIfDue();
+  }
+
+  @Override
+  public boolean isIssuedBeforeRevocation(String ownerId, DateTime issuedAt, DateTime when) {
+    Revocation revocation = owners.get(ownerId);
+    return revocation != null && issuedAt.timestamp() <= revocation.time && revocation.until >= when.timestamp();
+  }
+
+  /**
+   * Gets the number of the kept grants and owners.
+   */
+  public int size() {
+    return revoked.size() + owners.size();
+  }
+
+  private void purgeIfDue() {
+    long now = System.currentTimeMillis();
+    long purge = nextPurge.get();
+    if (now >= purge && nextPurge.compareAndSet(purge, now + PURGE_INTERVAL)) {
+      purge(now);
+    }
+  }
+
+  private void purge(long now) {
+    for (Iterator<Map.Entry<String, Long>> it = revoked.entrySet().iterator(); it.hasNext(); ) {
+      if (it.next().getValue() < now) {
+        it.remove();
+      }
+    }
+    for (Iterator<Map.Entry<String, Revocation>> it = owners.entrySet().iterator(); it.hasNext(); ) {
+      if (it.next().getValue().until < now) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Revocation is the time of the last revocation of an owner and the time until which it's kept.
+   */
+  private static final class Revocation {
+    final long time;
+    final long until;
+
+    Revocation(long time, long until) {
+      this.time = time;
+      this.until = until;
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package com.clouway.oauth2.token;
+
+/**
+ * ObservableTokens is implemented by the {@link Tokens} which are reporting their live access tokens, so indexes of
+ * the tokens, like the {@link TokenFilter}, could be kept outside of the store.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ * @see FilteringTokens
+ */
+public interface ObservableTokens {
+
+  /**
+   * Listener of the changes of the live access tokens. It's called while the change is done, so it should not block.
+   */
+  interface Listener {
+
+    /**
+     * Called when access token is issued or is restored.
+     */
+    void added(String accessToken);
+
+    /**
+     * Called when access token is refreshed, revoked, expired or evicted. It's called only for tokens that were added.
+     */
+    void removed(String accessToken);
+
+  }
+
+  /**
+   * Visitor of the live access tokens.
+   */
+  interface Visitor {
+
+    void visit(String accessToken);
+
+  }
+
+  /**
+   * Adds a listener of the changes of the access tokens.
+   */
+  void addListener(Listener listener);
+
+  /**
+   * Visits the live access tokens. Tokens that are changed during the visit are visited either before or after the
+   * change.
+   */
+  void forEachAccessToken(Visitor visitor);
+
+}
@@ -0,0 +1,54 @@
+package com.clouway.oauth2.token;
+
+import com.clouway.oauth2.common.DateTime;
+
+/**
+ * RevokedTokens is keeping the grants which were revoked before their access tokens expired, so tokens that are
+ * validated without a lookup in the {@link Tokens} could be rejected. Grants are kept only until the provided time,
+ * after which their access tokens are expired anyway.
+ * <p/>
+ * Deployments with more than one instance of the server should use an implementation which is shared by all of them.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ * @see SelfContainedTokens
+ */
+public interface RevokedTokens {
+
+  /**
+   * Revokes the provided grant.
+   *
+   * @param grantId the id of the grant
+   * @param until   the time after which no access token of the grant is valid
+   */
+  void revoke(String grantId, DateTime until);
+
+  /**
+   * Checks whether the provided grant was revoked.
+   *
+   * @param grantId the id of the grant
+   * @param when    the current time
+   * @return true if grant is revoked and false otherwise
+   */
+  boolean isRevoked(String grantId, DateTime when);
+
+  /**
+   * Revokes all grants of the provided owner, e.g. of an identity or a client, which were issued until the provided
+   * time. Grants which are issued after it are not revoked.
+   *
+   * @param ownerId the id of the owner
+   * @param time    the time of the revocation
+   * @param until   the time after which no access token that was issued before the revocation is valid
+   */
+  void revokeIssuedBefore(String ownerId, DateTime time, DateTime until);
+
+  /**
+   * Checks whether a grant of the provided owner which was issued at the provided time was revoked.
+   *
+   * @param ownerId  the id of the owner
+   * @param issuedAt the time at which the grant was issued
+   * @param when     the current time
+   * @return true if grant was issued before a revocation of its owner and false otherwise
+   */
+  boolean isIssuedBeforeRevocation(String ownerId, DateTime issuedAt, DateTime when);
+
+}
@@ -0,0 +1,551 @@
+package com.clouway.oauth2.token;
+
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.common.Duration;
+import com.clouway.oauth2.crypto.CryptoPool;
+import com.google.common.base.Optional;
+import com.google.common.io.BaseEncoding;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * SelfContainedTokens is a {@link Tokens} which is replacing the access tokens of another {@link Tokens} with tokens
+ * that are containing the identity, the client, the scopes, the params, the grant type and the expiration of the
+ * token and are authenticated with HMAC-SHA256, so they are validated without a lookup in the store. Only the
+ * {@link RevokedTokens} are checked, so a revoked grant is rejected before its access tokens are expired. Tokens are
+ * also containing the time of the request in which they were issued, so the tokens of an identity or a client which
+ * were issued until all of its grants were revoked are rejected too. Revocations are kept with the time of their
+ * requests, so callers which are not passing it are revoking as of the current time.
+ * <p/>
+ * Tokens are in the form <code>base64url(claims).base64url(mac)</code>. Claims are not encrypted, so they could be
+ * read by the clients. Refresh tokens are containing the refresh token of the store and the id of their grant, which
+ * is kept when the store is rotating the refresh token, so revoking of a refresh token or of any access token of the
+ * grant is rejecting all tokens of the grant.
+ * <p/>
+ * Tokens without a dot, like tokens that were issued before this store was used, are passed to the store, so
+ * tokens of the store should not contain dots as {@link UrlSafeTokenGenerator} does. Opaque tokens of the store
+ * remain the default and are replaced only when this store is passed to the OAuth2Config.
+ * <p/>
+ * Usage:
+ * <pre>
+ *   Tokens tokens = SelfContainedTokens.newSelfContainedTokens(store)
+ *           .key(secret)
+ *           .revokedTokens(sharedRevokedTokens)
+ *           .build();
+ * </pre>
+ * Keys are rotated by setting the new key and passing the previous one to {@link Builder#verificationKeys(byte[]...)}
+ * until the tokens that were issued with it are expired.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public final class SelfContainedTokens implements Tokens {
+  private static final Logger logger = Logger.getLogger(SelfContainedTokens.class.getName());
+
+  public static Builder newSelfContainedTokens(Tokens tokens) {
+    return new Builder(tokens);
+  }
+
+  public static final class Builder {
+    private final Tokens tokens;
+    private byte[] key;
+    private List<byte[]> verificationKeys = Collections.emptyList();
+    private RevokedTokens revokedTokens = new MemoryRevokedTokens();
+    private Duration timeToLive = Duration.hours(1);
+    private Duration refreshTokenTimeToLive = Duration.hours(30 * 24);
+
+    private Builder(Tokens tokens) {
+      this.tokens = tokens;
+    }
+
+    /**
+     * Sets the secret with which tokens are authenticated. It should be at least 32 bytes.
+     */
+    public Builder key(byte[] key) {
+      this.key = key;
+      return this;
+    }
+
+    /**
+     * Sets the previous secrets with which tokens are still accepted.
+     */
+    public Builder verificationKeys(byte[]... verificationKeys) {
+      this.verificationKeys = Arrays.asList(verificationKeys);
+      return this;
+    }
+
+    /**
+     * Sets the revoked grants. Default is {@link MemoryRevokedTokens}, which is not shared between instances.
+     */
+    public Builder revokedTokens(RevokedTokens revokedTokens) {
+      this.revokedTokens = revokedTokens;
+      return this;
+    }
+
+    /**
+     * Sets the max time to live of the access tokens of the store, so grants are kept as revoked until their access
+     * tokens are expired. Default is 1 hour.
+     */
+    public Builder timeToLive(Duration timeToLive) {
+      this.timeToLive = timeToLive;
+      return this;
+    }
+
+    /**
+     * Sets the max time to live of the refresh tokens of the store, so grants of revoked access tokens are kept as
+     * revoked until their refresh tokens are expired. Default is 30 days.
+     */
+    public Builder refreshTokenTimeToLive(Duration refreshTokenTimeToLive) {
+      this.refreshTokenTimeToLive = refreshTokenTimeToLive;
+      return this;
+    }
+
+    public SelfContainedTokens build() {
+      if (key == null || key.length < MIN_KEY_LENGTH) {
+        throw new IllegalArgumentException("Key of at least " + MIN_KEY_LENGTH + " bytes is required.");
+      }
+      return new SelfContainedTokens(this);
+    }
+  }
+
+  private static final int MIN_KEY_LENGTH = 32;
+  private static final int GRANT_ID_LENGTH = 16;
+  private static final byte VERSION = 1;
+  private static final byte ACCESS_TOKEN = 0;
+  private static final byte REFRESH_TOKEN = 1;
+  private static final String IDENTITY = "identity:";
+  private static final String CLIENT = "client:";
+  private static final String MAC_ALGORITHM = "HmacSHA256";
+  private static final BaseEncoding BASE64_URL = BaseEncoding.base64Url().omitPadding();
+
+  private final Tokens tokens;
+  private final List<CryptoPool<Mac>> macs;
+  private final RevokedTokens revokedTokens;
+  private final long timeToLiveSeconds;
+  private final long refreshTokenTimeToLiveSeconds;
+  private final CryptoPool<MessageDigest> digests = CryptoPool.messageDigest("SHA-256");
+
+  private SelfContainedTokens(Builder builder) {
+    this.tokens = builder.tokens;
+    this.revokedTokens = builder.revokedTokens;
+    this.timeToLiveSeconds = builder.timeToLive.seconds;
+    this.refreshTokenTimeToLiveSeconds = builder.refreshTokenTimeToLive.seconds;
+
+    // the first one is signing the issued tokens
+    List<CryptoPool<Mac>> macs = new ArrayList<CryptoPool<Mac>>();
+    macs.add(CryptoPool.mac(MAC_ALGORITHM, new SecretKeySpec(builder.key, MAC_ALGORITHM)));
+    for (byte[] each : builder.verificationKeys) {
+      macs.add(CryptoPool.mac(MAC_ALGORITHM, new SecretKeySpec(each, MAC_ALGORITHM)));
+    }
+    this.macs = macs;
+  }
+
+  @Override
+  public Optional<BearerToken> findTokenAvailableAt(String token, DateTime when) {
+    if (token == null) {
+      return Optional.absent();
+    }
+
+    int dot = token.indexOf('.');
+    if (dot < 0) {
+      return tokens.findTokenAvailableAt(token, when);
+    }
+
+    Claims claims = verify(token, dot);
+    if (!isAvailable(claims, when)) {
+      return Optional.absent();
+    }
+    return Optional.of(claims.token);
+  }
+
+  @Override
+  public boolean isTokenAvailableAt(String token, DateTime when) {
+    if (token == null) {
+      return false;
+    }
+
+    int dot = token.indexOf('.');
+    if (dot < 0) {
+      return tokens.isTokenAvailableAt(token, when);
+    }
+    return isAvailable(verify(token, dot), when);
+  }
+
+  /**
+   * Verifies the self-contained tokens and looks up the opaque tokens with a single lookup in the store.
+   */
+  @Override
+  public Map<String, BearerToken> findTokensAvailableAt(Collection<String> tokens, DateTime when) {
+    Map<String, BearerToken> found = new LinkedHashMap<String, BearerToken>();
+    List<String> opaque = new ArrayList<String>();
+    for (String token : tokens) {
+      if (token == null) {
+        continue;
+      }
+      int dot = token.indexOf('.');
+      if (dot < 0) {
+        opaque.add(token);
+        continue;
+      }
+      Claims claims = verify(token, dot);
+      if (isAvailable(claims, when)) {
+        found.put(token, claims.token);
+      }
+    }
+    if (!opaque.isEmpty()) {
+      found.putAll(this.tokens.findTokensAvailableAt(opaque, when));
+    }
+    return found;
+  }
+
+  @Override
+  public TokenResponse refreshToken(String token, DateTime when) {
+    if (token == null) {
+      return new TokenResponse(false, null, "");
+    }
+
+    String storeToken = token;
+    String grantId;
+    int dot = token.indexOf('.');
+    if (dot < 0) {
+      // refresh tokens of the store are identifying the grants which were issued before this store was used
+      grantId = grantId(token);
+    } else {
+      Claims claims = verify(token, dot);
+      if (claims == null || claims.kind != REFRESH_TOKEN) {
+        return new TokenResponse(false, null, "");
+      }
+      storeToken = claims.storeToken;
+      grantId = claims.grantId;
+    }
+
+    if (revokedTokens.isRevoked(grantId, when)) {
+      // an access token of the grant was revoked after the store replaced it, so the store is still having the grant
+      tokens.revokeToken(storeToken, when);
+      return new TokenResponse(false, null, "");
+    }
+    return mint(tokens.refreshToken(storeToken, when), grantId, when);
+  }
+
+  @Override
+  public TokenResponse issueToken(TokenRequest tokenRequest) {
+    return mint(tokens.issueToken(tokenRequest), null, tokenRequest.when);
+  }
+
+  @Override
+  public List<TokenResponse> issueTokens(List<TokenRequest> tokenRequests) {
+    List<TokenResponse> issued = tokens.issueTokens(tokenRequests);
+    List<TokenResponse> responses = new ArrayList<TokenResponse>(issued.size());
+    for (int i = 0; i < issued.size(); i++) {
+      responses.add(mint(issued.get(i), null, tokenRequests.get(i).when));
+    }
+    return responses;
+  }
+
+  /**
+   * Revokes the grant of the provided access or refresh token as of now, so all of its tokens are rejected.
+   *
+   * @param token the access or the refresh token
+   */
+  @Override
+  public void revokeToken(String token) {
+    revokeToken(token, new DateTime());
+  }
+
+  /**
+   * Revokes the grant of the provided access or refresh token, so all of its tokens are rejected.
+   *
+   * @param token the access or the refresh token
+   * @param when  the time of the request
+   */
+  @Override
+  public void revokeToken(String token, DateTime when) {
+    if (token == null) {
+      return;
+    }
+
+    int dot = token.indexOf('.');
+    Claims claims = dot < 0 ? null : verify(token, dot);
+
+    if (claims == null) {
+      revokedTokens.revoke(grantId(token), when.plusSeconds(timeToLiveSeconds));
+      tokens.revokeToken(token, when);
+    } else if (claims.kind == ACCESS_TOKEN) {
+      // the store could still have the refresh token of the grant, so it's rejected until it expires
+      revokedTokens.revoke(claims.grantId, when.plusSeconds(refreshTokenTimeToLiveSeconds));
+      tokens.revokeToken(claims.storeToken, when);
+    } else {
+      revokedTokens.revoke(claims.grantId, when.plusSeconds(timeToLiveSeconds));
+      tokens.revokeToken(claims.storeToken, when);
+    }
+  }
+
+  @Override
+  public int revokeAllForIdentity(String identityId) {
+    return revokeAllForIdentity(identityId, new DateTime());
+  }
+
+  /**
+   * Revokes the grants of the identity in the store, so their refresh tokens are rejected. The revocation is also kept
+   * in the {@link RevokedTokens}, so the self-contained tokens of the identity which were issued until it are
+   * rejected until they expire.
+   */
+  @Override
+  public int revokeAllForIdentity(String identityId, DateTime when) {
+    revokedTokens.revokeIssuedBefore(IDENTITY + identityId, when, when.plusSeconds(timeToLiveSeconds));
+    return tokens.revokeAllForIdentity(identityId, when);
+  }
+
+  @Override
+  public int revokeAllForClient(String clientId) {
+    return revokeAllForClient(clientId, new DateTime());
+  }
+
+  /**
+   * Revokes the grants of the client in the store, so their refresh tokens are rejected. The revocation is also kept
+   * in the {@link RevokedTokens}, so the self-contained tokens of the client which were issued until it are rejected
+   * until they expire.
+   */
+  @Override
+  public int revokeAllForClient(String clientId, DateTime when) {
+    revokedTokens.revokeIssuedBefore(CLIENT + clientId, when, when.plusSeconds(timeToLiveSeconds));
+    return tokens.revokeAllForClient(clientId, when);
+  }
+
+  /**
+   * Extends the expiration of the opaque tokens. Self-contained tokens are expiring at the time they contain.
+   */
+  @Override
+  public void extendExpirations(Map<String, DateTime> expirations) {
+    Map<String, DateTime> opaque = new LinkedHashMap<String, DateTime>();
+    for (Map.Entry<String, DateTime> each : expirations.entrySet()) {
+      if (each.getKey().indexOf('.') < 0) {
+        opaque.put(each.getKey(), each.getValue());
+      }
+    }
+    if (!opaque.isEmpty()) {
+      tokens.extendExpirations(opaque);
+    }
+  }
+
+  /**
+   * Replaces the tokens of the store with self-contained ones.
+   *
+   * @param response the response of the store
+   * @param grantId  the id of the refreshed grant or null for a new grant
+   * @param when     the time of the request
+   */
+  private TokenResponse mint(TokenResponse response, String grantId, DateTime when) {
+    if (!response.isSuccessful()) {
+      return response;
+    }
+
+    BearerToken storeToken = response.accessToken;
+    String grant = grantId == null ? grantId(response.refreshToken) : grantId;
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeByte(VERSION);
+      out.writeByte(ACCESS_TOKEN);
+      out.writeByte(storeToken.grantType == null ? -1 : storeToken.grantType.ordinal());
+      out.writeLong(when.timestamp());
+      out.writeLong(storeToken.expirationTimestamp());
+      writeNullable(out, storeToken.identityId);
+      writeNullable(out, storeToken.clientId);
+      writeNullable(out, storeToken.email);
+
+      Set<String> scopes = storeToken.scopes == null ? Collections.<String>emptySet() : storeToken.scopes;
+      out.writeInt(scopes.size());
+      for (String scope : scopes) {
+        out.writeUTF(scope);
+      }
+
+      Map<String, String> params = storeToken.params == null ? Collections.<String, String>emptyMap() : storeToken.params;
+      out.writeInt(params.size());
+      for (Map.Entry<String, String> each : params.entrySet()) {
+        out.writeUTF(each.getKey());
+        out.writeUTF(each.getValue());
+      }
+
+      out.writeUTF(storeToken.value);
+      out.writeUTF(grant);
+
+      BearerToken token = new BearerToken(sign(bytes.toByteArray()), storeToken.grantType, storeToken.identityId,
+              storeToken.clientId, storeToken.email, scopes, new DateTime(storeToken.expirationTimestamp()), params);
+      return new TokenResponse(true, token, refreshTokenOf(response.refreshToken, grant));
+
+    } catch (IOException | GeneralSecurityException e) {
+      logger.log(Level.WARNING, "Token cannot be signed.", e);
+      tokens.revokeToken(response.refreshToken, when);
+      return new TokenResponse(false, null, "");
+    }
+  }
+
+  /**
+   * Gets the refresh token which is containing the refresh token of the store and the id of its grant.
+   */
+  private String refreshTokenOf(String storeToken, String grantId) throws IOException, GeneralSecurityException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(VERSION);
+    out.writeByte(REFRESH_TOKEN);
+    out.writeUTF(storeToken);
+    out.writeUTF(grantId);
+    return sign(bytes.toByteArray());
+  }
+
+  private String sign(byte[] claims) throws GeneralSecurityException {
+    String encoded = BASE64_URL.encode(claims);
+    return encoded + "." + BASE64_URL.encode(mac(macs.get(0), encoded));
+  }
+
+  private Claims verify(String token, int dot) {
+    String claims = token.substring(0, dot);
+    try {
+      byte[] mac = BASE64_URL.decode(token.substring(dot + 1));
+
+      boolean verified = false;
+      for (int i = 0; i < macs.size() && !verified; i++) {
+        verified = MessageDigest.isEqual(mac, mac(macs.get(i), claims));
+      }
+      if (!verified) {
+        return null;
+      }
+
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(BASE64_URL.decode(claims)));
+      if (in.readByte() != VERSION) {
+        return null;
+      }
+      byte kind = in.readByte();
+      if (kind == REFRESH_TOKEN) {
+        String storeToken = in.readUTF();
+        return new Claims(REFRESH_TOKEN, null, storeToken, in.readUTF(), null);
+      }
+      if (kind != ACCESS_TOKEN) {
+        return null;
+      }
+
+      byte grantType = in.readByte();
+      long issuedAt = in.readLong();
+      long expiresAt = in.readLong();
+      String identityId = readNullable(in);
+      String clientId = readNullable(in);
+      String email = readNullable(in);
+
+      int scopeCount = in.readInt();
+      Set<String> scopes = new LinkedHashSet<String>();
+      for (int i = 0; i < scopeCount; i++) {
+        scopes.add(in.readUTF());
+      }
+
+      int paramCount = in.readInt();
+      Map<String, String> params = new LinkedHashMap<String, String>();
+      for (int i = 0; i < paramCount; i++) {
+        params.put(in.readUTF(), in.readUTF());
+      }
+
+      String storeToken = in.readUTF();
+      String grantId = in.readUTF();
+
+      BearerToken bearerToken = new BearerToken(token, grantType < 0 ? null : GrantType.values()[grantType], identityId,
+              clientId, email, scopes, new DateTime(expiresAt), params);
+      return new Claims(ACCESS_TOKEN, bearerToken, storeToken, grantId, new DateTime(issuedAt));
+
+    } catch (IllegalArgumentException | IOException | IndexOutOfBoundsException e) {
+      // tokens which are not encoded properly are not accepted
+      return null;
+    } catch (GeneralSecurityException e) {
+      logger.log(Level.WARNING, "Token cannot be verified.", e);
+      return null;
+    }
+  }
+
+  private boolean isAvailable(Claims claims, DateTime when) {
+    // refresh tokens are not accepted as access tokens
+    return claims != null && claims.kind == ACCESS_TOKEN && !claims.token.expiresAt(when) && !isRevoked(claims, when);
+  }
+
+  private boolean isRevoked(Claims claims, DateTime when) {
+    if (revokedTokens.isRevoked(claims.grantId, when)) {
+      return true;
+    }
+    BearerToken token = claims.token;
+    if (token.identityId != null && revokedTokens.isIssuedBeforeRevocation(IDENTITY + token.identityId, claims.issuedAt, when)) {
+      return true;
+    }
+    return token.clientId != null && revokedTokens.isIssuedBeforeRevocation(CLIENT + token.clientId, claims.issuedAt, when);
+  }
+
+  private byte[] mac(CryptoPool<Mac> pool, String claims) throws GeneralSecurityException {
+    Mac mac = pool.acquire();
+    try {
+      return mac.doFinal(claims.getBytes(StandardCharsets.US_ASCII));
+    } finally {
+      pool.release(mac);
+    }
+  }
+
+  private String grantId(String refreshToken) {
+    MessageDigest digest = null;
+    try {
+      digest = digests.acquire();
+      byte[] hash = digest.digest(refreshToken.getBytes(StandardCharsets.UTF_8));
+      return BASE64_URL.encode(hash, 0, GRANT_ID_LENGTH);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("SHA-256 is not available.", e);
+    } finally {
+      digests.release(digest);
+    }
+  }
+
+  private static void writeNullable(DataOutputStream out, String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  private static String readNullable(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  /**
+   * Claims is the content of a verified access or refresh token. Refresh tokens are having only the token of the store
+   * and the id of the grant.
+   */
+  private static final class Claims {
+    final byte kind;
+    final BearerToken token;
+    final String storeToken;
+    final String grantId;
+    final DateTime issuedAt;
+
+    Claims(byte kind, BearerToken token, String storeToken, String grantId, DateTime issuedAt) {
+      this.kind = kind;
+      this.token = token;
+      this.storeToken = storeToken;
+      this.grantId = grantId;
+      this.issuedAt = issuedAt;
+    }
+  }
+}
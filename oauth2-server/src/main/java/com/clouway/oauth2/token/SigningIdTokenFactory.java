@@ -0,0 +1,75 @@
+package com.clouway.oauth2.token;
+
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.keystore.KeyStore;
+import com.clouway.oauth2.keystore.IdentityKeyPair;
+import com.clouway.oauth2.keystore.SigningKeySelector;
+import com.google.common.base.Optional;
+
+import java.security.GeneralSecurityException;
+import java.util.List;
+
+/**
+ * SigningIdTokenFactory is signing the id_tokens with the key selected by the {@link SigningKeySelector}. Key stores
+ * which are not selecting the signing key on their own, are signing with the first of their keys.
+ *
+ * @author Vasil Mitov <vasil.mitov@clouway.com>
+ */
+public class SigningIdTokenFactory implements IdTokenFactory {
+  private final IdTokenSigner signer = new IdTokenSigner();
+  private final SigningKeySelector keySelector;
+
+  /**
+   * Creates a factory which is signing with the key selected by a {@link SigningKeySelector} that is not a
+   * {@link KeyStore}.
+   *
+   * @param keySelector the selector of the signing key
+   * @return the factory
+   */
+  public static SigningIdTokenFactory withSelector(SigningKeySelector keySelector) {
+    return new SigningIdTokenFactory(keySelector);
+  }
+
+  public SigningIdTokenFactory(KeyStore keyStore) {
+    this(keyStore instanceof SigningKeySelector ? (SigningKeySelector) keyStore : firstKeyOf(keyStore));
+  }
+
+  SigningIdTokenFactory(SigningKeySelector keySelector) {
+    this.keySelector = keySelector;
+  }
+
+  @Override
+  public Optional<String> create(String host, String clientId, Identity identity, Long ttl, DateTime instant) {
+    Optional<IdentityKeyPair> possibleKey = keySelector.signingKey(instant);
+
+    if (!possibleKey.isPresent()) {
+      return Optional.absent();
+    }
+
+    IdentityKeyPair signingKey = possibleKey.get();
+
+    // ttl is in seconds
+    long issuedAt = instant.timestamp() / 1000;
+    long expiresAt = issuedAt + ttl;
+
+    try {
+      return Optional.of(signer.sign(signingKey, host, clientId, identity, issuedAt, expiresAt));
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("id_token could not be signed with key " + signingKey.keyId, e);
+    }
+  }
+
+  private static SigningKeySelector firstKeyOf(final KeyStore keyStore) {
+    return new SigningKeySelector() {
+      @Override
+      public Optional<IdentityKeyPair> signingKey(DateTime instant) {
+        List<IdentityKeyPair> keys = keyStore.getKeys();
+        if (keys == null || keys.isEmpty()) {
+          return Optional.absent();
+        }
+        return Optional.of(keys.get(0));
+      }
+    };
+  }
+
+}
@@ -0,0 +1,447 @@
+package com.clouway.oauth2.token;
+
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.common.Duration;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * SlidingTokens is a {@link Tokens} which is extending the expiration of the access tokens that are in use, so
+ * tokens expire only after they are not used for their time to live.
+ * <p/>
+ * The expiration of a token is extended only when the remaining time to live of a looked up token drops below the
+ * configured fraction of its time to live, so most lookups are not changing it. Extensions are coalesced in memory
+ * and are written with {@link Tokens#extendExpirations(Map)} in periodic batches, so the store is making a single
+ * write for all lookups of the tokens between two flushes instead of a write for each lookup. Looked up tokens are
+ * returned with their extended expiration before it's written.
+ * <p/>
+ * Extensions which are not written yet are lost if the process is stopped without calling {@link #close()}, which is
+ * only shortening the expiration of these tokens back to their last written value.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public final class SlidingTokens implements Tokens, Closeable {
+  private static final Logger logger = Logger.getLogger(SlidingTokens.class.getName());
+
+  public static Builder newSlidingTokens(Tokens tokens) {
+    return new Builder(tokens);
+  }
+
+  public static final class Builder {
+    private final Tokens tokens;
+    private Duration timeToLive = Duration.hours(1);
+    private double renewBelow = 0.5;
+    private long flushIntervalMillis = TimeUnit.SECONDS.toMillis(1);
+    private int maxPending = 100000;
+    private ScheduledExecutorService executor;
+
+    private Builder(Tokens tokens) {
+      this.tokens = tokens;
+    }
+
+    /**
+     * Sets the time to live of a token after its last use. It should be the time to live of the issued tokens.
+     * Default is 1 hour.
+     */
+    public Builder timeToLive(Duration timeToLive) {
+      this.timeToLive = timeToLive;
+      return this;
+    }
+
+    /**
+     * Sets the fraction of the time to live below which the expiration of a looked up token is extended, e.g. with 0.5
+     * a token of 1 hour is extended when it's looked up in its last 30 minutes. Default is 0.5.
+     */
+    public Builder renewBelow(double fraction) {
+      if (fraction <= 0 || fraction > 1) {
+        throw new IllegalArgumentException("Fraction should be in (0, 1], but was " + fraction + ".");
+      }
+      this.renewBelow = fraction;
+      return this;
+    }
+
+    /**
+     * Sets the interval between the writes of the extended expirations. Default is 1 second.
+     */
+    public Builder flushInterval(long interval, TimeUnit unit) {
+      this.flushIntervalMillis = Math.max(1, unit.toMillis(interval));
+      return this;
+    }
+
+    /**
+     * Sets the number of extended tokens after which they are written without waiting for the flush interval.
+     * Default is 100 000.
+     */
+    public Builder maxPending(int maxPending) {
+      this.maxPending = maxPending;
+      return this;
+    }
+
+    /**
+     * Sets the executor on which the flushes are scheduled. It's not shut down when the tokens are closed. By default
+     * flushes are made on a daemon thread of their own.
+     */
+    public Builder executor(ScheduledExecutorService executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    public SlidingTokens build() {
+      return new SlidingTokens(this);
+    }
+  }
+
+  private static final int MAX_BACKOFF_SHIFT = 6;
+
+  private final Tokens tokens;
+  private final long timeToLiveMillis;
+  private final long flushIntervalMillis;
+  private final long renewBelowMillis;
+  private final int maxPending;
+  private final ScheduledExecutorService executor;
+  private final boolean ownsExecutor;
+  private final ScheduledFuture<?> scheduledFlush;
+
+  private final ConcurrentHashMap<String, Long> pending = new ConcurrentHashMap<String, Long>();
+  private final Object flushLock = new Object();
+  // failed flushes are retried after a backoff, so a store that is down is not written in a loop
+  private int failedFlushes = 0;
+  private long retryAt = 0;
+
+  private final AtomicLong lookups = new AtomicLong();
+  private final AtomicLong extensions = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong flushes = new AtomicLong();
+  private final AtomicLong written = new AtomicLong();
+
+  private SlidingTokens(Builder builder) {
+    this.tokens = builder.tokens;
+    this.timeToLiveMillis = builder.timeToLive.asMills();
+    this.renewBelowMillis = (long) (timeToLiveMillis * builder.renewBelow);
+    this.maxPending = builder.maxPending;
+    this.flushIntervalMillis = builder.flushIntervalMillis;
+    this.ownsExecutor = builder.executor == null;
+    this.executor = ownsExecutor ? Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "oauth2-tokens-sliding");
+        thread.setDaemon(true);
+        return thread;
+      }
+    }) : builder.executor;
+
+    this.scheduledFlush = executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        flushIfDue();
+      }
+    }, builder.flushIntervalMillis, builder.flushIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public Optional<BearerToken> findTokenAvailableAt(String token, DateTime when) {
+    Optional<BearerToken> possibleToken = tokens.findTokenAvailableAt(token, when);
+    if (!possibleToken.isPresent()) {
+      return possibleToken;
+    }
+    return Optional.of(slide(token, possibleToken.get(), when));
+  }
+
+  /**
+   * Checks the token in the store without extending its expiration or counting it as a lookup.
+   */
+  @Override
+  public boolean isTokenAvailableAt(String token, DateTime when) {
+    return tokens.isTokenAvailableAt(token, when);
+  }
+
+  @Override
+  public Map<String, BearerToken> findTokensAvailableAt(Collection<String> tokens, DateTime when) {
+    Map<String, BearerToken> found = new LinkedHashMap<String, BearerToken>();
+    for (Map.Entry<String, BearerToken> each : this.tokens.findTokensAvailableAt(tokens, when).entrySet()) {
+      found.put(each.getKey(), slide(each.getKey(), each.getValue(), when));
+    }
+    return found;
+  }
+
+  @Override
+  public TokenResponse refreshToken(String token, DateTime when) {
+    return tokens.refreshToken(token, when);
+  }
+
+  @Override
+  public TokenResponse issueToken(TokenRequest tokenRequest) {
+    return tokens.issueToken(tokenRequest);
+  }
+
+  @Override
+  public List<TokenResponse> issueTokens(List<TokenRequest> tokenRequests) {
+    return tokens.issueTokens(tokenRequests);
+  }
+
+  @Override
+  public void revokeToken(String token) {
+    pending.remove(token);
+    tokens.revokeToken(token);
+  }
+
+  @Override
+  public void revokeToken(String token, DateTime when) {
+    pending.remove(token);
+    tokens.revokeToken(token, when);
+  }
+
+  @Override
+  public void revokeTokens(Collection<String> tokens) {
+    for (String each : tokens) {
+      pending.remove(each);
+    }
+    this.tokens.revokeTokens(tokens);
+  }
+
+  @Override
+  public int revokeAllForIdentity(String identityId) {
+    // extensions of the revoked tokens are skipped by the store
+    return tokens.revokeAllForIdentity(identityId);
+  }
+
+  @Override
+  public int revokeAllForIdentity(String identityId, DateTime when) {
+    return tokens.revokeAllForIdentity(identityId, when);
+  }
+
+  @Override
+  public int revokeAllForClient(String clientId) {
+    return tokens.revokeAllForClient(clientId);
+  }
+
+  @Override
+  public int revokeAllForClient(String clientId, DateTime when) {
+    return tokens.revokeAllForClient(clientId, when);
+  }
+
+  @Override
+  public void extendExpirations(Map<String, DateTime> expirations) {
+    tokens.extendExpirations(expirations);
+  }
+
+  /**
+   * Extends the expiration of the found token if its remaining time to live is below the fraction.
+   *
+   * @return the token with its extended expiration
+   */
+  private BearerToken slide(String token, BearerToken found, DateTime when) {
+    lookups.incrementAndGet();
+
+    long now = when.timestamp();
+    long expiresAt = found.expirationTimestamp();
+    Long extendedAt = pending.get(token);
+    if (extendedAt != null && extendedAt > expiresAt) {
+      expiresAt = extendedAt;
+    }
+
+    if (expiresAt - now < renewBelowMillis) {
+      expiresAt = now + timeToLiveMillis;
+      if (extend(token, expiresAt)) {
+        coalesced.incrementAndGet();
+      }
+      extensions.incrementAndGet();
+    }
+
+    if (expiresAt == found.expirationTimestamp()) {
+      return found;
+    }
+    return new BearerToken(found.value, found.grantType, found.identityId, found.clientId, found.email,
+            found.scopes, new DateTime(expiresAt), found.params);
+  }
+
+  /**
+   * Writes the extended expirations which are not written yet. Extensions that cannot be written are kept for the
+   * next flush, which is made after a backoff that is doubled with each failed flush up to 64 flush intervals.
+   *
+   * @return the number of the written tokens
+   */
+  public int flush() {
+    // flushes are serialized so an older extension is never written after a newer one
+    synchronized (flushLock) {
+      return flushPending();
+    }
+  }
+
+  private void flushIfDue() {
+    synchronized (flushLock) {
+      if (System.currentTimeMillis() >= retryAt) {
+        flushPending();
+      }
+    }
+  }
+
+  private int flushPending() {
+    Map<String, DateTime> batch = new LinkedHashMap<String, DateTime>();
+    for (Map.Entry<String, Long> each : pending.entrySet()) {
+      // tokens which are extended again during the flush are written by the next one
+      if (pending.remove(each.getKey(), each.getValue())) {
+        batch.put(each.getKey(), new DateTime(each.getValue()));
+      }
+    }
+    if (batch.isEmpty()) {
+      return 0;
+    }
+
+    try {
+      tokens.extendExpirations(batch);
+    } catch (RuntimeException e) {
+      logger.log(Level.WARNING, "Expiration of " + batch.size() + " tokens cannot be extended.", e);
+      // extensions are put back without scheduling another flush, so they are retried after the backoff
+      for (Map.Entry<String, DateTime> each : batch.entrySet()) {
+        keep(each.getKey(), each.getValue().timestamp());
+      }
+      retryAt = System.currentTimeMillis() + (flushIntervalMillis << Math.min(failedFlushes, MAX_BACKOFF_SHIFT));
+      failedFlushes++;
+      return 0;
+    }
+
+    failedFlushes = 0;
+    retryAt = 0;
+    flushes.incrementAndGet();
+    written.addAndGet(batch.size());
+    return batch.size();
+  }
+
+  /**
+   * Stops the scheduled flushes and writes the extended expirations which are not written yet.
+   */
+  @Override
+  public void close() {
+    scheduledFlush.cancel(false);
+    if (ownsExecutor) {
+      executor.shutdown();
+    }
+    flush();
+  }
+
+  public Stats stats() {
+    return new Stats(lookups.get(), extensions.get(), coalesced.get(), flushes.get(), written.get(), pending.size());
+  }
+
+  /**
+   * Keeps the extended expiration of the token until it's written.
+   *
+   * @return true if the token was already waiting to be written
+   */
+  private boolean extend(String token, long expiresAt) {
+    boolean waiting = keep(token, expiresAt);
+    if (!waiting && pending.size() >= maxPending) {
+      flushLater();
+    }
+    return waiting;
+  }
+
+  /**
+   * Keeps the expiration of the token without scheduling a flush.
+   *
+   * @return true if the token was already waiting to be written
+   */
+  private boolean keep(String token, long expiresAt) {
+    while (true) {
+      Long previous = pending.putIfAbsent(token, expiresAt);
+      if (previous == null) {
+        return false;
+      }
+      // a later expiration of a concurrent lookup is not replaced
+      if (previous >= expiresAt || pending.replace(token, previous, expiresAt)) {
+        return true;
+      }
+    }
+  }
+
+  private void flushLater() {
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          flushIfDue();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // tokens are closed, so the extensions are written only by an explicit flush
+    }
+  }
+
+  /**
+   * Stats is a snapshot of the usage of the tokens.
+   */
+  public static final class Stats {
+    /**
+     * Number of lookups of tokens that were found.
+     */
+    public final long lookups;
+    /**
+     * Number of lookups that extended the expiration of their token, each of which is a write of a store that is
+     * writing on every extension.
+     */
+    public final long extensions;
+    /**
+     * Number of extensions of tokens that were already waiting to be written.
+     */
+    public final long coalesced;
+    /**
+     * Number of the batches that were written.
+     */
+    public final long flushes;
+    /**
+     * Number of the tokens that were written.
+     */
+    public final long written;
+    /**
+     * Number of the tokens that are waiting to be written.
+     */
+    public final long pending;
+
+    Stats(long lookups, long extensions, long coalesced, long flushes, long written, long pending) {
+      this.lookups = lookups;
+      this.extensions = extensions;
+      this.coalesced = coalesced;
+      this.flushes = flushes;
+      this.written = written;
+      this.pending = pending;
+    }
+
+    /**
+     * Ratio of the written tokens to the lookups or 0 if there were no lookups. A store that is extending the
+     * expiration on each lookup has ratio of 1.
+     */
+    public double writesPerLookup() {
+      return lookups == 0 ? 0 : (double) written / lookups;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+              .add("lookups", lookups)
+              .add("extensions", extensions)
+              .add("coalesced", coalesced)
+              .add("flushes", flushes)
+              .add("written", written)
+              .add("pending", pending)
+              .add("writesPerLookup", writesPerLookup())
+              .toString();
+    }
+  }
+}
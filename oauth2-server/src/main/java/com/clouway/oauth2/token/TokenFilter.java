@@ -0,0 +1,410 @@
+package com.clouway.oauth2.token;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * TokenFilter is a cuckoo filter of the live tokens, so tokens which were never issued or are no longer live are
+ * rejected without a lookup in the store. Tokens that are contained are always found, but a token which is not
+ * contained is found with a small probability, which is reported by {@link Stats#expectedFalsePositiveRate}.
+ * <p/>
+ * Each token is kept as a 16 bit fingerprint in one of two buckets of 4 fingerprints, which are selected by the
+ * SipHash of the token with a random key, so tokens that are colliding with the live ones could not be made up. When
+ * a filter is full a new filter with double capacity is added, and filters that became empty are dropped, so the
+ * filter is growing and shrinking with the live tokens. Tokens which are matching a fingerprint that is already in the
+ * filter are added in the same filter, so removals are never taking the fingerprint of another live token.
+ * <p/>
+ * Only tokens which were added could be removed, as removing of another token could remove the fingerprint of a
+ * live one. Lookups are not taking locks unless they are concurrent with a change.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public final class TokenFilter {
+
+  /**
+   * Creates a filter for the provided number of tokens. It's growing when more tokens are added.
+   */
+  public static TokenFilter newTokenFilter(long expectedTokens) {
+    return new TokenFilter(expectedTokens);
+  }
+
+  private static final int BUCKET_SIZE = 4;
+  private static final int MAX_KICKS = 500;
+  private static final int MIN_BUCKETS = 1 << 10;
+  private static final double MAX_LOAD = 0.95;
+
+  /**
+   * Segment is a cuckoo filter of fixed capacity.
+   */
+  private static final class Segment {
+    private final short[] fingerprints;
+    private final int mask;
+    private int size = 0;
+    private boolean full = false;
+    // fingerprints which were left without a place, they are kept aside until a place is freed
+    private short[] overflow = new short[1];
+    private int[] overflowBuckets = new int[1];
+    private int overflowSize = 0;
+
+    Segment(int buckets) {
+      this.fingerprints = new short[buckets * BUCKET_SIZE];
+      this.mask = buckets - 1;
+    }
+
+    boolean contains(short fingerprint, int first) {
+      int second = alternate(first, fingerprint);
+      return has(first, fingerprint) || has(second, fingerprint) || overflowIndex(fingerprint, first, second) >= 0;
+    }
+
+    /**
+     * Inserts the fingerprint. Fingerprints that are forced are inserted even when the segment is full.
+     */
+    boolean insert(short fingerprint, int first, long random, boolean force) {
+      if (full && !force) {
+        return false;
+      }
+      int second = alternate(first, fingerprint);
+      if (put(first, fingerprint) || put(second, fingerprint)) {
+        size++;
+        return true;
+      }
+      if (full) {
+        addOverflow(fingerprint, first);
+        size++;
+        return true;
+      }
+
+      int bucket = (random & 1) == 0 ? first : second;
+      short current = fingerprint;
+      for (int kick = 0; kick < MAX_KICKS; kick++) {
+        int slot = bucket * BUCKET_SIZE + (int) ((random >>> (kick % 31)) & (BUCKET_SIZE - 1));
+        short evicted = fingerprints[slot];
+        fingerprints[slot] = current;
+        current = evicted;
+        bucket = alternate(bucket, current);
+        if (put(bucket, current)) {
+          size++;
+          return true;
+        }
+      }
+
+      // the segment is full, so the last evicted fingerprint is kept aside
+      addOverflow(current, bucket);
+      size++;
+      full = true;
+      return true;
+    }
+
+    boolean delete(short fingerprint, int first) {
+      int second = alternate(first, fingerprint);
+      int index = overflowIndex(fingerprint, first, second);
+      if (index >= 0) {
+        removeOverflow(index);
+      } else if (!remove(first, fingerprint) && !remove(second, fingerprint)) {
+        return false;
+      }
+      size--;
+
+      for (int i = overflowSize - 1; i >= 0; i--) {
+        if (put(overflowBuckets[i], overflow[i]) || put(alternate(overflowBuckets[i], overflow[i]), overflow[i])) {
+          removeOverflow(i);
+        }
+      }
+      if (overflowSize == 0 && size < capacity() * MAX_LOAD) {
+        full = false;
+      }
+      return true;
+    }
+
+    int index(long hash) {
+      return (int) hash & mask;
+    }
+
+    long capacity() {
+      return fingerprints.length;
+    }
+
+    private int alternate(int bucket, short fingerprint) {
+      // multiplying by an odd constant is spreading the fingerprint over all buckets
+      return (bucket ^ (fingerprint * 0x5bd1e995)) & mask;
+    }
+
+    private int overflowIndex(short fingerprint, int first, int second) {
+      // optimistic lookups could see the size and the arrays of different changes, so they are read once and the size
+      // is bounded by both arrays, as such lookups are validated only after they are made
+      short[] overflow = this.overflow;
+      int[] overflowBuckets = this.overflowBuckets;
+      int size = Math.min(overflowSize, Math.min(overflow.length, overflowBuckets.length));
+      for (int i = 0; i < size; i++) {
+        if (overflow[i] == fingerprint && (overflowBuckets[i] == first || overflowBuckets[i] == second)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    private void addOverflow(short fingerprint, int bucket) {
+      if (overflowSize == overflow.length) {
+        overflow = Arrays.copyOf(overflow, overflowSize * 2);
+        overflowBuckets = Arrays.copyOf(overflowBuckets, overflowSize * 2);
+      }
+      overflow[overflowSize] = fingerprint;
+      overflowBuckets[overflowSize] = bucket;
+      overflowSize++;
+    }
+
+    private void removeOverflow(int index) {
+      overflowSize--;
+      overflow[index] = overflow[overflowSize];
+      overflowBuckets[index] = overflowBuckets[overflowSize];
+    }
+
+    private boolean has(int bucket, short fingerprint) {
+      int start = bucket * BUCKET_SIZE;
+      for (int i = start; i < start + BUCKET_SIZE; i++) {
+        if (fingerprints[i] == fingerprint) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private boolean put(int bucket, short fingerprint) {
+      int start = bucket * BUCKET_SIZE;
+      for (int i = start; i < start + BUCKET_SIZE; i++) {
+        if (fingerprints[i] == 0) {
+          fingerprints[i] = fingerprint;
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private boolean remove(int bucket, short fingerprint) {
+      int start = bucket * BUCKET_SIZE;
+      for (int i = start; i < start + BUCKET_SIZE; i++) {
+        if (fingerprints[i] == fingerprint) {
+          fingerprints[i] = 0;
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private final HashFunction hashFunction;
+  private final int initialBuckets;
+  private final StampedLock lock = new StampedLock();
+  private volatile Segment[] segments;
+  private long size = 0;
+
+  private TokenFilter(long expectedTokens) {
+    SecureRandom random = new SecureRandom();
+    this.hashFunction = Hashing.sipHash24(random.nextLong(), random.nextLong());
+    this.initialBuckets = bucketsFor(expectedTokens);
+    this.segments = new Segment[]{new Segment(initialBuckets)};
+  }
+
+  /**
+   * Adds a live token.
+   */
+  public void add(String token) {
+    long hash = hash(token);
+    short fingerprint = fingerprintOf(hash);
+
+    long stamp = lock.writeLock();
+    try {
+      size++;
+      Segment[] current = segments;
+      // tokens matching a fingerprint are inserted next to it, so no token is matching a segment that is newer than the
+      // one holding it's fingerprint and removal from the newest matching segment is not taking another's fingerprint
+      for (int i = current.length - 1; i >= 0; i--) {
+        Segment segment = current[i];
+        if (segment.contains(fingerprint, segment.index(hash))) {
+          segment.insert(fingerprint, segment.index(hash), hash, true);
+          return;
+        }
+      }
+
+      for (Segment each : current) {
+        if (each.insert(fingerprint, each.index(hash), hash, false)) {
+          return;
+        }
+      }
+
+      Segment last = current[current.length - 1];
+      Segment grown = new Segment(Math.max(initialBuckets, (int) Math.min(1 << 29, last.capacity() / BUCKET_SIZE * 2)));
+      grown.insert(fingerprint, grown.index(hash), hash, false);
+      Segment[] updated = Arrays.copyOf(current, current.length + 1);
+      updated[current.length] = grown;
+      segments = updated;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Removes a token which was added before.
+   */
+  public void remove(String token) {
+    long hash = hash(token);
+    short fingerprint = fingerprintOf(hash);
+
+    long stamp = lock.writeLock();
+    try {
+      Segment[] current = segments;
+      // tokens are added in the newest segment that is matching them, so it's the one which is holding their fingerprint
+      for (int i = current.length - 1; i >= 0; i--) {
+        Segment segment = current[i];
+        if (segment.delete(fingerprint, segment.index(hash))) {
+          size--;
+          if (size == 0) {
+            segments = new Segment[]{new Segment(initialBuckets)};
+          } else if (segment.size == 0 && current.length > 1) {
+            segments = without(current, i);
+          }
+          return;
+        }
+      }
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Checks whether the provided token could be live.
+   *
+   * @return false if token is not live and true if it's probably live
+   */
+  public boolean mightContain(String token) {
+    long hash = hash(token);
+    short fingerprint = fingerprintOf(hash);
+
+    long stamp = lock.tryOptimisticRead();
+    if (stamp != 0) {
+      boolean contains = contains(segments, fingerprint, hash);
+      if (lock.validate(stamp)) {
+        return contains;
+      }
+    }
+
+    stamp = lock.readLock();
+    try {
+      return contains(segments, fingerprint, hash);
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Removes all tokens.
+   */
+  public void clear() {
+    long stamp = lock.writeLock();
+    try {
+      segments = new Segment[]{new Segment(initialBuckets)};
+      size = 0;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  public Stats stats() {
+    long stamp = lock.readLock();
+    try {
+      long capacity = 0;
+      double falsePositiveRate = 0;
+      for (Segment each : segments) {
+        capacity += each.capacity();
+        // a lookup is comparing its fingerprint with the fingerprints of two buckets of each segment
+        double load = (double) each.size / each.capacity();
+        falsePositiveRate += 1 - Math.pow(1 - 1.0 / 65535, 2 * BUCKET_SIZE * load);
+      }
+      return new Stats(size, capacity, capacity * 2, segments.length, Math.min(1, falsePositiveRate));
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  private long hash(String token) {
+    return hashFunction.hashString(token, StandardCharsets.UTF_8).asLong();
+  }
+
+  private static boolean contains(Segment[] segments, short fingerprint, long hash) {
+    for (Segment each : segments) {
+      if (each.contains(fingerprint, each.index(hash))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static short fingerprintOf(long hash) {
+    short fingerprint = (short) (hash >>> 48);
+    // zero is marking the empty slots
+    return fingerprint == 0 ? 1 : fingerprint;
+  }
+
+  private static Segment[] without(Segment[] segments, int index) {
+    Segment[] updated = new Segment[segments.length - 1];
+    System.arraycopy(segments, 0, updated, 0, index);
+    System.arraycopy(segments, index + 1, updated, index, segments.length - index - 1);
+    return updated;
+  }
+
+  private static int bucketsFor(long expectedTokens) {
+    long buckets = (long) Math.ceil(expectedTokens / (BUCKET_SIZE * MAX_LOAD));
+    return (int) Math.max(MIN_BUCKETS, Math.min(1 << 29, Long.highestOneBit(Math.max(1, buckets - 1)) << 1));
+  }
+
+  /**
+   * Stats is a snapshot of the usage of the filter.
+   */
+  public static final class Stats {
+    /**
+     * Number of the contained tokens.
+     */
+    public final long size;
+    /**
+     * Number of fingerprints that could be kept without growing.
+     */
+    public final long capacity;
+    /**
+     * Memory of the fingerprints in bytes.
+     */
+    public final long memoryBytes;
+    /**
+     * Number of the filters of different capacities.
+     */
+    public final int segments;
+    /**
+     * Expected ratio of the tokens that are not live, but are not rejected by the filter.
+     */
+    public final double expectedFalsePositiveRate;
+
+    Stats(long size, long capacity, long memoryBytes, int segments, double expectedFalsePositiveRate) {
+      this.size = size;
+      this.capacity = capacity;
+      this.memoryBytes = memoryBytes;
+      this.segments = segments;
+      this.expectedFalsePositiveRate = expectedFalsePositiveRate;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+              .add("size", size)
+              .add("capacity", capacity)
+              .add("memoryBytes", memoryBytes)
+              .add("segments", segments)
+              .add("expectedFalsePositiveRate", expectedFalsePositiveRate)
+              .toString();
+    }
+  }
+}
@@ -3,6 +3,12 @@ package com.clouway.oauth2.token;
 import com.clouway.oauth2.common.DateTime;
 import com.google.common.base.Optional;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Tokens is responsible for issuing and retriving of issued tokens.
  *
@@ -18,6 +24,19 @@ public interface Tokens {
    */
   Optional<BearerToken> findTokenAvailableAt(String token, DateTime when);
 
+  /**
+   * Checks whether the provided access token is available at the provided time without using it, so decorators which
+   * are changing the tokens on lookup, e.g. {@link SlidingTokens}, are not changing it. By default the token is looked
+   * up with {@link #findTokenAvailableAt(String, DateTime)}.
+   *
+   * @param token the token which is checked
+   * @param when  the time at which token should be available
+   * @return true if the token is available and false otherwise
+   */
+  default boolean isTokenAvailableAt(String token, DateTime when) {
+    return findTokenAvailableAt(token, when).isPresent();
+  }
+
   /**
    * Refreshes token using the access token.
    *
@@ -48,5 +67,122 @@ public interface Tokens {
    */
   void revokeToken(String token);
 
+  /**
+   * Revokes token from repository at the provided time. Stores which are keeping the time of the revocations should
+   * override it, as by default the token is revoked with {@link #revokeToken(String)}.
+   *
+   * @param token the token which to be revoked
+   * @param when  the time of the request
+   */
+  default void revokeToken(String token, DateTime when) {
+    revokeToken(token);
+  }
+
+  /**
+   * Extends the expiration of the provided access tokens, so tokens which are in use are not expiring. It's called by
+   * {@link SlidingTokens} with the tokens that were looked up since its last call, so a single write is made for many
+   * lookups. Tokens which are not known or are already expiring later are not changed.
+   * <p/>
+   * Stores which are not supporting sliding expiration are keeping the expiration of issuing.
+   *
+   * @param expirations the new expiration time of each access token
+   */
+  default void extendExpirations(Map<String, DateTime> expirations) {
+  }
+
+  /**
+   * Finds the tokens which are not expired till the provided time. Stores which could look up many tokens with a
+   * single request should override it, as by default each token is looked up with
+   * {@link #findTokenAvailableAt(String, DateTime)}.
+   *
+   * @param tokens the tokens for which is looked
+   * @param when   the time at which tokens should be available
+   * @return the available tokens by their value. Tokens which are not available are not contained.
+   */
+  default Map<String, BearerToken> findTokensAvailableAt(Collection<String> tokens, DateTime when) {
+    Map<String, BearerToken> found = new LinkedHashMap<String, BearerToken>();
+    for (String token : tokens) {
+      Optional<BearerToken> possibleToken = findTokenAvailableAt(token, when);
+      if (possibleToken.isPresent()) {
+        found.put(token, possibleToken.get());
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Issues a token for each of the provided requests. Stores which could write many tokens with a single request
+   * should override it, as by default each token is issued with {@link #issueToken(TokenRequest)}.
+   *
+   * @param tokenRequests the requests of the tokens
+   * @return the responses in the order of the requests
+   */
+  default List<TokenResponse> issueTokens(List<TokenRequest> tokenRequests) {
+    List<TokenResponse> responses = new ArrayList<TokenResponse>(tokenRequests.size());
+    for (TokenRequest each : tokenRequests) {
+      responses.add(issueToken(each));
+    }
+    return responses;
+  }
+
+  /**
+   * Revokes the provided tokens. Stores which could remove many tokens with a single request should override it, as
+   * by default each token is revoked with {@link #revokeToken(String)}.
+   *
+   * @param tokens the tokens which to be revoked
+   */
+  default void revokeTokens(Collection<String> tokens) {
+    for (String each : tokens) {
+      revokeToken(each);
+    }
+  }
+
+  /**
+   * Revokes all grants of the provided identity, e.g. when the identity is disabled, so all of its access and refresh
+   * tokens are no longer valid. Stores which are not indexing the tokens by identity are not supporting it.
+   *
+   * @param identityId the id of the identity
+   * @return the number of the revoked grants
+   * @throws UnsupportedOperationException if the store is not indexing the tokens by identity
+   */
+  default int revokeAllForIdentity(String identityId) {
+    throw new UnsupportedOperationException("Tokens of identity cannot be revoked by " + getClass().getName() + ".");
+  }
+
+  /**
+   * Revokes all grants of the provided identity at the provided time. Stores which are keeping the time of the
+   * revocations should override it, as by default grants are revoked with {@link #revokeAllForIdentity(String)}.
+   *
+   * @param identityId the id of the identity
+   * @param when       the time of the request
+   * @return the number of the revoked grants
+   */
+  default int revokeAllForIdentity(String identityId, DateTime when) {
+    return revokeAllForIdentity(identityId);
+  }
+
+  /**
+   * Revokes all grants of the provided client, e.g. when the client is compromised, so all of its access and refresh
+   * tokens are no longer valid. Stores which are not indexing the tokens by client are not supporting it.
+   *
+   * @param clientId the id of the client
+   * @return the number of the revoked grants
+   * @throws UnsupportedOperationException if the store is not indexing the tokens by client
+   */
+  default int revokeAllForClient(String clientId) {
+    throw new UnsupportedOperationException("Tokens of client cannot be revoked by " + getClass().getName() + ".");
+  }
+
+  /**
+   * Revokes all grants of the provided client at the provided time. Stores which are keeping the time of the
+   * revocations should override it, as by default grants are revoked with {@link #revokeAllForClient(String)}.
+   *
+   * @param clientId the id of the client
+   * @param when     the time of the request
+   * @return the number of the revoked grants
+   */
+  default int revokeAllForClient(String clientId, DateTime when) {
+    return revokeAllForClient(clientId);
+  }
 
 }
\ No newline at end of file
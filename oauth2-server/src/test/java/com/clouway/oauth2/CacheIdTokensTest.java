@@ -0,0 +1,93 @@
+package com.clouway.oauth2;
+
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.common.Duration;
+import com.clouway.oauth2.token.BearerToken;
+import com.google.common.base.Optional;
+import org.junit.Test;
+
+import static com.clouway.oauth2.token.BearerTokenBuilder.aNewToken;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class CacheIdTokensTest {
+
+  private final DateTime instant = new DateTime(1461235348000L);
+  private final BearerToken token = aNewToken().withValue("::access token::").forClient("::client::")
+          .expiresAt(instant.plusSeconds(3600)).build();
+
+  private final IdTokenCache cache = IdTokenCache.newIdTokenCache().maxAge(Duration.minutes(10)).build();
+
+  @Test
+  public void cachedIdTokenIsReturned() {
+    cache.put(token, "::host::", "::id_token::", instant);
+
+    assertThat(cache.get(token, "::host::", instant.plusSeconds(60)), is(equalTo(Optional.of("::id_token::"))));
+    assertThat(cache.stats().hits, is(1L));
+  }
+
+  @Test
+  public void idTokenIsNotCached() {
+    assertThat(cache.get(token, "::host::", instant), is(equalTo(Optional.<String>absent())));
+    assertThat(cache.stats().misses, is(1L));
+  }
+
+  @Test
+  public void idTokenIsNotReturnedAfterAccessTokenExpires() {
+    BearerToken shortLivedToken = aNewToken().withValue("::access token::").forClient("::client::")
+            .expiresAt(instant.plusSeconds(30)).build();
+
+    cache.put(shortLivedToken, "::host::", "::id_token::", instant);
+
+    assertThat(cache.get(shortLivedToken, "::host::", instant.plusSeconds(30)).isPresent(), is(false));
+    assertThat(cache.stats().size, is(0L));
+  }
+
+  @Test
+  public void idTokenIsNotReturnedAfterMaxAge() {
+    cache.put(token, "::host::", "::id_token::", instant);
+
+    assertThat(cache.get(token, "::host::", instant.plusSeconds(600)).isPresent(), is(false));
+  }
+
+  @Test
+  public void idTokenIsIssuedForTheRequestedHost() {
+    cache.put(token, "::host::", "::id_token::", instant);
+
+    assertThat(cache.get(token, "::other host::", instant).isPresent(), is(false));
+  }
+
+  @Test
+  public void idTokenOfRevokedTokenIsRemoved() {
+    cache.put(token, "::host::", "::id_token::", instant);
+
+    cache.invalidate("::access token::");
+
+    assertThat(cache.get(token, "::host::", instant).isPresent(), is(false));
+  }
+
+  @Test
+  public void idTokensAreKeptPerAccessToken() {
+    BearerToken otherToken = aNewToken().withValue("::other access token::").forClient("::client::")
+            .expiresAt(instant.plusSeconds(3600)).build();
+
+    cache.put(token, "::host::", "::id_token::", instant);
+    cache.put(otherToken, "::host::", "::other id_token::", instant);
+
+    assertThat(cache.get(token, "::host::", instant).get(), is(equalTo("::id_token::")));
+    assertThat(cache.get(otherToken, "::host::", instant).get(), is(equalTo("::other id_token::")));
+  }
+
+  @Test
+  public void disabledCacheIsNotKeepingIdTokens() {
+    IdTokenCache cache = IdTokenCache.disabled();
+
+    cache.put(token, "::host::", "::id_token::", instant);
+
+    assertThat(cache.get(token, "::host::", instant).isPresent(), is(false));
+  }
+}
@@ -0,0 +1,152 @@
+package com.clouway.oauth2;
+
+import com.clouway.oauth2.jwt.CompactJwt;
+import com.clouway.oauth2.jwt.CompactJwtParser;
+import com.clouway.oauth2.token.TokenResponse;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.BaseEncoding;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.clouway.oauth2.token.BearerTokenBuilder.aNewToken;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class CollapseIdenticalJwtRequestsTest {
+
+  private final JwtIssueCache cache = JwtIssueCache.newIssueCache().build();
+  private final CompactJwt jwt = jwt("{\"iss\":\"::iss::\",\"exp\":1461238948}");
+
+  @Test
+  public void firstRequestIsTheLeader() {
+    assertTrue(cache.acquire(jwt, "::host::", ImmutableSet.of("::scope::"), Collections.<String, String>emptyMap()).isLeader());
+    assertFalse(cache.acquire(jwt, "::host::", ImmutableSet.of("::scope::"), Collections.<String, String>emptyMap()).isLeader());
+  }
+
+  @Test
+  public void followersAreGettingTheIssuedToken() {
+    TokenResponse response = new TokenResponse(true, aNewToken().withValue("::token::").build(), "::refresh_token::");
+
+    JwtIssueCache.Ticket leader = cache.acquire(jwt, "::host::", ImmutableSet.of("::scope::"), Collections.<String, String>emptyMap());
+    leader.complete(response, Optional.of("::id_token::"));
+    leader.release();
+
+    JwtIssueCache.Issued issued = cache.acquire(jwt, "::host::", ImmutableSet.of("::scope::"), Collections.<String, String>emptyMap()).await().get();
+
+    assertThat(issued.response, is(sameInstance(response)));
+    assertThat(issued.idToken, is(equalTo(Optional.of("::id_token::"))));
+    assertThat(cache.stats().hits, is(1L));
+    assertThat(cache.stats().misses, is(1L));
+  }
+
+  @Test
+  public void reEncodedAssertionIsIdentical() {
+    String claims = encode("{\"iss\":\"::iss::\",\"exp\":1461238948}");
+    CompactJwt padded = new CompactJwtParser().parse(encode("{\"alg\":\"RS256\"}") + "." + claims + "." + encode("::signature::") + "==").get();
+
+    cache.acquire(jwt, "::host::", ImmutableSet.of("::scope::"), Collections.<String, String>emptyMap());
+
+    assertFalse(cache.acquire(padded, "::host::", ImmutableSet.of("::scope::"), Collections.<String, String>emptyMap()).isLeader());
+  }
+
+  @Test
+  public void requestsForDifferentHostsScopesOrParamsAreNotIdentical() {
+    cache.acquire(jwt, "::host::", ImmutableSet.of("::scope1::"), Collections.<String, String>emptyMap());
+
+    assertTrue(cache.acquire(jwt, "::another-host::", ImmutableSet.of("::scope1::"), Collections.<String, String>emptyMap()).isLeader());
+
+    assertTrue(cache.acquire(jwt, "::host::", ImmutableSet.of("::scope2::"), Collections.<String, String>emptyMap()).isLeader());
+    assertTrue(cache.acquire(jwt, "::host::", ImmutableSet.of("::scope1::"), ImmutableMap.of("::param::", "::value::")).isLeader());
+    assertTrue(cache.acquire(jwt("{\"iss\":\"::iss::\",\"exp\":1461238949}"), "::host::", ImmutableSet.of("::scope1::"), Collections.<String, String>emptyMap()).isLeader());
+  }
+
+  @Test
+  public void followersAreReleasedWhenLeaderFails() {
+    JwtIssueCache.Ticket leader = cache.acquire(jwt, "::host::", ImmutableSet.of("::scope::"), Collections.<String, String>emptyMap());
+    JwtIssueCache.Ticket follower = cache.acquire(jwt, "::host::", ImmutableSet.of("::scope::"), Collections.<String, String>emptyMap());
+
+    leader.release();
+
+    assertFalse(follower.await().isPresent());
+    assertThat(cache.stats().fallbacks, is(1L));
+    assertTrue(cache.acquire(jwt, "::host::", ImmutableSet.of("::scope::"), Collections.<String, String>emptyMap()).isLeader());
+  }
+
+  @Test
+  public void disabledCache() {
+    JwtIssueCache cache = JwtIssueCache.disabled();
+
+    JwtIssueCache.Ticket ticket = cache.acquire(jwt, "::host::", ImmutableSet.of("::scope::"), Collections.<String, String>emptyMap());
+    ticket.complete(new TokenResponse(true, aNewToken().build(), ""), Optional.<String>absent());
+    ticket.release();
+
+    assertTrue(ticket.isLeader());
+    assertTrue(cache.acquire(jwt, "::host::", ImmutableSet.of("::scope::"), Collections.<String, String>emptyMap()).isLeader());
+  }
+
+  @Test
+  public void concurrentIdenticalRequestsAreIssuedOnce() throws Exception {
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicInteger issued = new AtomicInteger();
+    final List<TokenResponse> responses = new CopyOnWriteArrayList<>();
+
+    ExecutorService executor = Executors.newFixedThreadPool(32);
+    for (int i = 0; i < 32; i++) {
+      executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          start.await();
+          JwtIssueCache.Ticket ticket = cache.acquire(jwt, "::host::", ImmutableSet.of("::scope::"), Collections.<String, String>emptyMap());
+          if (ticket.isLeader()) {
+            issued.incrementAndGet();
+            // keep the followers waiting for a while
+            Thread.sleep(50);
+            TokenResponse response = new TokenResponse(true, aNewToken().withValue("::token::").build(), "");
+            ticket.complete(response, Optional.<String>absent());
+            ticket.release();
+            responses.add(response);
+          } else {
+            responses.add(ticket.await().get().response);
+          }
+          return null;
+        }
+      });
+    }
+    start.countDown();
+    executor.shutdown();
+    executor.awaitTermination(10, TimeUnit.SECONDS);
+
+    assertThat(issued.get(), is(1));
+    assertThat(responses.size(), is(32));
+    for (TokenResponse each : responses) {
+      assertThat(each, is(sameInstance(responses.get(0))));
+    }
+  }
+
+  private CompactJwt jwt(String claims) {
+    return new CompactJwtParser().parse(encode("{\"alg\":\"RS256\"}") + "." + encode(claims) + "." + encode("::signature::")).get();
+  }
+
+  private String encode(String value) {
+    return BaseEncoding.base64Url().omitPadding().encode(value.getBytes(StandardCharsets.UTF_8));
+  }
+}
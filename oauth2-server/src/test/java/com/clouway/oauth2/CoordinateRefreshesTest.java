@@ -0,0 +1,235 @@
+package com.clouway.oauth2;
+
+import com.clouway.oauth2.client.Client;
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.common.Duration;
+import com.clouway.oauth2.storage.MemoryTokens;
+import com.clouway.oauth2.token.BearerToken;
+import com.clouway.oauth2.token.GrantType;
+import com.clouway.oauth2.token.Identity;
+import com.clouway.oauth2.token.SlidingTokens;
+import com.clouway.oauth2.token.TokenRequest;
+import com.clouway.oauth2.token.TokenResponse;
+import com.clouway.oauth2.token.Tokens;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class CoordinateRefreshesTest {
+
+  private final Client client = new Client("::client1::", "::secret::", "", Collections.<String>emptySet(), false);
+  private final Identity identity = new Identity("::identity::", "::name::", "", "", "::email::", "", Collections.<String, Object>emptyMap());
+  private final DateTime anyInstant = new DateTime(1500000000000L);
+
+  @Test
+  public void concurrentRefreshesAreCollapsedInSingleRefresh() throws Exception {
+    final CountingTokens tokens = new CountingTokens(true);
+    final RefreshCoordinator coordinator = RefreshCoordinator.newRefreshCoordinator().build();
+    final String refreshToken = tokens.issueToken(tokenRequest()).refreshToken;
+    tokens.blocked = new CountDownLatch(1);
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<TokenResponse>> responses = new ArrayList<Future<TokenResponse>>();
+    for (int i = 0; i < 8; i++) {
+      responses.add(executor.submit(new Callable<TokenResponse>() {
+        @Override
+        public TokenResponse call() {
+          return coordinator.refresh(tokens, refreshToken, anyInstant.plusSeconds(10));
+        }
+      }));
+    }
+    // lets all refreshes to reach the coordinator before the leader is completed
+    Thread.sleep(200);
+    tokens.blocked.countDown();
+
+    String accessToken = responses.get(0).get(10, TimeUnit.SECONDS).accessToken.value;
+    for (Future<TokenResponse> each : responses) {
+      TokenResponse response = each.get(10, TimeUnit.SECONDS);
+      assertThat(response.isSuccessful(), is(true));
+      assertThat(response.accessToken.value, is(accessToken));
+    }
+    executor.shutdown();
+
+    assertThat(tokens.refreshes.get(), is(1));
+    assertThat(coordinator.stats().refreshes, is(1L));
+    assertThat(coordinator.stats().collapsed + coordinator.stats().graceHits, is(7L));
+  }
+
+  @Test
+  public void rotatedRefreshTokenIsAnsweredInGraceWindow() {
+    CountingTokens tokens = new CountingTokens(true);
+    RefreshCoordinator coordinator = RefreshCoordinator.newRefreshCoordinator().graceWindow(Duration.seconds(30L)).build();
+    String refreshToken = tokens.issueToken(tokenRequest()).refreshToken;
+
+    TokenResponse first = coordinator.refresh(tokens, refreshToken, anyInstant.plusSeconds(10));
+    TokenResponse second = coordinator.refresh(tokens, refreshToken, anyInstant.plusSeconds(11));
+
+    assertThat(first.refreshToken, is(not(refreshToken)));
+    assertThat(second.isSuccessful(), is(true));
+    assertThat(second.accessToken.value, is(first.accessToken.value));
+    assertThat(second.refreshToken, is(first.refreshToken));
+    assertThat(tokens.refreshes.get(), is(1));
+    assertThat(coordinator.stats().graceHits, is(1L));
+  }
+
+  @Test
+  public void rotatedRefreshTokenIsRejectedWithoutGraceWindow() {
+    CountingTokens tokens = new CountingTokens(true);
+    RefreshCoordinator coordinator = RefreshCoordinator.newRefreshCoordinator().graceWindow(Duration.seconds(0L)).build();
+    String refreshToken = tokens.issueToken(tokenRequest()).refreshToken;
+
+    coordinator.refresh(tokens, refreshToken, anyInstant.plusSeconds(10));
+
+    assertThat(coordinator.refresh(tokens, refreshToken, anyInstant.plusSeconds(11)).isSuccessful(), is(false));
+  }
+
+  @Test
+  public void refreshTokenThatIsNotRotatedIsRefreshedAgainAfterGraceWindow() {
+    CountingTokens tokens = new CountingTokens(false);
+    RefreshCoordinator coordinator = RefreshCoordinator.newRefreshCoordinator().graceWindow(Duration.seconds(0L)).build();
+    String refreshToken = tokens.issueToken(tokenRequest()).refreshToken;
+
+    TokenResponse first = coordinator.refresh(tokens, refreshToken, anyInstant.plusSeconds(10));
+    TokenResponse second = coordinator.refresh(tokens, refreshToken, anyInstant.plusSeconds(11));
+
+    assertThat(second.refreshToken, is(refreshToken));
+    assertThat(second.accessToken.value, is(not(first.accessToken.value)));
+    assertThat(tokens.refreshes.get(), is(2));
+  }
+
+  @Test
+  public void graceWindowIsMeasuredFromTheTimeOfTheRefresh() {
+    CountingTokens tokens = new CountingTokens(true);
+    RefreshCoordinator coordinator = RefreshCoordinator.newRefreshCoordinator().graceWindow(Duration.seconds(5L)).build();
+    String refreshToken = tokens.issueToken(tokenRequest()).refreshToken;
+
+    coordinator.refresh(tokens, refreshToken, anyInstant.plusSeconds(10));
+
+    assertThat(coordinator.refresh(tokens, refreshToken, anyInstant.plusSeconds(14)).isSuccessful(), is(true));
+    assertThat(coordinator.refresh(tokens, refreshToken, anyInstant.plusSeconds(15)).isSuccessful(), is(false));
+    assertThat(tokens.refreshes.get(), is(2));
+  }
+
+  @Test
+  public void tokenIsNotExtendedByTheCheckInGraceWindow() {
+    CountingTokens tokens = new CountingTokens(true);
+    SlidingTokens slidingTokens = SlidingTokens.newSlidingTokens(tokens).renewBelow(1.0).build();
+    RefreshCoordinator coordinator = RefreshCoordinator.newRefreshCoordinator().build();
+    String refreshToken = slidingTokens.issueToken(tokenRequest()).refreshToken;
+
+    try {
+      TokenResponse first = coordinator.refresh(slidingTokens, refreshToken, anyInstant.plusSeconds(10));
+      TokenResponse second = coordinator.refresh(slidingTokens, refreshToken, anyInstant.plusSeconds(11));
+
+      assertThat(second.accessToken.value, is(first.accessToken.value));
+      assertThat(slidingTokens.stats().lookups, is(0L));
+      assertThat(slidingTokens.stats().extensions, is(0L));
+    } finally {
+      slidingTokens.close();
+    }
+  }
+
+  @Test
+  public void revokedTokenIsNotReturnedInGraceWindow() {
+    CountingTokens tokens = new CountingTokens(true);
+    RefreshCoordinator coordinator = RefreshCoordinator.newRefreshCoordinator().build();
+    String refreshToken = tokens.issueToken(tokenRequest()).refreshToken;
+
+    TokenResponse response = coordinator.refresh(tokens, refreshToken, anyInstant.plusSeconds(10));
+    tokens.revokeToken(response.accessToken.value);
+
+    assertThat(coordinator.refresh(tokens, refreshToken, anyInstant.plusSeconds(11)).isSuccessful(), is(false));
+  }
+
+  @Test
+  public void failedRefreshIsNotKept() {
+    CountingTokens tokens = new CountingTokens(true);
+    RefreshCoordinator coordinator = RefreshCoordinator.newRefreshCoordinator().build();
+
+    assertThat(coordinator.refresh(tokens, "::unknown::", anyInstant).isSuccessful(), is(false));
+    assertThat(coordinator.refresh(tokens, "::unknown::", anyInstant).isSuccessful(), is(false));
+    assertThat(tokens.refreshes.get(), is(2));
+  }
+
+  @Test
+  public void disabledCoordinatorIsRefreshingEachToken() {
+    CountingTokens tokens = new CountingTokens(false);
+    RefreshCoordinator coordinator = RefreshCoordinator.disabled();
+    String refreshToken = tokens.issueToken(tokenRequest()).refreshToken;
+
+    coordinator.refresh(tokens, refreshToken, anyInstant.plusSeconds(10));
+    coordinator.refresh(tokens, refreshToken, anyInstant.plusSeconds(11));
+
+    assertThat(tokens.refreshes.get(), is(2));
+  }
+
+  private TokenRequest tokenRequest() {
+    return TokenRequest.newTokenRequest()
+            .grantType(GrantType.AUTHORIZATION_CODE)
+            .client(client)
+            .identity(identity)
+            .scopes(ImmutableSet.of("openid"))
+            .when(anyInstant)
+            .build();
+  }
+
+  /**
+   * CountingTokens is counting the refreshes of tokens and is blocking them while latch is set.
+   */
+  private static class CountingTokens implements Tokens {
+    private final Tokens tokens;
+    private final AtomicInteger refreshes = new AtomicInteger();
+    private volatile CountDownLatch blocked;
+
+    CountingTokens(boolean rotatesRefreshTokens) {
+      this.tokens = MemoryTokens.newMemoryTokens().generatesNewRefreshToken(rotatesRefreshTokens).build();
+    }
+
+    @Override
+    public Optional<BearerToken> findTokenAvailableAt(String token, DateTime when) {
+      return tokens.findTokenAvailableAt(token, when);
+    }
+
+    @Override
+    public TokenResponse refreshToken(String token, DateTime when) {
+      refreshes.incrementAndGet();
+      CountDownLatch latch = blocked;
+      if (latch != null) {
+        try {
+          latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return tokens.refreshToken(token, when);
+    }
+
+    @Override
+    public TokenResponse issueToken(TokenRequest tokenRequest) {
+      return tokens.issueToken(tokenRequest);
+    }
+
+    @Override
+    public void revokeToken(String token) {
+      tokens.revokeToken(token);
+    }
+  }
+}
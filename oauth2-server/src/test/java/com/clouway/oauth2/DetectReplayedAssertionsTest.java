@@ -0,0 +1,190 @@
+package com.clouway.oauth2;
+
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.jwt.CompactJwt;
+import com.clouway.oauth2.jwt.CompactJwtParser;
+import com.google.common.io.BaseEncoding;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class DetectReplayedAssertionsTest {
+
+  private final DateTime now = new DateTime(1461235348000L);
+
+  private final JwtReplayCache cache = JwtReplayCache.newReplayCache().build();
+  private final CompactJwtParser parser = new CompactJwtParser();
+
+  @Test
+  public void assertionIsRegisteredOnce() {
+    CompactJwt jwt = jwt("{\"iss\":\"::iss::\",\"jti\":\"::jti::\",\"exp\":1461238948}", "::signature::");
+
+    assertFalse(cache.lookup(jwt, now).isRepeated());
+    assertTrue(cache.register(jwt, now).isPresent());
+    assertTrue(cache.lookup(jwt, now).isRepeated());
+    assertFalse(cache.register(jwt, now).isPresent());
+  }
+
+  @Test
+  public void sameJtiWithDifferentContentIsNotRepeatedButCannotBeRegistered() {
+    CompactJwt jwt = jwt("{\"iss\":\"::iss::\",\"jti\":\"::jti::\",\"exp\":1461238948}", "::signature::");
+    CompactJwt anotherJwt = jwt("{\"iss\":\"::iss::\",\"jti\":\"::jti::\",\"exp\":1461238949}", "::signature::");
+
+    cache.register(jwt, now);
+
+    assertFalse(cache.lookup(anotherJwt, now).isRepeated());
+    assertFalse(cache.register(anotherJwt, now).isPresent());
+  }
+
+  @Test
+  public void sameJtiOfAnotherIssuer() {
+    cache.register(jwt("{\"iss\":\"::iss1::\",\"jti\":\"::jti::\",\"exp\":1461238948}", "::signature::"), now);
+
+    assertTrue(cache.register(jwt("{\"iss\":\"::iss2::\",\"jti\":\"::jti::\",\"exp\":1461238948}", "::signature::"), now).isPresent());
+  }
+
+  @Test
+  public void assertionWithExpirationOutOfRangeIsKept() {
+    CompactJwt jwt = jwt("{\"iss\":\"::iss::\",\"jti\":\"::jti::\",\"exp\":" + Long.MAX_VALUE / 10 + "}", "::signature::");
+
+    assertTrue(cache.register(jwt, now).isPresent());
+    assertTrue(cache.lookup(jwt, now.plusSeconds(3600)).isRepeated());
+    assertFalse(cache.register(jwt, now.plusSeconds(3600)).isPresent());
+  }
+
+  @Test
+  public void assertionsWithoutJtiAreIdentifiedByDigest() {
+    CompactJwt jwt = jwt("{\"iss\":\"::iss::\",\"exp\":1461238948}", "::signature1::");
+
+    cache.register(jwt, now);
+
+    assertTrue(cache.lookup(jwt, now).isRepeated());
+    assertTrue(cache.register(jwt("{\"iss\":\"::iss::\",\"exp\":1461238948}", "::signature2::"), now).isPresent());
+  }
+
+  @Test
+  public void reEncodedAssertionIsRepeated() {
+    String header = "{\"alg\":\"RS256\"}";
+    String claims = "{\"iss\":\"::iss::\",\"exp\":1461238948}";
+    String token = encode(header) + "." + encode(claims) + "." + encode("::signature::");
+
+    cache.register(parser.parse(token).get(), now);
+
+    for (String reEncoded : Arrays.asList(
+            token + "==",
+            withTrailingBitSet(token),
+            padded(header) + "." + padded(claims) + "." + padded("::signature::"))) {
+      CompactJwt jwt = parser.parse(reEncoded).get();
+
+      assertTrue(reEncoded, cache.lookup(jwt, now).isRepeated());
+      assertFalse(reEncoded, cache.register(jwt, now).isPresent());
+    }
+  }
+
+  @Test
+  public void assertionIsForgottenAfterExpirationAndClockSkew() {
+    CompactJwt jwt = jwt("{\"iss\":\"::iss::\",\"jti\":\"::jti::\",\"exp\":1461238948}", "::signature::");
+
+    cache.register(jwt, now);
+
+    assertTrue(cache.lookup(jwt, new DateTime(1461238948000L + 59000)).isRepeated());
+    assertFalse(cache.lookup(jwt, new DateTime(1461238948000L + 60000)).isRepeated());
+  }
+
+  @Test
+  public void discardedAssertionCouldBeRegisteredAgain() {
+    CompactJwt jwt = jwt("{\"iss\":\"::iss::\",\"jti\":\"::jti::\",\"exp\":1461238948}", "::signature::");
+
+    cache.discard(cache.register(jwt, now).get());
+
+    assertTrue(cache.register(jwt, now).isPresent());
+  }
+
+  @Test
+  public void oldestAssertionsAreEvictedWhenCacheIsFull() {
+    JwtReplayCache cache = JwtReplayCache.newReplayCache().maxEntries(2).stripes(1).build();
+
+    CompactJwt first = jwt("{\"iss\":\"::iss::\",\"jti\":\"1\",\"exp\":1461238948}", "::signature::");
+    cache.register(first, now);
+    cache.register(jwt("{\"iss\":\"::iss::\",\"jti\":\"2\",\"exp\":1461238948}", "::signature::"), now);
+    cache.register(jwt("{\"iss\":\"::iss::\",\"jti\":\"3\",\"exp\":1461238948}", "::signature::"), now);
+
+    assertFalse(cache.lookup(first, now).isRepeated());
+    assertThat(cache.stats().size, is(2L));
+    assertThat(cache.stats().evictions, is(1L));
+  }
+
+  @Test
+  public void expiredAssertionsAreEvictedFirst() {
+    JwtReplayCache cache = JwtReplayCache.newReplayCache().maxEntries(2).stripes(1).build();
+
+    cache.register(jwt("{\"iss\":\"::iss::\",\"jti\":\"1\",\"exp\":1461235348}", "::signature::"), now);
+    cache.register(jwt("{\"iss\":\"::iss::\",\"jti\":\"2\",\"exp\":1461238948}", "::signature::"), now);
+    cache.register(jwt("{\"iss\":\"::iss::\",\"jti\":\"3\",\"exp\":1461238948}", "::signature::"), now.plusSeconds(120));
+
+    assertThat(cache.stats().size, is(2L));
+    assertThat(cache.stats().evictions, is(0L));
+  }
+
+  @Test
+  public void onlyOneOfConcurrentRegistrationsSucceeds() throws Exception {
+    final CompactJwt jwt = jwt("{\"iss\":\"::iss::\",\"jti\":\"::jti::\",\"exp\":1461238948}", "::signature::");
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicInteger registered = new AtomicInteger();
+
+    ExecutorService executor = Executors.newFixedThreadPool(16);
+    for (int i = 0; i < 16; i++) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          if (cache.register(jwt, now).isPresent()) {
+            registered.incrementAndGet();
+          }
+        }
+      });
+    }
+    start.countDown();
+    executor.shutdown();
+    executor.awaitTermination(10, TimeUnit.SECONDS);
+
+    assertThat(registered.get(), is(1));
+  }
+
+  private CompactJwt jwt(String claims, String signature) {
+    return parser.parse(encode("{\"alg\":\"RS256\"}") + "." + encode(claims) + "." + encode(signature)).get();
+  }
+
+  private String encode(String value) {
+    return BaseEncoding.base64Url().omitPadding().encode(value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private String padded(String value) {
+    return BaseEncoding.base64Url().encode(value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private String withTrailingBitSet(String token) {
+    // the last char of an encoded signature of 13 bytes has 4 unused bits that are ignored by the decoder
+    String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+    char last = token.charAt(token.length() - 1);
+    return token.substring(0, token.length() - 1) + alphabet.charAt(alphabet.indexOf(last) + 1);
+  }
+}
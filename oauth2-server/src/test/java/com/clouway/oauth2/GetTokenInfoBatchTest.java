@@ -0,0 +1,135 @@
+package com.clouway.oauth2;
+
+import com.clouway.friendlyserve.Response;
+import com.clouway.friendlyserve.testing.ParamRequest;
+import com.clouway.friendlyserve.testing.RsPrint;
+import com.clouway.oauth2.client.Client;
+import com.clouway.oauth2.client.ClientCredentials;
+import com.clouway.oauth2.client.ClientFinder;
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.storage.MemoryTokens;
+import com.clouway.oauth2.token.GrantType;
+import com.clouway.oauth2.token.Identity;
+import com.clouway.oauth2.token.TokenRequest;
+import com.clouway.oauth2.token.Tokens;
+import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.junit.Test;
+
+import java.net.HttpURLConnection;
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class GetTokenInfoBatchTest {
+
+  private final Client client = new Client("::client1::", "::secret::", "", Collections.<String>emptySet(), false);
+  private final Identity identity = new Identity("::identity::", "::name::", "", "", "::email::", "", Collections.<String, Object>emptyMap());
+  private final DateTime anyInstant = new DateTime(1500000000000L);
+
+  private final Tokens tokens = MemoryTokens.newMemoryTokens().build();
+  private final ClientCredentials credentials = new ClientCredentials("::client1::", "::secret::");
+  private final BatchTokenInfoController controller = new BatchTokenInfoController(new ClientFinder() {
+    @Override
+    public Optional<Client> findClient(String clientId) {
+      return client.id.equals(clientId) ? Optional.of(client) : Optional.<Client>absent();
+    }
+  }, tokens);
+
+  @Test
+  public void infoOfEachTokenIsReturnedInRequestedOrder() throws Exception {
+    String first = issueToken();
+    String second = issueToken();
+
+    Response response = controller.handleAsOf(new ParamRequest(ImmutableMap.of("access_tokens", second + "," + first)), credentials, anyInstant);
+    JsonArray infos = new RsPrint(response).asJson().getAsJsonArray("tokens");
+
+    assertThat(response.status().code, is(HttpURLConnection.HTTP_OK));
+    assertThat(infos.size(), is(2));
+    assertThat(infos.get(0).getAsJsonObject().get("active").getAsBoolean(), is(true));
+    assertThat(infos.get(0).getAsJsonObject().get("sub").getAsString(), is("::identity::"));
+    assertThat(infos.get(0).getAsJsonObject().get("aud").getAsString(), is("::client1::"));
+    assertThat(infos.get(0).getAsJsonObject().get("scope").getAsString(), is("openid"));
+    assertThat(infos.get(1).getAsJsonObject().get("active").getAsBoolean(), is(true));
+  }
+
+  @Test
+  public void unknownTokensAreNotActive() throws Exception {
+    String token = issueToken();
+
+    Response response = controller.handleAsOf(new ParamRequest(ImmutableMap.of("access_tokens", "::unknown:: " + token)), credentials, anyInstant);
+    JsonArray infos = new RsPrint(response).asJson().getAsJsonArray("tokens");
+
+    JsonObject unknown = infos.get(0).getAsJsonObject();
+    assertThat(unknown.get("active").getAsBoolean(), is(false));
+    assertThat(unknown.has("sub"), is(false));
+    assertThat(infos.get(1).getAsJsonObject().get("active").getAsBoolean(), is(true));
+  }
+
+  @Test
+  public void revokedTokensAreNotActive() throws Exception {
+    String first = issueToken();
+    String second = issueToken();
+    tokens.revokeTokens(ImmutableSet.of(first, second));
+
+    Response response = controller.handleAsOf(new ParamRequest(ImmutableMap.of("access_tokens", first + "," + second)), credentials, anyInstant);
+    JsonArray infos = new RsPrint(response).asJson().getAsJsonArray("tokens");
+
+    assertThat(infos.get(0).getAsJsonObject().get("active").getAsBoolean(), is(false));
+    assertThat(infos.get(1).getAsJsonObject().get("active").getAsBoolean(), is(false));
+  }
+
+  @Test
+  public void emptyListOfTokensIsNotAllowed() throws Exception {
+    Response response = controller.handleAsOf(new ParamRequest(ImmutableMap.of("access_tokens", " , ")), credentials, anyInstant);
+
+    assertThat(response.status().code, is(HttpURLConnection.HTTP_BAD_REQUEST));
+  }
+
+  @Test
+  public void tooManyTokensAreNotAllowed() throws Exception {
+    String accessTokens = Strings.repeat("::token::,", BatchTokenInfoController.MAX_TOKENS + 1);
+
+    Response response = controller.handleAsOf(new ParamRequest(ImmutableMap.of("access_tokens", accessTokens)), credentials, anyInstant);
+
+    assertThat(response.status().code, is(HttpURLConnection.HTTP_BAD_REQUEST));
+  }
+
+  @Test
+  public void unknownClientIsNotAuthorized() throws Exception {
+    String token = issueToken();
+
+    Response response = controller.handleAsOf(new ParamRequest(ImmutableMap.of("access_tokens", token)), new ClientCredentials("::unknown::", "::secret::"), anyInstant);
+
+    assertThat(response.status().code, is(HttpURLConnection.HTTP_BAD_REQUEST));
+    assertThat(new RsPrint(response).asJson().get("error").getAsString(), is("unauthorized_client"));
+  }
+
+  @Test
+  public void clientWithWrongSecretIsNotAuthorized() throws Exception {
+    String token = issueToken();
+
+    Response response = controller.handleAsOf(new ParamRequest(ImmutableMap.of("access_tokens", token)), new ClientCredentials("::client1::", "::wrong::"), anyInstant);
+
+    assertThat(response.status().code, is(HttpURLConnection.HTTP_BAD_REQUEST));
+    assertThat(new RsPrint(response).asJson().get("error").getAsString(), is("unauthorized_client"));
+  }
+
+  private String issueToken() {
+    return tokens.issueToken(TokenRequest.newTokenRequest()
+            .grantType(GrantType.AUTHORIZATION_CODE)
+            .client(client)
+            .identity(identity)
+            .scopes(ImmutableSet.of("openid"))
+            .when(anyInstant)
+            .build()).accessToken.value;
+  }
+}
@@ -9,6 +9,7 @@ import com.clouway.oauth2.common.DateTime;
 import com.clouway.oauth2.token.BearerToken;
 import com.clouway.oauth2.token.FindIdentityRequest;
 import com.clouway.oauth2.token.IdTokenFactory;
+import com.clouway.oauth2.token.IdTokenPolicies;
 import com.clouway.oauth2.token.Identity;
 import com.clouway.oauth2.token.IdentityFinder;
 import com.clouway.oauth2.token.Tokens;
@@ -45,7 +46,7 @@ public class GetTokenInfoTest {
 
   private Request request = context.mock(Request.class);
 
-  private TokenInfoController tokenInfoController = new TokenInfoController(tokens, identityFinder, idTokenFactory);
+  private TokenInfoController tokenInfoController = new TokenInfoController(tokens, identityFinder, idTokenFactory, IdTokenCache.disabled(), IdTokenPolicies.always());
 
   @Test
   public void availableToken() throws Exception {
@@ -81,6 +82,33 @@ public class GetTokenInfoTest {
     assertThat(o.get("id_token").getAsString(), equalTo("::base64.encoded.idToken::"));
   }
 
+  @Test
+  public void idTokenIsNotIssuedWithoutOpenIdScope() throws Exception {
+    final DateTime anyTime = new DateTime();
+    final BearerToken anyToken = aNewToken().withValue("::identity id::").forClient("::client id::")
+            .withScopes(Collections.singleton("profile")).expiresAt(anyTime.plusSeconds(200)).build();
+    TokenInfoController controller = new TokenInfoController(tokens, identityFinder, idTokenFactory, IdTokenCache.disabled(), IdTokenPolicies.openIdScope());
+
+    context.checking(new Expectations() {{
+      oneOf(request).param("access_token");
+      will(returnValue("::access token::"));
+      oneOf(tokens).findTokenAvailableAt(with(any(String.class)), with(any(DateTime.class)));
+      will(returnValue(Optional.of(anyToken)));
+      oneOf(request).header("Host");
+      will(returnValue("::host::"));
+
+      never(identityFinder);
+      never(idTokenFactory);
+    }});
+
+    Response response = controller.handleAsOf(request, anyTime);
+    JsonObject o = new RsPrint(response).asJson();
+
+    assertThat(response.status().code, is(HttpURLConnection.HTTP_OK));
+    assertThat(o.has("id_token"), is(false));
+    assertThat(o.get("scope").getAsString(), equalTo("profile"));
+  }
+
   @Test
   public void useTokenParamsWhenLoadIdentity() throws Exception {
     final DateTime anyTime = new DateTime();
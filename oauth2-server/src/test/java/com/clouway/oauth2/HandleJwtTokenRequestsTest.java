@@ -6,21 +6,24 @@ import com.clouway.friendlyserve.testing.RsPrint;
 import com.clouway.oauth2.client.Client;
 import com.clouway.oauth2.client.JwtKeyStore;
 import com.clouway.oauth2.common.DateTime;
-import com.clouway.oauth2.jws.Pem;
 import com.clouway.oauth2.jws.Signature;
 import com.clouway.oauth2.jws.SignatureFactory;
+import com.clouway.oauth2.jwt.AssertionValidator;
 import com.clouway.oauth2.jwt.Jwt.ClaimSet;
 import com.clouway.oauth2.jwt.Jwt.Header;
 import com.clouway.oauth2.token.FindIdentityRequest;
 import com.clouway.oauth2.token.GrantType;
 import com.clouway.oauth2.token.IdTokenFactory;
+import com.clouway.oauth2.token.IdTokenPolicies;
 import com.clouway.oauth2.token.Identity;
 import com.clouway.oauth2.token.IdentityFinder;
 import com.clouway.oauth2.token.TokenRequest;
 import com.clouway.oauth2.token.TokenResponse;
 import com.clouway.oauth2.token.Tokens;
+import com.clouway.oauth2.util.PemKeyGenerator;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import org.jmock.Expectations;
@@ -31,6 +34,7 @@ import org.junit.Rule;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.security.PublicKey;
 import java.util.Collections;
 
 import static com.clouway.friendlyserve.testing.FakeRequest.aNewRequest;
@@ -67,27 +71,37 @@ public class HandleJwtTokenRequestsTest {
   @Mock
   IdTokenFactory idTokenFactory;
 
+  private final PublicKey anyPublicKey = PemKeyGenerator.generatePair().getPublic();
+
+  // the assertion is issued at 1461235348 and expires at 1461238948
+  private final DateTime assertionIssuedTime = new DateTime(1461235348000L);
+
   private JwtController controller;
 
   @Before
   public void setUp() {
-    controller = new JwtController(signatureFactory, tokens, repository, identityFinder, idTokenFactory);
+    controller = new JwtController(signatureFactory, tokens, repository, identityFinder, idTokenFactory,
+            AssertionValidator.newValidator().audiences(ImmutableSet.of("http://localhost:9002/oauth2/token")).build(),
+            JwtReplayCache.newReplayCache().mode(JwtReplayCache.Mode.DISABLED).build(),
+            JwtIssueCache.disabled(),
+            IdTokenPolicies.always()
+    );
   }
 
   @Test
   @SuppressWarnings("unchecked")
   public void happyPath() throws IOException {
     final Signature anySignatureThatWillVerifies = context.mock(Signature.class);
-    final DateTime anyInstantTime = new DateTime();
+    final DateTime anyInstantTime = assertionIssuedTime;
 
     context.checking(new Expectations() {{
-      oneOf(repository).findKey(with(any(Header.class)), with(any(ClaimSet.class)));
-      will(returnValue(Optional.of(new Pem.Block("", ImmutableMap.<String, String>of(), new byte[]{}))));
+      oneOf(repository).findPublicKey(with(any(Header.class)), with(any(ClaimSet.class)));
+      will(returnValue(Optional.of(anyPublicKey)));
 
       oneOf(signatureFactory).createSignature(with(any(byte[].class)), with(any(Header.class)));
       will(returnValue(Optional.of(anySignatureThatWillVerifies)));
 
-      oneOf(anySignatureThatWillVerifies).verifyWithPrivateKey(with(any(byte[].class)), with(any(Pem.Block.class)));
+      oneOf(anySignatureThatWillVerifies).verify(with(any(byte[].class)), with(any(int.class)), with(any(int.class)), with(any(PublicKey.class)));
       will(returnValue(true));
 
       oneOf(identityFinder).findIdentity(with(any(FindIdentityRequest.class)));
@@ -111,16 +125,16 @@ public class HandleJwtTokenRequestsTest {
   @Test
   public void idTokenWasNotGenerated() throws Exception {
     final Signature anySignatureThatWillVerifies = context.mock(Signature.class);
-    final DateTime anyInstantTime = new DateTime();
+    final DateTime anyInstantTime = assertionIssuedTime;
 
     context.checking(new Expectations() {{
-      oneOf(repository).findKey(with(any(Header.class)), with(any(ClaimSet.class)));
-      will(returnValue(Optional.of(new Pem.Block("", ImmutableMap.<String, String>of(), new byte[]{}))));
+      oneOf(repository).findPublicKey(with(any(Header.class)), with(any(ClaimSet.class)));
+      will(returnValue(Optional.of(anyPublicKey)));
 
       oneOf(signatureFactory).createSignature(with(any(byte[].class)), with(any(Header.class)));
       will(returnValue(Optional.of(anySignatureThatWillVerifies)));
 
-      oneOf(anySignatureThatWillVerifies).verifyWithPrivateKey(with(any(byte[].class)), with(any(Pem.Block.class)));
+      oneOf(anySignatureThatWillVerifies).verify(with(any(byte[].class)), with(any(int.class)), with(any(int.class)), with(any(PublicKey.class)));
       will(returnValue(true));
 
       oneOf(identityFinder).findIdentity(with(any(FindIdentityRequest.class)));
@@ -144,16 +158,16 @@ public class HandleJwtTokenRequestsTest {
   @Test
   public void identityNotFound() throws Exception {
     final Signature anySignatureThatWillVerifies = context.mock(Signature.class);
-    final DateTime anyInstantTime = new DateTime();
+    final DateTime anyInstantTime = assertionIssuedTime;
 
     context.checking(new Expectations() {{
-      oneOf(repository).findKey(with(any(Header.class)), with(any(ClaimSet.class)));
-      will(returnValue(Optional.of(new Pem.Block("", ImmutableMap.<String, String>of(), new byte[]{}))));
+      oneOf(repository).findPublicKey(with(any(Header.class)), with(any(ClaimSet.class)));
+      will(returnValue(Optional.of(anyPublicKey)));
 
       oneOf(signatureFactory).createSignature(with(any(byte[].class)), with(any(Header.class)));
       will(returnValue(Optional.of(anySignatureThatWillVerifies)));
 
-      oneOf(anySignatureThatWillVerifies).verifyWithPrivateKey(with(any(byte[].class)), with(any(Pem.Block.class)));
+      oneOf(anySignatureThatWillVerifies).verify(with(any(byte[].class)), with(any(int.class)), with(any(int.class)), with(any(PublicKey.class)));
       will(returnValue(true));
 
       oneOf(identityFinder).findIdentity(with(any(FindIdentityRequest.class)));
@@ -170,18 +184,18 @@ public class HandleJwtTokenRequestsTest {
   @SuppressWarnings("unchecked")
   public void scopesArePassed() throws IOException {
     final Signature anySignatureThatWillVerifies = context.mock(Signature.class);
-    final DateTime anyInstantTime = new DateTime();
+    final DateTime anyInstantTime = assertionIssuedTime;
     final Client jwtClient = new Client("xxx@developer.com", "", "", Collections.<String>emptySet(), false);
     final Identity identity = aNewIdentity().withId("xxx@developer.com").build();
 
     context.checking(new Expectations() {{
-      oneOf(repository).findKey(with(any(Header.class)), with(any(ClaimSet.class)));
-      will(returnValue(Optional.of(new Pem.Block("", ImmutableMap.<String, String>of(), new byte[]{}))));
+      oneOf(repository).findPublicKey(with(any(Header.class)), with(any(ClaimSet.class)));
+      will(returnValue(Optional.of(anyPublicKey)));
 
       oneOf(signatureFactory).createSignature(with(any(byte[].class)), with(any(Header.class)));
       will(returnValue(Optional.of(anySignatureThatWillVerifies)));
 
-      oneOf(anySignatureThatWillVerifies).verifyWithPrivateKey(with(any(byte[].class)), with(any(Pem.Block.class)));
+      oneOf(anySignatureThatWillVerifies).verify(with(any(byte[].class)), with(any(int.class)), with(any(int.class)), with(any(PublicKey.class)));
       will(returnValue(true));
 
       oneOf(identityFinder).findIdentity(with(any(FindIdentityRequest.class)));
@@ -209,18 +223,18 @@ public class HandleJwtTokenRequestsTest {
   @SuppressWarnings("unchecked")
   public void customRequestParamsArePassed() throws IOException {
     final Signature anySignatureThatWillVerifies = context.mock(Signature.class);
-    final DateTime anyInstantTime = new DateTime();
+    final DateTime anyInstantTime = assertionIssuedTime;
     final Client jwtClient = new Client("xxx@developer.com", "", "", Collections.<String>emptySet(), false);
     final Identity identity = aNewIdentity().withId("xxx@developer.com").build();
 
     context.checking(new Expectations() {{
-      oneOf(repository).findKey(with(any(Header.class)), with(any(ClaimSet.class)));
-      will(returnValue(Optional.of(new Pem.Block("", ImmutableMap.<String, String>of(), new byte[]{}))));
+      oneOf(repository).findPublicKey(with(any(Header.class)), with(any(ClaimSet.class)));
+      will(returnValue(Optional.of(anyPublicKey)));
 
       oneOf(signatureFactory).createSignature(with(any(byte[].class)), with(any(Header.class)));
       will(returnValue(Optional.of(anySignatureThatWillVerifies)));
 
-      oneOf(anySignatureThatWillVerifies).verifyWithPrivateKey(with(any(byte[].class)), with(any(Pem.Block.class)));
+      oneOf(anySignatureThatWillVerifies).verify(with(any(byte[].class)), with(any(int.class)), with(any(int.class)), with(any(PublicKey.class)));
       will(returnValue(true));
 
       oneOf(identityFinder).findIdentity(with(any(FindIdentityRequest.class)));
@@ -258,6 +272,212 @@ public class HandleJwtTokenRequestsTest {
     assertThat(new RsPrint(response).printBody(), containsString("invalid_request"));
   }
 
+  @Test
+  public void expiredAssertionIsRejectedBeforeKeyLookup() throws IOException {
+    DateTime afterExpiration = new DateTime(1461238948000L).plusSeconds(61);
+
+    Response response = controller.handleAsOf(newJwtRequest(String.format("%s.%s.%s", "eyJhbGciOiJSUzI1NiIsInR5cCI6IkpXVCJ9", body, signature), "::host::"), afterExpiration);
+    String responseContent = new RsPrint(response).printBody();
+    assertThat(responseContent, containsString("invalid_grant"));
+    assertThat(responseContent, containsString("assertion is expired"));
+  }
+
+  @Test
+  public void assertionIssuedInTheFutureIsRejected() throws IOException {
+    DateTime beforeIssuing = assertionIssuedTime.minusSeconds(61);
+
+    Response response = controller.handleAsOf(newJwtRequest(String.format("%s.%s.%s", "eyJhbGciOiJSUzI1NiIsInR5cCI6IkpXVCJ9", body, signature), "::host::"), beforeIssuing);
+    assertThat(new RsPrint(response).printBody(), containsString("assertion is not valid yet"));
+  }
+
+  @Test
+  public void assertionForAnotherAudienceIsRejected() throws IOException {
+    JwtController controller = new JwtController(signatureFactory, tokens, repository, identityFinder, idTokenFactory,
+            AssertionValidator.newValidator().audiences(ImmutableSet.of("https://accounts.example.com/token")).build(),
+            JwtReplayCache.newReplayCache().mode(JwtReplayCache.Mode.DISABLED).build(),
+            JwtIssueCache.disabled(),
+            IdTokenPolicies.always()
+    );
+
+    Response response = controller.handleAsOf(newJwtRequest(String.format("%s.%s.%s", "eyJhbGciOiJSUzI1NiIsInR5cCI6IkpXVCJ9", body, signature), "::host::"), assertionIssuedTime);
+    assertThat(new RsPrint(response).printBody(), containsString("invalid audience"));
+  }
+
+  @Test
+  public void oversizedAssertionIsRejected() throws IOException {
+    JwtController controller = new JwtController(signatureFactory, tokens, repository, identityFinder, idTokenFactory,
+            AssertionValidator.newValidator().maxLength(64).build(),
+            JwtReplayCache.newReplayCache().mode(JwtReplayCache.Mode.DISABLED).build(),
+            JwtIssueCache.disabled(),
+            IdTokenPolicies.always()
+    );
+
+    Response response = controller.handleAsOf(newJwtRequest(String.format("%s.%s.%s", "eyJhbGciOiJSUzI1NiIsInR5cCI6IkpXVCJ9", body, signature), "::host::"), assertionIssuedTime);
+    assertThat(new RsPrint(response).printBody(), containsString("assertion is too large"));
+  }
+
+  @Test
+  public void replayedAssertionIsRejected() throws IOException {
+    final Signature anySignatureThatWillVerifies = context.mock(Signature.class);
+    final DateTime anyInstantTime = assertionIssuedTime;
+    JwtController controller = new JwtController(signatureFactory, tokens, repository, identityFinder, idTokenFactory,
+            AssertionValidator.newValidator().build(),
+            JwtReplayCache.newReplayCache().mode(JwtReplayCache.Mode.REJECT).build(),
+            JwtIssueCache.disabled(),
+            IdTokenPolicies.always()
+    );
+
+    context.checking(new Expectations() {{
+      oneOf(repository).findPublicKey(with(any(Header.class)), with(any(ClaimSet.class)));
+      will(returnValue(Optional.of(anyPublicKey)));
+
+      oneOf(signatureFactory).createSignature(with(any(byte[].class)), with(any(Header.class)));
+      will(returnValue(Optional.of(anySignatureThatWillVerifies)));
+
+      oneOf(anySignatureThatWillVerifies).verify(with(any(byte[].class)), with(any(int.class)), with(any(int.class)), with(any(PublicKey.class)));
+      will(returnValue(true));
+
+      oneOf(identityFinder).findIdentity(with(any(FindIdentityRequest.class)));
+      will(returnValue(Optional.of(aNewIdentity().build())));
+
+      oneOf(idTokenFactory).create(with(any(String.class)), with(any(String.class)), with(any(Identity.class)), with(any(Long.class)), with(any(DateTime.class)));
+      will(returnValue(Optional.absent()));
+
+      oneOf(tokens).issueToken(with(any(TokenRequest.class)));
+      will(returnValue(new TokenResponse(true, aNewToken().withValue("::access_token::").expiresAt(anyInstantTime.plusSeconds(1000)).build(), "::refresh_token::")));
+    }});
+
+    String assertion = String.format("%s.%s.%s", "eyJhbGciOiJSUzI1NiIsInR5cCI6IkpXVCJ9", body, signature);
+
+    controller.handleAsOf(newJwtRequest(assertion, "::host::"), anyInstantTime);
+    Response response = controller.handleAsOf(newJwtRequest(assertion, "::host::"), anyInstantTime.plusSeconds(5));
+
+    assertThat(new RsPrint(response).printBody(), containsString("assertion was already used"));
+  }
+
+  @Test
+  public void replayedAssertionGetsTheSameToken() throws IOException {
+    final Signature anySignatureThatWillVerifies = context.mock(Signature.class);
+    final DateTime anyInstantTime = assertionIssuedTime;
+    JwtController controller = new JwtController(signatureFactory, tokens, repository, identityFinder, idTokenFactory,
+            AssertionValidator.newValidator().build(),
+            JwtReplayCache.newReplayCache().mode(JwtReplayCache.Mode.REUSE).build(),
+            JwtIssueCache.disabled(),
+            IdTokenPolicies.always()
+    );
+
+    context.checking(new Expectations() {{
+      oneOf(repository).findPublicKey(with(any(Header.class)), with(any(ClaimSet.class)));
+      will(returnValue(Optional.of(anyPublicKey)));
+
+      oneOf(signatureFactory).createSignature(with(any(byte[].class)), with(any(Header.class)));
+      will(returnValue(Optional.of(anySignatureThatWillVerifies)));
+
+      oneOf(anySignatureThatWillVerifies).verify(with(any(byte[].class)), with(any(int.class)), with(any(int.class)), with(any(PublicKey.class)));
+      will(returnValue(true));
+
+      oneOf(identityFinder).findIdentity(with(any(FindIdentityRequest.class)));
+      will(returnValue(Optional.of(aNewIdentity().build())));
+
+      oneOf(idTokenFactory).create(with(any(String.class)), with(any(String.class)), with(any(Identity.class)), with(any(Long.class)), with(any(DateTime.class)));
+      will(returnValue(Optional.of("::id_token::")));
+
+      oneOf(tokens).issueToken(with(any(TokenRequest.class)));
+      will(returnValue(new TokenResponse(true, aNewToken().withValue("::access_token::").expiresAt(anyInstantTime.plusSeconds(1000)).build(), "::refresh_token::")));
+    }});
+
+    String assertion = String.format("%s.%s.%s", "eyJhbGciOiJSUzI1NiIsInR5cCI6IkpXVCJ9", body, signature);
+
+    controller.handleAsOf(newJwtRequest(assertion, "::host::"), anyInstantTime);
+    Response response = controller.handleAsOf(newJwtRequest(assertion, "::host::"), anyInstantTime.plusSeconds(100));
+
+    String responseContent = new RsPrint(response).printBody();
+    assertThat(responseContent, containsString("::access_token::"));
+    assertThat(responseContent, containsString("::id_token::"));
+    assertThat(responseContent, containsString("900"));
+  }
+
+  @Test
+  public void identicalRequestsGetTheSameToken() throws IOException {
+    final Signature anySignatureThatWillVerifies = context.mock(Signature.class);
+    final DateTime anyInstantTime = assertionIssuedTime;
+    JwtController controller = new JwtController(signatureFactory, tokens, repository, identityFinder, idTokenFactory,
+            AssertionValidator.newValidator().build(),
+            JwtReplayCache.newReplayCache().mode(JwtReplayCache.Mode.DISABLED).build(),
+            JwtIssueCache.newIssueCache().build(),
+            IdTokenPolicies.always()
+    );
+
+    context.checking(new Expectations() {{
+      oneOf(repository).findPublicKey(with(any(Header.class)), with(any(ClaimSet.class)));
+      will(returnValue(Optional.of(anyPublicKey)));
+
+      oneOf(signatureFactory).createSignature(with(any(byte[].class)), with(any(Header.class)));
+      will(returnValue(Optional.of(anySignatureThatWillVerifies)));
+
+      oneOf(anySignatureThatWillVerifies).verify(with(any(byte[].class)), with(any(int.class)), with(any(int.class)), with(any(PublicKey.class)));
+      will(returnValue(true));
+
+      oneOf(identityFinder).findIdentity(with(any(FindIdentityRequest.class)));
+      will(returnValue(Optional.of(aNewIdentity().build())));
+
+      oneOf(idTokenFactory).create(with(any(String.class)), with(any(String.class)), with(any(Identity.class)), with(any(Long.class)), with(any(DateTime.class)));
+      will(returnValue(Optional.of("::id_token::")));
+
+      oneOf(tokens).issueToken(with(any(TokenRequest.class)));
+      will(returnValue(new TokenResponse(true, aNewToken().withValue("::access_token::").expiresAt(anyInstantTime.plusSeconds(1000)).build(), "::refresh_token::")));
+    }});
+
+    String assertion = String.format("%s.%s.%s", "eyJhbGciOiJSUzI1NiIsInR5cCI6IkpXVCJ9", body, signature);
+
+    controller.handleAsOf(newJwtRequest(assertion, "CanDoX", "::host::"), anyInstantTime);
+    Response response = controller.handleAsOf(newJwtRequest(assertion, "CanDoX", "::host::"), anyInstantTime.plusSeconds(1));
+
+    String responseContent = new RsPrint(response).printBody();
+    assertThat(responseContent, containsString("::access_token::"));
+    assertThat(responseContent, containsString("::id_token::"));
+    assertThat(responseContent, containsString("999"));
+  }
+
+  @Test
+  public void identicalRequestIsRejectedWhenReplaysAreRejected() throws IOException {
+    final Signature anySignatureThatWillVerifies = context.mock(Signature.class);
+    final DateTime anyInstantTime = assertionIssuedTime;
+    JwtController controller = new JwtController(signatureFactory, tokens, repository, identityFinder, idTokenFactory,
+            AssertionValidator.newValidator().build(),
+            JwtReplayCache.newReplayCache().mode(JwtReplayCache.Mode.REJECT).build(),
+            JwtIssueCache.newIssueCache().build(),
+            IdTokenPolicies.always()
+    );
+
+    context.checking(new Expectations() {{
+      oneOf(repository).findPublicKey(with(any(Header.class)), with(any(ClaimSet.class)));
+      will(returnValue(Optional.of(anyPublicKey)));
+
+      oneOf(signatureFactory).createSignature(with(any(byte[].class)), with(any(Header.class)));
+      will(returnValue(Optional.of(anySignatureThatWillVerifies)));
+
+      oneOf(anySignatureThatWillVerifies).verify(with(any(byte[].class)), with(any(int.class)), with(any(int.class)), with(any(PublicKey.class)));
+      will(returnValue(true));
+
+      oneOf(identityFinder).findIdentity(with(any(FindIdentityRequest.class)));
+      will(returnValue(Optional.of(aNewIdentity().build())));
+
+      oneOf(idTokenFactory).create(with(any(String.class)), with(any(String.class)), with(any(Identity.class)), with(any(Long.class)), with(any(DateTime.class)));
+      will(returnValue(Optional.of("::id_token::")));
+
+      oneOf(tokens).issueToken(with(any(TokenRequest.class)));
+      will(returnValue(new TokenResponse(true, aNewToken().withValue("::access_token::").expiresAt(anyInstantTime.plusSeconds(1000)).build(), "::refresh_token::")));
+    }});
+
+    String assertion = String.format("%s.%s.%s", "eyJhbGciOiJSUzI1NiIsInR5cCI6IkpXVCJ9", body, signature);
+
+    controller.handleAsOf(newJwtRequest(assertion, "CanDoX", "::host::"), anyInstantTime);
+    Response response = controller.handleAsOf(newJwtRequest(assertion, "CanDoX", "::host::"), anyInstantTime.plusSeconds(1));
+
+    assertThat(new RsPrint(response).printBody(), containsString("assertion was already used"));
+  }
+
   private Request newJwtRequest(String assertion, String hostHeader) {
     return aNewRequest().param("assertion", assertion).header("Host", hostHeader).build();
   }
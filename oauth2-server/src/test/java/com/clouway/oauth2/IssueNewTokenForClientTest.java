@@ -9,6 +9,7 @@ import com.clouway.oauth2.client.Client;
 import com.clouway.oauth2.common.DateTime;
 import com.clouway.oauth2.token.GrantType;
 import com.clouway.oauth2.token.IdTokenFactory;
+import com.clouway.oauth2.token.IdTokenPolicies;
 import com.clouway.oauth2.token.Identity;
 import com.clouway.oauth2.token.TokenRequest;
 import com.clouway.oauth2.token.TokenResponse;
@@ -48,7 +49,7 @@ public class IssueNewTokenForClientTest {
 
   private Request request = context.mock(Request.class);
 
-  private IssueNewTokenActivity controller = new IssueNewTokenActivity(tokens, idTokenFactory);
+  private IssueNewTokenActivity controller = new IssueNewTokenActivity(tokens, idTokenFactory, IdTokenPolicies.always());
 
   @Test
   @SuppressWarnings("unchecked")
@@ -104,6 +105,26 @@ public class IssueNewTokenForClientTest {
     assertThat(body, containsString("::token::"));
   }
 
+  @Test
+  public void idTokenIsIssuedOnlyForOpenIdScope() throws IOException {
+    final DateTime anyTime = new DateTime();
+    final Identity identity = aNewIdentity().withId("::user_id::").build();
+    IssueNewTokenActivity controller = new IssueNewTokenActivity(tokens, idTokenFactory, IdTokenPolicies.openIdScope());
+
+    context.checking(new Expectations() {{
+      oneOf(tokens).issueToken(with(any(TokenRequest.class)));
+      will(returnValue(new TokenResponse(true, aNewToken().withValue("::token::").build(), "::refresh token::")));
+
+      never(idTokenFactory);
+    }});
+
+    Response response = controller.execute(aNewClient().withId("::client id::").build(), identity, Collections.singleton("email"), request, anyTime, ImmutableMap.of("::index::", "::1::"));
+    String body = new RsPrint(response).printBody();
+
+    assertThat(body, not(containsString("id_token")));
+    assertThat(body, containsString("::token::"));
+  }
+
   @Test
   @SuppressWarnings("unchecked")
   public void tokenCannotBeIssued() throws Exception {
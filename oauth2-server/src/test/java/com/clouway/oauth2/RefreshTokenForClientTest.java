@@ -8,6 +8,7 @@ import com.clouway.oauth2.client.Client;
 import com.clouway.oauth2.common.DateTime;
 import com.clouway.oauth2.token.GrantType;
 import com.clouway.oauth2.token.IdTokenFactory;
+import com.clouway.oauth2.token.IdTokenPolicies;
 import com.clouway.oauth2.token.Identity;
 import com.clouway.oauth2.token.TokenResponse;
 import com.clouway.oauth2.token.Tokens;
@@ -53,7 +54,7 @@ public class RefreshTokenForClientTest {
 
   @Test
   public void happyPath() throws IOException {
-    RefreshTokenActivity action = new RefreshTokenActivity(tokens, idTokenFactory, identityFinder);
+    RefreshTokenActivity action = new RefreshTokenActivity(tokens, idTokenFactory, identityFinder, IdTokenPolicies.always(), RefreshCoordinator.disabled());
     final Client client = aNewClient().withId("client1").withSecret("secret1").build();
     final Identity identity = aNewIdentity().withId("::identityId::").build();
     final DateTime anyTime = new DateTime();
@@ -97,7 +98,7 @@ public class RefreshTokenForClientTest {
 
   @Test
   public void idTokenWasNotGenerated() throws Exception {
-    RefreshTokenActivity action = new RefreshTokenActivity(tokens, idTokenFactory, identityFinder);
+    RefreshTokenActivity action = new RefreshTokenActivity(tokens, idTokenFactory, identityFinder, IdTokenPolicies.always(), RefreshCoordinator.disabled());
     final Client client = aNewClient().withId("client1").withSecret("secret1").build();
     final Identity identity = aNewIdentity().withId("::identityId::").build();
     final DateTime anyTime = new DateTime();
@@ -141,7 +142,7 @@ public class RefreshTokenForClientTest {
 
   @Test
   public void identityNotFound() throws Exception {
-    RefreshTokenActivity action = new RefreshTokenActivity(tokens, idTokenFactory, identityFinder);
+    RefreshTokenActivity action = new RefreshTokenActivity(tokens, idTokenFactory, identityFinder, IdTokenPolicies.always(), RefreshCoordinator.disabled());
     final Client client = aNewClient().withId("client1").withSecret("secret1").build();
     final DateTime anyTime = new DateTime();
 
@@ -174,7 +175,7 @@ public class RefreshTokenForClientTest {
 
   @Test
   public void refreshTokenWasExpired() throws IOException {
-    RefreshTokenActivity action = new RefreshTokenActivity(tokens, idTokenFactory, identityFinder);
+    RefreshTokenActivity action = new RefreshTokenActivity(tokens, idTokenFactory, identityFinder, IdTokenPolicies.always(), RefreshCoordinator.disabled());
     Client client = aNewClient().withId("client1").withSecret("secret1").build();
     final DateTime anyTime = new DateTime();
 
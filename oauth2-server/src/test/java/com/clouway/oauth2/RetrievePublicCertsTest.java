@@ -2,20 +2,34 @@ package com.clouway.oauth2;
 
 import com.clouway.friendlyserve.Response;
 import com.clouway.friendlyserve.testing.RsPrint;
+import com.clouway.oauth2.common.DateTime;
 import com.clouway.oauth2.jws.Pem;
 import com.clouway.oauth2.keystore.IdentityKeyPair;
+import com.clouway.oauth2.keystore.KeyRotation;
 import com.clouway.oauth2.keystore.KeyStore;
+import com.clouway.oauth2.keystore.SnapshotKeyStore;
 import com.clouway.oauth2.util.PemKeyGenerator;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.BaseEncoding;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
 import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertThat;
 
 /**
@@ -57,8 +71,127 @@ public class RetrievePublicCertsTest {
     assertThat(response.printBody(), is("{}"));
   }
 
+  @Test
+  public void certsAreServedWithEntityTag() throws Exception {
+    final KeyPair keyPair = PemKeyGenerator.generatePair();
+    PublicCertsController controller = new PublicCertsController(
+            new FakeKeyStore(Collections.singletonList(new IdentityKeyPair("key1", keyPair.getPrivate(), keyPair.getPublic())))
+    );
+
+    Response first = controller.ack(null);
+    Response second = controller.ack(null);
+
+    assertThat(first.status().code, is(HttpURLConnection.HTTP_OK));
+    assertThat(first.header().get("ETag").startsWith("\""), is(true));
+    assertThat(second.header().get("ETag"), is(equalTo(first.header().get("ETag"))));
+    assertThat(first.header().get("Cache-Control"), is(equalTo("public, max-age=300")));
+  }
+
+  @Test
+  public void certsAreNotModified() throws Exception {
+    final KeyPair keyPair = PemKeyGenerator.generatePair();
+    PublicCertsController controller = new PublicCertsController(
+            new FakeKeyStore(Collections.singletonList(new IdentityKeyPair("key1", keyPair.getPrivate(), keyPair.getPublic())))
+    );
+    String etag = controller.ack(null).header().get("ETag");
+
+    Response response = controller.ack(new ByteRequest(Collections.<String, String>emptyMap(), ImmutableMap.of("If-None-Match", "\"other\", " + etag)));
+
+    assertThat(response.status().code, is(HttpURLConnection.HTTP_NOT_MODIFIED));
+    assertThat(response.header().get("ETag"), is(equalTo(etag)));
+    assertThat(new RsPrint(response).printBody(), is(equalTo("")));
+  }
+
+  @Test
+  public void changedCertsAreServedWithNewEntityTag() throws Exception {
+    final KeyPair keyPair = PemKeyGenerator.generatePair();
+    FakeKeyStore keyStore = new FakeKeyStore(Collections.singletonList(new IdentityKeyPair("key1", keyPair.getPrivate(), keyPair.getPublic())));
+    PublicCertsController controller = new PublicCertsController(keyStore);
+    String etag = controller.ack(null).header().get("ETag");
+
+    keyStore.keys = Arrays.asList(
+            new IdentityKeyPair("key1", keyPair.getPrivate(), keyPair.getPublic()),
+            new IdentityKeyPair("key2", keyPair.getPrivate(), keyPair.getPublic())
+    );
+    Response response = controller.ack(new ByteRequest(Collections.<String, String>emptyMap(), ImmutableMap.of("If-None-Match", etag)));
+
+    assertThat(response.status().code, is(HttpURLConnection.HTTP_OK));
+    assertThat(response.header().get("ETag"), is(not(equalTo(etag))));
+    assertThat(new RsPrint(response).asJson().has("key2"), is(true));
+  }
+
+  @Test
+  public void rotatedCertsAreCachedUntilTheNextRotation() throws Exception {
+    final KeyPair keyPair = PemKeyGenerator.generatePair();
+    DateTime nextRotation = new DateTime().plusSeconds(600);
+    KeyRotation rotation = KeyRotation.newKeyRotation()
+            .key(new IdentityKeyPair("key1", keyPair.getPrivate(), keyPair.getPublic()), new DateTime().minusSeconds(600))
+            .key(new IdentityKeyPair("key2", keyPair.getPrivate(), keyPair.getPublic()), nextRotation)
+            .build();
+
+    Response response = new PublicCertsController(rotation).ack(null);
+    long maxAge = Long.parseLong(response.header().get("Cache-Control").substring("public, max-age=".length()));
+
+    assertThat(maxAge > 590 && maxAge <= 600, is(true));
+    assertThat(new RsPrint(response).asJson().has("key2"), is(true));
+  }
+
+  @Test
+  public void rotatedCertsOfSnapshotAreCachedUntilTheNextRotation() throws Exception {
+    final KeyPair keyPair = PemKeyGenerator.generatePair();
+    DateTime nextRotation = new DateTime().plusSeconds(600);
+    KeyRotation rotation = KeyRotation.newKeyRotation()
+            .key(new IdentityKeyPair("key1", keyPair.getPrivate(), keyPair.getPublic()), new DateTime().minusSeconds(600))
+            .key(new IdentityKeyPair("key2", keyPair.getPrivate(), keyPair.getPublic()), nextRotation)
+            .build();
+    SnapshotKeyStore snapshotKeyStore = new SnapshotKeyStore(rotation, 1, TimeUnit.HOURS);
+
+    try {
+      Response response = new PublicCertsController(snapshotKeyStore).ack(null);
+      long maxAge = Long.parseLong(response.header().get("Cache-Control").substring("public, max-age=".length()));
+
+      assertThat(maxAge > 590 && maxAge <= 600, is(true));
+    } finally {
+      snapshotKeyStore.close();
+    }
+  }
+
+  @Test
+  public void certsAsJsonWebKeySet() throws Exception {
+    final KeyPair rsaKeyPair = PemKeyGenerator.generatePair();
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(256);
+    final KeyPair ecKeyPair = generator.generateKeyPair();
+
+    PublicCertsController controller = new PublicCertsController(
+            new FakeKeyStore(Arrays.asList(
+                    new IdentityKeyPair("key1", rsaKeyPair.getPrivate(), rsaKeyPair.getPublic()),
+                    new IdentityKeyPair("key2", ecKeyPair.getPrivate(), ecKeyPair.getPublic())
+            )), PublicCertsController.Format.JWKS
+    );
+
+    JsonArray keys = new RsPrint(controller.ack(null)).asJson().getAsJsonArray("keys");
+    JsonObject rsaKey = keys.get(0).getAsJsonObject();
+    JsonObject ecKey = keys.get(1).getAsJsonObject();
+
+    RSAPublicKey rsaPublicKey = (RSAPublicKey) rsaKeyPair.getPublic();
+    assertThat(rsaKey.get("kty").getAsString(), is(equalTo("RSA")));
+    assertThat(rsaKey.get("kid").getAsString(), is(equalTo("key1")));
+    assertThat(rsaKey.get("alg").getAsString(), is(equalTo("RS256")));
+    assertThat(rsaKey.get("use").getAsString(), is(equalTo("sig")));
+    assertThat(new BigInteger(1, BaseEncoding.base64Url().decode(rsaKey.get("n").getAsString())), is(equalTo(rsaPublicKey.getModulus())));
+    assertThat(new BigInteger(1, BaseEncoding.base64Url().decode(rsaKey.get("e").getAsString())), is(equalTo(rsaPublicKey.getPublicExponent())));
+
+    ECPublicKey ecPublicKey = (ECPublicKey) ecKeyPair.getPublic();
+    assertThat(ecKey.get("kty").getAsString(), is(equalTo("EC")));
+    assertThat(ecKey.get("crv").getAsString(), is(equalTo("P-256")));
+    assertThat(BaseEncoding.base64Url().decode(ecKey.get("x").getAsString()).length, is(32));
+    assertThat(new BigInteger(1, BaseEncoding.base64Url().decode(ecKey.get("x").getAsString())), is(equalTo(ecPublicKey.getW().getAffineX())));
+    assertThat(new BigInteger(1, BaseEncoding.base64Url().decode(ecKey.get("y").getAsString())), is(equalTo(ecPublicKey.getW().getAffineY())));
+  }
+
   private class FakeKeyStore implements KeyStore {
-    private final List<IdentityKeyPair> keys;
+    private List<IdentityKeyPair> keys;
 
     public FakeKeyStore(List<IdentityKeyPair> keys) {
       this.keys = keys;
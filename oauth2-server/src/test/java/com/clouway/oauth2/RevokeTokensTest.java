@@ -36,7 +36,7 @@ public class RevokeTokensTest {
 
   private DateTime anyInstantenousTime = new DateTime();
 
-  private RevokeTokenController controller = new RevokeTokenController(clientFinder, tokens);
+  private RevokeTokenController controller = new RevokeTokenController(clientFinder, tokens, IdTokenCache.disabled());
 
   @Test
   public void happyPath() throws Exception {
@@ -47,7 +47,7 @@ public class RevokeTokensTest {
       oneOf(clientFinder).findClient("::client x::");
       will(returnValue(Optional.of(aNewClient().withId("::client x::").withSecret("::client secret::").build())));
 
-      oneOf(tokens).revokeToken("::any token::");
+      oneOf(tokens).revokeToken("::any token::", anyInstantenousTime);
     }});
 
     Response response = controller.handleAsOf(
@@ -0,0 +1,177 @@
+package com.clouway.oauth2.client;
+
+import com.clouway.oauth2.jws.Pem;
+import com.clouway.oauth2.jwt.Jwt.ClaimSet;
+import com.clouway.oauth2.jwt.Jwt.Header;
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.clouway.oauth2.client.ClientBuilder.aNewClient;
+import static com.clouway.oauth2.jwt.Jwt.ClaimSet.newClaimSet;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class CacheUnknownClientsAndServiceAccountsTest {
+
+  private final ManualTicker ticker = new ManualTicker();
+  private final NegativeLookupCache cache = new NegativeLookupCache(10, 30, TimeUnit.SECONDS, ticker);
+  private final FakeClientFinder clients = new FakeClientFinder();
+  private final FakeJwtKeyStore keys = new FakeJwtKeyStore();
+
+  private final ClientFinder clientFinder = new NegativeCachingClientFinder(clients, cache);
+  private final JwtKeyStore keyStore = new NegativeCachingJwtKeyStore(keys, cache);
+
+  private final Header header = new Header("RS256");
+
+  @Test
+  public void unknownClientIsLookedUpOnce() {
+    assertThat(clientFinder.findClient("::client::").isPresent(), is(false));
+    assertThat(clientFinder.findClient("::client::").isPresent(), is(false));
+
+    assertThat(clients.lookups, is(1));
+    assertThat(cache.stats().hitCount(), is(1L));
+    assertThat(cache.stats().missCount(), is(1L));
+  }
+
+  @Test
+  public void knownClientsAreNotCached() {
+    clients.register(aNewClient().withId("::client::").build());
+
+    assertThat(clientFinder.findClient("::client::").isPresent(), is(true));
+    assertThat(clientFinder.findClient("::client::").isPresent(), is(true));
+
+    assertThat(clients.lookups, is(2));
+    assertThat(cache.size(), is(0L));
+  }
+
+  @Test
+  public void unknownClientIsLookedUpAgainWhenEntryExpires() {
+    clientFinder.findClient("::client::");
+    ticker.advance(31, TimeUnit.SECONDS);
+    clientFinder.findClient("::client::");
+
+    assertThat(clients.lookups, is(2));
+  }
+
+  @Test
+  public void registeredClientIsFoundAfterInvalidation() {
+    clientFinder.findClient("::client::");
+
+    clients.register(aNewClient().withId("::client::").build());
+    cache.invalidate("::client::");
+
+    assertThat(clientFinder.findClient("::client::").isPresent(), is(true));
+  }
+
+  @Test
+  public void unknownServiceAccountIsLookedUpOnce() {
+    ClaimSet claimSet = newClaimSet().iss("xxx@apps.clouway.com").certId("::cert::").build();
+
+    assertThat(keyStore.findKey(header, claimSet).isPresent(), is(false));
+    assertThat(keyStore.findKey(header, claimSet).isPresent(), is(false));
+    assertThat(keyStore.findPublicKey(header, claimSet).isPresent(), is(false));
+
+    assertThat(keys.lookups, is(1));
+  }
+
+  @Test
+  public void unknownCertificateIsNotHidingOtherKeysOfServiceAccount() {
+    keys.register("xxx@apps.clouway.com", "::known cert::");
+
+    keyStore.findKey(header, newClaimSet().iss("xxx@apps.clouway.com").certId("::unknown cert::").build());
+
+    assertThat(keyStore.findKey(header, newClaimSet().iss("xxx@apps.clouway.com").certId("::known cert::").build()).isPresent(), is(true));
+  }
+
+  @Test
+  public void registeredServiceAccountIsFoundAfterInvalidation() {
+    ClaimSet claimSet = newClaimSet().iss("xxx@apps.clouway.com").certId("::cert::").build();
+    keyStore.findKey(header, claimSet);
+
+    keys.register("xxx@apps.clouway.com", "::cert::");
+    cache.invalidate("xxx@apps.clouway.com");
+
+    assertThat(keyStore.findKey(header, claimSet).isPresent(), is(true));
+  }
+
+  @Test
+  public void clientsAndServiceAccountsAreNotSharingEntries() {
+    keys.register("::id::", null);
+
+    clientFinder.findClient("::id::");
+
+    assertThat(keyStore.findKey(header, newClaimSet().iss("::id::").build()).isPresent(), is(true));
+  }
+
+  @Test
+  public void numberOfEntriesIsBounded() {
+    for (int i = 0; i < 100; i++) {
+      clientFinder.findClient("::client " + i + "::");
+    }
+
+    assertThat(cache.size() <= 10, is(true));
+  }
+
+  @Test
+  public void disabledCacheIsNotKeepingEntries() {
+    ClientFinder clientFinder = new NegativeCachingClientFinder(clients, NegativeLookupCache.disabled());
+
+    clientFinder.findClient("::client::");
+    clientFinder.findClient("::client::");
+
+    assertThat(clients.lookups, is(equalTo(2)));
+  }
+
+  private static class FakeClientFinder implements ClientFinder {
+    private final Map<String, Client> clients = new HashMap<String, Client>();
+    private int lookups = 0;
+
+    void register(Client client) {
+      clients.put(client.id, client);
+    }
+
+    @Override
+    public Optional<Client> findClient(String clientId) {
+      lookups++;
+      return Optional.fromNullable(clients.get(clientId));
+    }
+  }
+
+  private static class FakeJwtKeyStore implements JwtKeyStore {
+    private final Map<String, Pem.Block> keys = new HashMap<String, Pem.Block>();
+    private int lookups = 0;
+
+    void register(String iss, String certId) {
+      keys.put(iss + "/" + certId, new Pem.Block("PRIVATE KEY", Collections.<String, String>emptyMap(), new byte[0]));
+    }
+
+    @Override
+    public Optional<Pem.Block> findKey(Header header, ClaimSet claimSet) {
+      lookups++;
+      return Optional.fromNullable(keys.get(claimSet.iss + "/" + claimSet.certId));
+    }
+  }
+
+  private static class ManualTicker extends Ticker {
+    private long nanos = 0;
+
+    void advance(long time, TimeUnit unit) {
+      nanos += unit.toNanos(time);
+    }
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+  }
+}
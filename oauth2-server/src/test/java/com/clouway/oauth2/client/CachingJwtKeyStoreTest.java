@@ -0,0 +1,129 @@
+package com.clouway.oauth2.client;
+
+import com.clouway.oauth2.jws.PublicKeyCache;
+import com.clouway.oauth2.jwt.Jwt.ClaimSet;
+import com.clouway.oauth2.jwt.Jwt.Header;
+import com.clouway.oauth2.util.PemKeyGenerator;
+import com.google.common.base.Optional;
+import org.jmock.Expectations;
+import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.concurrent.TimeUnit;
+
+import static com.clouway.oauth2.jwt.Jwt.ClaimSet.newClaimSet;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class CachingJwtKeyStoreTest {
+
+  @Rule
+  public JUnitRuleMockery context = new JUnitRuleMockery();
+
+  private final JwtKeyStore origin = context.mock(JwtKeyStore.class);
+  private final PublicKeyCache cache = new PublicKeyCache(10, 1, TimeUnit.HOURS);
+  private final JwtKeyStore keyStore = new CachingJwtKeyStore(origin, cache);
+
+  private final Header header = new Header("RS256");
+  private final ClaimSet claimSet = newClaimSet().iss("xxx@apps.clouway.com").build();
+
+  @Test
+  public void keyIsRetrievedOnce() {
+    final KeyPair keyPair = PemKeyGenerator.generatePair();
+
+    context.checking(new Expectations() {{
+      oneOf(origin).findPublicKey(header, claimSet);
+      will(returnValue(Optional.of(keyPair.getPublic())));
+    }});
+
+    PublicKey first = keyStore.findPublicKey(header, claimSet).get();
+    PublicKey second = keyStore.findPublicKey(header, claimSet).get();
+
+    assertThat(first, is(equalTo(keyPair.getPublic())));
+    assertThat(second, is(sameInstance(first)));
+    assertThat(cache.stats().hitCount(), is(1L));
+  }
+
+  @Test
+  public void keysAreCachedByKeyId() {
+    final KeyPair firstKey = PemKeyGenerator.generatePair();
+    final KeyPair secondKey = PemKeyGenerator.generatePair();
+    final ClaimSet firstClaimSet = newClaimSet().iss("xxx@apps.clouway.com").certId("key1").build();
+    final ClaimSet secondClaimSet = newClaimSet().iss("xxx@apps.clouway.com").certId("key2").build();
+
+    context.checking(new Expectations() {{
+      oneOf(origin).findPublicKey(header, firstClaimSet);
+      will(returnValue(Optional.of(firstKey.getPublic())));
+
+      oneOf(origin).findPublicKey(header, secondClaimSet);
+      will(returnValue(Optional.of(secondKey.getPublic())));
+    }});
+
+    PublicKey first = keyStore.findPublicKey(header, firstClaimSet).get();
+    PublicKey second = keyStore.findPublicKey(header, secondClaimSet).get();
+
+    assertThat(first, is(equalTo(firstKey.getPublic())));
+    assertThat(second, is(equalTo(secondKey.getPublic())));
+  }
+
+  @Test
+  public void invalidatedKeyIsRetrievedAgain() {
+    final KeyPair oldKey = PemKeyGenerator.generatePair();
+    final KeyPair newKey = PemKeyGenerator.generatePair();
+
+    context.checking(new Expectations() {{
+      oneOf(origin).findPublicKey(header, claimSet);
+      will(returnValue(Optional.of(oldKey.getPublic())));
+
+      oneOf(origin).findPublicKey(header, claimSet);
+      will(returnValue(Optional.of(newKey.getPublic())));
+    }});
+
+    keyStore.findPublicKey(header, claimSet);
+    cache.invalidate(claimSet.iss, claimSet.certId);
+    PublicKey second = keyStore.findPublicKey(header, claimSet).get();
+
+    assertThat(second, is(equalTo(newKey.getPublic())));
+    assertThat(cache.stats().hitCount(), is(0L));
+  }
+
+  @Test
+  public void keysOfInvalidatedIssuerAreRetrievedAgain() {
+    final KeyPair oldKey = PemKeyGenerator.generatePair();
+    final KeyPair newKey = PemKeyGenerator.generatePair();
+    final ClaimSet keyIdClaimSet = newClaimSet().iss("xxx@apps.clouway.com").certId("key1").build();
+
+    context.checking(new Expectations() {{
+      oneOf(origin).findPublicKey(header, keyIdClaimSet);
+      will(returnValue(Optional.of(oldKey.getPublic())));
+
+      oneOf(origin).findPublicKey(header, keyIdClaimSet);
+      will(returnValue(Optional.of(newKey.getPublic())));
+    }});
+
+    keyStore.findPublicKey(header, keyIdClaimSet);
+    cache.invalidateIssuer("xxx@apps.clouway.com");
+    PublicKey second = keyStore.findPublicKey(header, keyIdClaimSet).get();
+
+    assertThat(second, is(equalTo(newKey.getPublic())));
+  }
+
+  @Test
+  public void unknownServiceAccountIsNotCached() {
+    context.checking(new Expectations() {{
+      exactly(2).of(origin).findPublicKey(header, claimSet);
+      will(returnValue(Optional.absent()));
+    }});
+
+    assertThat(keyStore.findPublicKey(header, claimSet).isPresent(), is(false));
+    assertThat(keyStore.findPublicKey(header, claimSet).isPresent(), is(false));
+  }
+}
@@ -0,0 +1,118 @@
+package com.clouway.oauth2.crypto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares lookup of JCA primitives with getInstance against the {@link CryptoPool} at 1, 8 and 32 threads. Each
+ * operation is hashing a PKCE code verifier and preparing an RSA signature for verification, which is the part of
+ * the request that is done before the expensive RSA operation itself.
+ * <p/>
+ * Run with: bazel run //oauth2-server/src/test/java/com/clouway/oauth2/crypto:CryptoPoolBenchmark
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CryptoPoolBenchmark {
+
+  private final byte[] codeVerifier = "dBjftJeZ4CVP-mB92K27uhbUJU1p1r_wW1gFWFOEjXk".getBytes(StandardCharsets.US_ASCII);
+
+  private final CryptoPool<MessageDigest> digests = CryptoPool.messageDigest("SHA-256");
+  private final CryptoPool<Signature> signatures = CryptoPool.signature("SHA256withRSA");
+
+  private PublicKey publicKey;
+
+  @Setup
+  public void setUp() throws Exception {
+    KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+    keyGen.initialize(2048);
+    publicKey = keyGen.generateKeyPair().getPublic();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Object getInstance_1() throws Exception {
+    return getInstance();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public Object getInstance_8() throws Exception {
+    return getInstance();
+  }
+
+  @Benchmark
+  @Threads(32)
+  public Object getInstance_32() throws Exception {
+    return getInstance();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Object pooled_1() throws Exception {
+    return pooled();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public Object pooled_8() throws Exception {
+    return pooled();
+  }
+
+  @Benchmark
+  @Threads(32)
+  public Object pooled_32() throws Exception {
+    return pooled();
+  }
+
+  private byte[] getInstance() throws Exception {
+    byte[] hashed = MessageDigest.getInstance("SHA-256").digest(codeVerifier);
+
+    Signature signature = Signature.getInstance("SHA256withRSA");
+    signature.initVerify(publicKey);
+    signature.update(hashed);
+
+    return hashed;
+  }
+
+  private byte[] pooled() throws Exception {
+    byte[] hashed;
+    MessageDigest digest = digests.acquire();
+    try {
+      hashed = digest.digest(codeVerifier);
+    } finally {
+      digests.release(digest);
+    }
+
+    Signature signature = signatures.acquire();
+    try {
+      signature.initVerify(publicKey);
+      signature.update(hashed);
+    } finally {
+      signatures.release(signature);
+    }
+
+    return hashed;
+  }
+}
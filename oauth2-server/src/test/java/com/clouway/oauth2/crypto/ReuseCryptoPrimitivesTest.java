@@ -0,0 +1,147 @@
+package com.clouway.oauth2.crypto;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class ReuseCryptoPrimitivesTest {
+
+  @Test
+  public void releasedInstanceIsReused() throws Exception {
+    CryptoPool<MessageDigest> pool = new CryptoPool<MessageDigest>(4, new DigestFactory());
+
+    MessageDigest first = pool.acquire();
+    pool.release(first);
+
+    assertThat(pool.acquire(), is(sameInstance(first)));
+  }
+
+  @Test
+  public void newInstanceIsCreatedWhenPoolIsEmpty() throws Exception {
+    CryptoPool<MessageDigest> pool = new CryptoPool<MessageDigest>(4, new DigestFactory());
+
+    MessageDigest first = pool.acquire();
+    MessageDigest second = pool.acquire();
+
+    assertThat(second, is(not(sameInstance(first))));
+  }
+
+  @Test
+  public void digestIsResetOnRelease() throws Exception {
+    CryptoPool<MessageDigest> pool = new CryptoPool<MessageDigest>(4, new DigestFactory());
+
+    MessageDigest digest = pool.acquire();
+    digest.update("::partial content::".getBytes(StandardCharsets.UTF_8));
+    pool.release(digest);
+
+    byte[] expected = MessageDigest.getInstance("SHA-256").digest("::content::".getBytes(StandardCharsets.UTF_8));
+    byte[] actual = pool.acquire().digest("::content::".getBytes(StandardCharsets.UTF_8));
+
+    assertThat(Arrays.equals(actual, expected), is(true));
+  }
+
+  @Test
+  public void instancesOverTheCapacityAreDropped() throws Exception {
+    CryptoPool<MessageDigest> pool = new CryptoPool<MessageDigest>(2, new DigestFactory());
+
+    MessageDigest first = pool.acquire();
+    MessageDigest second = pool.acquire();
+    MessageDigest third = pool.acquire();
+
+    pool.release(first);
+    pool.release(second);
+    pool.release(third);
+
+    assertThat(pool.available(), is(equalTo(2)));
+  }
+
+  @Test
+  public void poolsAreSharedPerAlgorithm() throws Exception {
+    assertThat(CryptoPool.signature("SHA256withRSA"), is(sameInstance(CryptoPool.signature("SHA256withRSA"))));
+    assertThat(CryptoPool.messageDigest("SHA-256"), is(sameInstance(CryptoPool.messageDigest("SHA-256"))));
+    assertThat(CryptoPool.keyFactory("RSA"), is(sameInstance(CryptoPool.keyFactory("RSA"))));
+  }
+
+  @Test
+  public void instancesOfTheRequestedAlgorithmAreReturned() throws Exception {
+    CryptoPool<Signature> pool = CryptoPool.signature("SHA256withECDSA");
+    Signature signature = pool.acquire();
+
+    assertThat(signature.getAlgorithm(), is(equalTo("SHA256withECDSA")));
+  }
+
+  @Test(expected = NoSuchAlgorithmException.class)
+  public void unknownAlgorithm() throws Exception {
+    CryptoPool.messageDigest("::unknown::").acquire();
+  }
+
+  @Test
+  public void concurrentlyUsedDigestsAreNotShared() throws Exception {
+    final CryptoPool<MessageDigest> pool = new CryptoPool<MessageDigest>(2, new DigestFactory());
+    final byte[] content = "::content::".getBytes(StandardCharsets.UTF_8);
+    final byte[] expected = MessageDigest.getInstance("SHA-256").digest(content);
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+      for (int i = 0; i < 8; i++) {
+        results.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws Exception {
+            for (int j = 0; j < 1000; j++) {
+              MessageDigest digest = pool.acquire();
+              try {
+                digest.update(content, 0, 4);
+                digest.update(content, 4, content.length - 4);
+                if (!Arrays.equals(digest.digest(), expected)) {
+                  return false;
+                }
+              } finally {
+                pool.release(digest);
+              }
+            }
+            return true;
+          }
+        }));
+      }
+
+      for (Future<Boolean> each : results) {
+        assertThat(each.get(), is(true));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static class DigestFactory implements CryptoPool.Factory<MessageDigest> {
+    @Override
+    public MessageDigest create() throws GeneralSecurityException {
+      return MessageDigest.getInstance("SHA-256");
+    }
+
+    @Override
+    public void reset(MessageDigest instance) {
+      instance.reset();
+    }
+  }
+}
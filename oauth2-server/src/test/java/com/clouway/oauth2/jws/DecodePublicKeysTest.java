@@ -0,0 +1,63 @@
+package com.clouway.oauth2.jws;
+
+import com.clouway.oauth2.util.PemKeyGenerator;
+import com.google.common.base.Optional;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class DecodePublicKeysTest {
+
+  private final PublicKeyDecoder decoder = new PublicKeyDecoder();
+
+  @Test
+  public void publicKeyIsDerivedFromPrivateKey() {
+    KeyPair keyPair = PemKeyGenerator.generatePair();
+
+    Optional<PublicKey> possibleKey = decoder.decode(
+            new Pem.Block("PRIVATE KEY", Collections.<String, String>emptyMap(), keyPair.getPrivate().getEncoded())
+    );
+
+    assertThat(possibleKey.get(), is(equalTo(keyPair.getPublic())));
+  }
+
+  @Test
+  public void publicKeyBlock() {
+    KeyPair keyPair = PemKeyGenerator.generatePair();
+
+    Optional<PublicKey> possibleKey = decoder.decode(
+            new Pem.Block("PUBLIC KEY", Collections.<String, String>emptyMap(), keyPair.getPublic().getEncoded())
+    );
+
+    assertThat(possibleKey.get(), is(equalTo(keyPair.getPublic())));
+  }
+
+  @Test
+  public void certificateBlockWithEncodedPublicKey() {
+    KeyPair keyPair = PemKeyGenerator.generatePair();
+
+    Optional<PublicKey> possibleKey = decoder.decode(
+            new Pem.Block("CERTIFICATE", Collections.<String, String>emptyMap(), keyPair.getPublic().getEncoded())
+    );
+
+    assertThat(possibleKey.get(), is(equalTo(keyPair.getPublic())));
+  }
+
+  @Test
+  public void malformedBlock() {
+    Optional<PublicKey> possibleKey = decoder.decode(
+            new Pem.Block("PRIVATE KEY", Collections.<String, String>emptyMap(), new byte[]{1, 2, 3})
+    );
+
+    assertThat(possibleKey.isPresent(), is(false));
+  }
+}
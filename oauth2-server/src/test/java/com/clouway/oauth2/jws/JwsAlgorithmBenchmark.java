@@ -0,0 +1,89 @@
+package com.clouway.oauth2.jws;
+
+import com.clouway.oauth2.jwt.Jwt.Header;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of signing and verifying of an id_token sized content with each of the supported algorithms.
+ * <p/>
+ * Run with: bazel run //oauth2-server/src/test/java/com/clouway/oauth2/jws:JwsAlgorithmBenchmark
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwsAlgorithmBenchmark {
+
+  @Param({"RS256", "ES256", "ES384", "EdDSA"})
+  public String algorithm;
+
+  private final byte[] content = ("eyJhbGciOiJSUzI1NiIsImNpZCI6Ijo6a2V5OjoifQ.eyJpc3MiOiJodHRwczovL2FjY291bnRzLmV4YW1wbGUu" +
+          "Y29tIiwiYXVkIjoiOjpjbGllbnQ6OiIsInN1YiI6IjEyMyIsIm5hbWUiOiJKb2huIERvZSIsImVtYWlsIjoiam9obkBleGFtcGxlLmNvbSIs" +
+          "ImdpdmVuX25hbWUiOiJKb2huIiwiZmFtaWx5X25hbWUiOiJEb2UiLCJpYXQiOjE0OTQ3NTk2MDAsImV4cCI6MTQ5NDc2MzIwMH0")
+          .getBytes(StandardCharsets.US_ASCII);
+
+  private JwsAlgorithm jwsAlgorithm;
+  private KeyPair keyPair;
+  private Signature signature;
+
+  @Setup
+  public void setUp() throws Exception {
+    jwsAlgorithm = JwsAlgorithm.valueOf(algorithm);
+    keyPair = generateKeyPair(jwsAlgorithm);
+
+    byte[] value = jwsAlgorithm.sign(keyPair.getPrivate(), content, 0, content.length);
+    signature = new AllowlistSignatureFactory(EnumSet.allOf(JwsAlgorithm.class)).createSignature(value, new Header(algorithm)).get();
+  }
+
+  @Benchmark
+  public byte[] sign() throws Exception {
+    return jwsAlgorithm.sign(keyPair.getPrivate(), content, 0, content.length);
+  }
+
+  @Benchmark
+  public boolean verify() {
+    return signature.verify(content, 0, content.length, keyPair.getPublic());
+  }
+
+  private KeyPair generateKeyPair(JwsAlgorithm algorithm) throws Exception {
+    switch (algorithm) {
+      case ES256:
+        return ecKeyPair("secp256r1");
+      case ES384:
+        return ecKeyPair("secp384r1");
+      case EdDSA:
+        return KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+      default:
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return generator.generateKeyPair();
+    }
+  }
+
+  private KeyPair ecKeyPair(String curve) throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(new ECGenParameterSpec(curve));
+    return generator.generateKeyPair();
+  }
+}
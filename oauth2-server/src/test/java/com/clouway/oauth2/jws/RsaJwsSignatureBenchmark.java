@@ -0,0 +1,75 @@
+package com.clouway.oauth2.jws;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares verification of JWT-bearer assertions by re-signing the content with the private key of the service
+ * account against verification with the public key.
+ * <p/>
+ * Run with: bazel run //oauth2-server/src/test/java/com/clouway/oauth2/jws:RsaJwsSignatureBenchmark
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RsaJwsSignatureBenchmark {
+
+  private final byte[] content = ("eyJhbGciOiJSUzI1NiIsInR5cCI6IkpXVCJ9.eyJpc3MiOiJ4eHhAZGV2ZWxvcGVyLmNvbSIsInNjb3BlIjoidGVzdDEg" +
+          "dGVzdDIiLCJhdWQiOiJodHRwOi8vbG9jYWxob3N0OjkwMDIvb2F1dGgyL3Rva2VuIiwiZXhwIjoxNDYxMjM4OTQ4LCJpYXQiOjE0NjEyMzUzNDh9")
+          .getBytes(StandardCharsets.US_ASCII);
+
+  private Pem.Block privateKey;
+  private PublicKey publicKey;
+  private RsaJwsSignature signature;
+
+  @Setup
+  public void setUp() throws Exception {
+    KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+    keyGen.initialize(2048);
+    KeyPair keyPair = keyGen.generateKeyPair();
+
+    java.security.Signature signer = java.security.Signature.getInstance("SHA256withRSA");
+    signer.initSign(keyPair.getPrivate());
+    signer.update(content);
+
+    privateKey = new Pem.Block("PRIVATE KEY", Collections.<String, String>emptyMap(), keyPair.getPrivate().getEncoded());
+    publicKey = keyPair.getPublic();
+    signature = new RsaJwsSignature(signer.sign());
+  }
+
+  @Benchmark
+  @SuppressWarnings("deprecation")
+  public boolean verifyWithPrivateKey() {
+    return signature.verifyWithPrivateKey(content, privateKey);
+  }
+
+  @Benchmark
+  public boolean verifyWithDerivedPublicKey() {
+    return signature.verify(content, new PublicKeyDecoder().decode(privateKey).get());
+  }
+
+  @Benchmark
+  public boolean verifyWithPublicKey() {
+    return signature.verify(content, publicKey);
+  }
+}
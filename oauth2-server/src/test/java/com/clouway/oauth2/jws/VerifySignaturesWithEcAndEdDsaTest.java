@@ -0,0 +1,130 @@
+package com.clouway.oauth2.jws;
+
+import com.clouway.oauth2.jwt.Jwt.Header;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class VerifySignaturesWithEcAndEdDsaTest {
+
+  private final byte[] content = "eyJhbGciOiJFUzI1NiJ9.eyJpc3MiOiJ4eHhAZGV2ZWxvcGVyLmNvbSJ9".getBytes(StandardCharsets.US_ASCII);
+
+  @Test
+  public void es256() throws Exception {
+    KeyPair keyPair = ecKeyPair("secp256r1");
+
+    byte[] signature = JwsAlgorithm.ES256.sign(keyPair.getPrivate(), content, 0, content.length);
+
+    assertThat(signature.length, is(64));
+    assertTrue(new EcdsaJwsSignature(JwsAlgorithm.ES256, signature).verify(content, keyPair.getPublic()));
+  }
+
+  @Test
+  public void es384() throws Exception {
+    KeyPair keyPair = ecKeyPair("secp384r1");
+
+    byte[] signature = JwsAlgorithm.ES384.sign(keyPair.getPrivate(), content, 0, content.length);
+
+    assertThat(signature.length, is(96));
+    assertTrue(new EcdsaJwsSignature(JwsAlgorithm.ES384, signature).verify(content, keyPair.getPublic()));
+  }
+
+  @Test
+  public void edDsa() throws Exception {
+    KeyPair keyPair = KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+
+    byte[] signature = JwsAlgorithm.EdDSA.sign(keyPair.getPrivate(), content, 0, content.length);
+
+    assertThat(signature.length, is(64));
+    assertTrue(new EdDsaJwsSignature(signature).verify(content, keyPair.getPublic()));
+  }
+
+  @Test
+  public void signatureOfAnotherContent() throws Exception {
+    KeyPair keyPair = ecKeyPair("secp256r1");
+
+    byte[] signature = JwsAlgorithm.ES256.sign(keyPair.getPrivate(), content, 0, content.length);
+
+    assertFalse(new EcdsaJwsSignature(JwsAlgorithm.ES256, signature).verify("::another content::".getBytes(), keyPair.getPublic()));
+  }
+
+  @Test
+  public void keysOfAnotherAlgorithmOrCurveAreNotAccepted() throws Exception {
+    KeyPair p256 = ecKeyPair("secp256r1");
+    KeyPair p384 = ecKeyPair("secp384r1");
+    KeyPair rsa = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+
+    byte[] signature = JwsAlgorithm.ES256.sign(p256.getPrivate(), content, 0, content.length);
+
+    assertFalse(new EcdsaJwsSignature(JwsAlgorithm.ES384, signature).verify(content, p256.getPublic()));
+    assertFalse(new EcdsaJwsSignature(JwsAlgorithm.ES256, signature).verify(content, p384.getPublic()));
+    assertFalse(new EdDsaJwsSignature(signature).verify(content, p256.getPublic()));
+    assertFalse(new RsaJwsSignature(signature).verify(content, p256.getPublic()));
+    assertFalse(new EcdsaJwsSignature(JwsAlgorithm.ES256, signature).verify(content, rsa.getPublic()));
+  }
+
+  @Test(expected = java.security.InvalidKeyException.class)
+  public void signingWithKeyOfAnotherAlgorithm() throws Exception {
+    KeyPair rsa = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+
+    JwsAlgorithm.ES256.sign(rsa.getPrivate(), content, 0, content.length);
+  }
+
+  @Test
+  public void algorithmIsDeterminedByTheKey() throws Exception {
+    assertThat(JwsAlgorithm.forKey(ecKeyPair("secp256r1").getPublic()).get(), is(JwsAlgorithm.ES256));
+    assertThat(JwsAlgorithm.forKey(ecKeyPair("secp384r1").getPublic()).get(), is(JwsAlgorithm.ES384));
+    assertThat(JwsAlgorithm.forKey(KeyPairGenerator.getInstance("Ed25519").generateKeyPair().getPublic()).get(), is(JwsAlgorithm.EdDSA));
+    assertThat(JwsAlgorithm.forKey(KeyPairGenerator.getInstance("RSA").generateKeyPair().getPublic()).get(), is(JwsAlgorithm.RS256));
+  }
+
+  @Test
+  public void onlyAllowedAlgorithmsAreCreated() {
+    AllowlistSignatureFactory factory = new AllowlistSignatureFactory(ImmutableSet.of(JwsAlgorithm.RS256, JwsAlgorithm.ES256));
+
+    assertTrue(factory.createSignature(new byte[0], new Header("RS256")).isPresent());
+    assertTrue(factory.createSignature(new byte[0], new Header("ES256")).isPresent());
+    assertFalse(factory.createSignature(new byte[0], new Header("ES384")).isPresent());
+    assertFalse(factory.createSignature(new byte[0], new Header("EdDSA")).isPresent());
+    assertFalse(factory.createSignature(new byte[0], new Header("none")).isPresent());
+    assertFalse(factory.createSignature(new byte[0], new Header("HS256")).isPresent());
+    assertFalse(factory.createSignature(new byte[0], new Header("es256")).isPresent());
+    assertFalse(factory.createSignature(new byte[0], new Header(null)).isPresent());
+  }
+
+  @Test
+  public void derSignaturesAreConvertedToJoseAndBack() throws Exception {
+    KeyPair keyPair = ecKeyPair("secp256r1");
+
+    for (int i = 0; i < 50; i++) {
+      java.security.Signature signer = java.security.Signature.getInstance("SHA256withECDSA");
+      signer.initSign(keyPair.getPrivate());
+      signer.update(content);
+      byte[] der = signer.sign();
+
+      byte[] jose = EcdsaSignatureFormat.toJose(der, 32);
+
+      assertThat(jose.length, is(64));
+      assertThat(EcdsaSignatureFormat.toDer(jose), is(equalTo(der)));
+    }
+  }
+
+  private KeyPair ecKeyPair(String curve) throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(new ECGenParameterSpec(curve));
+    return generator.generateKeyPair();
+  }
+}
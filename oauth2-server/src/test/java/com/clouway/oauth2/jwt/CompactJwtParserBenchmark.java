@@ -0,0 +1,71 @@
+package com.clouway.oauth2.jwt;
+
+import com.clouway.oauth2.jwt.Jwt.ClaimSet;
+import com.clouway.oauth2.jwt.Jwt.Header;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.io.BaseEncoding;
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares parsing of JWT-bearer assertions with Splitter and Gson, as it was done by the JwtController, against the
+ * single pass {@link CompactJwtParser}.
+ * <p/>
+ * Run with: bazel run //oauth2-server/src/test/java/com/clouway/oauth2/jwt:CompactJwtParserBenchmark -- -prof gc
+ * <p/>
+ * The gc profiler reports the allocation rate per operation (gc.alloc.rate.norm) next to the throughput.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompactJwtParserBenchmark {
+
+  private final String assertion = "eyJhbGciOiJSUzI1NiIsInR5cCI6IkpXVCJ9." +
+          "eyJpc3MiOiJ4eHhAZGV2ZWxvcGVyLmNvbSIsInNjb3BlIjoidGVzdDEgdGVzdDIiLCJhdWQiOiJodHRwOi8vbG9jYWxob3N0OjkwMDIvb2F1dGgy" +
+          "L3Rva2VuIiwiZXhwIjoxNDYxMjM4OTQ4LCJpYXQiOjE0NjEyMzUzNDgsInN1YiI6InVzZXJAZXhhbXBsZS5jb20iLCJwcm4iOiJ1c2VyQGV4YW1w" +
+          "bGUuY29tIn0." +
+          "WBAzzss3J8Ea6-xxOCVS2OZ2HoqpiLdfCLhIJEevaPck377qTpiM__lHta_S8dSCuTl5FjREqixIiwGrJVJEIkfExUwS5YWekdJRniSKdqLjmXu" +
+          "ssePaCSgco3reJDqNcRCGiv9DSLH0GfZFdv11Ik5nyaHjNnS4ykEi76guaY8-T3uVFjOH4e2o8Wm0vBbq9hzo9UHdgnsI2BLrzDVoydGWM7uZW8M" +
+          "QNKTuGWY_Ywyj1hilr9rw4yy2FvBe7G-56qaq8--IlVNZ6ocJX2dYhZPqDtZUYwLRqwFyM_F53Kt81I8Qht6HBgH-fgrfbd7Ms67BeLGsupFvuM" +
+          "9sF-hGOQ";
+
+  private final Gson gson = new Gson();
+  private final CompactJwtParser parser = new CompactJwtParser();
+
+  @Benchmark
+  public void splitterAndGson(Blackhole blackhole) {
+    List<String> parts = Lists.newArrayList(Splitter.on(".").split(assertion));
+
+    String headerValue = new String(BaseEncoding.base64Url().decode(parts.get(0)));
+    String content = new String(BaseEncoding.base64Url().decode(parts.get(1)));
+    byte[] signatureValue = BaseEncoding.base64Url().decode(parts.get(2));
+
+    blackhole.consume(gson.fromJson(headerValue, Header.class));
+    blackhole.consume(gson.fromJson(content, ClaimSet.class));
+    blackhole.consume(signatureValue);
+    blackhole.consume(String.format("%s.%s", parts.get(0), parts.get(1)).getBytes());
+  }
+
+  @Benchmark
+  public CompactJwt compactJwtParser() {
+    return parser.parse(assertion).get();
+  }
+}
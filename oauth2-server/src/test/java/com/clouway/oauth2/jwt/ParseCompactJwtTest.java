@@ -0,0 +1,173 @@
+package com.clouway.oauth2.jwt;
+
+import com.google.common.base.Optional;
+import com.google.common.io.BaseEncoding;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class ParseCompactJwtTest {
+
+  private final CompactJwtParser parser = new CompactJwtParser();
+
+  @Test
+  public void headerAndClaimSet() {
+    String token = token(
+            "{\"alg\":\"RS256\",\"typ\":\"JWT\"}",
+            "{\"iss\":\"xxx@developer.com\",\"scope\":\"test1 test2\",\"aud\":\"http://localhost:9002/oauth2/token\"," +
+                    "\"exp\":1461238948,\"iat\":1461235348,\"sub\":\"user@example.com\",\"prn\":\"user@example.com\"}",
+            "::signature::"
+    );
+
+    CompactJwt jwt = parser.parse(token).get();
+
+    assertThat(jwt.header.alg, is(equalTo("RS256")));
+    assertThat(jwt.claimSet.iss, is(equalTo("xxx@developer.com")));
+    assertThat(jwt.claimSet.scope, is(equalTo("test1 test2")));
+    assertThat(jwt.claimSet.aud, is(equalTo("http://localhost:9002/oauth2/token")));
+    assertThat(jwt.claimSet.exp, is(equalTo(1461238948L)));
+    assertThat(jwt.claimSet.iat, is(equalTo(1461235348L)));
+    assertThat(jwt.claimSet.sub, is(equalTo("user@example.com")));
+    assertThat(jwt.claimSet.prn, is(equalTo("user@example.com")));
+    assertThat(jwt.claimSet.typ, is(nullValue()));
+    assertThat(jwt.claimSet.customClaims, is(nullValue()));
+  }
+
+  @Test
+  public void signingInputIsTheRangeBeforeTheSecondDot() {
+    String token = token("{\"alg\":\"RS256\"}", "{\"iss\":\"::iss::\"}", "::signature::");
+
+    CompactJwt jwt = parser.parse(token).get();
+
+    String signingInput = new String(jwt.content(), 0, jwt.signingInputLength(), StandardCharsets.US_ASCII);
+    assertThat(signingInput, is(equalTo(token.substring(0, token.lastIndexOf('.')))));
+    assertThat(new String(jwt.signature(), StandardCharsets.UTF_8), is(equalTo("::signature::")));
+  }
+
+  @Test
+  public void unknownMembersAreSkipped() {
+    String token = token(
+            "{\"kid\":\"::kid::\",\"x5c\":[\"a\",\"b\"],\"alg\":\"RS256\"}",
+            "{\"nested\":{\"a\":[1,2,{\"b\":null}],\"c\":true},\"iss\":\"::iss::\",\"amount\":-1.5e3}",
+            "::signature::"
+    );
+
+    CompactJwt jwt = parser.parse(token).get();
+
+    assertThat(jwt.header.alg, is(equalTo("RS256")));
+    assertThat(jwt.claimSet.iss, is(equalTo("::iss::")));
+  }
+
+  @Test
+  public void escapedStrings() {
+    String token = token("{\"alg\":\"RS256\"}", "{\"iss\":\"a\\\"b\\\\c\\u00e9\\n\",\"\\u0073cope\":\"x\"}", "::signature::");
+
+    CompactJwt jwt = parser.parse(token).get();
+
+    assertThat(jwt.claimSet.iss, is(equalTo("a\"b\\c\u00e9\n")));
+    assertThat(jwt.claimSet.scope, is(equalTo("x")));
+  }
+
+  @Test
+  public void customClaims() {
+    String token = token("{\"alg\":\"RS256\"}", "{\"customClaims\":{\"customerId\":\"::id::\",\"roles\":[\"a\",\"b\"]}}", "::signature::");
+
+    CompactJwt jwt = parser.parse(token).get();
+
+    assertThat(jwt.claimSet.customClaims.get("customerId"), is(equalTo((Object) "::id::")));
+    assertThat(jwt.claimSet.customClaims.get("roles"), is(equalTo((Object) Arrays.asList("a", "b"))));
+  }
+
+  @Test
+  public void numbersOfCustomClaimsAreDoubles() {
+    String token = token("{\"alg\":\"RS256\"}", "{\"customClaims\":{\"level\":3,\"ratio\":0.5,\"ids\":[1,2]}}", "::signature::");
+
+    CompactJwt jwt = parser.parse(token).get();
+
+    assertThat(jwt.claimSet.customClaims.get("level"), is(equalTo((Object) 3.0)));
+    assertThat(jwt.claimSet.customClaims.get("ratio"), is(equalTo((Object) 0.5)));
+    assertThat(jwt.claimSet.customClaims.get("ids"), is(equalTo((Object) Arrays.asList(1.0, 2.0))));
+  }
+
+  @Test
+  public void paddedParts() {
+    String header = BaseEncoding.base64Url().encode("{\"alg\":\"RS256\"}".getBytes(StandardCharsets.UTF_8));
+    String claims = BaseEncoding.base64Url().encode("{\"iss\":\"::iss::\"}".getBytes(StandardCharsets.UTF_8));
+
+    CompactJwt jwt = parser.parse(header + "." + claims + ".AA==").get();
+
+    assertThat(jwt.claimSet.iss, is(equalTo("::iss::")));
+    assertThat(jwt.signature().length, is(1));
+  }
+
+  @Test
+  public void malformedTokens() {
+    String header = encode("{\"alg\":\"RS256\"}");
+    String claims = encode("{\"iss\":\"::iss::\"}");
+
+    for (String token : Arrays.asList(
+            "",
+            header,
+            header + "." + claims,
+            header + "." + claims + ".",
+            "." + claims + ".AA",
+            header + "..AA",
+            header + "." + claims + ".AA.AA",
+            header + "." + claims + ".A",
+            header + "." + claims + ".A*",
+            header + "." + encode("{\"iss\":\"::iss::\"") + ".AA",
+            header + "." + encode("{\"iss\":\"::iss::\"}x") + ".AA",
+            header + "." + encode("{\"exp\":\"soon\"}") + ".AA",
+            header + "." + encode("[]") + ".AA",
+            header + "." + claims + "\u00e9.AA")) {
+      assertFalse("token '" + token + "' was parsed", parser.parse(token).isPresent());
+    }
+  }
+
+  @Test
+  public void malformedClaimSets() {
+    String header = encode("{\"alg\":\"RS256\"}");
+
+    for (String claims : Arrays.asList(
+            "{\"iss\":\"\\u00",
+            "{\"iss\":\"\\u00\"}",
+            "{\"iss\":\"\\u00zz\"}",
+            "{\"iss\":\"\\u+0e9\"}",
+            "{\"\\u007",
+            "{\"iss\":\"a\" \"sub\":\"b\"}",
+            "{,\"iss\":\"a\"}",
+            "{\"iss\":\"a\",}",
+            "{\"iss\":\"a\",,\"sub\":\"b\"}",
+            "{\"x\":[1 2],\"iss\":\"a\"}",
+            "{\"x\":[1,],\"iss\":\"a\"}",
+            "{\"x\":{\"a\":1 \"b\":2},\"iss\":\"a\"}",
+            "{\"exp\":-}",
+            "{\"x\":-,\"iss\":\"a\"}")) {
+      String token = header + "." + encode(claims) + ".AA";
+      assertFalse("claims '" + claims + "' were parsed", parser.parse(token).isPresent());
+    }
+  }
+
+  @Test
+  public void nullToken() {
+    assertThat(parser.parse(null), is(Optional.<CompactJwt>absent()));
+  }
+
+  private String token(String header, String claims, String signature) {
+    return encode(header) + "." + encode(claims) + "." + encode(signature);
+  }
+
+  private String encode(String value) {
+    return BaseEncoding.base64Url().omitPadding().encode(value.getBytes(StandardCharsets.UTF_8));
+  }
+}
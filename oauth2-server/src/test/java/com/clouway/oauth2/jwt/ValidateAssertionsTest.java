@@ -0,0 +1,122 @@
+package com.clouway.oauth2.jwt;
+
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.common.Duration;
+import com.clouway.oauth2.jwt.AssertionValidator.Rejection;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.BaseEncoding;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class ValidateAssertionsTest {
+
+  private final DateTime now = new DateTime(1461235348000L);
+
+  private final AssertionValidator validator = AssertionValidator.newValidator()
+          .clockSkew(Duration.seconds(30L))
+          .audiences(ImmutableSet.of("https://example.com/oauth2/token"))
+          .build();
+
+  @Test
+  public void validAssertion() {
+    AssertionValidator.Result result = validator.validate(assertion("{\"iss\":\"::iss::\",\"aud\":\"https://example.com/oauth2/token\",\"iat\":1461235348,\"exp\":1461238948}"), now);
+
+    assertTrue(result.isAccepted());
+    assertThat(result.jwt().claimSet.iss, is(equalTo("::iss::")));
+  }
+
+  @Test
+  public void expiredAssertion() {
+    assertThat(validate("{\"aud\":\"https://example.com/oauth2/token\",\"exp\":1461235317}"), is(Rejection.EXPIRED));
+  }
+
+  @Test
+  public void expiredWithinClockSkew() {
+    assertThat(validate("{\"aud\":\"https://example.com/oauth2/token\",\"exp\":1461235319}"), is((Rejection) null));
+  }
+
+  @Test
+  public void assertionWithoutExpiration() {
+    assertThat(validate("{\"aud\":\"https://example.com/oauth2/token\"}"), is(Rejection.MALFORMED));
+  }
+
+  @Test
+  public void issuedInTheFuture() {
+    assertThat(validate("{\"aud\":\"https://example.com/oauth2/token\",\"iat\":1461235379,\"exp\":1461238948}"), is(Rejection.NOT_YET_VALID));
+  }
+
+  @Test
+  public void issuedInTheFutureWithinClockSkew() {
+    assertThat(validate("{\"aud\":\"https://example.com/oauth2/token\",\"iat\":1461235378,\"exp\":1461238948}"), is((Rejection) null));
+  }
+
+  @Test
+  public void notValidYet() {
+    assertThat(validate("{\"aud\":\"https://example.com/oauth2/token\",\"nbf\":1461235379,\"exp\":1461238948}"), is(Rejection.NOT_YET_VALID));
+  }
+
+  @Test
+  public void anotherAudience() {
+    assertThat(validate("{\"aud\":\"https://another.com/oauth2/token\",\"exp\":1461238948}"), is(Rejection.INVALID_AUDIENCE));
+    assertThat(validate("{\"exp\":1461238948}"), is(Rejection.INVALID_AUDIENCE));
+  }
+
+  @Test
+  public void audienceIsNotCheckedWhenNotConfigured() {
+    AssertionValidator validator = AssertionValidator.newValidator().build();
+
+    assertTrue(validator.validate(assertion("{\"aud\":\"https://another.com/oauth2/token\",\"exp\":1461238948}"), now).isAccepted());
+  }
+
+  @Test
+  public void oversizedAssertion() {
+    AssertionValidator validator = AssertionValidator.newValidator().maxLength(128).build();
+
+    String assertion = assertion("{\"exp\":1461238948,\"scope\":\"" + Strings.repeat("x", 128) + "\"}");
+
+    assertThat(validator.validate(assertion, now).rejection(), is(Rejection.OVERSIZED));
+  }
+
+  @Test
+  public void malformedAssertion() {
+    assertThat(validator.validate("::malformed::", now).rejection(), is(Rejection.MALFORMED));
+    assertThat(validator.validate("", now).rejection(), is(Rejection.MALFORMED));
+    assertThat(validator.validate(null, now).rejection(), is(Rejection.MALFORMED));
+  }
+
+  @Test
+  public void rejectionsAreCountedPerReason() {
+    validate("{\"aud\":\"https://example.com/oauth2/token\",\"exp\":1461235317}");
+    validate("{\"aud\":\"https://example.com/oauth2/token\",\"exp\":1461235317}");
+    validate("{\"aud\":\"https://another.com/oauth2/token\",\"exp\":1461238948}");
+    validate("{\"aud\":\"https://example.com/oauth2/token\",\"exp\":1461238948}");
+
+    AssertionValidator.Stats stats = validator.stats();
+    assertThat(stats.rejections(Rejection.EXPIRED), is(2L));
+    assertThat(stats.rejections(Rejection.INVALID_AUDIENCE), is(1L));
+    assertThat(stats.rejections(Rejection.MALFORMED), is(0L));
+    assertThat(stats.totalRejections(), is(3L));
+  }
+
+  private Rejection validate(String claims) {
+    return validator.validate(assertion(claims), now).rejection();
+  }
+
+  private String assertion(String claims) {
+    return encode("{\"alg\":\"RS256\"}") + "." + encode(claims) + "." + encode("::signature::");
+  }
+
+  private String encode(String value) {
+    return BaseEncoding.base64Url().omitPadding().encode(value.getBytes(StandardCharsets.UTF_8));
+  }
+}
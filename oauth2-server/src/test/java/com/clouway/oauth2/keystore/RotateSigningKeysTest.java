@@ -0,0 +1,111 @@
+package com.clouway.oauth2.keystore;
+
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.common.Duration;
+import com.clouway.oauth2.util.PemKeyGenerator;
+import com.google.common.base.Optional;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class RotateSigningKeysTest {
+  private static final KeyPair keyPair = PemKeyGenerator.generatePair();
+
+  private final IdentityKeyPair firstKey = new IdentityKeyPair("::first key::", keyPair.getPrivate(), keyPair.getPublic());
+  private final IdentityKeyPair secondKey = new IdentityKeyPair("::second key::", keyPair.getPrivate(), keyPair.getPublic());
+  private final IdentityKeyPair thirdKey = new IdentityKeyPair("::third key::", keyPair.getPrivate(), keyPair.getPublic());
+
+  private final DateTime firstActivation = new DateTime(1461235348000L);
+  private final DateTime secondActivation = firstActivation.plusSeconds(7 * 24 * 3600);
+  private final DateTime thirdActivation = secondActivation.plusSeconds(7 * 24 * 3600);
+
+  private final KeyRotation rotation = KeyRotation.newKeyRotation()
+          .key(thirdKey, thirdActivation)
+          .key(firstKey, firstActivation)
+          .key(secondKey, secondActivation)
+          .retirement(Duration.hours(1))
+          .build();
+
+  @Test
+  public void singleKeyIsActive() {
+    KeySet keySet = rotation.keysAt(firstActivation.plusSeconds(60));
+
+    assertThat(keySet.active, is(equalTo(Optional.of(firstKey))));
+    assertThat(keySet.next, is(equalTo(Optional.of(secondKey))));
+    assertThat(keySet.retired.isEmpty(), is(true));
+    assertThat(rotation.signingKey(firstActivation.plusSeconds(60)), is(equalTo(Optional.of(firstKey))));
+  }
+
+  @Test
+  public void activeKeyIsReplacedAtActivationOfTheNextKey() {
+    assertThat(rotation.signingKey(secondActivation.minusSeconds(1)), is(equalTo(Optional.of(firstKey))));
+    assertThat(rotation.signingKey(secondActivation), is(equalTo(Optional.of(secondKey))));
+    assertThat(rotation.signingKey(thirdActivation.plusSeconds(60)), is(equalTo(Optional.of(thirdKey))));
+  }
+
+  @Test
+  public void replacedKeyIsRetired() {
+    KeySet keySet = rotation.keysAt(secondActivation.plusSeconds(60));
+
+    assertThat(keySet.active, is(equalTo(Optional.of(secondKey))));
+    assertThat(keySet.next, is(equalTo(Optional.of(thirdKey))));
+    assertThat(keySet.retired, is(equalTo(Collections.singletonList(firstKey))));
+    assertThat(keySet.verificationKeys(), is(equalTo(Arrays.asList(secondKey, thirdKey, firstKey))));
+  }
+
+  @Test
+  public void retiredKeyIsRemovedAfterRetirement() {
+    KeySet keySet = rotation.keysAt(secondActivation.plusSeconds(3600));
+
+    assertThat(keySet.retired.isEmpty(), is(true));
+    assertThat(keySet.verificationKeys(), is(equalTo(Arrays.asList(secondKey, thirdKey))));
+  }
+
+  @Test
+  public void keySetIsValidUntilTheNextChange() {
+    KeySet beforeRotation = rotation.keysAt(firstActivation.plusSeconds(60));
+    KeySet afterRotation = rotation.keysAt(secondActivation.plusSeconds(60));
+    KeySet afterRetirement = rotation.keysAt(secondActivation.plusSeconds(7200));
+
+    assertThat(beforeRotation.validFrom, is(firstActivation.timestamp()));
+    assertThat(beforeRotation.validUntil, is(secondActivation.timestamp()));
+    assertThat(afterRotation.validFrom, is(secondActivation.timestamp()));
+    assertThat(afterRotation.validUntil, is(secondActivation.plusSeconds(3600).timestamp()));
+    assertThat(afterRetirement.validFrom, is(secondActivation.plusSeconds(3600).timestamp()));
+    assertThat(afterRetirement.validUntil, is(thirdActivation.timestamp()));
+  }
+
+  @Test
+  public void keySetIsReusedUntilItChanges() {
+    KeySet keySet = rotation.keysAt(firstActivation.plusSeconds(60));
+
+    assertThat(rotation.keysAt(firstActivation.plusSeconds(120)), is(sameInstance(keySet)));
+  }
+
+  @Test
+  public void lastKeyIsActiveForever() {
+    KeySet keySet = rotation.keysAt(thirdActivation.plusSeconds(3600));
+
+    assertThat(keySet.next.isPresent(), is(false));
+    assertThat(keySet.validUntil, is(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void noKeyIsActiveBeforeTheFirstActivation() {
+    KeySet keySet = rotation.keysAt(firstActivation.minusSeconds(1));
+
+    assertThat(keySet.active.isPresent(), is(false));
+    assertThat(keySet.next, is(equalTo(Optional.of(firstKey))));
+    assertThat(rotation.signingKey(firstActivation.minusSeconds(1)).isPresent(), is(false));
+  }
+}
@@ -0,0 +1,167 @@
+package com.clouway.oauth2.keystore;
+
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.util.PemKeyGenerator;
+import com.google.common.base.Optional;
+import org.junit.After;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class SnapshotKeysTest {
+  private static final KeyPair keyPair = PemKeyGenerator.generatePair();
+
+  private final IdentityKeyPair firstKey = new IdentityKeyPair("::first key::", keyPair.getPrivate(), keyPair.getPublic());
+  private final IdentityKeyPair secondKey = new IdentityKeyPair("::second key::", keyPair.getPrivate(), keyPair.getPublic());
+
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void keysAreRetrievedOnCreation() {
+    FakeKeyStore keyStore = new FakeKeyStore(Collections.singletonList(firstKey));
+
+    SnapshotKeyStore snapshotKeyStore = new SnapshotKeyStore(keyStore, executor, 1, TimeUnit.HOURS);
+
+    assertThat(snapshotKeyStore.getKeys(), is(equalTo(Collections.singletonList(firstKey))));
+    assertThat(keyStore.calls, is(1));
+  }
+
+  @Test
+  public void requestsAreServedFromTheSnapshot() {
+    FakeKeyStore keyStore = new FakeKeyStore(Collections.singletonList(firstKey));
+    SnapshotKeyStore snapshotKeyStore = new SnapshotKeyStore(keyStore, executor, 1, TimeUnit.HOURS);
+
+    snapshotKeyStore.getKeys();
+    snapshotKeyStore.getKeys();
+
+    assertThat(keyStore.calls, is(1));
+  }
+
+  @Test
+  public void signingKeyIsSelectedByTheWrappedRotation() {
+    DateTime now = new DateTime();
+    KeyRotation rotation = KeyRotation.newKeyRotation()
+            .key(firstKey, now.minusSeconds(600))
+            .key(secondKey, now.plusSeconds(600))
+            .build();
+
+    SnapshotKeyStore snapshotKeyStore = new SnapshotKeyStore(rotation, executor, 1, TimeUnit.HOURS);
+
+    assertThat(snapshotKeyStore.signingKey(now), is(equalTo(Optional.of(firstKey))));
+    assertThat(snapshotKeyStore.signingKey(now.plusSeconds(601)), is(equalTo(Optional.of(secondKey))));
+  }
+
+  @Test
+  public void firstKeyOfSnapshotIsSigningKeyOfOtherStores() {
+    FakeKeyStore keyStore = new FakeKeyStore(Arrays.asList(firstKey, secondKey));
+
+    SnapshotKeyStore snapshotKeyStore = new SnapshotKeyStore(keyStore, executor, 1, TimeUnit.HOURS);
+
+    assertThat(snapshotKeyStore.signingKey(new DateTime()), is(equalTo(Optional.of(firstKey))));
+  }
+
+  @Test
+  public void rotatedKeysAreAvailableAfterRefresh() {
+    FakeKeyStore keyStore = new FakeKeyStore(Collections.singletonList(firstKey));
+    SnapshotKeyStore snapshotKeyStore = new SnapshotKeyStore(keyStore, executor, 1, TimeUnit.HOURS);
+
+    keyStore.keys = Collections.singletonList(secondKey);
+
+    assertThat(snapshotKeyStore.refresh(), is(true));
+    assertThat(snapshotKeyStore.getKeys(), is(equalTo(Collections.singletonList(secondKey))));
+  }
+
+  @Test
+  public void lastKeysAreServedWhenRefreshFails() {
+    FakeKeyStore keyStore = new FakeKeyStore(Collections.singletonList(firstKey));
+    SnapshotKeyStore snapshotKeyStore = new SnapshotKeyStore(keyStore, executor, 1, TimeUnit.HOURS);
+
+    keyStore.failure = new IllegalStateException("secrets store is not available");
+
+    assertThat(snapshotKeyStore.refresh(), is(false));
+    assertThat(snapshotKeyStore.getKeys(), is(equalTo(Collections.singletonList(firstKey))));
+    assertThat(snapshotKeyStore.failures(), is(1L));
+  }
+
+  @Test
+  public void noKeysAreServedWhenFirstRetrievalFails() {
+    FakeKeyStore keyStore = new FakeKeyStore(Collections.singletonList(firstKey));
+    keyStore.failure = new IllegalStateException("secrets store is not available");
+
+    SnapshotKeyStore snapshotKeyStore = new SnapshotKeyStore(keyStore, executor, 1, TimeUnit.HOURS);
+
+    assertThat(snapshotKeyStore.getKeys().isEmpty(), is(true));
+  }
+
+  @Test
+  public void snapshotIsNotModifiable() {
+    FakeKeyStore keyStore = new FakeKeyStore(Collections.singletonList(firstKey));
+    SnapshotKeyStore snapshotKeyStore = new SnapshotKeyStore(keyStore, executor, 1, TimeUnit.HOURS);
+
+    try {
+      snapshotKeyStore.getKeys().add(secondKey);
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+
+    assertThat(snapshotKeyStore.getKeys(), is(equalTo(Collections.singletonList(firstKey))));
+  }
+
+  @Test
+  public void keysAreRefreshedInTheBackground() throws Exception {
+    final CountDownLatch refreshed = new CountDownLatch(4);
+    FakeKeyStore keyStore = new FakeKeyStore(Collections.singletonList(firstKey)) {
+      @Override
+      public List<IdentityKeyPair> getKeys() {
+        List<IdentityKeyPair> keys = super.getKeys();
+        refreshed.countDown();
+        return keys;
+      }
+    };
+    SnapshotKeyStore snapshotKeyStore = new SnapshotKeyStore(keyStore, executor, 10, TimeUnit.MILLISECONDS);
+
+    keyStore.keys = Collections.singletonList(secondKey);
+
+    assertThat(refreshed.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(snapshotKeyStore.getKeys(), is(equalTo(Collections.singletonList(secondKey))));
+    snapshotKeyStore.close();
+  }
+
+  private static class FakeKeyStore implements KeyStore {
+    private volatile List<IdentityKeyPair> keys;
+    private volatile RuntimeException failure;
+    private int calls;
+
+    FakeKeyStore(List<IdentityKeyPair> keys) {
+      this.keys = keys;
+    }
+
+    @Override
+    public List<IdentityKeyPair> getKeys() {
+      calls++;
+      if (failure != null) {
+        throw failure;
+      }
+      return keys;
+    }
+  }
+}
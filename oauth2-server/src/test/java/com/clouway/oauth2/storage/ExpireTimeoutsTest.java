@@ -0,0 +1,203 @@
+package com.clouway.oauth2.storage;
+
+import com.clouway.oauth2.storage.TimingWheel.Timeout;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class ExpireTimeoutsTest {
+
+  private final TimingWheel<String> wheel = new TimingWheel<String>(1000);
+  private final Fired fired = new Fired();
+
+  @Test
+  public void timeoutIsFiredAfterItsDeadline() {
+    wheel.advance(0, fired);
+    wheel.schedule(new Timeout<String>("::first::"), 5000);
+
+    assertThat(wheel.advance(5000, fired), is(0));
+    assertThat(wheel.advance(5999, fired), is(0));
+    assertThat(wheel.advance(6000, fired), is(1));
+    assertThat(fired.values, contains("::first::"));
+    assertThat(wheel.size(), is(0));
+  }
+
+  @Test
+  public void cancelledTimeoutIsNotFired() {
+    Timeout<String> timeout = new Timeout<String>("::first::");
+    wheel.advance(0, fired);
+    wheel.schedule(timeout, 5000);
+
+    wheel.cancel(timeout);
+    wheel.advance(10000, fired);
+
+    assertThat(fired.values, is(empty()));
+    assertThat(wheel.size(), is(0));
+  }
+
+  @Test
+  public void rescheduledTimeoutIsFiredOnItsNewDeadline() {
+    Timeout<String> timeout = new Timeout<String>("::first::");
+    wheel.advance(0, fired);
+    wheel.schedule(timeout, 5000);
+
+    wheel.schedule(timeout, 20000);
+    wheel.advance(10000, fired);
+    assertThat(fired.values, is(empty()));
+
+    wheel.advance(21000, fired);
+    assertThat(fired.values, contains("::first::"));
+  }
+
+  @Test
+  public void overdueTimeoutIsFiredOnNextTick() {
+    wheel.advance(10000, fired);
+    wheel.schedule(new Timeout<String>("::first::"), 2000);
+
+    wheel.advance(11000, fired);
+
+    assertThat(fired.values, contains("::first::"));
+  }
+
+  @Test
+  public void timeoutsOfHigherLevelsAreFiredOnTime() {
+    long start = 1500000000000L;
+    Random random = new Random(1);
+    List<Timeout<String>> timeouts = new ArrayList<Timeout<String>>();
+    long[] deadlines = new long[2000];
+
+    wheel.advance(start, fired);
+    for (int i = 0; i < deadlines.length; i++) {
+      // spread from seconds up to about 3 years, which is beyond the span of the wheel
+      deadlines[i] = start + (long) (Math.pow(random.nextDouble(), 4) * 100000000000L);
+      Timeout<String> timeout = new Timeout<String>(String.valueOf(i));
+      timeouts.add(timeout);
+      wheel.schedule(timeout, deadlines[i]);
+    }
+
+    final long[] now = {start};
+    final List<String> late = new ArrayList<String>();
+    final long[] expected = deadlines;
+    TimingWheel.Expiration<String> expiration = new TimingWheel.Expiration<String>() {
+      @Override
+      public void expired(Timeout<String> timeout) {
+        long deadline = expected[Integer.parseInt(timeout.value)];
+        if (now[0] <= deadline || now[0] - deadline > 1000) {
+          late.add(timeout.value);
+        }
+        fired.values.add(timeout.value);
+      }
+    };
+
+    while (wheel.size() > 0) {
+      now[0] += 1000;
+      wheel.advance(now[0], expiration);
+    }
+
+    assertThat(late, is(empty()));
+    assertThat(fired.values.size(), is(deadlines.length));
+  }
+
+  @Test
+  public void timeoutsAreFiredOnTimeAfterLongGaps() {
+    long start = 1500000000000L;
+    Random random = new Random(1);
+    final long[] deadlines = new long[2000];
+
+    wheel.start(start);
+    for (int i = 0; i < deadlines.length; i++) {
+      deadlines[i] = start + (long) (Math.pow(random.nextDouble(), 4) * 100000000000L);
+      wheel.schedule(new Timeout<String>(String.valueOf(i)), deadlines[i]);
+    }
+
+    // each timeout should be fired by the first advance after the tick of its deadline
+    final long[] previous = {start};
+    final long[] now = {start};
+    final List<String> late = new ArrayList<String>();
+    TimingWheel.Expiration<String> expiration = new TimingWheel.Expiration<String>() {
+      @Override
+      public void expired(Timeout<String> timeout) {
+        long dueTick = deadlines[Integer.parseInt(timeout.value)] / 1000 + 1;
+        if (now[0] / 1000 < dueTick || previous[0] / 1000 >= dueTick) {
+          late.add(timeout.value);
+        }
+        fired.values.add(timeout.value);
+      }
+    };
+
+    while (wheel.size() > 0) {
+      previous[0] = now[0];
+      now[0] += (long) (random.nextDouble() * 30L * 24 * 3600 * 1000);
+      wheel.advance(now[0], expiration);
+    }
+
+    assertThat(late, is(empty()));
+    assertThat(fired.values.size(), is(deadlines.length));
+  }
+
+  @Test
+  public void startedWheelIsNotDelayingEarlierTimeouts() {
+    wheel.start(0);
+    wheel.schedule(new Timeout<String>("::later::"), 3600000);
+    wheel.schedule(new Timeout<String>("::earlier::"), 5000);
+
+    wheel.advance(6000, fired);
+
+    assertThat(fired.values, contains("::earlier::"));
+  }
+
+  @Test
+  public void timeoutsCouldBeCancelledWhileFiring() {
+    final Timeout<String> first = new Timeout<String>("::first::");
+    final Timeout<String> second = new Timeout<String>("::second::");
+    wheel.advance(0, fired);
+    wheel.schedule(first, 5000);
+    wheel.schedule(second, 5000);
+
+    final List<String> values = new ArrayList<String>();
+    wheel.advance(6000, new TimingWheel.Expiration<String>() {
+      @Override
+      public void expired(Timeout<String> timeout) {
+        values.add(timeout.value);
+        wheel.cancel(timeout == first ? second : first);
+      }
+    });
+
+    assertThat(values.size(), is(1));
+    assertThat(wheel.size(), is(0));
+  }
+
+  @Test
+  public void earliestTimeout() {
+    Timeout<String> first = new Timeout<String>("::first::");
+    Timeout<String> second = new Timeout<String>("::second::");
+    wheel.advance(0, fired);
+    assertThat(wheel.earliest(), is(nullValue()));
+
+    wheel.schedule(second, 3600000);
+    wheel.schedule(first, 10000);
+
+    assertThat(wheel.earliest(), is(equalTo(first)));
+  }
+
+  private static class Fired implements TimingWheel.Expiration<String> {
+    final List<String> values = new ArrayList<String>();
+
+    @Override
+    public void expired(Timeout<String> timeout) {
+      values.add(timeout.value);
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package com.clouway.oauth2.storage;
+
+import com.clouway.oauth2.client.Client;
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.token.GrantType;
+import com.clouway.oauth2.token.Identity;
+import com.clouway.oauth2.token.TokenRequest;
+import com.google.common.collect.ImmutableSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures issuing of tokens by {@link JournaledTokens} with each {@link FsyncPolicy} at 1 and 16 threads, so the
+ * cost of the forces and the effect of the group commit are compared with the journal that is never forced.
+ * <p/>
+ * The journal is written in the temp directory, so it should be on the same device as the journal of the server for
+ * the results to be meaningful.
+ * <p/>
+ * Run with: bazel run //oauth2-server/src/test/java/com/clouway/oauth2/storage:JournaledTokensBenchmark
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JournaledTokensBenchmark {
+
+  @Param({"everyCommit", "batched", "periodic", "never"})
+  public String fsync;
+
+  private final Client client = new Client("::client1::", "::secret::", "", Collections.<String>emptySet(), false);
+  private final Identity identity = new Identity("::identity::", "::name::", "", "", "::email::", "", Collections.<String, Object>emptyMap());
+  private final DateTime instant = new DateTime();
+
+  private File directory;
+  private JournaledTokens tokens;
+
+  @Setup
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("journal").toFile();
+    tokens = JournaledTokens.newJournaledTokens(directory)
+            .tokens(MemoryTokens.newMemoryTokens().maxTokens(1000000).build())
+            .fsync(policy())
+            .build();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    tokens.close();
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File each : files) {
+        each.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Object issue_1() {
+    return tokens.issueToken(tokenRequest());
+  }
+
+  @Benchmark
+  @Threads(16)
+  public Object issue_16() {
+    return tokens.issueToken(tokenRequest());
+  }
+
+  private FsyncPolicy policy() {
+    if ("everyCommit".equals(fsync)) {
+      return FsyncPolicy.everyCommit();
+    }
+    if ("batched".equals(fsync)) {
+      return FsyncPolicy.batched(200, TimeUnit.MICROSECONDS);
+    }
+    if ("periodic".equals(fsync)) {
+      return FsyncPolicy.periodic(100, TimeUnit.MILLISECONDS);
+    }
+    return FsyncPolicy.never();
+  }
+
+  private TokenRequest tokenRequest() {
+    return TokenRequest.newTokenRequest()
+            .grantType(GrantType.AUTHORIZATION_CODE)
+            .client(client)
+            .identity(identity)
+            .scopes(ImmutableSet.of("openid"))
+            .when(instant)
+            .build();
+  }
+}
@@ -0,0 +1,327 @@
+package com.clouway.oauth2.storage;
+
+import com.clouway.oauth2.client.Client;
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.token.BearerToken;
+import com.clouway.oauth2.token.GrantType;
+import com.clouway.oauth2.token.Identity;
+import com.clouway.oauth2.token.TokenRequest;
+import com.clouway.oauth2.token.TokenResponse;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class KeepTokensInJournalTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final Client client = new Client("::client1::", "::secret::", "", Collections.<String>emptySet(), false);
+  private final Identity identity = new Identity("::identity::", "::name::", "", "", "::email::", "", Collections.<String, Object>emptyMap());
+  private final Map<String, String> params = ImmutableMap.of("::key::", "::value::");
+
+  private final DateTime anyInstant = new DateTime(1500000000000L);
+  private final List<JournaledTokens> opened = new ArrayList<JournaledTokens>();
+
+  @After
+  public void closeTokens() throws IOException {
+    for (JournaledTokens each : opened) {
+      each.close();
+    }
+  }
+
+  @Test
+  public void issuedTokenIsAvailableAfterReopening() throws Exception {
+    JournaledTokens tokens = newTokens().build();
+    TokenResponse response = tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid", "email")));
+    tokens.close();
+
+    JournaledTokens reopened = open(newTokens());
+
+    assertThat(reopened.findTokenAvailableAt(response.accessToken.value, anyInstant), is(equalTo(Optional.of(new BearerToken(
+            response.accessToken.value, GrantType.AUTHORIZATION_CODE, "::identity::", "::client1::", "::email::",
+            ImmutableSet.of("openid", "email"), anyInstant.plusSeconds(3600), params)))));
+    assertThat(reopened.refreshToken(response.refreshToken, anyInstant).isSuccessful(), is(true));
+  }
+
+  @Test
+  public void refreshedTokenIsAvailableAfterReopening() throws Exception {
+    JournaledTokens tokens = newTokens().tokens(MemoryTokens.newMemoryTokens().generatesNewRefreshToken(true).build()).build();
+    TokenResponse issued = tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid")));
+    TokenResponse refreshed = tokens.refreshToken(issued.refreshToken, anyInstant.plusSeconds(60));
+    tokens.close();
+
+    JournaledTokens reopened = open(newTokens());
+
+    assertThat(reopened.findTokenAvailableAt(issued.accessToken.value, anyInstant.plusSeconds(60)).isPresent(), is(false));
+    assertThat(reopened.findTokenAvailableAt(refreshed.accessToken.value, anyInstant.plusSeconds(60)), is(equalTo(Optional.of(refreshed.accessToken))));
+    assertThat(reopened.refreshToken(issued.refreshToken, anyInstant.plusSeconds(60)).isSuccessful(), is(false));
+    assertThat(reopened.refreshToken(refreshed.refreshToken, anyInstant.plusSeconds(60)).isSuccessful(), is(true));
+  }
+
+  @Test
+  public void revokedTokenIsNotAvailableAfterReopening() throws Exception {
+    JournaledTokens tokens = newTokens().build();
+    TokenResponse revoked = tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid")));
+    TokenResponse kept = tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid")));
+    tokens.revokeToken(revoked.refreshToken);
+    tokens.close();
+
+    JournaledTokens reopened = open(newTokens());
+
+    assertThat(reopened.findTokenAvailableAt(revoked.accessToken.value, anyInstant).isPresent(), is(false));
+    assertThat(reopened.refreshToken(revoked.refreshToken, anyInstant).isSuccessful(), is(false));
+    assertThat(reopened.findTokenAvailableAt(kept.accessToken.value, anyInstant).isPresent(), is(true));
+  }
+
+  @Test
+  public void extendedTokenIsAvailableAfterReopening() throws Exception {
+    JournaledTokens tokens = newTokens().build();
+    TokenResponse response = tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid")));
+    tokens.extendExpirations(ImmutableMap.of(response.accessToken.value, anyInstant.plusSeconds(7200)));
+    tokens.close();
+
+    JournaledTokens reopened = open(newTokens());
+
+    assertThat(reopened.findTokenAvailableAt(response.accessToken.value, anyInstant.plusSeconds(7200)).isPresent(), is(true));
+    assertThat(reopened.findTokenAvailableAt(response.accessToken.value, anyInstant.plusSeconds(7201)).isPresent(), is(false));
+  }
+
+  @Test
+  public void batchOfIssuedAndRevokedTokensIsAvailableAfterReopening() throws Exception {
+    JournaledTokens tokens = newTokens().build();
+    List<TokenResponse> responses = tokens.issueTokens(ImmutableList.of(
+            tokenRequest(anyInstant, ImmutableSet.of("openid")),
+            tokenRequest(anyInstant, ImmutableSet.of("email")),
+            tokenRequest(anyInstant, ImmutableSet.of("profile"))
+    ));
+    tokens.revokeTokens(ImmutableList.of(responses.get(0).accessToken.value, responses.get(2).accessToken.value));
+    tokens.close();
+
+    JournaledTokens reopened = open(newTokens());
+    Map<String, BearerToken> found = reopened.findTokensAvailableAt(ImmutableList.of(
+            responses.get(0).accessToken.value,
+            responses.get(1).accessToken.value,
+            responses.get(2).accessToken.value
+    ), anyInstant);
+
+    assertThat(responses.size(), is(3));
+    assertThat(responses.get(1).accessToken.scopes, is((Set<String>) ImmutableSet.of("email")));
+    assertThat(found.keySet(), is((Set<String>) ImmutableSet.of(responses.get(1).accessToken.value)));
+  }
+
+  @Test
+  public void tokensOfRevokedIdentityAreNotAvailableAfterReopening() throws Exception {
+    JournaledTokens tokens = newTokens().build();
+    TokenResponse first = tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid")));
+    TokenResponse second = tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("email")));
+    assertThat(tokens.revokeAllForIdentity("::identity::"), is(2));
+    TokenResponse issuedAfter = tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid")));
+    tokens.close();
+
+    JournaledTokens reopened = open(newTokens());
+
+    assertThat(reopened.findTokenAvailableAt(first.accessToken.value, anyInstant).isPresent(), is(false));
+    assertThat(reopened.findTokenAvailableAt(second.accessToken.value, anyInstant).isPresent(), is(false));
+    assertThat(reopened.findTokenAvailableAt(issuedAfter.accessToken.value, anyInstant).isPresent(), is(true));
+    assertThat(reopened.revokeAllForClient("::client1::"), is(1));
+  }
+
+  @Test(expected = UncheckedIOException.class)
+  public void revocationWhichCannotBeWrittenIsNotIgnored() throws Exception {
+    JournaledTokens tokens = newTokens().build();
+    TokenResponse response = tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid")));
+    tokens.close();
+
+    tokens.revokeToken(response.accessToken.value);
+  }
+
+  @Test(expected = UncheckedIOException.class)
+  public void batchOfRevocationsWhichCannotBeWrittenIsNotIgnored() throws Exception {
+    JournaledTokens tokens = newTokens().build();
+    TokenResponse response = tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid")));
+    tokens.close();
+
+    tokens.revokeTokens(ImmutableList.of(response.accessToken.value));
+  }
+
+  @Test(expected = UncheckedIOException.class)
+  public void revocationOfIdentityWhichCannotBeWrittenIsNotIgnored() throws Exception {
+    JournaledTokens tokens = newTokens().build();
+    tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid")));
+    tokens.close();
+
+    tokens.revokeAllForIdentity("::identity::");
+  }
+
+  @Test
+  public void snapshotReplacesTheSegmentsItCovers() throws Exception {
+    JournaledTokens tokens = newTokens().segmentSize(1024).snapshotEvery(0).build();
+    List<TokenResponse> responses = new ArrayList<TokenResponse>();
+    for (int i = 0; i < 100; i++) {
+      responses.add(tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid"))));
+    }
+    for (int i = 0; i < 100; i += 2) {
+      tokens.revokeToken(responses.get(i).accessToken.value);
+    }
+    tokens.snapshot();
+    TokenResponse afterSnapshot = tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid")));
+    tokens.close();
+
+    List<String> snapshots = new ArrayList<String>();
+    for (String each : folder.getRoot().list()) {
+      if (each.startsWith("snapshot-")) {
+        snapshots.add(each);
+      }
+    }
+    assertThat(snapshots, is(equalTo((List<String>) Arrays.asList("snapshot-00000000000000000150.snap"))));
+    assertThat(new File(folder.getRoot(), "journal-00000000000000000001.log").exists(), is(false));
+
+    JournaledTokens reopened = open(newTokens());
+    for (int i = 0; i < 100; i++) {
+      assertThat(reopened.findTokenAvailableAt(responses.get(i).accessToken.value, anyInstant).isPresent(), is(i % 2 == 1));
+    }
+    assertThat(reopened.findTokenAvailableAt(afterSnapshot.accessToken.value, anyInstant).isPresent(), is(true));
+  }
+
+  @Test
+  public void snapshotIsTakenInBackground() throws Exception {
+    JournaledTokens tokens = open(newTokens().snapshotEvery(10));
+
+    for (int i = 0; i < 10; i++) {
+      tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid")));
+    }
+
+    File snapshot = new File(folder.getRoot(), "snapshot-00000000000000000010.snap");
+    for (int i = 0; i < 100 && !snapshot.exists(); i++) {
+      Thread.sleep(50);
+    }
+    assertThat(snapshot.exists(), is(true));
+  }
+
+  @Test
+  public void partiallyWrittenEventIsTruncated() throws Exception {
+    JournaledTokens tokens = newTokens().build();
+    TokenResponse response = tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid")));
+    tokens.close();
+
+    // the length of the event is written, but the process was killed before its payload
+    FileOutputStream segment = new FileOutputStream(new File(folder.getRoot(), "journal-00000000000000000001.log"), true);
+    try {
+      segment.write(new byte[]{64, 0, 0, 0, 1, 2, 3});
+    } finally {
+      segment.close();
+    }
+
+    JournaledTokens reopened = newTokens().build();
+    TokenResponse next = reopened.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid")));
+    reopened.close();
+
+    JournaledTokens again = open(newTokens());
+    assertThat(again.findTokenAvailableAt(response.accessToken.value, anyInstant).isPresent(), is(true));
+    assertThat(again.findTokenAvailableAt(next.accessToken.value, anyInstant).isPresent(), is(true));
+  }
+
+  @Test
+  public void tokensAreKeptByEachFsyncPolicy() throws Exception {
+    List<FsyncPolicy> policies = Arrays.asList(FsyncPolicy.everyCommit(), FsyncPolicy.batched(1, TimeUnit.MILLISECONDS),
+            FsyncPolicy.periodic(10, TimeUnit.MILLISECONDS), FsyncPolicy.never());
+
+    for (FsyncPolicy policy : policies) {
+      File directory = folder.newFolder(policy.toString());
+      JournaledTokens tokens = JournaledTokens.newJournaledTokens(directory).fsync(policy).build();
+      List<String> issued = new ArrayList<String>();
+      for (int i = 0; i < 50; i++) {
+        issued.add(tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid"))).accessToken.value);
+      }
+      tokens.close();
+
+      JournaledTokens reopened = open(JournaledTokens.newJournaledTokens(directory));
+      for (String each : issued) {
+        assertThat(policy + " " + each, reopened.findTokenAvailableAt(each, anyInstant).isPresent(), is(true));
+      }
+    }
+  }
+
+  @Test
+  public void concurrentRequestsAreJournaled() throws Exception {
+    final JournaledTokens tokens = newTokens().fsync(FsyncPolicy.batched(1, TimeUnit.MILLISECONDS)).build();
+    final List<String> issued = Collections.synchronizedList(new ArrayList<String>());
+
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 8; t++) {
+      threads.add(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 200; i++) {
+            TokenResponse response = tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid")));
+            if (i % 3 == 0) {
+              response = tokens.refreshToken(response.refreshToken, anyInstant);
+            }
+            issued.add(response.accessToken.value);
+          }
+        }
+      }));
+    }
+    for (Thread each : threads) {
+      each.start();
+    }
+    for (Thread each : threads) {
+      each.join();
+    }
+    tokens.close();
+
+    JournaledTokens reopened = open(newTokens());
+    assertThat(issued.size(), is(1600));
+    for (String each : issued) {
+      assertThat(reopened.findTokenAvailableAt(each, anyInstant).isPresent(), is(true));
+    }
+    assertThat(reopened.issueToken(tokenRequest(anyInstant, ImmutableSet.<String>of())).accessToken.value, is(not(equalTo(""))));
+  }
+
+  private JournaledTokens open(JournaledTokens.Builder builder) throws IOException {
+    JournaledTokens tokens = builder.build();
+    opened.add(tokens);
+    return tokens;
+  }
+
+  private JournaledTokens.Builder newTokens() {
+    return JournaledTokens.newJournaledTokens(folder.getRoot());
+  }
+
+  private TokenRequest tokenRequest(DateTime when, Set<String> scopes) {
+    return TokenRequest.newTokenRequest()
+            .grantType(GrantType.AUTHORIZATION_CODE)
+            .client(client)
+            .identity(identity)
+            .scopes(scopes)
+            .params(params)
+            .when(when)
+            .build();
+  }
+}
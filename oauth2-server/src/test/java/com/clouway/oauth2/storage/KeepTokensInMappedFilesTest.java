@@ -0,0 +1,264 @@
+package com.clouway.oauth2.storage;
+
+import com.clouway.oauth2.client.Client;
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.common.Duration;
+import com.clouway.oauth2.token.BearerToken;
+import com.clouway.oauth2.token.GrantType;
+import com.clouway.oauth2.token.Identity;
+import com.clouway.oauth2.token.TokenRequest;
+import com.clouway.oauth2.token.TokenResponse;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class KeepTokensInMappedFilesTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final Client client = new Client("::client1::", "::secret::", "", Collections.<String>emptySet(), false);
+  private final Identity identity = new Identity("::identity::", "::name::", "", "", "::email::", "", Collections.<String, Object>emptyMap());
+  private final Map<String, String> params = ImmutableMap.of("::key::", "::value::");
+
+  private final DateTime anyInstant = new DateTime(1500000000000L);
+  private final List<MappedTokens> opened = new ArrayList<MappedTokens>();
+
+  @After
+  public void closeTokens() throws IOException {
+    for (MappedTokens each : opened) {
+      each.close();
+    }
+  }
+
+  @Test
+  public void issuedTokenIsAvailable() throws Exception {
+    MappedTokens tokens = open(newTokens());
+
+    TokenResponse response = tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid", "email")));
+
+    assertThat(response.isSuccessful(), is(true));
+    assertThat(tokens.findTokenAvailableAt(response.accessToken.value, anyInstant), is(equalTo(Optional.of(new BearerToken(
+            response.accessToken.value, GrantType.AUTHORIZATION_CODE, "::identity::", "::client1::", "::email::",
+            ImmutableSet.of("openid", "email"), anyInstant.plusSeconds(3600), params)))));
+  }
+
+  @Test
+  public void expiredTokenIsNotAvailable() throws Exception {
+    MappedTokens tokens = open(newTokens());
+
+    TokenResponse response = tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid")));
+
+    assertThat(tokens.findTokenAvailableAt(response.accessToken.value, anyInstant.plusSeconds(3600)).isPresent(), is(true));
+    assertThat(tokens.findTokenAvailableAt(response.accessToken.value, anyInstant.plusSeconds(3601)).isPresent(), is(false));
+  }
+
+  @Test
+  public void refreshTokenIsNotAnAccessToken() throws Exception {
+    MappedTokens tokens = open(newTokens());
+
+    TokenResponse response = tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid")));
+
+    assertThat(tokens.findTokenAvailableAt(response.refreshToken, anyInstant).isPresent(), is(false));
+    assertThat(tokens.findTokenAvailableAt("::unknown::", anyInstant).isPresent(), is(false));
+  }
+
+  @Test
+  public void tokensAreAvailableAfterReopening() throws Exception {
+    MappedTokens tokens = newTokens().build();
+    TokenResponse response = tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid")));
+    tokens.close();
+
+    MappedTokens reopened = open(newTokens());
+
+    Optional<BearerToken> token = reopened.findTokenAvailableAt(response.accessToken.value, anyInstant);
+    assertThat(token, is(equalTo(Optional.of(response.accessToken))));
+    assertThat(reopened.refreshToken(response.refreshToken, anyInstant).isSuccessful(), is(true));
+  }
+
+  @Test
+  public void refreshedTokenReplacesTheOldOne() throws Exception {
+    MappedTokens tokens = open(newTokens());
+    TokenResponse issued = tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid")));
+
+    TokenResponse refreshed = tokens.refreshToken(issued.refreshToken, anyInstant.plusSeconds(60));
+
+    assertThat(refreshed.isSuccessful(), is(true));
+    assertThat(refreshed.refreshToken, is(equalTo(issued.refreshToken)));
+    assertThat(refreshed.accessToken.ttlSeconds(anyInstant.plusSeconds(60)), is(3600L));
+    assertThat(refreshed.accessToken.scopes, is(equalTo((Set<String>) ImmutableSet.of("openid"))));
+    assertThat(tokens.findTokenAvailableAt(issued.accessToken.value, anyInstant.plusSeconds(60)).isPresent(), is(false));
+    assertThat(tokens.findTokenAvailableAt(refreshed.accessToken.value, anyInstant.plusSeconds(60)), is(equalTo(Optional.of(refreshed.accessToken))));
+  }
+
+  @Test
+  public void newRefreshTokenIsGeneratedOnRefresh() throws Exception {
+    MappedTokens tokens = open(newTokens().generatesNewRefreshToken(true));
+    TokenResponse issued = tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid")));
+
+    TokenResponse refreshed = tokens.refreshToken(issued.refreshToken, anyInstant.plusSeconds(60));
+
+    assertThat(refreshed.refreshToken, is(not(equalTo(issued.refreshToken))));
+    assertThat(tokens.refreshToken(issued.refreshToken, anyInstant.plusSeconds(60)).isSuccessful(), is(false));
+    assertThat(tokens.findTokenAvailableAt(issued.accessToken.value, anyInstant.plusSeconds(60)).isPresent(), is(false));
+    assertThat(tokens.refreshToken(refreshed.refreshToken, anyInstant.plusSeconds(60)).isSuccessful(), is(true));
+  }
+
+  @Test
+  public void expiredRefreshTokenIsNotRefreshed() throws Exception {
+    MappedTokens tokens = open(newTokens().refreshTokenTimeToLive(Duration.hours(2)));
+    TokenResponse issued = tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid")));
+
+    assertThat(tokens.refreshToken(issued.refreshToken, anyInstant.plusSeconds(7201)).isSuccessful(), is(false));
+  }
+
+  @Test
+  public void revokedTokensAreNotAvailable() throws Exception {
+    MappedTokens tokens = open(newTokens());
+    TokenResponse first = tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid")));
+    TokenResponse second = tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid")));
+
+    tokens.revokeToken(first.accessToken.value);
+    tokens.revokeToken(second.refreshToken);
+
+    assertThat(tokens.findTokenAvailableAt(first.accessToken.value, anyInstant).isPresent(), is(false));
+    assertThat(tokens.refreshToken(first.refreshToken, anyInstant).isSuccessful(), is(false));
+    assertThat(tokens.findTokenAvailableAt(second.accessToken.value, anyInstant).isPresent(), is(false));
+    assertThat(tokens.refreshToken(second.refreshToken, anyInstant).isSuccessful(), is(false));
+  }
+
+  @Test
+  public void scopesBeyondTheBitsetAreKept() throws Exception {
+    MappedTokens tokens = open(newTokens());
+    Set<String> scopes = new LinkedHashSet<String>();
+    for (int i = 0; i < TokenTable.MAX_SCOPES + 10; i++) {
+      scopes.add("scope" + i);
+    }
+
+    TokenResponse response = tokens.issueToken(tokenRequest(anyInstant, scopes));
+
+    assertThat(tokens.findTokenAvailableAt(response.accessToken.value, anyInstant).get().scopes, is(equalTo(scopes)));
+  }
+
+  @Test
+  public void tableIsRebuiltWhenFilled() throws Exception {
+    MappedTokens tokens = open(newTokens().initialCapacity(16).heapSegmentSize(4096));
+
+    List<TokenResponse> responses = new ArrayList<TokenResponse>();
+    for (int i = 0; i < 1000; i++) {
+      responses.add(tokens.issueToken(tokenRequest(anyInstant.plusSeconds(i), ImmutableSet.of("openid"))));
+    }
+    for (int i = 0; i < 1000; i += 2) {
+      tokens.revokeToken(responses.get(i).accessToken.value);
+    }
+    for (int i = 0; i < 200; i++) {
+      tokens.issueToken(tokenRequest(anyInstant.plusSeconds(1000 + i), ImmutableSet.of("openid")));
+    }
+    tokens.close();
+
+    MappedTokens reopened = open(newTokens());
+    for (int i = 0; i < 1000; i++) {
+      TokenResponse response = responses.get(i);
+      assertThat(reopened.findTokenAvailableAt(response.accessToken.value, anyInstant.plusSeconds(1200)).isPresent(), is(i % 2 == 1));
+    }
+    assertThat(reopened.refreshToken(responses.get(1).refreshToken, anyInstant.plusSeconds(1200)).isSuccessful(), is(true));
+    assertThat(folder.getRoot().list().length, is(2));
+  }
+
+  @Test
+  public void allTokensOfIdentityAreRevoked() throws Exception {
+    MappedTokens tokens = open(newTokens());
+    Identity otherIdentity = new Identity("::other identity::", "::name::", "", "", "::email::", "", Collections.<String, Object>emptyMap());
+    TokenResponse first = tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid")));
+    TokenResponse second = tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid")));
+    TokenResponse other = tokens.issueToken(tokenRequest(client, otherIdentity, anyInstant));
+
+    assertThat(tokens.revokeAllForIdentity("::identity::"), is(2));
+
+    assertThat(tokens.findTokenAvailableAt(first.accessToken.value, anyInstant).isPresent(), is(false));
+    assertThat(tokens.findTokenAvailableAt(second.accessToken.value, anyInstant).isPresent(), is(false));
+    assertThat(tokens.refreshToken(first.refreshToken, anyInstant).isSuccessful(), is(false));
+    assertThat(tokens.findTokenAvailableAt(other.accessToken.value, anyInstant).isPresent(), is(true));
+    assertThat(tokens.refreshToken(other.refreshToken, anyInstant).isSuccessful(), is(true));
+  }
+
+  @Test
+  public void allTokensOfClientAreRevoked() throws Exception {
+    MappedTokens tokens = open(newTokens());
+    Client otherClient = new Client("::client2::", "::secret::", "", Collections.<String>emptySet(), false);
+    TokenResponse first = tokens.issueToken(tokenRequest(anyInstant, ImmutableSet.of("openid")));
+    TokenResponse other = tokens.issueToken(tokenRequest(otherClient, identity, anyInstant));
+
+    assertThat(tokens.revokeAllForClient("::client1::"), is(1));
+
+    assertThat(tokens.findTokenAvailableAt(first.accessToken.value, anyInstant).isPresent(), is(false));
+    assertThat(tokens.refreshToken(first.refreshToken, anyInstant).isSuccessful(), is(false));
+    assertThat(tokens.findTokenAvailableAt(other.accessToken.value, anyInstant).isPresent(), is(true));
+  }
+
+  @Test
+  public void slotsOfExpiredTokensAreReused() throws Exception {
+    MappedTokens tokens = open(newTokens().initialCapacity(64).timeToLive(Duration.seconds(1L)).refreshTokenTimeToLive(Duration.seconds(2L)));
+
+    TokenResponse last = null;
+    for (int i = 0; i < 1000; i++) {
+      last = tokens.issueToken(tokenRequest(anyInstant.plusSeconds(i * 3), ImmutableSet.of("openid")));
+    }
+
+    assertThat(last.isSuccessful(), is(true));
+    assertThat(new File(folder.getRoot(), "tokens.table").length(), is(4096L + 64 * 128));
+  }
+
+  private MappedTokens open(MappedTokens.Builder builder) throws IOException {
+    MappedTokens tokens = builder.build();
+    opened.add(tokens);
+    return tokens;
+  }
+
+  private MappedTokens.Builder newTokens() {
+    return MappedTokens.newMappedTokens(folder.getRoot());
+  }
+
+  private TokenRequest tokenRequest(Client client, Identity identity, DateTime when) {
+    return TokenRequest.newTokenRequest()
+            .grantType(GrantType.AUTHORIZATION_CODE)
+            .client(client)
+            .identity(identity)
+            .scopes(ImmutableSet.of("openid"))
+            .params(params)
+            .when(when)
+            .build();
+  }
+
+  private TokenRequest tokenRequest(DateTime when, Set<String> scopes) {
+    return TokenRequest.newTokenRequest()
+            .grantType(GrantType.AUTHORIZATION_CODE)
+            .client(client)
+            .identity(identity)
+            .scopes(scopes)
+            .params(params)
+            .when(when)
+            .build();
+  }
+}
@@ -0,0 +1,354 @@
+package com.clouway.oauth2.storage;
+
+import com.clouway.oauth2.client.Client;
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.common.Duration;
+import com.clouway.oauth2.token.BearerToken;
+import com.clouway.oauth2.token.GrantType;
+import com.clouway.oauth2.token.Identity;
+import com.clouway.oauth2.token.TokenGenerator;
+import com.clouway.oauth2.token.TokenRequest;
+import com.clouway.oauth2.token.TokenResponse;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class KeepTokensInMemoryTest {
+
+  private final Client client = new Client("::client1::", "::secret::", "", Collections.<String>emptySet(), false);
+  private final Identity identity = new Identity("::identity::", "::name::", "", "", "::email::", "", Collections.<String, Object>emptyMap());
+  private final Map<String, String> params = ImmutableMap.of("::key::", "::value::");
+
+  private final DateTime anyInstant = new DateTime(1500000000000L);
+
+  @Test
+  public void issuedTokenIsAvailable() {
+    MemoryTokens tokens = newTokens().build();
+
+    TokenResponse response = tokens.issueToken(tokenRequest(anyInstant));
+
+    assertThat(response.isSuccessful(), is(true));
+    assertThat(tokens.findTokenAvailableAt(response.accessToken.value, anyInstant), is(equalTo(Optional.of(new BearerToken(
+            response.accessToken.value, GrantType.AUTHORIZATION_CODE, "::identity::", "::client1::", "::email::",
+            ImmutableSet.of("openid"), anyInstant.plusSeconds(3600), params)))));
+  }
+
+  @Test
+  public void expiredTokenIsNotAvailable() {
+    MemoryTokens tokens = newTokens().build();
+
+    TokenResponse response = tokens.issueToken(tokenRequest(anyInstant));
+
+    assertThat(tokens.findTokenAvailableAt(response.accessToken.value, anyInstant.plusSeconds(3600)).isPresent(), is(true));
+    assertThat(tokens.findTokenAvailableAt(response.accessToken.value, anyInstant.plusSeconds(3601)).isPresent(), is(false));
+  }
+
+  @Test
+  public void unknownTokenIsNotAvailable() {
+    MemoryTokens tokens = newTokens().build();
+
+    assertThat(tokens.findTokenAvailableAt("::unknown::", anyInstant).isPresent(), is(false));
+  }
+
+  @Test
+  public void expiredTokensAreRemoved() {
+    MemoryTokens tokens = newTokens()
+            .timeToLive(Duration.minutes(10))
+            .refreshTokenTimeToLive(Duration.minutes(20))
+            .build();
+
+    TokenResponse response = tokens.issueToken(tokenRequest(anyInstant));
+
+    assertThat(tokens.expire(anyInstant.plusSeconds(600)), is(0));
+    assertThat(tokens.expire(anyInstant.plusSeconds(601)), is(1));
+    assertThat(tokens.stats().size, is(1L));
+    assertThat(tokens.refreshToken(response.refreshToken, anyInstant.plusSeconds(900)).isSuccessful(), is(true));
+
+    assertThat(tokens.expire(anyInstant.plusSeconds(1300)), is(1));
+    assertThat(tokens.stats().size, is(0L));
+    assertThat(tokens.stats().expirations, is(1L));
+  }
+
+  @Test
+  public void extendedTokenExpiresLater() {
+    MemoryTokens tokens = newTokens().timeToLive(Duration.minutes(10)).build();
+    TokenResponse response = tokens.issueToken(tokenRequest(anyInstant));
+
+    tokens.extendExpirations(ImmutableMap.of(response.accessToken.value, anyInstant.plusSeconds(1200), "::unknown::", anyInstant.plusSeconds(1200)));
+
+    assertThat(tokens.expire(anyInstant.plusSeconds(601)), is(0));
+    assertThat(tokens.findTokenAvailableAt(response.accessToken.value, anyInstant.plusSeconds(1200)).isPresent(), is(true));
+    assertThat(tokens.expire(anyInstant.plusSeconds(1201)), is(1));
+    assertThat(tokens.findTokenAvailableAt(response.accessToken.value, anyInstant.plusSeconds(1201)).isPresent(), is(false));
+  }
+
+  @Test
+  public void expirationIsNotShortened() {
+    MemoryTokens tokens = newTokens().timeToLive(Duration.minutes(10)).build();
+    TokenResponse response = tokens.issueToken(tokenRequest(anyInstant));
+
+    tokens.extendExpirations(ImmutableMap.of(response.accessToken.value, anyInstant.plusSeconds(60)));
+
+    assertThat(tokens.findTokenAvailableAt(response.accessToken.value, anyInstant.plusSeconds(600)).isPresent(), is(true));
+  }
+
+  @Test
+  public void refreshedTokenReplacesTheOldOne() {
+    MemoryTokens tokens = newTokens().build();
+    TokenResponse issued = tokens.issueToken(tokenRequest(anyInstant));
+
+    TokenResponse refreshed = tokens.refreshToken(issued.refreshToken, anyInstant.plusSeconds(60));
+
+    assertThat(refreshed.isSuccessful(), is(true));
+    assertThat(refreshed.accessToken.value, is(not(equalTo(issued.accessToken.value))));
+    assertThat(refreshed.refreshToken, is(equalTo(issued.refreshToken)));
+    assertThat(refreshed.accessToken.ttlSeconds(anyInstant.plusSeconds(60)), is(3600L));
+    assertThat(tokens.findTokenAvailableAt(issued.accessToken.value, anyInstant.plusSeconds(60)).isPresent(), is(false));
+    assertThat(tokens.findTokenAvailableAt(refreshed.accessToken.value, anyInstant.plusSeconds(60)).isPresent(), is(true));
+  }
+
+  @Test
+  public void newRefreshTokenIsGeneratedOnRefresh() {
+    MemoryTokens tokens = newTokens().generatesNewRefreshToken(true).build();
+    TokenResponse issued = tokens.issueToken(tokenRequest(anyInstant));
+
+    TokenResponse refreshed = tokens.refreshToken(issued.refreshToken, anyInstant.plusSeconds(60));
+
+    assertThat(refreshed.refreshToken, is(not(equalTo(issued.refreshToken))));
+    assertThat(tokens.refreshToken(issued.refreshToken, anyInstant.plusSeconds(60)).isSuccessful(), is(false));
+    assertThat(tokens.refreshToken(refreshed.refreshToken, anyInstant.plusSeconds(60)).isSuccessful(), is(true));
+  }
+
+  @Test
+  public void expiredRefreshTokenIsNotRefreshed() {
+    MemoryTokens tokens = newTokens().refreshTokenTimeToLive(Duration.hours(2)).build();
+    TokenResponse issued = tokens.issueToken(tokenRequest(anyInstant));
+
+    TokenResponse refreshed = tokens.refreshToken(issued.refreshToken, anyInstant.plusSeconds(7201));
+
+    assertThat(refreshed.isSuccessful(), is(false));
+  }
+
+  @Test
+  public void revokedTokensAreNotAvailable() {
+    MemoryTokens tokens = newTokens().build();
+    TokenResponse first = tokens.issueToken(tokenRequest(anyInstant));
+    TokenResponse second = tokens.issueToken(tokenRequest(anyInstant));
+
+    tokens.revokeToken(first.accessToken.value);
+    tokens.revokeToken(second.refreshToken);
+
+    assertThat(tokens.findTokenAvailableAt(first.accessToken.value, anyInstant).isPresent(), is(false));
+    assertThat(tokens.refreshToken(first.refreshToken, anyInstant).isSuccessful(), is(false));
+    assertThat(tokens.findTokenAvailableAt(second.accessToken.value, anyInstant).isPresent(), is(false));
+    assertThat(tokens.stats().size, is(0L));
+    assertThat(tokens.stats().revocations, is(2L));
+  }
+
+  @Test
+  public void allTokensOfIdentityAreRevoked() {
+    MemoryTokens tokens = newTokens().build();
+    Identity otherIdentity = new Identity("::other identity::", "::name::", "", "", "::email::", "", Collections.<String, Object>emptyMap());
+    TokenResponse first = tokens.issueToken(tokenRequest(client, identity, anyInstant));
+    TokenResponse second = tokens.issueToken(tokenRequest(client, identity, anyInstant));
+    TokenResponse refreshed = tokens.refreshToken(second.refreshToken, anyInstant.plusSeconds(10));
+    TokenResponse other = tokens.issueToken(tokenRequest(client, otherIdentity, anyInstant));
+
+    assertThat(tokens.revokeAllForIdentity("::identity::"), is(2));
+
+    assertThat(tokens.findTokenAvailableAt(first.accessToken.value, anyInstant).isPresent(), is(false));
+    assertThat(tokens.findTokenAvailableAt(refreshed.accessToken.value, anyInstant).isPresent(), is(false));
+    assertThat(tokens.refreshToken(first.refreshToken, anyInstant).isSuccessful(), is(false));
+    assertThat(tokens.refreshToken(second.refreshToken, anyInstant).isSuccessful(), is(false));
+    assertThat(tokens.findTokenAvailableAt(other.accessToken.value, anyInstant).isPresent(), is(true));
+    assertThat(tokens.revokeAllForIdentity("::identity::"), is(0));
+    assertThat(tokens.stats().revocations, is(2L));
+  }
+
+  @Test
+  public void allTokensOfClientAreRevoked() {
+    MemoryTokens tokens = newTokens().build();
+    Client otherClient = new Client("::client2::", "::secret::", "", Collections.<String>emptySet(), false);
+    TokenResponse first = tokens.issueToken(tokenRequest(client, identity, anyInstant));
+    TokenResponse other = tokens.issueToken(tokenRequest(otherClient, identity, anyInstant));
+
+    assertThat(tokens.revokeAllForClient("::client1::"), is(1));
+
+    assertThat(tokens.findTokenAvailableAt(first.accessToken.value, anyInstant).isPresent(), is(false));
+    assertThat(tokens.findTokenAvailableAt(other.accessToken.value, anyInstant).isPresent(), is(true));
+    assertThat(tokens.revokeAllForClient("::unknown client::"), is(0));
+  }
+
+  @Test
+  public void tokensThatAreAlreadyRemovedAreNotRevokedAgain() {
+    MemoryTokens tokens = newTokens().stripes(1).build();
+    List<TokenResponse> responses = new ArrayList<TokenResponse>();
+    for (int i = 0; i < 100; i++) {
+      responses.add(tokens.issueToken(tokenRequest(client, identity, anyInstant)));
+    }
+    for (int i = 0; i < 100; i += 2) {
+      tokens.revokeToken(responses.get(i).refreshToken);
+    }
+
+    assertThat(tokens.revokeAllForIdentity("::identity::"), is(50));
+    assertThat(tokens.stats().size, is(0L));
+  }
+
+  @Test
+  public void tokensIssuedAfterRevocationAreAvailable() {
+    MemoryTokens tokens = newTokens().build();
+    tokens.issueToken(tokenRequest(client, identity, anyInstant));
+    tokens.revokeAllForIdentity("::identity::");
+
+    TokenResponse response = tokens.issueToken(tokenRequest(client, identity, anyInstant));
+
+    assertThat(tokens.findTokenAvailableAt(response.accessToken.value, anyInstant).isPresent(), is(true));
+    assertThat(tokens.revokeAllForClient("::client1::"), is(1));
+  }
+
+  @Test
+  public void tokensThatExpireFirstAreEvicted() {
+    MemoryTokens tokens = newTokens().maxTokens(2).stripes(1).build();
+
+    TokenResponse first = tokens.issueToken(tokenRequest(anyInstant));
+    TokenResponse second = tokens.issueToken(tokenRequest(anyInstant.plusSeconds(60)));
+    TokenResponse third = tokens.issueToken(tokenRequest(anyInstant.plusSeconds(120)));
+
+    assertThat(tokens.findTokenAvailableAt(first.accessToken.value, anyInstant.plusSeconds(120)).isPresent(), is(false));
+    assertThat(tokens.findTokenAvailableAt(second.accessToken.value, anyInstant.plusSeconds(120)).isPresent(), is(true));
+    assertThat(tokens.findTokenAvailableAt(third.accessToken.value, anyInstant.plusSeconds(120)).isPresent(), is(true));
+    assertThat(tokens.stats().size, is(2L));
+    assertThat(tokens.stats().evictions, is(1L));
+  }
+
+  @Test
+  public void collidingTokensAreRegenerated() {
+    MemoryTokens tokens = newTokens().tokenGenerator(new TokenGenerator() {
+      private final String[] values = {"::a::", "::b::", "::a::", "::c::", "::d::", "::e::"};
+      private int next = 0;
+
+      @Override
+      public String generate() {
+        return values[next++];
+      }
+    }).build();
+
+    TokenResponse first = tokens.issueToken(tokenRequest(anyInstant));
+    TokenResponse second = tokens.issueToken(tokenRequest(anyInstant));
+
+    assertThat(first.accessToken.value, is(equalTo("::a::")));
+    assertThat(second.accessToken.value, is(equalTo("::d::")));
+    assertThat(tokens.stats().size, is(2L));
+  }
+
+  @Test
+  public void liveTokensAreHandledConcurrently() throws Exception {
+    final int threads = 8;
+    final int tokensPerThread = 20000;
+    final MemoryTokens tokens = newTokens()
+            .tokenGenerator(new SequenceTokenGenerator())
+            .maxTokens(threads * tokensPerThread)
+            .build();
+    final AtomicLong now = new AtomicLong(anyInstant.timestamp());
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+      for (int t = 0; t < threads; t++) {
+        results.add(executor.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() {
+            int failures = 0;
+            for (int i = 0; i < tokensPerThread; i++) {
+              DateTime when = new DateTime(now.addAndGet(1));
+              TokenResponse response = tokens.issueToken(tokenRequest(when));
+              if (!tokens.findTokenAvailableAt(response.accessToken.value, when).isPresent()) {
+                failures++;
+              }
+              // every 10th token is refreshed and every 20th is revoked
+              if (i % 10 == 0) {
+                TokenResponse refreshed = tokens.refreshToken(response.refreshToken, when);
+                if (!tokens.findTokenAvailableAt(refreshed.accessToken.value, when).isPresent()
+                        || tokens.findTokenAvailableAt(response.accessToken.value, when).isPresent()) {
+                  failures++;
+                }
+              }
+              if (i % 20 == 0) {
+                tokens.revokeToken(response.refreshToken);
+              }
+            }
+            return failures;
+          }
+        }));
+      }
+
+      for (Future<Integer> each : results) {
+        assertThat(each.get(1, TimeUnit.MINUTES), is(0));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    long revoked = threads * (tokensPerThread / 20);
+    assertThat(tokens.stats().size, is(threads * tokensPerThread - revoked));
+    assertThat(tokens.stats().revocations, is(revoked));
+    assertThat(tokens.stats().evictions, is(0L));
+
+    // all access tokens expire after an hour and all grants after their refresh tokens
+    DateTime later = new DateTime(now.get()).plusSeconds(3 * 3600);
+    tokens.expire(later);
+    assertThat(tokens.stats().size, is(threads * tokensPerThread - revoked));
+
+    tokens.expire(new DateTime(now.get()).plusSeconds(31 * 24 * 3600));
+    assertThat(tokens.stats().size, is(0L));
+    assertThat(tokens.stats().expirations, is(threads * tokensPerThread - revoked));
+  }
+
+  private MemoryTokens.Builder newTokens() {
+    return MemoryTokens.newMemoryTokens();
+  }
+
+  private TokenRequest tokenRequest(DateTime when) {
+    return tokenRequest(client, identity, when);
+  }
+
+  private TokenRequest tokenRequest(Client client, Identity identity, DateTime when) {
+    return TokenRequest.newTokenRequest()
+            .grantType(GrantType.AUTHORIZATION_CODE)
+            .client(client)
+            .identity(identity)
+            .scopes(ImmutableSet.of("openid"))
+            .params(params)
+            .when(when)
+            .build();
+  }
+
+  private static class SequenceTokenGenerator implements TokenGenerator {
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Override
+    public String generate() {
+      return Long.toString(sequence.incrementAndGet(), 36);
+    }
+  }
+}
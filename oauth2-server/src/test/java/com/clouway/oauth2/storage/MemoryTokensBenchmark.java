@@ -0,0 +1,99 @@
+package com.clouway.oauth2.storage;
+
+import com.clouway.oauth2.client.Client;
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.token.GrantType;
+import com.clouway.oauth2.token.Identity;
+import com.clouway.oauth2.token.TokenRequest;
+import com.google.common.collect.ImmutableSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures lookups and issuing of tokens by {@link MemoryTokens} with millions of live tokens at 1 and 8 threads.
+ * Issued tokens are bounded by the max tokens, so the issuing is also measuring the eviction of the tokens.
+ * <p/>
+ * Run with: bazel run //oauth2-server/src/test/java/com/clouway/oauth2/storage:MemoryTokensBenchmark
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class MemoryTokensBenchmark {
+
+  @Param({"1000000", "4000000"})
+  public int liveTokens;
+
+  private final Client client = new Client("::client1::", "::secret::", "", Collections.<String>emptySet(), false);
+  private final Identity identity = new Identity("::identity::", "::name::", "", "", "::email::", "", Collections.<String, Object>emptyMap());
+  private final DateTime instant = new DateTime();
+
+  private MemoryTokens tokens;
+  private String[] accessTokens;
+
+  @Setup
+  public void setUp() {
+    tokens = MemoryTokens.newMemoryTokens().maxTokens(liveTokens).build();
+    accessTokens = new String[liveTokens];
+    for (int i = 0; i < liveTokens; i++) {
+      accessTokens[i] = tokens.issueToken(tokenRequest()).accessToken.value;
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Object find_1() {
+    return find();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public Object find_8() {
+    return find();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Object issue_1() {
+    return tokens.issueToken(tokenRequest());
+  }
+
+  @Benchmark
+  @Threads(8)
+  public Object issue_8() {
+    return tokens.issueToken(tokenRequest());
+  }
+
+  private Object find() {
+    String token = accessTokens[ThreadLocalRandom.current().nextInt(accessTokens.length)];
+    return tokens.findTokenAvailableAt(token, instant);
+  }
+
+  private TokenRequest tokenRequest() {
+    return TokenRequest.newTokenRequest()
+            .grantType(GrantType.AUTHORIZATION_CODE)
+            .client(client)
+            .identity(identity)
+            .scopes(ImmutableSet.of("openid"))
+            .when(instant)
+            .build();
+  }
+}
@@ -0,0 +1,237 @@
+package com.clouway.oauth2.storage;
+
+import com.clouway.oauth2.client.Client;
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.token.GrantType;
+import com.clouway.oauth2.token.Identity;
+import com.clouway.oauth2.token.TokenRequest;
+import com.clouway.oauth2.token.TokenResponse;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class RecoverMappedTokensTest {
+
+  private static final DateTime anyInstant = new DateTime(1500000000000L);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void tokensAreRecoveredAfterProcessIsKilledWhileWriting() throws Exception {
+    final List<String> issued = Collections.synchronizedList(new ArrayList<String>());
+    final List<String> revoked = Collections.synchronizedList(new ArrayList<String>());
+    long seed = System.nanoTime();
+    Random random = new Random(seed);
+
+    for (int round = 0; round < 3; round++) {
+      Process writer = new ProcessBuilder(
+              new File(System.getProperty("java.home"), "bin/java").getPath(),
+              "-cp", System.getProperty("java.class.path"),
+              TokenWriter.class.getName(),
+              folder.getRoot().getPath()
+      ).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+
+      // output is drained all the time, so the writer is not blocked on a full pipe when it's killed
+      final BufferedReader output = new BufferedReader(new InputStreamReader(writer.getInputStream(), StandardCharsets.UTF_8));
+      final CountDownLatch started = new CountDownLatch(1);
+      Thread drain = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            String line;
+            while ((line = output.readLine()) != null) {
+              String[] values = line.split(" ");
+              if ("issued".equals(values[0])) {
+                issued.add(values[1]);
+              } else {
+                revoked.add(values[1]);
+              }
+              started.countDown();
+            }
+          } catch (IOException e) {
+            // the output is closed when the writer is killed
+          }
+        }
+      });
+      drain.start();
+
+      // the writer is killed at a random point while it's still issuing, refreshing and revoking tokens
+      assertThat("seed " + seed, started.await(30, TimeUnit.SECONDS), is(true));
+      Thread.sleep(10 + random.nextInt(300));
+      writer.destroyForcibly();
+      assertThat("seed " + seed, writer.waitFor(30, TimeUnit.SECONDS), is(true));
+      drain.join(TimeUnit.SECONDS.toMillis(30));
+    }
+
+    issued.removeAll(revoked);
+
+    MappedTokens tokens = MappedTokens.newMappedTokens(folder.getRoot()).build();
+    try {
+      for (String each : issued) {
+        assertThat(each, tokens.findTokenAvailableAt(each, anyInstant).isPresent(), is(true));
+      }
+      for (String each : revoked) {
+        assertThat(each, tokens.findTokenAvailableAt(each, anyInstant).isPresent(), is(false));
+      }
+      assertThat(tokens.issueToken(TokenWriter.tokenRequest()).isSuccessful(), is(true));
+    } finally {
+      tokens.close();
+    }
+  }
+
+  @Test
+  public void partiallyWrittenRecordsAreDeleted() throws Exception {
+    File tableFile = new File(folder.getRoot(), "tokens.table");
+    RecordHeap heap = RecordHeap.open(new File(folder.getRoot(), "tokens.heap.0").toPath(), 4096, 0);
+    TokenTable table = TokenTable.create(tableFile.toPath(), heap, 0, 16);
+    table.markOpen();
+
+    TokenTable.Record first = record(1, 1);
+    TokenTable.Record second = record(2, 2);
+    TokenTable.Record third = record(3, 3);
+    table.insert(first, 0);
+    table.insert(second, 0);
+    table.insert(third, 0);
+    table.force();
+    table.close();
+
+    RandomAccessFile file = new RandomAccessFile(tableFile, "rw");
+    try {
+      // sequence of the second record is left odd as if the process was killed while writing it
+      file.seek(4096 + second.slot * 128);
+      file.write(1);
+      // a value of the third record is not matching its checksum
+      file.seek(4096 + third.slot * 128 + 56);
+      file.write(7);
+    } finally {
+      file.close();
+    }
+
+    TokenTable recovered = TokenTable.open(tableFile.toPath(), heapFile(), 4096);
+    try {
+      assertThat(recovered.wasClean(), is(false));
+      assertThat(recovered.recover(), is(2));
+      assertThat(recovered.find(1, 1) != null, is(true));
+      assertThat(recovered.find(2, 2) == null, is(true));
+      assertThat(recovered.find(3, 3) == null, is(true));
+    } finally {
+      recovered.close();
+    }
+  }
+
+  @Test
+  public void accessTokenOfInterruptedRefreshIsDeleted() throws Exception {
+    File tableFile = new File(folder.getRoot(), "tokens.table");
+    RecordHeap heap = RecordHeap.open(new File(folder.getRoot(), "tokens.heap.0").toPath(), 4096, 0);
+    TokenTable table = TokenTable.create(tableFile.toPath(), heap, 0, 16);
+    table.markOpen();
+
+    TokenTable.Record refresh = record(1, 1);
+    refresh.kind = TokenTable.REFRESH;
+    refresh.pairHi = 2;
+    refresh.pairLo = 2;
+    TokenTable.Record access = record(2, 2);
+    access.pairHi = 1;
+    access.pairLo = 1;
+    // refreshed access token is written, but the refresh token is still pointing to the previous one
+    TokenTable.Record refreshed = record(3, 3);
+    refreshed.pairHi = 1;
+    refreshed.pairLo = 1;
+
+    table.insert(refresh, 0);
+    table.insert(access, 0);
+    table.insert(refreshed, 0);
+    table.accessSlot(refresh.slot, access.slot);
+    table.force();
+    table.close();
+
+    TokenTable recovered = TokenTable.open(tableFile.toPath(), heapFile(), 4096);
+    try {
+      assertThat(recovered.recover(), is(1));
+      assertThat(recovered.find(2, 2) != null, is(true));
+      assertThat(recovered.find(3, 3) == null, is(true));
+    } finally {
+      recovered.close();
+    }
+  }
+
+  private TokenTable.HeapFile heapFile() {
+    return new TokenTable.HeapFile() {
+      @Override
+      public java.nio.file.Path of(long generation) {
+        return new File(folder.getRoot(), "tokens.heap." + generation).toPath();
+      }
+    };
+  }
+
+  private static TokenTable.Record record(long keyHi, long keyLo) {
+    TokenTable.Record record = new TokenTable.Record();
+    record.kind = TokenTable.ACCESS;
+    record.keyHi = keyHi;
+    record.keyLo = keyLo;
+    record.expiresAt = Long.MAX_VALUE;
+    return record;
+  }
+
+  /**
+   * TokenWriter is issuing, refreshing and revoking tokens until it's killed. Each token is printed once its
+   * operation is completed.
+   */
+  public static class TokenWriter {
+
+    public static void main(String[] args) throws IOException {
+      PrintStream out = new PrintStream(System.out, true, "UTF-8");
+      MappedTokens tokens = MappedTokens.newMappedTokens(new File(args[0]))
+              .initialCapacity(1024)
+              .heapSegmentSize(64 * 1024)
+              .build();
+
+      for (int i = 0; ; i++) {
+        TokenResponse response = tokens.issueToken(tokenRequest());
+        if (i % 5 == 0) {
+          TokenResponse refreshed = tokens.refreshToken(response.refreshToken, anyInstant);
+          out.println("revoked " + response.accessToken.value);
+          response = refreshed;
+        }
+        if (i % 7 == 0) {
+          tokens.revokeToken(response.refreshToken);
+          out.println("revoked " + response.accessToken.value);
+        } else {
+          out.println("issued " + response.accessToken.value);
+        }
+      }
+    }
+
+    static TokenRequest tokenRequest() {
+      return TokenRequest.newTokenRequest()
+              .grantType(GrantType.JWT)
+              .client(new Client("::client::", "", "", Collections.<String>emptySet(), false))
+              .identity(new Identity("::identity::", "", "", "", "::email::", "", Collections.<String, Object>emptyMap()))
+              .scopes(ImmutableSet.of("openid"))
+              .when(anyInstant)
+              .build();
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package com.clouway.oauth2.storage;
+
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.token.BearerToken;
+import com.clouway.oauth2.token.GrantType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class ReplayJournalTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final DateTime anyInstant = new DateTime(1500000000000L);
+
+  @Test
+  public void eventsAreReplayedInOrder() throws Exception {
+    Path directory = folder.getRoot().toPath();
+    Journal journal = Journal.open(directory, 256, FsyncPolicy.everyCommit(), 0);
+    for (int i = 1; i <= 100; i++) {
+      journal.await(journal.append((byte) 1, new byte[]{(byte) i}));
+    }
+    journal.close();
+
+    final long[] replayed = {0, 0};
+    long last = Journal.replay(directory, 40, new Journal.Replay() {
+      @Override
+      public void apply(long sequence, byte type, ByteBuffer payload) {
+        assertThat(payload.get(0), is((byte) sequence));
+        if (replayed[0] == 0) {
+          replayed[0] = sequence;
+        }
+        replayed[1]++;
+      }
+    });
+
+    assertThat(last, is(100L));
+    assertThat(replayed[0], is(41L));
+    assertThat(replayed[1], is(60L));
+  }
+
+  @Test(expected = IOException.class)
+  public void missingEventsAreNotReplayed() throws Exception {
+    Path directory = folder.getRoot().toPath();
+    Journal journal = Journal.open(directory, 256, FsyncPolicy.everyCommit(), 0);
+    for (int i = 1; i <= 100; i++) {
+      journal.await(journal.append((byte) 1, new byte[]{(byte) i}));
+    }
+    journal.deleteSegmentsBefore(50);
+    journal.close();
+
+    Journal.replay(directory, 0, new Journal.Replay() {
+      @Override
+      public void apply(long sequence, byte type, ByteBuffer payload) {
+      }
+    });
+  }
+
+  @Test
+  public void issuedAndRevokedTokensAreReplayed() throws Exception {
+    int liveTokens = 1000;
+    long events = 20000;
+    long expiresAt = anyInstant.plusSeconds(3600).timestamp();
+
+    Journal journal = Journal.open(folder.getRoot().toPath(), 64 * 1024, FsyncPolicy.never(), 0);
+    int issued = 0;
+    long sequence = 0;
+    while (sequence < events) {
+      BearerToken token = new BearerToken("a" + issued, GrantType.JWT, "::identity::", "::client::", null,
+              Collections.<String>emptySet(), new DateTime(expiresAt), Collections.<String, String>emptyMap());
+      sequence = journal.append(JournaledTokens.ISSUE, JournaledTokens.issueEvent(token, "r" + issued, expiresAt));
+      issued++;
+
+      // live tokens are bounded as the oldest one is revoked once a new one is issued
+      if (issued > liveTokens && sequence < events) {
+        sequence = journal.append(JournaledTokens.REVOKE, JournaledTokens.revokeEvent("r" + (issued - liveTokens - 1)));
+      }
+      if (sequence % 1000 == 0) {
+        journal.await(sequence);
+      }
+    }
+    journal.close();
+
+    JournaledTokens tokens = JournaledTokens.newJournaledTokens(folder.getRoot()).snapshotEvery(0).build();
+
+    try {
+      assertThat(tokens.findTokenAvailableAt("a0", anyInstant).isPresent(), is(false));
+      assertThat(tokens.findTokenAvailableAt("a" + (issued - liveTokens - 1), anyInstant).isPresent(), is(false));
+      for (int i = issued - liveTokens; i < issued; i++) {
+        assertThat(tokens.findTokenAvailableAt("a" + i, anyInstant).isPresent(), is(true));
+      }
+      assertThat(tokens.refreshToken("r" + (issued - 1), anyInstant).isSuccessful(), is(true));
+    } finally {
+      tokens.close();
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package com.clouway.oauth2.storage;
+
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.token.BearerToken;
+import com.clouway.oauth2.token.GrantType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * ReplayManyEventsTest is writing hundreds of MB of journal, so it's not part of the default tests.
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class ReplayManyEventsTest {
+  private static final Logger logger = Logger.getLogger(ReplayManyEventsTest.class.getName());
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final DateTime anyInstant = new DateTime(1500000000000L);
+
+  @Test
+  public void tenMillionEventsAreReplayed() throws Exception {
+    int liveTokens = 100000;
+    long events = 10000000;
+    long expiresAt = anyInstant.plusSeconds(3600).timestamp();
+
+    Journal journal = Journal.open(folder.getRoot().toPath(), 64 * 1024 * 1024, FsyncPolicy.never(), 0);
+    int issued = 0;
+    long sequence = 0;
+    while (sequence < events) {
+      BearerToken token = new BearerToken("a" + issued, GrantType.JWT, "::identity::", "::client::", null,
+              Collections.<String>emptySet(), new DateTime(expiresAt), Collections.<String, String>emptyMap());
+      sequence = journal.append(JournaledTokens.ISSUE, JournaledTokens.issueEvent(token, "r" + issued, expiresAt));
+      issued++;
+
+      // live tokens are bounded as the oldest one is revoked once a new one is issued
+      if (issued > liveTokens && sequence < events) {
+        sequence = journal.append(JournaledTokens.REVOKE, JournaledTokens.revokeEvent("r" + (issued - liveTokens - 1)));
+      }
+      if (sequence % 100000 == 0) {
+        journal.await(sequence);
+      }
+    }
+    journal.close();
+
+    long start = System.nanoTime();
+    JournaledTokens tokens = JournaledTokens.newJournaledTokens(folder.getRoot()).snapshotEvery(0).build();
+    logger.info(events + " events were replayed in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
+
+    try {
+      assertThat(tokens.findTokenAvailableAt("a0", anyInstant).isPresent(), is(false));
+      assertThat(tokens.findTokenAvailableAt("a" + (issued - liveTokens - 1), anyInstant).isPresent(), is(false));
+      for (int i = issued - liveTokens; i < issued; i++) {
+        assertThat(tokens.findTokenAvailableAt("a" + i, anyInstant).isPresent(), is(true));
+      }
+      assertThat(tokens.refreshToken("r" + (issued - 1), anyInstant).isSuccessful(), is(true));
+    } finally {
+      tokens.close();
+    }
+  }
+}
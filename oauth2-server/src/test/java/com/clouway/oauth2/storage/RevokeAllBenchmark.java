@@ -0,0 +1,111 @@
+package com.clouway.oauth2.storage;
+
+import com.clouway.oauth2.client.Client;
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.token.BearerToken;
+import com.clouway.oauth2.token.GrantType;
+import com.clouway.oauth2.token.Identity;
+import com.clouway.oauth2.token.TokenRequest;
+import com.google.common.collect.ImmutableSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures revoking of all tokens of an identity in {@link MemoryTokens} with 100 000 and 1 000 000 live grants, each
+ * identity having 10 of them. The index revocation is {@link MemoryTokens#revokeAllForIdentity(String)}, which is
+ * visiting only the grants of the identity, and the scan revocation is visiting all grants to find them, so only
+ * the scan is getting slower with the number of grants. The revoked tokens are issued again after each revocation,
+ * which is taking the same time for both.
+ * <p/>
+ * Run with: bazel run //oauth2-server/src/test/java/com/clouway/oauth2/storage:RevokeAllBenchmark
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class RevokeAllBenchmark {
+  private static final int TOKENS_PER_IDENTITY = 10;
+
+  @Param({"100000", "1000000"})
+  public int liveTokens;
+
+  @Param({"index", "scan"})
+  public String revocation;
+
+  private final Client client = new Client("::client1::", "::secret::", "", Collections.<String>emptySet(), false);
+  private final DateTime instant = new DateTime();
+
+  private MemoryTokens tokens;
+  private Identity[] identities;
+  private int next = 0;
+
+  @Setup
+  public void setUp() {
+    tokens = MemoryTokens.newMemoryTokens().maxTokens(liveTokens * 2).build();
+    identities = new Identity[liveTokens / TOKENS_PER_IDENTITY];
+    for (int i = 0; i < identities.length; i++) {
+      identities[i] = new Identity("::identity" + i + "::", "::name::", "", "", "::email::", "", Collections.<String, Object>emptyMap());
+      issueTokens(identities[i]);
+    }
+  }
+
+  @Benchmark
+  public int revokeAll() {
+    Identity identity = identities[next++ % identities.length];
+
+    int revoked = "index".equals(revocation) ? tokens.revokeAllForIdentity(identity.id()) : revokeByScan(identity.id());
+
+    issueTokens(identity);
+    return revoked;
+  }
+
+  private int revokeByScan(final String identityId) {
+    final List<String> refreshTokens = new ArrayList<String>();
+    tokens.forEachGrant(new MemoryTokens.GrantVisitor() {
+      @Override
+      public void visit(BearerToken accessToken, String refreshToken, long refreshTokenExpiresAt) {
+        if (identityId.equals(accessToken.identityId)) {
+          refreshTokens.add(refreshToken);
+        }
+      }
+    });
+
+    int revoked = 0;
+    for (String each : refreshTokens) {
+      if (tokens.revoke(each)) {
+        revoked++;
+      }
+    }
+    return revoked;
+  }
+
+  private void issueTokens(Identity identity) {
+    for (int i = 0; i < TOKENS_PER_IDENTITY; i++) {
+      tokens.issueToken(TokenRequest.newTokenRequest()
+              .grantType(GrantType.AUTHORIZATION_CODE)
+              .client(client)
+              .identity(identity)
+              .scopes(ImmutableSet.of("openid"))
+              .when(instant)
+              .build());
+    }
+  }
+}
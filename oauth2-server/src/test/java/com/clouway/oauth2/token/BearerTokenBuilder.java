@@ -4,6 +4,7 @@ import com.clouway.oauth2.common.DateTime;
 
 import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * @author Miroslav Genov (miroslav.genov@clouway.com)
@@ -21,6 +22,7 @@ public class BearerTokenBuilder {
   private String value;
   private String email = "";
   private Map<String, String> params = Collections.emptyMap();
+  private Set<String> scopes = Collections.emptySet();
 
   public BearerTokenBuilder withValue(String value) {
     this.value = value;
@@ -52,8 +54,13 @@ public class BearerTokenBuilder {
     return this;
   }
 
+  public BearerTokenBuilder withScopes(Set<String> scopes) {
+    this.scopes = scopes;
+    return this;
+  }
+
   public BearerToken build() {
-    return new BearerToken(value, grantType, identityId, clientId, email, Collections.<String>emptySet(), expiresAt, params);
+    return new BearerToken(value, grantType, identityId, clientId, email, scopes, expiresAt, params);
   }
 
   public BearerTokenBuilder forClient(String clientId) {
@@ -0,0 +1,247 @@
+package com.clouway.oauth2.token;
+
+import com.clouway.oauth2.client.Client;
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.common.Duration;
+import com.clouway.oauth2.storage.MemoryTokens;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class CacheTokensTest {
+
+  private final Client client = new Client("::client1::", "::secret::", "", Collections.<String>emptySet(), false);
+  private final Identity identity = new Identity("::identity::", "::name::", "", "", "::email::", "", Collections.<String, Object>emptyMap());
+  private final DateTime anyInstant = new DateTime(1500000000000L);
+
+  @Test
+  public void repeatedLookupIsAnsweredFromTheCache() {
+    CountingTokens store = new CountingTokens();
+    String token = store.issueToken(tokenRequest()).accessToken.value;
+    CachingTokens tokens = CachingTokens.newCachingTokens(store).build();
+
+    Optional<BearerToken> first = tokens.findTokenAvailableAt(token, anyInstant);
+    Optional<BearerToken> second = tokens.findTokenAvailableAt(token, anyInstant.plusSeconds(10));
+
+    assertThat(second, is(equalTo(first)));
+    assertThat(store.lookups.get(), is(1));
+    assertThat(tokens.stats().hits, is(1L));
+    assertThat(tokens.stats().misses, is(1L));
+    assertThat(tokens.stats().hitRatio(), is(0.5));
+  }
+
+  @Test
+  public void cachedTokenIsNotReturnedAfterItExpires() {
+    CountingTokens store = new CountingTokens();
+    String token = store.issueToken(tokenRequest()).accessToken.value;
+    CachingTokens tokens = CachingTokens.newCachingTokens(store).maxAge(Duration.hours(2)).build();
+
+    tokens.findTokenAvailableAt(token, anyInstant);
+
+    assertThat(tokens.findTokenAvailableAt(token, anyInstant.plusSeconds(3600)).isPresent(), is(true));
+    assertThat(tokens.findTokenAvailableAt(token, anyInstant.plusSeconds(3601)).isPresent(), is(false));
+  }
+
+  @Test
+  public void tokenIsLookedUpAgainAfterMaxAge() {
+    CountingTokens store = new CountingTokens();
+    String token = store.issueToken(tokenRequest()).accessToken.value;
+    CachingTokens tokens = CachingTokens.newCachingTokens(store).maxAge(Duration.seconds(30L)).build();
+
+    tokens.findTokenAvailableAt(token, anyInstant);
+    tokens.findTokenAvailableAt(token, anyInstant.plusSeconds(29));
+    tokens.findTokenAvailableAt(token, anyInstant.plusSeconds(30));
+
+    assertThat(store.lookups.get(), is(2));
+  }
+
+  @Test
+  public void issuedTokenIsCached() {
+    CountingTokens store = new CountingTokens();
+    CachingTokens tokens = CachingTokens.newCachingTokens(store).build();
+
+    TokenResponse response = tokens.issueToken(tokenRequest());
+
+    assertThat(tokens.findTokenAvailableAt(response.accessToken.value, anyInstant), is(equalTo(Optional.of(response.accessToken))));
+    assertThat(store.lookups.get(), is(0));
+  }
+
+  @Test
+  public void revokedTokenIsRemoved() {
+    CountingTokens store = new CountingTokens();
+    CachingTokens tokens = CachingTokens.newCachingTokens(store).build();
+    TokenResponse response = tokens.issueToken(tokenRequest());
+
+    tokens.revokeToken(response.accessToken.value);
+
+    assertThat(tokens.findTokenAvailableAt(response.accessToken.value, anyInstant).isPresent(), is(false));
+  }
+
+  @Test
+  public void accessTokenIsRemovedWhenItsRefreshTokenIsRevoked() {
+    CountingTokens store = new CountingTokens();
+    CachingTokens tokens = CachingTokens.newCachingTokens(store).build();
+    TokenResponse response = tokens.issueToken(tokenRequest());
+
+    tokens.revokeToken(response.refreshToken);
+
+    assertThat(tokens.findTokenAvailableAt(response.accessToken.value, anyInstant).isPresent(), is(false));
+  }
+
+  @Test
+  public void refreshedTokenReplacesTheCachedOne() {
+    CountingTokens store = new CountingTokens();
+    CachingTokens tokens = CachingTokens.newCachingTokens(store).build();
+    TokenResponse issued = tokens.issueToken(tokenRequest());
+    tokens.findTokenAvailableAt(issued.accessToken.value, anyInstant);
+
+    TokenResponse refreshed = tokens.refreshToken(issued.refreshToken, anyInstant);
+
+    assertThat(tokens.findTokenAvailableAt(issued.accessToken.value, anyInstant).isPresent(), is(false));
+    assertThat(tokens.findTokenAvailableAt(refreshed.accessToken.value, anyInstant), is(equalTo(Optional.of(refreshed.accessToken))));
+  }
+
+  @Test
+  public void tokensThatAreNotFoundAreNotCached() {
+    CountingTokens store = new CountingTokens();
+    CachingTokens tokens = CachingTokens.newCachingTokens(store).build();
+
+    tokens.findTokenAvailableAt("::unknown::", anyInstant);
+    tokens.findTokenAvailableAt("::unknown::", anyInstant);
+
+    assertThat(store.lookups.get(), is(2));
+    assertThat(tokens.stats().size, is(0L));
+  }
+
+  @Test
+  public void batchLookupIsMadeOnlyForTokensThatAreNotCached() {
+    CountingTokens store = new CountingTokens();
+    String cached = store.issueToken(tokenRequest()).accessToken.value;
+    String notCached = store.issueToken(tokenRequest()).accessToken.value;
+    CachingTokens tokens = CachingTokens.newCachingTokens(store).build();
+    tokens.findTokenAvailableAt(cached, anyInstant);
+
+    Map<String, BearerToken> found = tokens.findTokensAvailableAt(ImmutableList.of(cached, notCached, "::unknown::"), anyInstant);
+    tokens.findTokensAvailableAt(ImmutableList.of(cached, notCached), anyInstant);
+
+    assertThat(found.keySet(), is((Set<String>) ImmutableSet.of(cached, notCached)));
+    assertThat(store.lookups.get(), is(3));
+  }
+
+  @Test
+  public void cachedTokensOfRevokedIdentityAreRemoved() {
+    CountingTokens store = new CountingTokens();
+    CachingTokens tokens = CachingTokens.newCachingTokens(store).build();
+    TokenResponse response = tokens.issueToken(tokenRequest());
+
+    assertThat(tokens.revokeAllForIdentity("::identity::"), is(1));
+
+    assertThat(tokens.findTokenAvailableAt(response.accessToken.value, anyInstant).isPresent(), is(false));
+  }
+
+  @Test
+  public void concurrentMissesAreCollapsedInSingleLookup() throws Exception {
+    final CountingTokens store = new CountingTokens();
+    final String token = store.issueToken(tokenRequest()).accessToken.value;
+    final CachingTokens tokens = CachingTokens.newCachingTokens(store).build();
+    store.blocked = new CountDownLatch(1);
+
+    final AtomicInteger found = new AtomicInteger();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 8; i++) {
+      threads.add(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          if (tokens.findTokenAvailableAt(token, anyInstant).isPresent()) {
+            found.incrementAndGet();
+          }
+        }
+      }));
+    }
+    for (Thread each : threads) {
+      each.start();
+    }
+    // lookup is released once all threads are waiting for it
+    while (tokens.stats().collapsed < 7) {
+      Thread.sleep(1);
+    }
+    store.blocked.countDown();
+    for (Thread each : threads) {
+      each.join();
+    }
+
+    assertThat(found.get(), is(8));
+    assertThat(store.lookups.get(), is(1));
+    assertThat(tokens.stats().collapsed, is(7L));
+  }
+
+  private TokenRequest tokenRequest() {
+    return TokenRequest.newTokenRequest()
+            .grantType(GrantType.AUTHORIZATION_CODE)
+            .client(client)
+            .identity(identity)
+            .scopes(ImmutableSet.of("openid"))
+            .when(anyInstant)
+            .build();
+  }
+
+  /**
+   * CountingTokens is counting the lookups of tokens and is blocking them while latch is set.
+   */
+  private static class CountingTokens implements Tokens {
+    private final Tokens tokens = MemoryTokens.newMemoryTokens().build();
+    private final AtomicInteger lookups = new AtomicInteger();
+    private volatile CountDownLatch blocked;
+
+    @Override
+    public Optional<BearerToken> findTokenAvailableAt(String token, DateTime when) {
+      lookups.incrementAndGet();
+      CountDownLatch latch = blocked;
+      if (latch != null) {
+        try {
+          latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return tokens.findTokenAvailableAt(token, when);
+    }
+
+    @Override
+    public TokenResponse refreshToken(String token, DateTime when) {
+      return tokens.refreshToken(token, when);
+    }
+
+    @Override
+    public TokenResponse issueToken(TokenRequest tokenRequest) {
+      return tokens.issueToken(tokenRequest);
+    }
+
+    @Override
+    public void revokeToken(String token) {
+      tokens.revokeToken(token);
+    }
+
+    @Override
+    public int revokeAllForIdentity(String identityId) {
+      return tokens.revokeAllForIdentity(identityId);
+    }
+  }
+}
@@ -0,0 +1,290 @@
+package com.clouway.oauth2.token;
+
+import com.clouway.oauth2.client.Client;
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.storage.MemoryTokens;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class FilterTokensTest {
+
+  private final Client client = new Client("::client1::", "::secret::", "", Collections.<String>emptySet(), false);
+  private final Identity identity = new Identity("::identity::", "::name::", "", "", "::email::", "", Collections.<String, Object>emptyMap());
+  private final DateTime anyInstant = new DateTime(1500000000000L);
+
+  @Test
+  public void issuedTokenIsFound() {
+    FilteringTokens tokens = FilteringTokens.newFilteringTokens(MemoryTokens.newMemoryTokens().build()).build();
+
+    TokenResponse response = tokens.issueToken(tokenRequest());
+
+    assertThat(tokens.findTokenAvailableAt(response.accessToken.value, anyInstant), is(equalTo(Optional.of(response.accessToken))));
+    assertThat(tokens.stats().passed, is(1L));
+  }
+
+  @Test
+  public void unknownTokenIsRejectedWithoutLookup() {
+    FilteringTokens tokens = FilteringTokens.newFilteringTokens(MemoryTokens.newMemoryTokens().build()).build();
+
+    assertThat(tokens.findTokenAvailableAt("::unknown::", anyInstant).isPresent(), is(false));
+    assertThat(tokens.stats().rejected, is(1L));
+    assertThat(tokens.stats().passed, is(0L));
+  }
+
+  @Test
+  public void revokedTokenIsRejected() {
+    FilteringTokens tokens = FilteringTokens.newFilteringTokens(MemoryTokens.newMemoryTokens().build()).build();
+    TokenResponse response = tokens.issueToken(tokenRequest());
+
+    tokens.revokeToken(response.refreshToken);
+
+    assertThat(tokens.findTokenAvailableAt(response.accessToken.value, anyInstant).isPresent(), is(false));
+    assertThat(tokens.stats().rejected, is(1L));
+    assertThat(tokens.stats().filter.size, is(0L));
+  }
+
+  @Test
+  public void refreshedTokenReplacesTheOldOne() {
+    FilteringTokens tokens = FilteringTokens.newFilteringTokens(MemoryTokens.newMemoryTokens().build()).build();
+    TokenResponse issued = tokens.issueToken(tokenRequest());
+
+    TokenResponse refreshed = tokens.refreshToken(issued.refreshToken, anyInstant);
+
+    assertThat(tokens.findTokenAvailableAt(issued.accessToken.value, anyInstant).isPresent(), is(false));
+    assertThat(tokens.findTokenAvailableAt(refreshed.accessToken.value, anyInstant).isPresent(), is(true));
+    assertThat(tokens.stats().filter.size, is(1L));
+  }
+
+  @Test
+  public void expiredTokenIsRemovedFromTheFilter() {
+    MemoryTokens store = MemoryTokens.newMemoryTokens().build();
+    FilteringTokens tokens = FilteringTokens.newFilteringTokens(store).build();
+    tokens.issueToken(tokenRequest());
+
+    store.expire(anyInstant.plusSeconds(3602));
+
+    assertThat(tokens.stats().filter.size, is(0L));
+  }
+
+  @Test
+  public void filterIsRebuiltFromTheStore() {
+    MemoryTokens store = MemoryTokens.newMemoryTokens().build();
+    List<String> issued = new ArrayList<String>();
+    for (int i = 0; i < 100; i++) {
+      issued.add(store.issueToken(tokenRequest()).accessToken.value);
+    }
+
+    FilteringTokens tokens = FilteringTokens.newFilteringTokens(store).build();
+
+    for (String each : issued) {
+      assertThat(tokens.findTokenAvailableAt(each, anyInstant).isPresent(), is(true));
+    }
+    assertThat(tokens.stats().filter.size, is(100L));
+  }
+
+  @Test
+  public void filterGrowsAndShrinksWithTheTokens() {
+    TokenFilter filter = TokenFilter.newTokenFilter(1000);
+    long initialMemory = filter.stats().memoryBytes;
+
+    for (int i = 0; i < 50000; i++) {
+      filter.add("::token " + i + "::");
+    }
+    for (int i = 0; i < 50000; i++) {
+      assertThat(filter.mightContain("::token " + i + "::"), is(true));
+    }
+    assertThat(filter.stats().segments, is(greaterThan(1)));
+
+    for (int i = 0; i < 50000; i++) {
+      filter.remove("::token " + i + "::");
+    }
+    assertThat(filter.stats().size, is(0L));
+    assertThat(filter.stats().memoryBytes, is(initialMemory));
+  }
+
+  @Test
+  public void liveTokensAreFoundWhileTokensAreAddedAndRemoved() {
+    TokenFilter filter = TokenFilter.newTokenFilter(1000);
+    Random random = new Random(42);
+    List<String> live = new ArrayList<String>();
+
+    for (int i = 0; i < 200000; i++) {
+      String token = "::token " + i + "::";
+      filter.add(token);
+      live.add(token);
+      // the same token could be added more than once and it's found until it's removed as many times
+      if (i % 10 == 0) {
+        filter.add(token);
+        live.add(token);
+      }
+      if (random.nextInt(3) == 0) {
+        int index = random.nextInt(live.size());
+        filter.remove(live.get(index));
+        live.set(index, live.get(live.size() - 1));
+        live.remove(live.size() - 1);
+      }
+    }
+
+    for (String each : live) {
+      assertThat(each, filter.mightContain(each), is(true));
+    }
+    assertThat(filter.stats().size, is((long) live.size()));
+  }
+
+  @Test
+  public void tokensAreFoundWhileFingerprintsOverflow() throws Exception {
+    final TokenFilter filter = TokenFilter.newTokenFilter(1000);
+    final AtomicBoolean adding = new AtomicBoolean(true);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    filter.add("::live::");
+    filter.add("::repeated::");
+
+    Thread[] readers = new Thread[4];
+    for (int i = 0; i < readers.length; i++) {
+      readers[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; adding.get(); i++) {
+              // unknown tokens are compared with all overflown fingerprints
+              filter.mightContain("::unknown " + i + "::");
+              if (!filter.mightContain("::live::") || !filter.mightContain("::repeated::")) {
+                failure.compareAndSet(null, new AssertionError("Live token was not found."));
+              }
+            }
+          } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      });
+      readers[i].start();
+    }
+
+    // copies of the same token are not fitting in their buckets, so the overflow of the segment is growing
+    for (int i = 0; i < 50000; i++) {
+      filter.add("::repeated::");
+    }
+    adding.set(false);
+    for (Thread each : readers) {
+      each.join();
+    }
+
+    assertThat(String.valueOf(failure.get()), failure.get() == null, is(true));
+    assertThat(filter.stats().size, is(50002L));
+  }
+
+  @Test
+  public void tokenRemovedDuringTheScanIsRemovedAfterIt() {
+    FilteringTokens tokens = FilteringTokens.newFilteringTokens(new ScannedTokens() {
+      @Override
+      public void forEachAccessToken(Visitor visitor) {
+        // removal is received before the token is visited from a snapshot of the store
+        listener.removed("::removed::");
+        visitor.visit("::removed::");
+        visitor.visit("::live::");
+      }
+    }).build();
+
+    tokens.findTokenAvailableAt("::removed::", anyInstant);
+    tokens.findTokenAvailableAt("::live::", anyInstant);
+
+    assertThat(tokens.stats().rejected, is(1L));
+    assertThat(tokens.stats().passed, is(1L));
+    assertThat(tokens.stats().filter.size, is(1L));
+  }
+
+  @Test
+  public void tokenRemovedBeforeTheScanReachedItIsNotRemoved() {
+    FilteringTokens tokens = FilteringTokens.newFilteringTokens(new ScannedTokens() {
+      @Override
+      public void forEachAccessToken(Visitor visitor) {
+        visitor.visit("::live::");
+        listener.removed("::not visited::");
+      }
+    }).build();
+
+    tokens.findTokenAvailableAt("::live::", anyInstant);
+
+    assertThat(tokens.stats().passed, is(1L));
+    assertThat(tokens.stats().filter.size, is(1L));
+  }
+
+  @Test
+  public void fewUnknownTokensAreNotRejected() {
+    TokenFilter filter = TokenFilter.newTokenFilter(100000);
+    for (int i = 0; i < 100000; i++) {
+      filter.add("::token " + i + "::");
+    }
+
+    int falsePositives = 0;
+    for (int i = 0; i < 100000; i++) {
+      if (filter.mightContain("::unknown " + i + "::")) {
+        falsePositives++;
+      }
+    }
+
+    assertThat(falsePositives / 100000.0, is(lessThan(0.001)));
+    assertThat(filter.stats().expectedFalsePositiveRate, is(lessThan(0.001)));
+    // 16 bit fingerprints of 4 slot buckets below 95% load are taking less than 3 bytes per token
+    assertThat(filter.stats().memoryBytes / 100000.0, is(lessThan(3.0)));
+  }
+
+  /**
+   * ScannedTokens is a store which is changing it's tokens while they are visited.
+   */
+  private abstract static class ScannedTokens implements Tokens, ObservableTokens {
+    protected Listener listener;
+
+    @Override
+    public void addListener(Listener listener) {
+      this.listener = listener;
+    }
+
+    @Override
+    public Optional<BearerToken> findTokenAvailableAt(String token, DateTime when) {
+      return Optional.absent();
+    }
+
+    @Override
+    public TokenResponse refreshToken(String token, DateTime when) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TokenResponse issueToken(TokenRequest tokenRequest) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void revokeToken(String token) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private TokenRequest tokenRequest() {
+    return TokenRequest.newTokenRequest()
+            .grantType(GrantType.AUTHORIZATION_CODE)
+            .client(client)
+            .identity(identity)
+            .scopes(ImmutableSet.of("openid"))
+            .when(anyInstant)
+            .build();
+  }
+}
@@ -0,0 +1,97 @@
+package com.clouway.oauth2.token;
+
+import com.clouway.oauth2.keystore.IdentityKeyPair;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares minting of id_tokens with the jjwt builder, as it was done before, against the {@link IdTokenSigner}.
+ * <p/>
+ * Signing with RSA keys is dominated by the private key operation, so the difference is best seen with EC keys.
+ * <p/>
+ * Run with: bazel run //oauth2-server/src/test/java/com/clouway/oauth2/token:IdTokenSignerBenchmark
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IdTokenSignerBenchmark {
+
+  @Param({"ES256", "RS256"})
+  public String algorithm;
+
+  private final IdTokenSigner signer = new IdTokenSigner();
+
+  private IdentityKeyPair signingKey;
+  private SignatureAlgorithm signatureAlgorithm;
+  private Identity identity;
+
+  @Setup
+  public void setUp() throws Exception {
+    KeyPairGenerator keyGen;
+    if ("ES256".equals(algorithm)) {
+      keyGen = KeyPairGenerator.getInstance("EC");
+      keyGen.initialize(256);
+      signatureAlgorithm = SignatureAlgorithm.ES256;
+    } else {
+      keyGen = KeyPairGenerator.getInstance("RSA");
+      keyGen.initialize(2048);
+      signatureAlgorithm = SignatureAlgorithm.RS256;
+    }
+    KeyPair keyPair = keyGen.generateKeyPair();
+    signingKey = new IdentityKeyPair("9f2bd7c2a1b64f31", keyPair.getPrivate(), keyPair.getPublic());
+
+    Map<String, Object> claims = new LinkedHashMap<>();
+    claims.put("customer_id", 1234567L);
+    claims.put("admin", false);
+    identity = new Identity("987654321", "John Smith", "John", "Smith", "john.smith@clouway.com", "", claims);
+  }
+
+  @Benchmark
+  public String jjwtBuilder() {
+    Map<String, Object> claims = new LinkedHashMap<>();
+    claims.put("iss", "accounts.clouway.com");
+    claims.put("aud", "::client id::");
+    claims.put("sub", identity.id());
+    claims.put("name", identity.name());
+    claims.put("email", identity.email());
+    claims.put("given_name", identity.givenName());
+    claims.put("family_name", identity.familyName());
+    claims.putAll(identity.claims());
+
+    return Jwts.builder()
+            .setHeaderParam("cid", signingKey.keyId)
+            .setClaims(claims)
+            .setIssuedAt(new Date(1461235348000L))
+            .setExpiration(new Date(1461238948000L))
+            .signWith(signatureAlgorithm, signingKey.privateKey)
+            .compact();
+  }
+
+  @Benchmark
+  public String idTokenSigner() throws Exception {
+    return signer.sign(signingKey, "accounts.clouway.com", "::client id::", identity, 1461235348L, 1461238948L);
+  }
+}
@@ -0,0 +1,38 @@
+package com.clouway.oauth2.token;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class IssueIdTokensForOpenIdScopeTest {
+
+  private final IdTokenPolicy policy = IdTokenPolicies.openIdScope();
+
+  @Test
+  public void openIdScopeIsRequested() {
+    assertThat(policy.isIdTokenRequired("::client::", ImmutableSet.of("openid", "email")), is(true));
+  }
+
+  @Test
+  public void openIdScopeIsNotRequested() {
+    assertThat(policy.isIdTokenRequired("::client::", ImmutableSet.of("email", "profile")), is(false));
+  }
+
+  @Test
+  public void noScopesAreRequested() {
+    assertThat(policy.isIdTokenRequired("::client::", Collections.<String>emptySet()), is(false));
+    assertThat(policy.isIdTokenRequired("::client::", null), is(false));
+  }
+
+  @Test
+  public void idTokenIsAlwaysIssued() {
+    assertThat(IdTokenPolicies.always().isIdTokenRequired("::client::", Collections.<String>emptySet()), is(true));
+  }
+}
@@ -0,0 +1,250 @@
+package com.clouway.oauth2.token;
+
+import com.clouway.oauth2.client.Client;
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.storage.MemoryTokens;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class SelfContainedTokensTest {
+
+  private final byte[] key = "::a secret which is 32 bytes long::".getBytes(StandardCharsets.UTF_8);
+  private final byte[] anotherKey = "::another secret of 32 bytes long::".getBytes(StandardCharsets.UTF_8);
+
+  private final Client client = new Client("::client1::", "::secret::", "", Collections.<String>emptySet(), false);
+  private final Identity identity = new Identity("::identity::", "::name::", "", "", "::email::", "", Collections.<String, Object>emptyMap());
+  private final Map<String, String> params = ImmutableMap.of("::key::", "::value::");
+
+  private final DateTime now = new DateTime();
+
+  @Test
+  public void issuedTokenIsValidatedWithoutTheStore() {
+    MemoryTokens store = MemoryTokens.newMemoryTokens().build();
+    SelfContainedTokens tokens = newTokens(store).build();
+
+    TokenResponse response = tokens.issueToken(tokenRequest());
+    // the store is no longer having the token, but it's still valid
+    store.expire(now.plusSeconds(365 * 24 * 3600));
+
+    assertThat(response.accessToken.value, containsString("."));
+    assertThat(tokens.findTokenAvailableAt(response.accessToken.value, now), is(equalTo(Optional.of(new BearerToken(
+            response.accessToken.value, GrantType.AUTHORIZATION_CODE, "::identity::", "::client1::", "::email::",
+            ImmutableSet.of("openid", "email"), new DateTime(now.timestamp() + 3600 * 1000), params)))));
+  }
+
+  @Test
+  public void expiredTokenIsNotValid() {
+    SelfContainedTokens tokens = newTokens(MemoryTokens.newMemoryTokens().build()).build();
+
+    TokenResponse response = tokens.issueToken(tokenRequest());
+
+    assertThat(tokens.findTokenAvailableAt(response.accessToken.value, now.plusSeconds(3600)).isPresent(), is(true));
+    assertThat(tokens.findTokenAvailableAt(response.accessToken.value, now.plusSeconds(3601)).isPresent(), is(false));
+  }
+
+  @Test
+  public void changedTokenIsNotValid() {
+    SelfContainedTokens tokens = newTokens(MemoryTokens.newMemoryTokens().build()).build();
+
+    String token = tokens.issueToken(tokenRequest()).accessToken.value;
+    char[] changed = token.toCharArray();
+    changed[3] = changed[3] == 'A' ? 'B' : 'A';
+
+    assertThat(tokens.findTokenAvailableAt(new String(changed), now).isPresent(), is(false));
+    assertThat(tokens.findTokenAvailableAt(token.substring(0, token.indexOf('.') + 1), now).isPresent(), is(false));
+    assertThat(tokens.findTokenAvailableAt("::not encoded::.::mac::", now).isPresent(), is(false));
+  }
+
+  @Test
+  public void tokenOfAnotherKeyIsNotValid() {
+    SelfContainedTokens tokens = newTokens(MemoryTokens.newMemoryTokens().build()).build();
+    SelfContainedTokens another = newTokens(MemoryTokens.newMemoryTokens().build()).key(anotherKey).build();
+
+    String token = another.issueToken(tokenRequest()).accessToken.value;
+
+    assertThat(tokens.findTokenAvailableAt(token, now).isPresent(), is(false));
+  }
+
+  @Test
+  public void tokensOfPreviousKeyAreValidAfterRotation() {
+    MemoryTokens store = MemoryTokens.newMemoryTokens().build();
+    String token = newTokens(store).build().issueToken(tokenRequest()).accessToken.value;
+
+    SelfContainedTokens rotated = newTokens(store).key(anotherKey).verificationKeys(key).build();
+
+    assertThat(rotated.findTokenAvailableAt(token, now).isPresent(), is(true));
+  }
+
+  @Test
+  public void revokedAccessTokenIsNotValid() {
+    MemoryTokens store = MemoryTokens.newMemoryTokens().build();
+    SelfContainedTokens tokens = newTokens(store).build();
+    TokenResponse response = tokens.issueToken(tokenRequest());
+
+    tokens.revokeToken(response.accessToken.value);
+
+    assertThat(tokens.findTokenAvailableAt(response.accessToken.value, now).isPresent(), is(false));
+    assertThat(tokens.refreshToken(response.refreshToken, now).isSuccessful(), is(false));
+    assertThat(store.stats().size, is(0L));
+  }
+
+  @Test
+  public void accessTokensAreNotValidAfterTheirRefreshTokenIsRevoked() {
+    SelfContainedTokens tokens = newTokens(MemoryTokens.newMemoryTokens().build()).build();
+    TokenResponse issued = tokens.issueToken(tokenRequest());
+    TokenResponse refreshed = tokens.refreshToken(issued.refreshToken, now);
+
+    tokens.revokeToken(issued.refreshToken);
+
+    assertThat(tokens.findTokenAvailableAt(issued.accessToken.value, now).isPresent(), is(false));
+    assertThat(tokens.findTokenAvailableAt(refreshed.accessToken.value, now).isPresent(), is(false));
+  }
+
+  @Test
+  public void grantOfRevokedOldAccessTokenIsNotRefreshed() {
+    SelfContainedTokens tokens = newTokens(MemoryTokens.newMemoryTokens().build()).build();
+    TokenResponse issued = tokens.issueToken(tokenRequest());
+    TokenResponse refreshed = tokens.refreshToken(issued.refreshToken, now);
+
+    tokens.revokeToken(issued.accessToken.value);
+
+    assertThat(tokens.findTokenAvailableAt(refreshed.accessToken.value, now).isPresent(), is(false));
+    assertThat(tokens.refreshToken(issued.refreshToken, now).isSuccessful(), is(false));
+  }
+
+  @Test
+  public void refreshedTokenIsSelfContained() {
+    SelfContainedTokens tokens = newTokens(MemoryTokens.newMemoryTokens().build()).build();
+    TokenResponse issued = tokens.issueToken(tokenRequest());
+
+    TokenResponse refreshed = tokens.refreshToken(issued.refreshToken, now.plusSeconds(60));
+
+    assertThat(refreshed.accessToken.value, is(not(equalTo(issued.accessToken.value))));
+    assertThat(tokens.findTokenAvailableAt(refreshed.accessToken.value, now.plusSeconds(60)), is(equalTo(Optional.of(refreshed.accessToken))));
+  }
+
+  @Test
+  public void tokensOfRevokedIdentityAreNotValid() {
+    SelfContainedTokens tokens = newTokens(MemoryTokens.newMemoryTokens().build()).build();
+    TokenResponse issued = tokens.issueToken(tokenRequest());
+
+    assertThat(tokens.revokeAllForIdentity("::identity::", now.plusSeconds(1)), is(1));
+    TokenResponse issuedAfter = tokens.issueToken(tokenRequest(now.plusSeconds(2)));
+    Map<String, BearerToken> found = tokens.findTokensAvailableAt(Arrays.asList(issued.accessToken.value, issuedAfter.accessToken.value), now.plusSeconds(2));
+
+    assertThat(tokens.findTokenAvailableAt(issued.accessToken.value, now.plusSeconds(2)).isPresent(), is(false));
+    assertThat(found.containsKey(issued.accessToken.value), is(false));
+    assertThat(found.containsKey(issuedAfter.accessToken.value), is(true));
+    assertThat(tokens.refreshToken(issued.refreshToken, now.plusSeconds(2)).isSuccessful(), is(false));
+  }
+
+  @Test
+  public void tokensOfRevokedClientAreNotValid() {
+    SelfContainedTokens tokens = newTokens(MemoryTokens.newMemoryTokens().build()).build();
+    TokenResponse issued = tokens.issueToken(tokenRequest());
+
+    assertThat(tokens.revokeAllForClient("::client1::", now.plusSeconds(1)), is(1));
+    TokenResponse issuedAfter = tokens.issueToken(tokenRequest(now.plusSeconds(2)));
+
+    assertThat(tokens.findTokenAvailableAt(issued.accessToken.value, now.plusSeconds(2)).isPresent(), is(false));
+    assertThat(tokens.findTokenAvailableAt(issuedAfter.accessToken.value, now.plusSeconds(2)).isPresent(), is(true));
+  }
+
+  @Test
+  public void grantIsRevokedAfterItsRefreshTokenWasRotated() {
+    SelfContainedTokens tokens = newTokens(MemoryTokens.newMemoryTokens().generatesNewRefreshToken(true).build()).build();
+    TokenResponse issued = tokens.issueToken(tokenRequest());
+    TokenResponse refreshed = tokens.refreshToken(issued.refreshToken, now.plusSeconds(60));
+
+    tokens.revokeToken(issued.accessToken.value, now.plusSeconds(60));
+
+    assertThat(refreshed.refreshToken, is(not(equalTo(issued.refreshToken))));
+    assertThat(tokens.findTokenAvailableAt(refreshed.accessToken.value, now.plusSeconds(60)).isPresent(), is(false));
+    assertThat(tokens.refreshToken(refreshed.refreshToken, now.plusSeconds(60)).isSuccessful(), is(false));
+  }
+
+  @Test
+  public void refreshTokenIsNotValidAsAccessToken() {
+    SelfContainedTokens tokens = newTokens(MemoryTokens.newMemoryTokens().build()).build();
+    TokenResponse issued = tokens.issueToken(tokenRequest());
+
+    assertThat(tokens.findTokenAvailableAt(issued.refreshToken, now).isPresent(), is(false));
+    assertThat(tokens.refreshToken(issued.accessToken.value, now).isSuccessful(), is(false));
+  }
+
+  @Test
+  public void opaqueTokensAreLookedUpInTheStore() {
+    MemoryTokens store = MemoryTokens.newMemoryTokens().build();
+    TokenResponse opaque = store.issueToken(tokenRequest());
+    SelfContainedTokens tokens = newTokens(store).build();
+
+    assertThat(tokens.findTokenAvailableAt(opaque.accessToken.value, now), is(equalTo(Optional.of(opaque.accessToken))));
+
+    tokens.revokeToken(opaque.accessToken.value);
+
+    assertThat(tokens.findTokenAvailableAt(opaque.accessToken.value, now).isPresent(), is(false));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shortKeyIsNotAccepted() {
+    newTokens(MemoryTokens.newMemoryTokens().build()).key(Arrays.copyOf(key, 16)).build();
+  }
+
+  @Test
+  public void revokedGrantsAreKeptUntilTheirTime() {
+    MemoryRevokedTokens revokedTokens = new MemoryRevokedTokens();
+
+    revokedTokens.revoke("::grant::", now.plusSeconds(60));
+
+    assertThat(revokedTokens.isRevoked("::grant::", now.plusSeconds(60)), is(true));
+    assertThat(revokedTokens.isRevoked("::grant::", now.plusSeconds(61)), is(false));
+    assertThat(revokedTokens.isRevoked("::another grant::", now), is(false));
+  }
+
+  @Test
+  public void revokedOwnersAreKeptUntilTheirTime() {
+    MemoryRevokedTokens revokedTokens = new MemoryRevokedTokens();
+
+    revokedTokens.revokeIssuedBefore("::owner::", now, now.plusSeconds(60));
+
+    assertThat(revokedTokens.isIssuedBeforeRevocation("::owner::", now, now.plusSeconds(60)), is(true));
+    assertThat(revokedTokens.isIssuedBeforeRevocation("::owner::", now.plusSeconds(1), now), is(false));
+    assertThat(revokedTokens.isIssuedBeforeRevocation("::owner::", now, now.plusSeconds(61)), is(false));
+    assertThat(revokedTokens.isIssuedBeforeRevocation("::another owner::", now, now), is(false));
+  }
+
+  private SelfContainedTokens.Builder newTokens(Tokens store) {
+    return SelfContainedTokens.newSelfContainedTokens(store).key(key);
+  }
+
+  private TokenRequest tokenRequest() {
+    return tokenRequest(now);
+  }
+
+  private TokenRequest tokenRequest(DateTime when) {
+    return TokenRequest.newTokenRequest()
+            .grantType(GrantType.AUTHORIZATION_CODE)
+            .client(client)
+            .identity(identity)
+            .scopes(ImmutableSet.of("openid", "email"))
+            .params(params)
+            .when(when)
+            .build();
+  }
+}
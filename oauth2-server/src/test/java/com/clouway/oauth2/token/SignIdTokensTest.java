@@ -0,0 +1,201 @@
+package com.clouway.oauth2.token;
+
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.jws.EdDsaJwsSignature;
+import com.clouway.oauth2.jws.RsaJwsSignature;
+import com.clouway.oauth2.keystore.IdentityKeyPair;
+import com.clouway.oauth2.keystore.KeyStore;
+import com.clouway.oauth2.util.PemKeyGenerator;
+import com.google.common.base.Strings;
+import com.google.common.io.BaseEncoding;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class SignIdTokensTest {
+  private static final KeyPair rsaKeyPair = PemKeyGenerator.generatePair();
+
+  private final IdTokenSigner signer = new IdTokenSigner();
+  private final IdentityKeyPair rsaKey = new IdentityKeyPair("::rsa key::", rsaKeyPair.getPrivate(), rsaKeyPair.getPublic());
+
+  @Test
+  public void claimsOfTheIdentityAreSigned() throws Exception {
+    Identity identity = new Identity("123", "John Smith", "John", "Smith", "john@clouway.com", "", Collections.<String, Object>emptyMap());
+
+    String idToken = signer.sign(rsaKey, "::host::", "::client::", identity, 1000L, 4600L);
+
+    JsonObject claims = payloadOf(idToken);
+    assertThat(claims.get("iss").getAsString(), is(equalTo("::host::")));
+    assertThat(claims.get("aud").getAsString(), is(equalTo("::client::")));
+    assertThat(claims.get("sub").getAsString(), is(equalTo("123")));
+    assertThat(claims.get("name").getAsString(), is(equalTo("John Smith")));
+    assertThat(claims.get("email").getAsString(), is(equalTo("john@clouway.com")));
+    assertThat(claims.get("given_name").getAsString(), is(equalTo("John")));
+    assertThat(claims.get("family_name").getAsString(), is(equalTo("Smith")));
+    assertThat(claims.get("iat").getAsLong(), is(1000L));
+    assertThat(claims.get("exp").getAsLong(), is(4600L));
+    assertThat(new RsaJwsSignature(signatureOf(idToken)).verify(signingInputOf(idToken), rsaKeyPair.getPublic()), is(true));
+  }
+
+  @Test
+  public void headerIsHoldingAlgorithmAndCertificateId() throws Exception {
+    String first = signer.sign(rsaKey, "::host::", "::client::", identity(), 1000L, 4600L);
+    String second = signer.sign(rsaKey, "::host::", "::other client::", identity(), 1000L, 4600L);
+
+    JsonObject header = headerOf(first);
+    assertThat(header.get("alg").getAsString(), is(equalTo("RS256")));
+    assertThat(header.get("cid").getAsString(), is(equalTo("::rsa key::")));
+    assertThat(second.substring(0, second.indexOf('.')), is(equalTo(first.substring(0, first.indexOf('.')))));
+  }
+
+  @Test
+  public void tokensAreSignedWithTheAlgorithmOfTheKey() throws Exception {
+    KeyPair keyPair = KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+    IdentityKeyPair edKey = new IdentityKeyPair("::ed key::", keyPair.getPrivate(), keyPair.getPublic());
+
+    String idToken = signer.sign(edKey, "::host::", "::client::", identity(), 1000L, 4600L);
+
+    assertThat(headerOf(idToken).get("alg").getAsString(), is(equalTo("EdDSA")));
+    assertThat(new EdDsaJwsSignature(signatureOf(idToken)).verify(signingInputOf(idToken), keyPair.getPublic()), is(true));
+  }
+
+  @Test
+  public void stringsAreEscaped() throws Exception {
+    String name = "\"Jo\\hn\"\n\t\u0001 \u0418\u0432\u0430\u043d \ud83d\ude00";
+    Identity identity = new Identity("123", name, "", "", "", "", Collections.<String, Object>emptyMap());
+
+    String idToken = signer.sign(rsaKey, "::host::", "::client::", identity, 1000L, 4600L);
+
+    assertThat(payloadOf(idToken).get("name").getAsString(), is(equalTo(name)));
+  }
+
+  @Test
+  public void customClaimsAreSerialized() throws Exception {
+    Map<String, Object> address = new LinkedHashMap<>();
+    address.put("city", "Veliko Tarnovo");
+    address.put("zip", 5000);
+
+    Map<String, Object> customClaims = new LinkedHashMap<>();
+    customClaims.put("address", address);
+    customClaims.put("roles", Arrays.asList("admin", "user"));
+    customClaims.put("groups", new String[]{"a", "b"});
+    customClaims.put("verified", true);
+    customClaims.put("logins", 42L);
+    customClaims.put("rating", 4.5d);
+    customClaims.put("nothing", null);
+
+    String idToken = signer.sign(rsaKey, "::host::", "::client::", identity(customClaims), 1000L, 4600L);
+
+    JsonObject claims = payloadOf(idToken);
+    assertThat(claims.getAsJsonObject("address").get("city").getAsString(), is(equalTo("Veliko Tarnovo")));
+    assertThat(claims.getAsJsonObject("address").get("zip").getAsInt(), is(5000));
+    assertThat(claims.getAsJsonArray("roles").get(1).getAsString(), is(equalTo("user")));
+    assertThat(claims.getAsJsonArray("groups").size(), is(2));
+    assertThat(claims.get("verified").getAsBoolean(), is(true));
+    assertThat(claims.get("logins").getAsLong(), is(42L));
+    assertThat(claims.get("rating").getAsDouble(), is(4.5d));
+    assertThat(claims.has("nothing"), is(false));
+  }
+
+  @Test
+  public void customClaimsAreReplacingStandardOnes() throws Exception {
+    Map<String, Object> customClaims = new LinkedHashMap<>();
+    customClaims.put("email", "other@clouway.com");
+    customClaims.put("exp", 1L);
+
+    String idToken = signer.sign(rsaKey, "::host::", "::client::", identity(customClaims), 1000L, 4600L);
+
+    String payload = payloadAsString(idToken);
+    assertThat(payload.split("\"email\"", -1).length - 1, is(1));
+    assertThat(payloadOf(idToken).get("email").getAsString(), is(equalTo("other@clouway.com")));
+    assertThat(payloadOf(idToken).get("exp").getAsLong(), is(4600L));
+  }
+
+  @Test
+  public void claimsWithoutValueAreOmitted() throws Exception {
+    Identity identity = new Identity("123", null, null, null, null, null, null);
+
+    String idToken = signer.sign(rsaKey, "::host::", "::client::", identity, 1000L, 4600L);
+
+    JsonObject claims = payloadOf(idToken);
+    assertThat(claims.has("name"), is(false));
+    assertThat(claims.has("email"), is(false));
+    assertThat(claims.get("sub").getAsString(), is(equalTo("123")));
+  }
+
+  @Test
+  public void largeTokensAreSigned() throws Exception {
+    String largeValue = Strings.repeat("x", 100000);
+    Map<String, Object> customClaims = new LinkedHashMap<>();
+    customClaims.put("large", largeValue);
+
+    String large = signer.sign(rsaKey, "::host::", "::client::", identity(customClaims), 1000L, 4600L);
+    String small = signer.sign(rsaKey, "::host::", "::client::", identity(), 1000L, 4600L);
+
+    assertThat(payloadOf(large).get("large").getAsString(), is(equalTo(largeValue)));
+    assertThat(payloadOf(small).has("large"), is(false));
+    assertThat(new RsaJwsSignature(signatureOf(large)).verify(signingInputOf(large), rsaKeyPair.getPublic()), is(true));
+  }
+
+  @Test
+  public void expirationIsBasedOnTheTtlInSeconds() throws Exception {
+    SigningIdTokenFactory factory = new SigningIdTokenFactory(new KeyStore() {
+      @Override
+      public List<IdentityKeyPair> getKeys() {
+        return Collections.singletonList(rsaKey);
+      }
+    });
+
+    String idToken = factory.create("::host::", "::client::", identity(), 3600L, new DateTime(1461235348123L)).get();
+
+    JsonObject claims = payloadOf(idToken);
+    assertThat(claims.get("iat").getAsLong(), is(1461235348L));
+    assertThat(claims.get("exp").getAsLong(), is(1461235348L + 3600L));
+  }
+
+  private Identity identity() {
+    return identity(Collections.<String, Object>emptyMap());
+  }
+
+  private Identity identity(Map<String, Object> claims) {
+    return new Identity("123", "", "", "", "", "", claims);
+  }
+
+  private JsonObject headerOf(String idToken) {
+    String header = idToken.substring(0, idToken.indexOf('.'));
+    return new JsonParser().parse(new String(BaseEncoding.base64Url().decode(header), StandardCharsets.UTF_8)).getAsJsonObject();
+  }
+
+  private JsonObject payloadOf(String idToken) {
+    return new JsonParser().parse(payloadAsString(idToken)).getAsJsonObject();
+  }
+
+  private String payloadAsString(String idToken) {
+    String payload = idToken.substring(idToken.indexOf('.') + 1, idToken.lastIndexOf('.'));
+    return new String(BaseEncoding.base64Url().decode(payload), StandardCharsets.UTF_8);
+  }
+
+  private byte[] signingInputOf(String idToken) {
+    return idToken.substring(0, idToken.lastIndexOf('.')).getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private byte[] signatureOf(String idToken) {
+    return BaseEncoding.base64Url().decode(idToken.substring(idToken.lastIndexOf('.') + 1));
+  }
+}
@@ -0,0 +1,220 @@
+package com.clouway.oauth2.token;
+
+import com.clouway.oauth2.util.PemKeyGenerator;
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.jws.EdDsaJwsSignature;
+import com.clouway.oauth2.keystore.IdentityKeyPair;
+import com.clouway.oauth2.keystore.KeyRotation;
+import com.clouway.oauth2.keystore.KeyStore;
+import com.clouway.oauth2.keystore.SigningKeySelector;
+import com.google.common.base.Optional;
+import com.google.common.io.BaseEncoding;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.Jwts;
+import org.jmock.Expectations;
+import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Collections;
+
+import static com.clouway.oauth2.token.IdentityBuilder.aNewIdentity;
+import static com.clouway.oauth2.common.CalendarUtil.newDateTime;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class SigningIdTokenFactoryTest {
+
+  @Rule
+  public JUnitRuleMockery context = new JUnitRuleMockery();
+
+  @Test
+  public void createNewIdToken() throws Exception {
+    final KeyStore keyStore = context.mock(KeyStore.class);
+    final DateTime instant = new DateTime().plusSeconds(60);
+    final KeyPair keyPair = PemKeyGenerator.generatePair();
+
+    context.checking(new Expectations() {{
+      oneOf(keyStore).getKeys();
+      will(returnValue(Collections.singletonList(new IdentityKeyPair("::any key::", keyPair.getPrivate(), keyPair.getPublic()))));
+    }});
+
+    SigningIdTokenFactory factory = new SigningIdTokenFactory(keyStore);
+    Optional<String> possibleIdToken = factory.create(
+            "::any host::", "::any client::",
+            aNewIdentity().withId("123").build(), 10L, instant
+    );
+
+    Jws<Claims> jwt = Jwts.parser().setSigningKey(keyPair.getPublic()).parseClaimsJws(possibleIdToken.get());
+
+    assertThat(jwt.getBody().getAudience(), is(equalTo("::any client::")));
+    assertThat(jwt.getBody().getIssuer(), is(equalTo("::any host::")));
+    assertThat(jwt.getBody().getSubject(), is(equalTo("123")));
+  }
+
+  @Test
+  public void idTokensAreDifferentForEachClient() throws Exception {
+    final KeyStore keyStore = context.mock(KeyStore.class);
+    final DateTime anyInstantTime = newDateTime(2017, 5, 14, 11, 0, 0);
+    final KeyPair firstKeyPair = PemKeyGenerator.generatePair();
+    final KeyPair secondKeyPair = PemKeyGenerator.generatePair();
+
+    context.checking(new Expectations() {{
+      oneOf(keyStore).getKeys();
+      will(returnValue(Collections.singletonList(
+              new IdentityKeyPair("::first key::", firstKeyPair.getPrivate(), firstKeyPair.getPublic()))));
+
+      oneOf(keyStore).getKeys();
+      will(returnValue(Collections.singletonList(
+              new IdentityKeyPair("::second key::", secondKeyPair.getPrivate(), secondKeyPair.getPublic()))));
+    }});
+
+    SigningIdTokenFactory factory = new SigningIdTokenFactory(keyStore);
+
+    Optional<String> firstIdToken = factory.create(
+            "::any host::", "::client 1::",
+            aNewIdentity().withId("123").build(), 10L, anyInstantTime
+    );
+
+    Optional<String> secondIdToken = factory.create(
+            "::any host::", "::client 2::",
+            aNewIdentity().withId("123").build(), 10L, anyInstantTime
+    );
+
+    assertThat(firstIdToken.get(), is(not(equalTo(secondIdToken.get()))));
+  }
+
+  @Test
+  public void idTokensAreSignedWithEllipticCurveKeys() throws Exception {
+    final KeyStore keyStore = context.mock(KeyStore.class);
+    final KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(256);
+    final KeyPair keyPair = generator.generateKeyPair();
+
+    context.checking(new Expectations() {{
+      oneOf(keyStore).getKeys();
+      will(returnValue(Collections.singletonList(new IdentityKeyPair("::ec key::", keyPair.getPrivate(), keyPair.getPublic()))));
+    }});
+
+    SigningIdTokenFactory factory = new SigningIdTokenFactory(keyStore);
+    Optional<String> possibleIdToken = factory.create(
+            "::any host::", "::any client::",
+            aNewIdentity().withId("123").build(), 10L, new DateTime().plusSeconds(60)
+    );
+
+    Jws<Claims> jwt = Jwts.parser().setSigningKey(keyPair.getPublic()).parseClaimsJws(possibleIdToken.get());
+
+    assertThat(jwt.getHeader().getAlgorithm(), is(equalTo("ES256")));
+    assertThat(jwt.getBody().getSubject(), is(equalTo("123")));
+  }
+
+  @Test
+  public void idTokensAreSignedWithEdDsaKeys() throws Exception {
+    final KeyStore keyStore = context.mock(KeyStore.class);
+    final KeyPair keyPair = KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+
+    context.checking(new Expectations() {{
+      oneOf(keyStore).getKeys();
+      will(returnValue(Collections.singletonList(new IdentityKeyPair("::ed key::", keyPair.getPrivate(), keyPair.getPublic()))));
+    }});
+
+    SigningIdTokenFactory factory = new SigningIdTokenFactory(keyStore);
+    Optional<String> possibleIdToken = factory.create(
+            "::any host::", "::any client::",
+            aNewIdentity().withId("123").build(), 10L, new DateTime().plusSeconds(60)
+    );
+
+    String idToken = possibleIdToken.get();
+    int lastDot = idToken.lastIndexOf('.');
+    byte[] content = idToken.substring(0, lastDot).getBytes(StandardCharsets.US_ASCII);
+    byte[] signature = BaseEncoding.base64Url().omitPadding().decode(idToken.substring(lastDot + 1));
+    String header = new String(BaseEncoding.base64Url().omitPadding().decode(idToken.substring(0, idToken.indexOf('.'))), StandardCharsets.UTF_8);
+
+    assertThat(header.contains("\"alg\":\"EdDSA\""), is(true));
+    assertThat(new EdDsaJwsSignature(signature).verify(content, keyPair.getPublic()), is(true));
+  }
+
+  @Test
+  public void idTokensAreSignedWithTheActiveKeyOfTheRotation() throws Exception {
+    final KeyPair firstKeyPair = PemKeyGenerator.generatePair();
+    final KeyPair secondKeyPair = PemKeyGenerator.generatePair();
+    DateTime rotationTime = newDateTime(2017, 5, 14, 11, 0, 0);
+
+    KeyRotation rotation = KeyRotation.newKeyRotation()
+            .key(new IdentityKeyPair("::first key::", firstKeyPair.getPrivate(), firstKeyPair.getPublic()), rotationTime.minusSeconds(3600))
+            .key(new IdentityKeyPair("::second key::", secondKeyPair.getPrivate(), secondKeyPair.getPublic()), rotationTime)
+            .build();
+
+    SigningIdTokenFactory factory = new SigningIdTokenFactory(rotation);
+    String beforeRotation = factory.create("::any host::", "::any client::", aNewIdentity().withId("123").build(), 10L, rotationTime.minusSeconds(1)).get();
+    String afterRotation = factory.create("::any host::", "::any client::", aNewIdentity().withId("123").build(), 10L, rotationTime).get();
+
+    assertThat(headerOf(beforeRotation).contains("\"cid\":\"::first key::\""), is(true));
+    assertThat(headerOf(afterRotation).contains("\"cid\":\"::second key::\""), is(true));
+  }
+
+  @Test
+  public void idTokensAreSignedWithTheKeyOfTheSelector() throws Exception {
+    final KeyPair keyPair = PemKeyGenerator.generatePair();
+
+    SigningIdTokenFactory factory = SigningIdTokenFactory.withSelector(new SigningKeySelector() {
+      @Override
+      public Optional<IdentityKeyPair> signingKey(DateTime instant) {
+        return Optional.of(new IdentityKeyPair("::selected key::", keyPair.getPrivate(), keyPair.getPublic()));
+      }
+    });
+    String idToken = factory.create("::any host::", "::any client::", aNewIdentity().withId("123").build(), 10L, new DateTime()).get();
+
+    assertThat(headerOf(idToken).contains("\"cid\":\"::selected key::\""), is(true));
+  }
+
+  @Test
+  public void idTokensAreExpiringAfterTheTtlInSeconds() throws Exception {
+    final KeyPair keyPair = PemKeyGenerator.generatePair();
+    final DateTime instant = new DateTime(1494759600750L);
+
+    SigningIdTokenFactory factory = SigningIdTokenFactory.withSelector(new SigningKeySelector() {
+      @Override
+      public Optional<IdentityKeyPair> signingKey(DateTime instant) {
+        return Optional.of(new IdentityKeyPair("::any key::", keyPair.getPrivate(), keyPair.getPublic()));
+      }
+    });
+    String idToken = factory.create("::any host::", "::any client::", aNewIdentity().withId("123").build(), 3600L, instant).get();
+
+    assertThat(claimsOf(idToken).contains("\"iat\":1494759600"), is(true));
+    assertThat(claimsOf(idToken).contains("\"exp\":1494763200"), is(true));
+  }
+
+  @Test
+  public void noCertificatesAreAvailableForSigningOfKey() throws Exception {
+    final KeyStore keyStore = context.mock(KeyStore.class);
+
+    context.checking(new Expectations() {{
+      oneOf(keyStore).getKeys();
+      will(returnValue(Collections.emptyList()));
+    }});
+
+    SigningIdTokenFactory factory = new SigningIdTokenFactory(keyStore);
+    Optional<String> possibleIdToken = factory.create("::any host::", "::any client::", aNewIdentity().withId("123").build(), 10L, new DateTime());
+
+    assertThat(possibleIdToken.isPresent(), is(false));
+  }
+
+  private String claimsOf(String idToken) {
+    String claims = idToken.substring(idToken.indexOf('.') + 1, idToken.lastIndexOf('.'));
+    return new String(BaseEncoding.base64Url().omitPadding().decode(claims), StandardCharsets.UTF_8);
+  }
+
+  private String headerOf(String idToken) {
+    return new String(BaseEncoding.base64Url().omitPadding().decode(idToken.substring(0, idToken.indexOf('.'))), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,214 @@
+package com.clouway.oauth2.token;
+
+import com.clouway.oauth2.client.Client;
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.common.Duration;
+import com.clouway.oauth2.storage.MemoryTokens;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+public class SlideTokenExpirationTest {
+
+  private final Client client = new Client("::client1::", "::secret::", "", Collections.<String>emptySet(), false);
+  private final Identity identity = new Identity("::identity::", "::name::", "", "", "::email::", "", Collections.<String, Object>emptyMap());
+  private final DateTime anyInstant = new DateTime(1500000000000L);
+  private final List<SlidingTokens> opened = new ArrayList<SlidingTokens>();
+
+  @After
+  public void closeTokens() {
+    for (SlidingTokens each : opened) {
+      each.close();
+    }
+  }
+
+  @Test
+  public void tokenIsNotExtendedBeforeItsRemainingTimeDropsBelowTheFraction() {
+    CountingTokens store = new CountingTokens();
+    SlidingTokens tokens = open(newTokens(store).renewBelow(0.5));
+    String token = store.issueToken(tokenRequest()).accessToken.value;
+
+    Optional<BearerToken> found = tokens.findTokenAvailableAt(token, anyInstant.plusSeconds(1800));
+
+    assertThat(found.get().expirationTimestamp(), is(anyInstant.plusSeconds(3600).timestamp()));
+    assertThat(tokens.flush(), is(0));
+    assertThat(store.writes, is(0));
+  }
+
+  @Test
+  public void tokenIsExtendedWhenItsRemainingTimeDropsBelowTheFraction() {
+    CountingTokens store = new CountingTokens();
+    SlidingTokens tokens = open(newTokens(store).renewBelow(0.5));
+    String token = store.issueToken(tokenRequest()).accessToken.value;
+
+    Optional<BearerToken> found = tokens.findTokenAvailableAt(token, anyInstant.plusSeconds(1801));
+
+    assertThat(found.get().expirationTimestamp(), is(anyInstant.plusSeconds(1801 + 3600).timestamp()));
+    assertThat(tokens.flush(), is(1));
+    assertThat(store.findTokenAvailableAt(token, anyInstant.plusSeconds(1801 + 3600)).isPresent(), is(true));
+  }
+
+  @Test
+  public void extensionsAreCoalescedUntilFlush() {
+    CountingTokens store = new CountingTokens();
+    SlidingTokens tokens = open(newTokens(store));
+    String first = store.issueToken(tokenRequest()).accessToken.value;
+    String second = store.issueToken(tokenRequest()).accessToken.value;
+
+    for (int i = 0; i < 100; i++) {
+      tokens.findTokenAvailableAt(first, anyInstant.plusSeconds(3000 + i));
+      tokens.findTokenAvailableAt(second, anyInstant.plusSeconds(3000 + i));
+    }
+    tokens.flush();
+
+    assertThat(store.writes, is(1));
+    assertThat(store.written, is(2));
+    assertThat(tokens.stats().lookups, is(200L));
+    assertThat(tokens.stats().extensions, is(2L));
+    assertThat(tokens.stats().writesPerLookup(), is(0.01));
+    // the last extension is written
+    assertThat(store.findTokenAvailableAt(first, anyInstant.plusSeconds(3000 + 3600)).isPresent(), is(true));
+  }
+
+  @Test
+  public void extensionIsWrittenByTheScheduledFlush() throws Exception {
+    CountingTokens store = new CountingTokens();
+    SlidingTokens tokens = open(newTokens(store).flushInterval(10, TimeUnit.MILLISECONDS));
+    String token = store.issueToken(tokenRequest()).accessToken.value;
+
+    tokens.findTokenAvailableAt(token, anyInstant.plusSeconds(3000));
+
+    long deadline = System.currentTimeMillis() + 10000;
+    while (tokens.stats().written == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertThat(tokens.stats().written, is(1L));
+  }
+
+  @Test
+  public void revokedTokenIsNotExtended() {
+    CountingTokens store = new CountingTokens();
+    SlidingTokens tokens = open(newTokens(store));
+    TokenResponse response = store.issueToken(tokenRequest());
+
+    tokens.findTokenAvailableAt(response.accessToken.value, anyInstant.plusSeconds(3000));
+    tokens.revokeToken(response.accessToken.value);
+
+    assertThat(tokens.flush(), is(0));
+  }
+
+  @Test
+  public void extensionsThatAreNotWrittenAreKeptForTheNextFlush() {
+    CountingTokens store = new CountingTokens();
+    SlidingTokens tokens = open(newTokens(store));
+    String token = store.issueToken(tokenRequest()).accessToken.value;
+    tokens.findTokenAvailableAt(token, anyInstant.plusSeconds(3000));
+
+    store.failing = true;
+    assertThat(tokens.flush(), is(0));
+    store.failing = false;
+
+    assertThat(tokens.flush(), is(1));
+    assertThat(store.findTokenAvailableAt(token, anyInstant.plusSeconds(3000 + 3600)).isPresent(), is(true));
+  }
+
+  @Test
+  public void failedFlushIsRetriedAfterBackoff() throws Exception {
+    CountingTokens store = new CountingTokens();
+    SlidingTokens tokens = open(newTokens(store).maxPending(1));
+    String first = store.issueToken(tokenRequest()).accessToken.value;
+    String second = store.issueToken(tokenRequest()).accessToken.value;
+    store.failing = true;
+
+    tokens.findTokenAvailableAt(first, anyInstant.plusSeconds(3000));
+    long deadline = System.currentTimeMillis() + 5000;
+    while (store.failures == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    tokens.findTokenAvailableAt(second, anyInstant.plusSeconds(3000));
+    Thread.sleep(200);
+
+    assertThat(store.failures, is(1));
+    assertThat(tokens.stats().pending, is(2L));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void fractionShouldBeInRange() {
+    newTokens(new CountingTokens()).renewBelow(1.5);
+  }
+
+  private SlidingTokens open(SlidingTokens.Builder builder) {
+    SlidingTokens tokens = builder.build();
+    opened.add(tokens);
+    return tokens;
+  }
+
+  private SlidingTokens.Builder newTokens(Tokens store) {
+    return SlidingTokens.newSlidingTokens(store).timeToLive(Duration.hours(1)).flushInterval(1, TimeUnit.HOURS);
+  }
+
+  private TokenRequest tokenRequest() {
+    return TokenRequest.newTokenRequest()
+            .grantType(GrantType.AUTHORIZATION_CODE)
+            .client(client)
+            .identity(identity)
+            .scopes(ImmutableSet.of("openid"))
+            .when(anyInstant)
+            .build();
+  }
+
+  /**
+   * CountingTokens is counting the writes of extended expirations and is failing them while it's set.
+   */
+  private static class CountingTokens implements Tokens {
+    private final Tokens tokens = MemoryTokens.newMemoryTokens().build();
+    private volatile int writes = 0;
+    private volatile int written = 0;
+    private volatile boolean failing = false;
+    private volatile int failures = 0;
+
+    @Override
+    public Optional<BearerToken> findTokenAvailableAt(String token, DateTime when) {
+      return tokens.findTokenAvailableAt(token, when);
+    }
+
+    @Override
+    public TokenResponse refreshToken(String token, DateTime when) {
+      return tokens.refreshToken(token, when);
+    }
+
+    @Override
+    public TokenResponse issueToken(TokenRequest tokenRequest) {
+      return tokens.issueToken(tokenRequest);
+    }
+
+    @Override
+    public void revokeToken(String token) {
+      tokens.revokeToken(token);
+    }
+
+    @Override
+    public void extendExpirations(Map<String, DateTime> expirations) {
+      if (failing) {
+        failures++;
+        throw new IllegalStateException("::unavailable::");
+      }
+      writes++;
+      written += expirations.size();
+      tokens.extendExpirations(expirations);
+    }
+  }
+}
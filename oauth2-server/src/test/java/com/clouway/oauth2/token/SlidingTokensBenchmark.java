@@ -0,0 +1,203 @@
+package com.clouway.oauth2.token;
+
+import com.clouway.oauth2.client.Client;
+import com.clouway.oauth2.common.DateTime;
+import com.clouway.oauth2.common.Duration;
+import com.clouway.oauth2.storage.MemoryTokens;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the write amplification of sliding expiration for lookups of 10 000 live tokens with 10 seconds of time
+ * to live, which is short enough for the tokens to be extended many times during a run.
+ * <p/>
+ * The writePerLookup store is extending the token on each lookup, as the stores which are removing and adding the
+ * token on each lookup. The sliding store is {@link SlidingTokens}, which is extending tokens in their last half of
+ * time to live and is writing the extensions once per 100 milliseconds. The lookups and the writes are reported as
+ * secondary results of each run, and their ratio is the writes per lookup, e.g. 1.0 for writePerLookup and less than
+ * 0.001 for sliding.
+ * <p/>
+ * Run with: bazel run //oauth2-server/src/test/java/com/clouway/oauth2/token:SlidingTokensBenchmark
+ *
+ * @author Miroslav Genov (miroslav.genov@clouway.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SlidingTokensBenchmark {
+
+  @Param({"writePerLookup", "sliding"})
+  public String expiration;
+
+  private final Client client = new Client("::client1::", "::secret::", "", Collections.<String>emptySet(), false);
+  private final Identity identity = new Identity("::identity::", "::name::", "", "", "::email::", "", Collections.<String, Object>emptyMap());
+
+  private CountingTokens store;
+  private Tokens tokens;
+  private String[] accessTokens;
+
+  @Setup
+  public void setUp() {
+    Duration timeToLive = Duration.seconds(10L);
+    store = new CountingTokens(MemoryTokens.newMemoryTokens().timeToLive(timeToLive).build());
+
+    if ("sliding".equals(expiration)) {
+      tokens = SlidingTokens.newSlidingTokens(store).timeToLive(timeToLive).renewBelow(0.5).flushInterval(100, TimeUnit.MILLISECONDS).build();
+    } else {
+      tokens = new WritePerLookupTokens(store, timeToLive);
+    }
+
+    accessTokens = new String[10000];
+    for (int i = 0; i < accessTokens.length; i++) {
+      accessTokens[i] = store.issueToken(TokenRequest.newTokenRequest()
+              .grantType(GrantType.AUTHORIZATION_CODE)
+              .client(client)
+              .identity(identity)
+              .scopes(ImmutableSet.of("openid"))
+              .when(new DateTime())
+              .build()).accessToken.value;
+    }
+  }
+
+  @Setup(Level.Iteration)
+  public void resetWrites() {
+    store.writes.set(0);
+  }
+
+  @TearDown
+  public void tearDown() {
+    if (tokens instanceof SlidingTokens) {
+      ((SlidingTokens) tokens).close();
+    }
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Optional<BearerToken> lookup(Counters counters) {
+    counters.lookups++;
+    String token = accessTokens[ThreadLocalRandom.current().nextInt(accessTokens.length)];
+    return tokens.findTokenAvailableAt(token, new DateTime());
+  }
+
+  /**
+   * Counters are summed over the threads by JMH. Writes are made by the flusher of the sliding store too, so they are
+   * taken from the store by the first thread that ends the iteration.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Counters {
+    public long lookups;
+    public long writes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      lookups = 0;
+      writes = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void takeWrites(SlidingTokensBenchmark benchmark) {
+      writes = benchmark.store.writes.getAndSet(0);
+    }
+  }
+
+  /**
+   * WritePerLookupTokens is extending the expiration of each token that is looked up.
+   */
+  private static class WritePerLookupTokens implements Tokens {
+    private final Tokens tokens;
+    private final long timeToLiveMillis;
+
+    WritePerLookupTokens(Tokens tokens, Duration timeToLive) {
+      this.tokens = tokens;
+      this.timeToLiveMillis = timeToLive.asMills();
+    }
+
+    @Override
+    public Optional<BearerToken> findTokenAvailableAt(String token, DateTime when) {
+      Optional<BearerToken> possibleToken = tokens.findTokenAvailableAt(token, when);
+      if (possibleToken.isPresent()) {
+        tokens.extendExpirations(ImmutableMap.of(token, new DateTime(when.timestamp() + timeToLiveMillis)));
+      }
+      return possibleToken;
+    }
+
+    @Override
+    public TokenResponse refreshToken(String token, DateTime when) {
+      return tokens.refreshToken(token, when);
+    }
+
+    @Override
+    public TokenResponse issueToken(TokenRequest tokenRequest) {
+      return tokens.issueToken(tokenRequest);
+    }
+
+    @Override
+    public void revokeToken(String token) {
+      tokens.revokeToken(token);
+    }
+  }
+
+  /**
+   * CountingTokens is counting the written tokens of the store.
+   */
+  private static class CountingTokens implements Tokens {
+    private final Tokens tokens;
+    private final AtomicLong writes = new AtomicLong();
+
+    CountingTokens(Tokens tokens) {
+      this.tokens = tokens;
+    }
+
+    @Override
+    public Optional<BearerToken> findTokenAvailableAt(String token, DateTime when) {
+      return tokens.findTokenAvailableAt(token, when);
+    }
+
+    @Override
+    public TokenResponse refreshToken(String token, DateTime when) {
+      return tokens.refreshToken(token, when);
+    }
+
+    @Override
+    public TokenResponse issueToken(TokenRequest tokenRequest) {
+      return tokens.issueToken(tokenRequest);
+    }
+
+    @Override
+    public void revokeToken(String token) {
+      tokens.revokeToken(token);
+    }
+
+    @Override
+    public void extendExpirations(Map<String, DateTime> expirations) {
+      writes.addAndGet(expirations.size());
+      tokens.extendExpirations(expirations);
+    }
+  }
+}
@@ -0,0 +1,18 @@
+load("@rules_java//java:defs.bzl", "java_binary")
+load("//tools/jvm:variables.bzl", "JMH_DEPS")
+
+def jmh_benchmark(name, srcs, deps = [], **kwargs):
+    """Creates runnable JMH benchmark.
+
+    Benchmarks are not executed as part of the test suite. Run them with:
+        bazel run //path/to/package:name -- [JMH options]
+    """
+    java_binary(
+        name = name,
+        srcs = srcs,
+        main_class = "org.openjdk.jmh.Main",
+        plugins = ["//tools/jvm:jmh_annotation_processor"],
+        deps = JMH_DEPS + deps,
+        tags = ["manual", "benchmark"],
+        **kwargs
+    )
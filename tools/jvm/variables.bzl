@@ -8,4 +8,8 @@ TEST_DEPS = [
 
 FSERVE_TEST_DEPS = [
     "@maven//:com_clouway_fserve_testing",
-]
\ No newline at end of file
+]
+
+JMH_DEPS = [
+    "@maven//:org_openjdk_jmh_jmh_core",
+]